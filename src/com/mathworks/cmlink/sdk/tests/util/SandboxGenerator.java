@@ -0,0 +1,377 @@
+// Copyright (c) Microsoft Corporation
+
+package com.mathworks.cmlink.sdk.tests.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.mathworks.cmlink.api.version.r16b.CMAdapter;
+
+/**
+ * Generates large sandboxes for scalability tests and benchmarks, where {@link FileCreation}
+ * only creates single files.
+ * <p>
+ * Files are spread over a tree of directories, a given number per directory, which is
+ * as deep as needed to hold them and at least the configured depth. Some of the files
+ * can be binary blobs the size of typical .slx and .mat files. The generator can then
+ * pend a mix of changes on the files and create conflicts through the adapters of two
+ * sandboxes of the same repository. Content is random but reproducible for a given seed.
+ * <p>
+ * Workspaces which don't detect edits themselves, such as TFS server workspaces, are
+ * given an {@link EditHandler} to pend the edits before the files are changed.
+ */
+public class SandboxGenerator {
+
+    private static final String[] TextExtensions = { ".m", ".txt", ".mdl" };
+    private static final String[] BinaryExtensions = { ".slx", ".mat" };
+    private static final String CheckinComment = "Changes from SandboxGenerator";
+
+    private final Random random;
+    private int fileCount = 1000;
+    private int binaryFileCount = 0;
+    private int binaryFileSize = 256 * 1024;
+    private int filesPerDirectory = 50;
+    private int directoriesPerDirectory = 10;
+    private int minimumDepth = 2;
+    private EditHandler editHandler;
+
+    /**
+     * Initializes a SandboxGenerator instance.
+     * @param seed
+     *     The seed of the random content and choice of changed files.
+     */
+    public SandboxGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sets the total number of files to generate, including binary files. Default: 1000.
+     */
+    public SandboxGenerator setFileCount(int fileCount) {
+        this.fileCount = fileCount;
+        return this;
+    }
+
+    /**
+     * Sets how many of the generated files are binary .slx and .mat files. Default: 0.
+     * @param binaryFileCount
+     *     The number of binary files.
+     * @param binaryFileSize
+     *     The size of each binary file, in bytes.
+     */
+    public SandboxGenerator setBinaryFiles(int binaryFileCount, int binaryFileSize) {
+        this.binaryFileCount = binaryFileCount;
+        this.binaryFileSize = binaryFileSize;
+        return this;
+    }
+
+    /**
+     * Sets the shape of the directory tree.
+     * @param filesPerDirectory
+     *     The number of files in each directory. Default: 50.
+     * @param directoriesPerDirectory
+     *     The number of subdirectories of each directory. Default: 10.
+     * @param minimumDepth
+     *     The minimum depth of the directories holding files. Default: 2.
+     */
+    public SandboxGenerator setDirectoryShape(int filesPerDirectory, int directoriesPerDirectory, int minimumDepth) {
+        this.filesPerDirectory = Math.max(1, filesPerDirectory);
+        this.directoriesPerDirectory = Math.max(2, directoriesPerDirectory);
+        this.minimumDepth = Math.max(0, minimumDepth);
+        return this;
+    }
+
+    /**
+     * Sets the handler called before files under source control are edited, or null if
+     * the workspaces detect edits themselves. Default: null.
+     */
+    public SandboxGenerator setEditHandler(EditHandler editHandler) {
+        this.editHandler = editHandler;
+        return this;
+    }
+
+    /**
+     * Generates the files under a directory.
+     * @param root
+     *     The root of the sandbox. It is created if it doesn't exist.
+     * @return The generated files, in the order they were created.
+     * @throws IOException
+     */
+    public List<File> generateFiles(File root) throws IOException {
+        int directoryCount = (this.fileCount + this.filesPerDirectory - 1) / this.filesPerDirectory;
+        int depth = this.minimumDepth;
+        while (Math.pow(this.directoriesPerDirectory, depth) < directoryCount) {
+            depth++;
+        }
+
+        List<File> files = new ArrayList<File>(this.fileCount);
+        int binaryInterval = this.binaryFileCount > 0 ? Math.max(1, this.fileCount / this.binaryFileCount) : 0;
+        int binaryFilesCreated = 0;
+        for (int i = 0; i < this.fileCount; i++) {
+            File directory = getDirectory(root, i / this.filesPerDirectory, depth);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create directory " + directory);
+            }
+
+            boolean isBinary = binaryInterval > 0 && i % binaryInterval == 0 && binaryFilesCreated < this.binaryFileCount;
+            File file;
+            if (isBinary) {
+                file = new File(directory, "model" + i + BinaryExtensions[binaryFilesCreated % BinaryExtensions.length]);
+                writeBinaryFile(file);
+                binaryFilesCreated++;
+            }
+            else {
+                file = new File(directory, "file" + i + TextExtensions[i % TextExtensions.length]);
+                writeTextFile(file, "Generated file " + i);
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Pends a mix of changes on generated files which are under source control, each
+     * file getting at most one change.
+     * @param adapter
+     *     The adapter of the sandbox holding the files.
+     * @param files
+     *     The files under source control to change.
+     * @param editCount
+     *     The number of files to edit.
+     * @param addCount
+     *     The number of new files to add beside the existing files.
+     * @param deleteCount
+     *     The number of files to delete.
+     * @param renameCount
+     *     The number of files to rename.
+     * @param lockCount
+     *     The number of files to lock.
+     * @return The changed files.
+     * @throws IOException
+     * @throws ConfigurationManagementException
+     */
+    public PendingChanges pendChanges(CMAdapter adapter, List<File> files, int editCount, int addCount,
+        int deleteCount, int renameCount, int lockCount) throws IOException, ConfigurationManagementException {
+
+        List<File> remaining = new ArrayList<File>(files);
+        Collections.shuffle(remaining, this.random);
+        PendingChanges changes = new PendingChanges();
+
+        changes.edited.addAll(take(remaining, editCount));
+        beforeEdit(changes.edited);
+        for (File file : changes.edited) {
+            writeTextFile(file, "Edited " + this.random.nextLong());
+        }
+
+        for (File file : take(remaining, addCount)) {
+            File newFile = new File(file.getParentFile(), "added" + changes.added.size() + TextExtensions[0]);
+            writeTextFile(newFile, "Added file " + changes.added.size());
+            changes.added.add(newFile);
+        }
+        if (!changes.added.isEmpty()) {
+            adapter.add(changes.added);
+        }
+
+        changes.deleted.addAll(take(remaining, deleteCount));
+        if (!changes.deleted.isEmpty()) {
+            adapter.remove(changes.deleted);
+        }
+
+        for (File file : take(remaining, renameCount)) {
+            File newLocation = new File(file.getParentFile(), "renamed-" + file.getName());
+            adapter.moveFile(file, newLocation);
+            changes.renamed.put(file, newLocation);
+        }
+
+        changes.locked.addAll(take(remaining, lockCount));
+        if (!changes.locked.isEmpty()) {
+            adapter.checkout(changes.locked);
+        }
+
+        return changes;
+    }
+
+    /**
+     * Creates conflicts in a second sandbox of the same repository. The files are
+     * edited in both sandboxes, the edits in the first sandbox are checked in, and the
+     * second sandbox is updated, leaving its copies of the files conflicted.
+     * @param adapter
+     *     The adapter of the sandbox whose edits are checked in.
+     * @param sandbox
+     *     The root of that sandbox.
+     * @param conflictedAdapter
+     *     The adapter of the sandbox to leave with conflicts.
+     * @param conflictedSandbox
+     *     The root of that sandbox, which must be up to date.
+     * @param files
+     *     The files under source control in the first sandbox.
+     * @param conflictCount
+     *     The number of files to conflict.
+     * @return The conflicted files in the second sandbox.
+     * @throws IOException
+     * @throws ConfigurationManagementException
+     */
+    public List<File> createConflicts(CMAdapter adapter, File sandbox, CMAdapter conflictedAdapter,
+        File conflictedSandbox, List<File> files, int conflictCount)
+        throws IOException, ConfigurationManagementException {
+
+        List<File> remaining = new ArrayList<File>(files);
+        Collections.shuffle(remaining, this.random);
+        List<File> changed = take(remaining, conflictCount);
+        List<File> conflicted = new ArrayList<File>(changed.size());
+        for (File file : changed) {
+            conflicted.add(FileCreation.changeRoot(file, sandbox, conflictedSandbox));
+        }
+
+        beforeEdit(changed);
+        beforeEdit(conflicted);
+        for (int i = 0; i < changed.size(); i++) {
+            writeTextFile(changed.get(i), "Checked in " + this.random.nextLong());
+            writeTextFile(conflicted.get(i), "Edited locally " + this.random.nextLong());
+        }
+        adapter.checkin(changed, CheckinComment);
+
+        try {
+            conflictedAdapter.update(conflictedSandbox);
+        }
+        catch (ConfigurationManagementException exception) {
+            // In the case of a conflict an exception may or may not be thrown.
+        }
+        return conflicted;
+    }
+
+    // Let the edit handler pend edits of files in one sandbox, if there is a handler.
+    private void beforeEdit(List<File> files) throws ConfigurationManagementException {
+        if (this.editHandler != null && !files.isEmpty()) {
+            this.editHandler.beforeEdit(files);
+        }
+    }
+
+    // Gets the directory holding a file, from the index of the directory in the tree.
+    private File getDirectory(File root, int directoryIndex, int depth) {
+        File directory = root;
+        int divisor = 1;
+        for (int level = 1; level < depth; level++) {
+            divisor *= this.directoriesPerDirectory;
+        }
+        for (int level = 0; level < depth; level++) {
+            directory = new File(directory, "dir" + (directoryIndex / divisor) % this.directoriesPerDirectory);
+            divisor = Math.max(1, divisor / this.directoriesPerDirectory);
+        }
+        return directory;
+    }
+
+    // Remove and return up to count files from the end of a list.
+    private static List<File> take(List<File> files, int count) {
+        int start = Math.max(0, files.size() - count);
+        List<File> taken = new ArrayList<File>(files.subList(start, files.size()));
+        files.subList(start, files.size()).clear();
+        return taken;
+    }
+
+    // Write a small text file, replacing any existing content.
+    private static void writeTextFile(File file, String content) throws IOException {
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write(content + "\n");
+        }
+    }
+
+    // Write a file of random bytes.
+    private void writeBinaryFile(File file) throws IOException {
+        byte[] buffer = new byte[Math.min(this.binaryFileSize, 64 * 1024)];
+        try (OutputStream stream = new FileOutputStream(file)) {
+            int remaining = this.binaryFileSize;
+            while (remaining > 0) {
+                this.random.nextBytes(buffer);
+                int length = Math.min(remaining, buffer.length);
+                stream.write(buffer, 0, length);
+                remaining -= length;
+            }
+        }
+    }
+
+    /**
+     * Pends edits of files before the generator changes their content.
+     */
+    public interface EditHandler {
+
+        /**
+         * Called before the content of files under source control is changed.
+         * @param files
+         *     The files about to be edited, all in the same sandbox.
+         * @throws ConfigurationManagementException
+         */
+        void beforeEdit(List<File> files) throws ConfigurationManagementException;
+    }
+
+    /**
+     * The files changed by {@link SandboxGenerator#pendChanges}.
+     */
+    public static class PendingChanges {
+
+        private final List<File> edited = new ArrayList<File>();
+        private final List<File> added = new ArrayList<File>();
+        private final List<File> deleted = new ArrayList<File>();
+        private final Map<File, File> renamed = new LinkedHashMap<File, File>();
+        private final List<File> locked = new ArrayList<File>();
+
+        /**
+         * Gets the edited files.
+         */
+        public List<File> getEdited() {
+            return Collections.unmodifiableList(this.edited);
+        }
+
+        /**
+         * Gets the added files.
+         */
+        public List<File> getAdded() {
+            return Collections.unmodifiableList(this.added);
+        }
+
+        /**
+         * Gets the deleted files.
+         */
+        public List<File> getDeleted() {
+            return Collections.unmodifiableList(this.deleted);
+        }
+
+        /**
+         * Gets the renamed files, mapped to their new locations.
+         */
+        public Map<File, File> getRenamed() {
+            return Collections.unmodifiableMap(this.renamed);
+        }
+
+        /**
+         * Gets the locked files.
+         */
+        public List<File> getLocked() {
+            return Collections.unmodifiableList(this.locked);
+        }
+
+        /**
+         * Gets every file which now has a pending change, at its current location.
+         */
+        public Collection<File> getChangedFiles() {
+            List<File> changed = new ArrayList<File>();
+            changed.addAll(this.edited);
+            changed.addAll(this.added);
+            changed.addAll(this.deleted);
+            changed.addAll(this.renamed.values());
+            changed.addAll(this.locked);
+            return changed;
+        }
+    }
+}
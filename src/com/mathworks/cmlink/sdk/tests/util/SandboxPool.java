@@ -0,0 +1,296 @@
+// Copyright (c) Microsoft Corporation
+
+package com.mathworks.cmlink.sdk.tests.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mathworks.cmlink.sdk.tests.CMTestEnvironment;
+import com.mathworks.toolbox.shared.computils.file.FileDeleter;
+import com.microsoft.tfs.core.clients.versioncontrol.GetOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.DeletedState;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ExtendedItem;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetRequest;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.ItemSpec;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.LatestVersionSpec;
+import com.microsoft.tfs.mathworksintegration.cmlink.Utilities;
+
+/**
+ * Keeps sandboxes ready for {@link SourceControlSetupRule}, so tests don't wait for a
+ * TFS Workspace to be created and its files downloaded.
+ * <p>
+ * Sandboxes are created in the background, several at once, and are kept for each
+ * repository path. When a test is over its sandboxes are returned to the pool and
+ * reused by later tests rather than deleted. Each sandbox is reset before it is
+ * reused, by undoing its pending changes, getting the latest files and deleting files
+ * which aren't under source control. Call
+ * {@link #deleteAll} before the TFS connection is closed to delete the pooled
+ * Workspaces.
+ */
+public class SandboxPool {
+
+    /** The number of sandboxes the pool creates at once. */
+    public static final int ProvisioningThreadCount = 4;
+
+    private static final int ReadySandboxCount = 2;
+
+    private static final SandboxPool Instance = new SandboxPool();
+
+    private final Map<String, Deque<Future<File>>> readySandboxes;
+    private final List<File> allSandboxes;
+    private final AtomicInteger sandboxCount;
+    private ExecutorService executor;
+    private File root;
+
+    private SandboxPool() {
+        this.readySandboxes = new HashMap<String, Deque<Future<File>>>();
+        this.allSandboxes = new ArrayList<File>();
+        this.sandboxCount = new AtomicInteger();
+    }
+
+    /**
+     * Gets the pool shared by all tests in this JVM.
+     */
+    public static SandboxPool getInstance() {
+        return Instance;
+    }
+
+    /**
+     * Takes a sandbox of a repository from the pool, creating one if none is ready,
+     * and starts creating sandboxes to replace it. The sandbox is reset before it is
+     * returned, as other tests may have changed the repository since it was created.
+     * @param environment
+     *     The test environment which creates sandboxes.
+     * @param repositoryPath
+     *     The repository path the sandbox maps.
+     * @throws Exception
+     */
+    public File take(CMTestEnvironment environment, String repositoryPath) throws Exception {
+        Future<File> sandbox;
+        synchronized (this) {
+            Deque<Future<File>> ready = getReadySandboxes(repositoryPath);
+            sandbox = ready.poll();
+            if (sandbox == null) {
+                sandbox = provision(environment, repositoryPath);
+            }
+            while (ready.size() < ReadySandboxCount) {
+                ready.add(provision(environment, repositoryPath));
+            }
+        }
+
+        File sandboxRoot = getSandbox(sandbox);
+        try {
+            reset(sandboxRoot);
+            return sandboxRoot;
+        }
+        catch (Exception ex) {
+            // The sandbox is unusable, so replace it with a new one.
+            discard(sandboxRoot);
+            return getSandbox(provision(environment, repositoryPath));
+        }
+    }
+
+    /**
+     * Takes several sandboxes of a repository from the pool, creating those which
+     * aren't ready at the same time.
+     * @param environment
+     *     The test environment which creates sandboxes.
+     * @param repositoryPath
+     *     The repository path the sandboxes map.
+     * @param count
+     *     The number of sandboxes.
+     * @throws Exception
+     */
+    public List<File> take(CMTestEnvironment environment, String repositoryPath, int count) throws Exception {
+        synchronized (this) {
+            Deque<Future<File>> ready = getReadySandboxes(repositoryPath);
+            while (ready.size() < count) {
+                ready.add(provision(environment, repositoryPath));
+            }
+        }
+
+        List<File> sandboxes = new ArrayList<File>(count);
+        for (int i = 0; i < count; i++) {
+            sandboxes.add(take(environment, repositoryPath));
+        }
+        return sandboxes;
+    }
+
+    /**
+     * Returns a sandbox to the pool once a test is over, to be reset and reused by a
+     * later test rather than deleted.
+     * @param sandbox
+     *     The root of the sandbox, taken from this pool.
+     * @param repositoryPath
+     *     The repository path the sandbox maps.
+     */
+    public synchronized void release(File sandbox, String repositoryPath) {
+        getReadySandboxes(repositoryPath).addFirst(Futures.immediateFuture(sandbox));
+    }
+
+    /**
+     * Deletes the Workspaces and files of all sandboxes created by the pool.
+     * @throws Exception
+     */
+    public void deleteAll() throws Exception {
+        List<File> sandboxes;
+        synchronized (this) {
+            if (this.executor != null) {
+                this.executor.shutdown();
+                this.executor = null;
+            }
+            for (Deque<Future<File>> ready : this.readySandboxes.values()) {
+                for (Future<File> sandbox : ready) {
+                    try {
+                        sandbox.get();
+                    }
+                    catch (ExecutionException ex) {
+                        // The sandbox was never created, so there is nothing to delete.
+                    }
+                }
+            }
+            this.readySandboxes.clear();
+            sandboxes = new ArrayList<File>(this.allSandboxes);
+            this.allSandboxes.clear();
+        }
+
+        for (File sandbox : sandboxes) {
+            delete(sandbox);
+        }
+        if (this.root != null) {
+            FileDeleter.deleteDirectoryIfItExists(this.root);
+        }
+    }
+
+    // Wait for a sandbox to be created.
+    private static File getSandbox(Future<File> sandbox) throws Exception {
+        try {
+            return sandbox.get();
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof Exception ? (Exception)cause : ex;
+        }
+    }
+
+    // Delete a sandbox which can't be reused.
+    private void discard(File sandbox) throws Exception {
+        synchronized (this) {
+            this.allSandboxes.remove(sandbox);
+        }
+        delete(sandbox);
+    }
+
+    // Gets the queue of ready sandboxes for a repository path.
+    private Deque<Future<File>> getReadySandboxes(String repositoryPath) {
+        Deque<Future<File>> ready = this.readySandboxes.get(repositoryPath);
+        if (ready == null) {
+            ready = new ArrayDeque<Future<File>>();
+            this.readySandboxes.put(repositoryPath, ready);
+        }
+        return ready;
+    }
+
+    // Start creating a new sandbox in the background.
+    private synchronized Future<File> provision(final CMTestEnvironment environment, final String repositoryPath)
+        throws IOException {
+
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(ProvisioningThreadCount,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Sandbox provisioning %d").build());
+        }
+        if (this.root == null) {
+            this.root = File.createTempFile("SandboxPool", "");
+            if (!this.root.delete() || !this.root.mkdirs()) {
+                throw new IOException("Could not create directory " + this.root);
+            }
+        }
+
+        final File sandbox = new File(this.root, "Sandbox " + this.sandboxCount.incrementAndGet());
+        this.allSandboxes.add(sandbox);
+        return this.executor.submit(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                FileCreation.createDirectory(sandbox);
+                environment.createSandbox(repositoryPath, sandbox);
+                return sandbox;
+            }
+        });
+    }
+
+    // Undo all pending changes, get the latest files and delete files which aren't under source control.
+    private static void reset(File sandbox) throws Exception {
+        String sandboxPath = sandbox.getAbsolutePath();
+        Workspace workspace = Utilities.getWorkspaceForLocalPath(sandboxPath);
+        if (workspace == null) {
+            throw new IOException("No Workspace was found for " + sandbox);
+        }
+
+        ItemSpec[] itemSpecs = new ItemSpec[] { new ItemSpec(sandboxPath, RecursionType.FULL) };
+        workspace.undo(itemSpecs);
+        workspace.get(new GetRequest(itemSpecs[0], LatestVersionSpec.INSTANCE), GetOptions.NONE);
+
+        Set<String> trackedPaths = new HashSet<String>();
+        for (ExtendedItem[] items : workspace.getExtendedItems(itemSpecs, DeletedState.NON_DELETED, ItemType.ANY)) {
+            for (ExtendedItem item : items) {
+                if (item.getLocalItem() != null) {
+                    trackedPaths.add(new File(item.getLocalItem()).getAbsolutePath());
+                }
+            }
+        }
+        deleteUntrackedFiles(sandbox, trackedPaths);
+    }
+
+    // Delete the files and directories under a directory which aren't in the set of tracked paths.
+    private static void deleteUntrackedFiles(File directory, Set<String> trackedPaths) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        for (File child : children) {
+            if (Utilities.TfsLocalWorkspaceFolder.equals(child.getName())) {
+                continue;
+            }
+            if (!trackedPaths.contains(child.getAbsolutePath())) {
+                if (child.isDirectory()) {
+                    FileDeleter.deleteDirectoryIfItExists(child);
+                }
+                if (child.exists() && !child.delete()) {
+                    throw new IOException("Could not delete " + child);
+                }
+            }
+            else if (child.isDirectory()) {
+                deleteUntrackedFiles(child, trackedPaths);
+            }
+        }
+    }
+
+    // Delete a sandbox's Workspace and files.
+    private static void delete(File sandbox) throws Exception {
+        Workspace workspace = Utilities.getWorkspaceForLocalPath(sandbox.getAbsolutePath());
+        if (workspace != null) {
+            workspace.getClient().deleteWorkspace(workspace);
+        }
+        FileDeleter.deleteDirectoryIfItExists(sandbox);
+    }
+}
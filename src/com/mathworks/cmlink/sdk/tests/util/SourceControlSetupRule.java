@@ -9,8 +9,6 @@ import com.mathworks.cmlink.api.version.r16b.CMAdapterFactory;
 import com.mathworks.cmlink.sdk.tests.CMTestEnvironment;
 import com.mathworks.cmlink.util.interactor.NullApplicationInteractor;
 import com.mathworks.toolbox.shared.computils.file.FileDeleter;
-import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
-import com.microsoft.tfs.mathworksintegration.cmlink.Utilities;
 
 import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestRule;
@@ -21,18 +19,30 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 public class SourceControlSetupRule implements TestRule {
 
     private final TemporaryFolder fRootFolder = new TemporaryFolder();
     private final CMTestEnvironment fCMTestEnvironment;
     private final ArrayList<Closeable> fClosables;
-    private int fSandboxCount = 0;
+    private final ArrayList<File> fSandboxes;
+    private final ArrayList<CMAdapter> fAdapters;
     private String fRepositoryPath;
 
     public SourceControlSetupRule(CMTestEnvironment testEnvironment) {
         fCMTestEnvironment = testEnvironment;
         fClosables = new ArrayList<>();
+        fSandboxes = new ArrayList<>();
+        fAdapters = new ArrayList<>();
+    }
+
+    /**
+     * Deletes the TFS Workspaces of the sandboxes pooled for reuse between tests.
+     * Call this once all tests are complete, before the TFS connection is closed.
+     */
+    public static void deletePooledSandboxes() throws Exception {
+        SandboxPool.getInstance().deleteAll();
     }
 
     @Override
@@ -46,9 +56,7 @@ public class SourceControlSetupRule implements TestRule {
                 try {
                     statement.evaluate();
                 } finally {
-                    for (Closeable closeable : fClosables) {
-                        closeable.close();
-                    }
+                    cleanUp();
                 }
             }
 
@@ -61,49 +69,74 @@ public class SourceControlSetupRule implements TestRule {
 
     public File newSandbox() throws Exception {
 
-        File sandboxDir = fRootFolder.newFolder("Sandbox " + ++fSandboxCount);
-        fCMTestEnvironment.createSandbox(fRepositoryPath, sandboxDir);
+        File sandboxDir = SandboxPool.getInstance().take(fCMTestEnvironment, fRepositoryPath);
+        fSandboxes.add(sandboxDir);
         return sandboxDir;
     }
 
+    /**
+     * Creates several sandboxes at once, which is faster than calling newSandbox for each.
+     */
+    public List<File> newSandboxes(int count) throws Exception {
+
+        List<File> sandboxDirs = SandboxPool.getInstance().take(fCMTestEnvironment, fRepositoryPath, count);
+        fSandboxes.addAll(sandboxDirs);
+        return sandboxDirs;
+    }
+
     public CMAdapter getCMAdapterFor(File file) throws Exception {
         CMAdapterFactory adapterFactory = fCMTestEnvironment.getAdapterFactory();
         final CMAdapter cmAdapter = adapterFactory.getAdapterForThisSandboxDir(file, new NullApplicationInteractor());
         cmAdapter.connect();
         
         final File f = new File(file.getAbsolutePath());
-        fClosables.add(new Closeable() {
-            @Override
-            public void close() throws Exception {
-                // Delete the test files on the TFS server
-                cmAdapter.update(f);
-                try {
-                    cmAdapter.remove(Collections.singleton(f));
-                    cmAdapter.checkin(f, "test cleanup");
-                }
-                catch (ConfigurationManagementException ex) {
-                    // If the test didn't check anything in, then there won't be anything to remove
-                    // from the server, so just continue.
-                    if (!ex.getMessage().startsWith("ItemNotFoundException")) {
-                        throw ex;
+        if (fAdapters.isEmpty()) {
+            // All sandboxes map the same repository path, so its test files only need to be
+            // deleted on the TFS server once, through the first adapter.
+            fClosables.add(new Closeable() {
+                @Override
+                public void close() throws Exception {
+                    cmAdapter.update(f);
+                    try {
+                        cmAdapter.remove(Collections.singleton(f));
+                        cmAdapter.checkin(f, "test cleanup");
+                    }
+                    catch (ConfigurationManagementException ex) {
+                        // If the test didn't check anything in, then there won't be anything to remove
+                        // from the server, so just continue.
+                        if (!ex.getMessage().startsWith("ItemNotFoundException")) {
+                            throw ex;
+                        }
                     }
                 }
+            });
+        }
+        fAdapters.add(cmAdapter);
+        return cmAdapter;
+    }
 
-                // Delete the TFS Workspace
-                Workspace workspace = Utilities.getWorkspaceForLocalPath(f.getAbsolutePath());
-                workspace.getClient().deleteWorkspace(workspace);
-
+    // Delete the test files on the TFS server, then return the sandboxes to the pool to be
+    // reset and reused rather than deleting their TFS Workspaces.
+    private void cleanUp() throws Exception {
+        try {
+            for (Closeable closeable : fClosables) {
+                closeable.close();
+            }
+        } finally {
+            for (CMAdapter cmAdapter : fAdapters) {
                 cmAdapter.disconnect();
-
-                // Delete all remaining test files on the local machine
-                File repo = new File(fRepositoryPath);
-                FileDeleter.deleteDirectoryIfItExists(repo);
-                if (repo.exists()) {
-                    throw new IOException("Could not delete root directory:\n\t" + repo);
-                }
             }
-        });
-        return cmAdapter;
+            for (File sandboxDir : fSandboxes) {
+                SandboxPool.getInstance().release(sandboxDir, fRepositoryPath);
+            }
+        }
+
+        // Delete all remaining test files on the local machine
+        File repo = new File(fRepositoryPath);
+        FileDeleter.deleteDirectoryIfItExists(repo);
+        if (repo.exists()) {
+            throw new IOException("Could not delete root directory:\n\t" + repo);
+        }
     }
 
     private interface Closeable {
@@ -0,0 +1,76 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.benchmarks;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mathworks.cmlink.api.FileProperty;
+import com.mathworks.cmlink.api.LocalStatus;
+import com.mathworks.cmlink.api.Revision;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsFileState;
+
+/**
+ * Benchmarks the TfsFileState lookups MATLAB makes for every visible file on every
+ * repaint. Run with the gc profiler ("ant runBenchmarks") and compare gc.alloc.rate.norm,
+ * the bytes allocated per lookup, against earlier builds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileStateBenchmark {
+
+    private static final String ServerItem = "$/Test/CmlinkBenchmarks/model.slx";
+
+    @Param({ "unmodified", "renamedNotLatest" })
+    public String state;
+
+    private TfsFileState fileState;
+
+    @Setup
+    public void createFileState() {
+        if ("unmodified".equals(this.state)) {
+            this.fileState = new TfsFileState(true, ServerItem, null, 12, 12, false, null);
+        }
+        else {
+            this.fileState = new TfsFileState(true, ServerItem, ChangeType.RENAME.combine(ChangeType.EDIT), 12, 15,
+                false, null);
+        }
+    }
+
+    @Benchmark
+    public LocalStatus getLocalStatus() {
+        return this.fileState.getLocalStatus();
+    }
+
+    @Benchmark
+    public Collection<FileProperty> getProperties() {
+        return this.fileState.getProperties();
+    }
+
+    @Benchmark
+    public Revision getRevision() {
+        return this.fileState.getRevision();
+    }
+
+    @Benchmark
+    public Revision getLatestRevision() {
+        return this.fileState.getLatestRevision();
+    }
+}
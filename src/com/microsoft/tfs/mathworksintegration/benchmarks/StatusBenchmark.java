@@ -0,0 +1,90 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.benchmarks;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mathworks.cmlink.api.version.r16b.FileState;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsAdapter;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeSandbox;
+
+/**
+ * Benchmarks the adapter's status queries, which MATLAB makes whenever it shows a
+ * folder or project, at several sandbox sizes. Each operation asks for every file in
+ * the sandbox, as the MATLAB project view does.
+ * <p>
+ * The sandbox is a {@link FakeSandbox} served by a fake TFS server, so the results
+ * measure the adapter and the TFS SDK rather than the network. Run with
+ * "ant runBenchmarks", which adds the gc profiler to report the allocation rate of each
+ * operation.
+ * <p>
+ * The fake server only supports server workspaces, so every status here comes from
+ * the server's extended item query. Sandboxes created in MATLAB are local workspaces,
+ * whose status is read from their own metadata instead, with the scan skipped when
+ * nothing changed. These numbers are therefore no baseline for that path, and changes
+ * to it must be measured against a live server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class StatusBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int fileCount;
+
+    private FakeSandbox sandbox;
+    private TfsAdapter adapter;
+    private File sandboxRoot;
+
+    @Setup(Level.Trial)
+    public void openSandbox() throws Exception {
+        this.sandbox = new FakeSandbox("status", this.fileCount);
+        this.sandbox.open();
+        this.adapter = this.sandbox.getAdapter();
+        this.sandboxRoot = this.sandbox.getSandboxRoot();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeSandbox() throws Exception {
+        this.sandbox.close();
+    }
+
+    @Benchmark
+    public Map<File, FileState> getFileState() throws Exception {
+        return this.adapter.getFileState(this.sandbox.getFiles());
+    }
+
+    @Benchmark
+    public Map<File, FileState> getStateForAllKnownFilesRecursively() throws Exception {
+        return this.adapter.getStateForAllKnownFilesRecursively(this.sandboxRoot);
+    }
+
+    @Benchmark
+    public Map<File, Boolean> isLatest() throws Exception {
+        return this.adapter.isLatest(this.sandbox.getFiles());
+    }
+
+    @Benchmark
+    public Map<File, Boolean> isStored() throws Exception {
+        return this.adapter.isStored(this.sandbox.getFiles());
+    }
+}
@@ -0,0 +1,23 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.io.File;
+import java.util.Map;
+
+import com.mathworks.cmlink.api.version.r16b.FileState;
+
+/**
+ * Receives the state of files as a paged status query finds them.
+ */
+public interface IFileStateListener {
+
+    /**
+     * Called with each page of file states, on the thread running the query. The states
+     * have already been published to the query's result map.
+     * @param fileStates
+     *   The state of the files in the page, such as the files under a batch of
+     *   subfolders.
+     */
+    public void fileStatesReceived(Map<File, FileState> fileStates);
+}
@@ -2,17 +2,29 @@
 
 package com.microsoft.tfs.mathworksintegration.cmlink;
 
+import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
@@ -21,6 +33,8 @@ import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
 
 import com.mathworks.cmlink.api.AdapterSupportedFeature;
@@ -37,11 +51,15 @@ import com.mathworks.cmlink.api.version.r16b.CMAdapter;
 import com.mathworks.cmlink.api.version.r16b.FileState;
 import com.microsoft.tfs.core.clients.versioncontrol.GetItemsOptions;
 import com.microsoft.tfs.core.clients.versioncontrol.GetOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.GetStatus;
 import com.microsoft.tfs.core.clients.versioncontrol.MergeFlags;
 import com.microsoft.tfs.core.clients.versioncontrol.PendChangesOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
 import com.microsoft.tfs.core.clients.versioncontrol.exceptions.CheckinException;
 import com.microsoft.tfs.core.clients.versioncontrol.exceptions.ServerPathFormatException;
+import com.microsoft.tfs.core.clients.versioncontrol.path.ServerPath;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Change;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Conflict;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ConflictType;
@@ -49,8 +67,10 @@ import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.DeletedState
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ExtendedItem;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetRequest;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemSet;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.LockLevel;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.MergeCandidate;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.PendingChange;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.PendingSet;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
@@ -58,13 +78,23 @@ import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Resolution;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.WorkItemCheckinInfo;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.ItemSpec;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.LatestVersionSpec;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.VersionSpec;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.VersionSpecParseException;
 import com.microsoft.tfs.core.clients.workitem.WorkItem;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsSettings.StatusMode;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsMetrics;
 import com.microsoft.tfs.mathworksintegration.cmlink.errorlisteners.TfsErrorListener;
 import com.microsoft.tfs.mathworksintegration.cmlink.errorlisteners.TfsPendDeleteErrorListener;
 import com.microsoft.tfs.mathworksintegration.cmlink.errorlisteners.TfsPendUndoErrorListener;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.OperationPriority;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsCancellationMonitor;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperation;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationContext;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationScheduler;
+import com.microsoft.tfs.util.tasks.NullTaskMonitor;
+import com.microsoft.tfs.util.tasks.TaskMonitorService;
 
 /**
  * Implementation of the {@link CMAdapter} interface which performs
@@ -74,11 +104,24 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
 
     private static final int MaxHistoryCount = Integer.MAX_VALUE;
     private static final char ChangesetRangeDelimiter = '-';
+    private static final String MergeChangesetLabel = String.format(
+        "Changeset (For a range, use the format C1%cC2. Leave blank for all changes.)", ChangesetRangeDelimiter);
+    private static final int MergePreviewWidth = 720;
+    private static final int MergePreviewHeight = 240;
+    // Number of conflicts resolved between checks for cancellation.
+    private static final int ConflictBatchSize = 100;
+    // Number of subfolders queried together for each page of a paged recursive status query.
+    private static final int SubfoldersPerPage = 20;
+    // Number of changesets queried in each page of a merge preview's download size estimate.
+    private static final int MergeHistoryPageSize = 100;
 
-    private Workspace workspace;
     private final Collection<AdapterSupportedFeature> supportedFeatures;
     private final File sandboxRoot;
     private final ICheckinDataProvider checkinDataProvider;
+    private final TfsOperationScheduler scheduler;
+    // The state shared with the other adapters of the Workspace, taken when the adapter connects.
+    private volatile TfsWorkspaceContext context;
+    private boolean isConnected;
 
     /**
      * Initializes a TfsAdapter instance.
@@ -95,6 +138,7 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
 
         this.sandboxRoot = rootDirectory;
         this.checkinDataProvider = checkinDataProvider;
+        this.scheduler = TfsOperationScheduler.getDefault();
 
         this.supportedFeatures = EnumSet.of(
             AdapterSupportedFeature.CUSTOM_COMMIT_COMMENT_DIALOG,
@@ -153,6 +197,24 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
                 return true;
             }
         });
+
+        widgetFactory.createActionWidget("Resolve Conflicts", null,
+            new CoreAction() {
+            @Override
+            public void execute() throws ConfigurationManagementException {
+                resolveAllConflictsWithPrompt();
+            }
+
+            @Override
+            public String getDescription() {
+                return "Resolve all conflicts in the sandbox the same way.";
+            }
+
+            @Override
+            public boolean canCancel() {
+                return true;
+            }
+        });
     }
 
     // These are public to enable testing.
@@ -162,7 +224,18 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      *     Contains the information needed to perform the branch operation.
      * @throws ConfigurationManagementException
      */
-    public void branch(BranchMergeInformation branchInfo) throws ConfigurationManagementException {
+    public void branch(final BranchMergeInformation branchInfo) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("branch", OperationPriority.BULK) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                pendBranch(branchInfo);
+                return null;
+            }
+        });
+    }
+
+    // Pend a branch of the source path to the target path.
+    private void pendBranch(BranchMergeInformation branchInfo) throws ConfigurationManagementException {
         String changesetSpecifier = branchInfo.getChangesetSpecifier();
         VersionSpec versionSpec = null;
         if (changesetSpecifier == null || changesetSpecifier.isEmpty()) {
@@ -178,6 +251,7 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
             }
         }
 
+        Set<String> pendingBefore = getPendingServerItems(branchInfo.getTargetPath());
         TfsErrorListener errorListener = new TfsErrorListener();
         AddErrorListener(errorListener);
         try {
@@ -192,7 +266,11 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
         }
         finally {
             RemoveErrorListenerAndProcessErrors(errorListener);
+            if (TfsCancellationMonitor.isCurrentOperationCanceled()) {
+                undoChangesPendedSince(pendingBefore, branchInfo.getTargetPath());
+            }
         }
+        TfsCancellationMonitor.throwIfCanceled();
     }
 
     /**
@@ -201,10 +279,43 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      *     Contains the information needed to perform the merge operation.
      * @throws ConfigurationManagementException
      */
-    public void merge(BranchMergeInformation mergeInfo) throws ConfigurationManagementException {
+    public void merge(final BranchMergeInformation mergeInfo) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("merge", OperationPriority.BULK) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                pendMerge(mergeInfo);
+                return null;
+            }
+        });
+    }
+
+    // Pend a merge of the source path into the target path.
+    private void pendMerge(BranchMergeInformation mergeInfo) throws ConfigurationManagementException {
+        VersionSpec[] versions = parseMergeVersions(mergeInfo.getChangesetSpecifier());
+
+        Set<String> pendingBefore = getPendingServerItems(mergeInfo.getTargetPath());
+        try {
+            getWorkspace().merge(mergeInfo.getSourcePath(), 
+                mergeInfo.getTargetPath(),
+                versions[0],
+                versions[1],
+                LockLevel.UNCHANGED,
+                RecursionType.FULL,
+                MergeFlags.NONE);
+        }
+        finally {
+            if (TfsCancellationMonitor.isCurrentOperationCanceled()) {
+                undoChangesPendedSince(pendingBefore, mergeInfo.getTargetPath());
+            }
+        }
+        TfsCancellationMonitor.throwIfCanceled();
+    }
+
+    // Parse a changeset specifier into the first and last versions to merge.
+    private static VersionSpec[] parseMergeVersions(String changesetSpecifier)
+        throws ConfigurationManagementException {
         VersionSpec versionFrom = null;
         VersionSpec versionTo = null;
-        String changesetSpecifier = mergeInfo.getChangesetSpecifier();
         if (changesetSpecifier == null || changesetSpecifier.isEmpty()) {
             // If blank, merge all changes.
             versionTo = LatestVersionSpec.INSTANCE;
@@ -230,13 +341,238 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
                 throw new ConfigurationManagementException(ex);
             }
         }
-        getWorkspace().merge(mergeInfo.getSourcePath(), 
+        return new VersionSpec[] { versionFrom, versionTo };
+    }
+
+    /**
+     * Previews a TFS merge operation without pending any changes, so an expensive merge
+     * can be narrowed to fewer changesets before it is run.
+     * @param mergeInfo
+     *     Contains the information needed to perform the merge operation.
+     * @return
+     *     The changesets the merge would include, and the number of files, conflicts and
+     *     bytes it would produce.
+     * @throws ConfigurationManagementException
+     */
+    public TfsMergePreview previewMerge(final BranchMergeInformation mergeInfo)
+        throws ConfigurationManagementException {
+        return runOperation(new TfsOperation<TfsMergePreview>("previewMerge", OperationPriority.BULK) {
+            @Override
+            public TfsMergePreview execute() throws ConfigurationManagementException {
+                return queryMergePreview(mergeInfo);
+            }
+        });
+    }
+
+    // Find the changesets, files and conflicts a merge would produce, without pending it.
+    private TfsMergePreview queryMergePreview(BranchMergeInformation mergeInfo)
+        throws ConfigurationManagementException {
+        VersionSpec[] versions = parseMergeVersions(mergeInfo.getChangesetSpecifier());
+        Workspace workspace = getWorkspace();
+
+        long phaseStart = System.nanoTime();
+        MergeCandidate[] mergeCandidates = workspace.getClient().getMergeCandidates(
+            toServerPath(mergeInfo.getSourcePath()),
+            toServerPath(mergeInfo.getTargetPath()),
+            RecursionType.FULL,
+            MergeFlags.NONE);
+        TfsOperationContext.recordPhase("mergeCandidates", phaseStart);
+        TfsCancellationMonitor.throwIfCanceled();
+
+        List<Changeset> changesets = new ArrayList<Changeset>();
+        if (mergeCandidates != null) {
+            for (MergeCandidate mergeCandidate : mergeCandidates) {
+                Changeset changeset = mergeCandidate.getChangeset();
+                if (isInMergeRange(changeset.getChangesetID(), versions)) {
+                    changesets.add(changeset);
+                }
+            }
+        }
+        Collections.sort(changesets, new Comparator<Changeset>() {
+            @Override
+            public int compare(Changeset first, Changeset second) {
+                return Integer.compare(first.getChangesetID(), second.getChangesetID());
+            }
+        });
+
+        List<Revision> candidates = new ArrayList<Revision>();
+        Set<Integer> candidateIds = new HashSet<Integer>();
+        for (Changeset changeset : changesets) {
+            HashMap<String, String> revisionInfo = new HashMap<String, String>();
+            revisionInfo.put(Utilities.RevisionInfoKey_User, changeset.getCommitter());
+            revisionInfo.put(Utilities.RevisionInfoKey_Date,
+                DateFormat.getInstance().format(changeset.getDate().getTime()));
+            revisionInfo.put(Utilities.RevisionInfoKey_Comment, changeset.getComment());
+            candidates.add(new IntegerRevision(changeset.getChangesetID(), revisionInfo));
+            candidateIds.add(changeset.getChangesetID());
+        }
+        TfsOperationContext.setArgument("candidates", candidates.size());
+        if (candidates.isEmpty()) {
+            return new TfsMergePreview(mergeInfo, candidates, 0, 0, 0);
+        }
+
+        // With MergeFlags.NO_MERGE the server only reports what the merge would do, without pending it.
+        phaseStart = System.nanoTime();
+        GetStatus status = workspace.merge(mergeInfo.getSourcePath(),
             mergeInfo.getTargetPath(),
-            versionFrom,
-            versionTo,
+            versions[0],
+            versions[1],
             LockLevel.UNCHANGED,
             RecursionType.FULL,
-            MergeFlags.NONE);
+            MergeFlags.NO_MERGE);
+        TfsOperationContext.recordPhase("previewMerge", phaseStart);
+        TfsCancellationMonitor.throwIfCanceled();
+
+        long downloadBytes = getMergeDownloadBytes(mergeInfo.getSourcePath(), changesets.get(0).getChangesetID(),
+            changesets.get(changesets.size() - 1).getChangesetID(), candidateIds);
+        TfsOperationContext.getCurrent().addItems(status.getNumOperations());
+        return new TfsMergePreview(mergeInfo, candidates, status.getNumOperations(), status.getNumConflicts(),
+            downloadBytes);
+    }
+
+    // Whether a changeset is between the first and last versions to merge. A range given by
+    // dates or labels isn't narrowed here, so all candidates are shown for it.
+    private static boolean isInMergeRange(int changesetId, VersionSpec[] versions) {
+        if (versions[0] instanceof ChangesetVersionSpec &&
+            changesetId < ((ChangesetVersionSpec)versions[0]).getChangeset()) {
+            return false;
+        }
+        if (versions[1] instanceof ChangesetVersionSpec &&
+            changesetId > ((ChangesetVersionSpec)versions[1]).getChangeset()) {
+            return false;
+        }
+        return true;
+    }
+
+    // Estimate the bytes a merge downloads as the size of the latest version of each file
+    // added or edited by the candidate changesets, from history queries over their range a
+    // page at a time, so a long range can be canceled between pages.
+    private long getMergeDownloadBytes(String sourcePath, int firstChangeset, int lastChangeset,
+        Set<Integer> candidateIds) throws ConfigurationManagementException {
+        Map<String, Long> fileSizes = new HashMap<String, Long>();
+        long phaseStart = System.nanoTime();
+        try {
+            int pageStart = firstChangeset;
+            while (pageStart <= lastChangeset) {
+                TfsCancellationMonitor.throwIfCanceled();
+                Changeset[] changesets = getWorkspace().queryHistory(
+                    sourcePath,
+                    LatestVersionSpec.INSTANCE,
+                    0,
+                    RecursionType.FULL,
+                    null,
+                    new ChangesetVersionSpec(pageStart),
+                    new ChangesetVersionSpec(lastChangeset),
+                    MergeHistoryPageSize,
+                    true,
+                    false,
+                    false,
+                    true);
+                if (changesets == null || changesets.length == 0) {
+                    break;
+                }
+                addMergeFileSizes(changesets, candidateIds, fileSizes);
+                if (changesets.length < MergeHistoryPageSize) {
+                    break;
+                }
+                pageStart = changesets[changesets.length - 1].getChangesetID() + 1;
+            }
+        }
+        catch (ServerPathFormatException ex) {
+            throw new ConfigurationManagementException(ex);
+        }
+        finally {
+            TfsOperationContext.recordPhase("downloadSize", phaseStart);
+        }
+
+        long downloadBytes = 0;
+        for (long fileSize : fileSizes.values()) {
+            downloadBytes += fileSize;
+        }
+        return downloadBytes;
+    }
+
+    // Record the size of each file added or edited by the candidates among a page of changesets.
+    // Changesets are sorted ascending, so later changes to a file overwrite earlier ones.
+    private static void addMergeFileSizes(Changeset[] changesets, Set<Integer> candidateIds,
+        Map<String, Long> fileSizes) {
+        for (Changeset changeset : changesets) {
+            if (!candidateIds.contains(changeset.getChangesetID())) {
+                continue;
+            }
+            for (Change change : changeset.getChanges()) {
+                Item item = change.getItem();
+                if (item.getItemType() != ItemType.FILE) {
+                    continue;
+                }
+                String key = item.getServerItem().toLowerCase(Locale.ENGLISH);
+                if (change.getChangeType().contains(ChangeType.DELETE)) {
+                    fileSizes.remove(key);
+                }
+                else {
+                    fileSizes.put(key, item.getContentLength());
+                }
+            }
+        }
+    }
+
+    // Get the server path of a local or server path in the workspace.
+    private String toServerPath(String path) throws ConfigurationManagementException {
+        if (ServerPath.isServerPath(path)) {
+            return path;
+        }
+        String serverPath = getWorkspace().getMappedServerPath(new File(path).getAbsolutePath());
+        if (serverPath == null) {
+            throw new ConfigurationManagementException("Path " + path + " is not mapped in the workspace");
+        }
+        return serverPath;
+    }
+
+    // Get the server paths of the changes currently pending under a path. A local Workspace
+    // answers from its own metadata, so the snapshot taken before each branch and merge costs
+    // neither a server round trip nor a pending set download.
+    private Set<String> getPendingServerItems(String path) throws ConfigurationManagementException {
+        Workspace currentWorkspace = getWorkspace();
+        if (TfsLocalStatusProvider.isSupported(currentWorkspace)) {
+            return new TfsLocalStatusProvider(currentWorkspace, null, null).getPendingServerItems(toServerPath(path));
+        }
+
+        Set<String> serverItems = new HashSet<String>();
+        ItemSpec[] specs = new ItemSpec[] { new ItemSpec(path, RecursionType.FULL) };
+        PendingSet pendingSet = currentWorkspace.getPendingChanges(specs, false);
+        if (pendingSet != null && pendingSet.getPendingChanges() != null) {
+            for (PendingChange change : pendingSet.getPendingChanges()) {
+                serverItems.add(change.getServerItem());
+            }
+        }
+        return serverItems;
+    }
+
+    // Undo the changes pended under a path by a canceled branch or merge, so the workspace
+    // is left as it was before the operation. Changes which were already pending are kept.
+    private void undoChangesPendedSince(Set<String> pendingBefore, String path) 
+        throws ConfigurationManagementException {
+
+        // The operation's task monitor is canceled, so the undo needs one of its own.
+        boolean wasInterrupted = Thread.interrupted();
+        TaskMonitorService.pushTaskMonitor(new NullTaskMonitor());
+        try {
+            ArrayList<ItemSpec> newChangeSpecs = new ArrayList<ItemSpec>();
+            for (String serverItem : getPendingServerItems(path)) {
+                if (!pendingBefore.contains(serverItem)) {
+                    newChangeSpecs.add(new ItemSpec(serverItem, RecursionType.NONE));
+                }
+            }
+            if (!newChangeSpecs.isEmpty()) {
+                getWorkspace().undo(newChangeSpecs.toArray(new ItemSpec[newChangeSpecs.size()]), GetOptions.NONE);
+            }
+        }
+        finally {
+            TaskMonitorService.popTaskMonitor();
+            if (wasInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     // Prompt the user for branch information and perform the branch operation.
@@ -249,15 +585,93 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
         }
     }
 
-    // Prompt the user for merge information and perform the merge operation.
+    // Prompt the user for merge information, preview the merge and perform the merge operation.
     private void mergeWithPrompt() throws ConfigurationManagementException {
-        BranchMergeInformation mergeInfo = promptForBranchOrMergeInformation("Merge", 
-            String.format("Changeset (For a range, use the format C1%cC2. Leave blank for all changes.)",
-                ChangesetRangeDelimiter));
+        BranchMergeInformation mergeInfo = promptForBranchOrMergeInformation("Merge", MergeChangesetLabel);
+
+        // Preview the merge until the user runs it or cancels, narrowing the range each time.
+        while (mergeInfo != null) {
+            TfsMergePreview preview = previewMerge(mergeInfo);
+            if (preview.getCandidates().isEmpty()) {
+                JOptionPane.showMessageDialog(null, "There are no changes to merge.", "Merge",
+                    JOptionPane.PLAIN_MESSAGE);
+                return;
+            }
+            BranchMergeInformation nextMergeInfo = promptForMergeRange(preview);
+            if (nextMergeInfo == mergeInfo) {
+                merge(mergeInfo);
+                return;
+            }
+            mergeInfo = nextMergeInfo;
+        }
+    }
 
-        if (mergeInfo != null) {
-            merge(mergeInfo);
+    // Show the user a merge preview and prompt for the changeset range to merge. Returns the
+    // previewed merge to run it, a new merge to preview next, or null to cancel.
+    private BranchMergeInformation promptForMergeRange(TfsMergePreview preview) {
+        List<Revision> candidates = preview.getCandidates();
+        StringBuilder builder = new StringBuilder();
+        for (Revision candidate : candidates) {
+            Map<String, String> revisionInfo = candidate.getRevisionInfo();
+            builder.append(String.format("%-10s %-20s %-24s %s%n", candidate.getStringRepresentation(),
+                revisionInfo.get(Utilities.RevisionInfoKey_Date), revisionInfo.get(Utilities.RevisionInfoKey_User),
+                revisionInfo.get(Utilities.RevisionInfoKey_Comment)));
+        }
+        final JTextArea candidateText = new JTextArea(builder.toString());
+        candidateText.setEditable(false);
+        candidateText.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        candidateText.setCaretPosition(0);
+        final JScrollPane candidateScrollPane = new JScrollPane(candidateText);
+        candidateScrollPane.setPreferredSize(new Dimension(MergePreviewWidth, MergePreviewHeight));
+
+        final JLabel summaryLabel = new JLabel(String.format(
+            "<html>%d changesets would be merged.<br>Files affected: %d<br>Predicted conflicts: %d<br>"
+            + "Download: %.1f MB</html>",
+            candidates.size(), preview.getFileCount(), preview.getConflictCount(),
+            preview.getDownloadBytes() / (1024.0 * 1024.0)));
+        final JLabel changesetLabel = new JLabel(MergeChangesetLabel);
+        BranchMergeInformation mergeInfo = preview.getMergeInformation();
+        String changesetSpecifier = mergeInfo.getChangesetSpecifier() == null ? "" : mergeInfo.getChangesetSpecifier();
+        final JTextField changesetText = new JTextField(changesetSpecifier);
+
+        JComponent[] components = new JComponent[] { summaryLabel, candidateScrollPane, changesetLabel,
+            changesetText };
+        Object[] options = new Object[] { "Merge", "Update Preview", "Cancel" };
+        int result = JOptionPane.showOptionDialog(null, components, "Merge Preview", JOptionPane.DEFAULT_OPTION,
+            JOptionPane.PLAIN_MESSAGE, null, options, options[0]);
+
+        String newSpecifier = changesetText.getText().trim();
+        if (result == 0 && newSpecifier.equals(changesetSpecifier)) {
+            return mergeInfo;
         }
+        else if (result == 0 || result == 1) {
+            // A range edited without updating the preview is previewed before it's merged.
+            return new BranchMergeInformation(mergeInfo.getSourcePath(), mergeInfo.getTargetPath(), newSpecifier);
+        }
+        return null;
+    }
+
+    // Prompt the user for how to resolve the conflicts in the sandbox and resolve them all.
+    private void resolveAllConflictsWithPrompt() throws ConfigurationManagementException {
+        Object[] options = new Object[] { "Keep Local Changes", "Take Server Version", "Cancel" };
+        int result = JOptionPane.showOptionDialog(null,
+            "Resolve every conflict in " + this.sandboxRoot.getAbsolutePath() + " by:",
+            "Resolve Conflicts", JOptionPane.DEFAULT_OPTION, JOptionPane.PLAIN_MESSAGE, null, options, options[0]);
+
+        Resolution resolution;
+        if (result == 0) {
+            resolution = Resolution.ACCEPT_YOURS;
+        }
+        else if (result == 1) {
+            resolution = Resolution.ACCEPT_THEIRS;
+        }
+        else {
+            return;
+        }
+
+        int resolvedCount = resolveAllConflicts(this.sandboxRoot, resolution);
+        JOptionPane.showMessageDialog(null, "Resolved " + resolvedCount + " conflicts.", "Resolve Conflicts",
+            JOptionPane.PLAIN_MESSAGE);
     }
 
     // Prompt the user for information required to perform either a branch or a merge operation.
@@ -327,14 +741,53 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
     @Override
     public void connect() throws ConfigurationManagementException {
         super.connect();
-        this.workspace = Utilities.getWorkspaceForLocalPath(this.sandboxRoot.getAbsolutePath());
+        synchronized (this) {
+            if (this.isConnected) {
+                return;
+            }
+            TfsWorkspaceContext connectingContext = TfsAdapterFactory.acquireWorkspaceContext(this.sandboxRoot);
+            try {
+                connectingContext.connect();
+            }
+            catch (ConfigurationManagementException | RuntimeException ex) {
+                TfsAdapterFactory.releaseWorkspaceContext(connectingContext);
+                throw ex;
+            }
+            this.context = connectingContext;
+            this.isConnected = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void disconnect() throws ConfigurationManagementException {
+        synchronized (this) {
+            if (this.isConnected) {
+                TfsAdapterFactory.releaseWorkspaceContext(this.context);
+                this.isConnected = false;
+            }
+        }
+        super.disconnect();
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void add(Collection<File> files) throws ConfigurationManagementException {
+    public void add(final Collection<File> files) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("add", OperationPriority.BULK, files.size()) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                pendAdd(files);
+                return null;
+            }
+        });
+    }
+
+    // Pend an add of the specified files.
+    private void pendAdd(Collection<File> files) throws ConfigurationManagementException {
         ArrayList<String> newFilePaths = new ArrayList<String>();
         for (File file : files) {
             String filePath = file.getAbsolutePath();
@@ -393,62 +846,133 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
         checkin(dirSpec, comment);
     }
 
-    // Get checkin data and checkin the specified files.
-    private void checkin(ItemSpec[] fileSpecs, String comment) throws ConfigurationManagementException {
-        scanForChanges();
+    // Checkin the specified files. The checkin data is asked for on the calling thread, between
+    // the scheduled server calls, so its prompt neither runs on a worker nor holds a bulk slot.
+    private void checkin(final ItemSpec[] fileSpecs, String comment) throws ConfigurationManagementException {
+        if (fileSpecs.length == 0) {
+            return;
+        }
 
-        if (fileSpecs.length > 0) {
-            PendingSet pendingSet = getWorkspace().getPendingChanges(fileSpecs, false);
-            if (pendingSet != null)
-            {
-                PendingChange[] pendingChanges = pendingSet.getPendingChanges();
-                if (pendingChanges != null)
-                {
-                    CheckinData checkinData = this.checkinDataProvider.getData(comment);
-                    if (!checkinData.shouldSubmit()) {
-                        // User hit Cancel, so abort
-                        return;
-                    }
+        final PendingChange[] pendingChanges = runOperation(new TfsOperation<PendingChange[]>("checkinQuery",
+            OperationPriority.BULK, fileSpecs.length) {
+            @Override
+            public PendingChange[] execute() throws ConfigurationManagementException {
+                return queryPendingChanges(fileSpecs);
+            }
+        });
+        if (pendingChanges == null) {
+            return;
+        }
 
-                    String checkinComment = checkinData.getCheckinComment();
-                    // Get the TFS WorkItems to associate with the checkin.
-                    int[] workItemIds = checkinData.getWorkItemIds();
-                    WorkItemCheckinInfo[] associatedWorkItems = new WorkItemCheckinInfo[workItemIds.length];
-                    for (int i = 0; i < workItemIds.length; i++) {
-                        WorkItem workItem = Utilities.getTfsConnection().getWorkItemClient().getWorkItemByID(workItemIds[i]);
-                        if (workItem == null) {
-                            throw new ConfigurationManagementException("WorkItem " + workItemIds[i] + " not found.");
-                        }
-                        associatedWorkItems[i] = new WorkItemCheckinInfo(workItem);
-                    }
+        final CheckinData checkinData = this.checkinDataProvider.getData(comment);
+        if (!checkinData.shouldSubmit()) {
+            // User hit Cancel, so abort
+            return;
+        }
 
-                    try {
-                    	getWorkspace().checkIn(pendingChanges, checkinComment, null, associatedWorkItems, null);
-                    }
-                    catch (CheckinException ex) {
-                        throw new ConfigurationManagementException(ex);
-                    }
-                }
+        runOperation(new TfsOperation<Void>("checkin", OperationPriority.BULK, pendingChanges.length) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                checkinPendingChanges(pendingChanges, checkinData);
+                return null;
+            }
+        });
+    }
+
+    // Get the pending changes of the specified files, or null if they have none.
+    private PendingChange[] queryPendingChanges(ItemSpec[] fileSpecs) throws ConfigurationManagementException {
+        scanForChanges();
+
+        PendingSet pendingSet = getWorkspace().getPendingChanges(fileSpecs, false);
+        if (pendingSet == null) {
+            return null;
+        }
+        PendingChange[] pendingChanges = pendingSet.getPendingChanges();
+        if (pendingChanges != null) {
+            TfsOperationContext.setArgument("pendingChanges", pendingChanges.length);
+        }
+        return pendingChanges;
+    }
+
+    // Checkin the specified pending changes with the checkin data the user entered.
+    private void checkinPendingChanges(PendingChange[] pendingChanges, CheckinData checkinData)
+        throws ConfigurationManagementException {
+        String checkinComment = checkinData.getCheckinComment();
+        // Get the TFS WorkItems to associate with the checkin.
+        int[] workItemIds = checkinData.getWorkItemIds();
+        WorkItemCheckinInfo[] associatedWorkItems = new WorkItemCheckinInfo[workItemIds.length];
+        for (int i = 0; i < workItemIds.length; i++) {
+            WorkItem workItem = Utilities.getTfsConnection().getWorkItemClient().getWorkItemByID(workItemIds[i]);
+            if (workItem == null) {
+                throw new ConfigurationManagementException("WorkItem " + workItemIds[i] + " not found.");
             }
+            associatedWorkItems[i] = new WorkItemCheckinInfo(workItem);
+        }
+
+        // The checkin is atomic on the server, so this is the last point it can be canceled.
+        TfsCancellationMonitor.throwIfCanceled();
+        long phaseStart = System.nanoTime();
+        try {
+        	getWorkspace().checkIn(pendingChanges, checkinComment, null, associatedWorkItems, null);
+        }
+        catch (CheckinException ex) {
+            throw new ConfigurationManagementException(ex);
+        }
+        finally {
+            TfsOperationContext.recordPhase("checkin", phaseStart);
         }
     }
 
     // Force a scan of the workspace to pick up any recent changes.
     // TODO: Investigate the scan() and isScanNecessary() methods for possible improvement.
     private void scanForChanges() throws ConfigurationManagementException {
+        long startNanos = System.nanoTime();
+        boolean isScanPending = false;
         try { 
-        	getWorkspace().getWorkspaceWatcher().forceFullScan(); 
+            // Skip the scan when no file content has changed since the last one.
+            Workspace currentWorkspace = getWorkspace();
+            if (TfsLocalStatusProvider.isSupported(currentWorkspace)) {
+                Set<File> changedFiles = this.context.getModificationDetector().findChangedFiles(currentWorkspace);
+                TfsOperationContext.setArgument("changedFiles", changedFiles == null ? "all" : changedFiles.size());
+                if (changedFiles != null && changedFiles.isEmpty()) {
+                    return;
+                }
+                isScanPending = true;
+                this.context.invalidateFileStates();
+            }
+        	currentWorkspace.getWorkspaceWatcher().forceFullScan(); 
+            isScanPending = false;
         }
         catch (IOException ex) { 
             throw new ConfigurationManagementException(ex); 
         }
+        finally {
+            if (isScanPending) {
+                // The changes found by the detector weren't scanned, whatever the failure, so it
+                // must not skip the next scan.
+                this.context.getModificationDetector().reset();
+            }
+            TfsMetrics.getInstance().recordScan(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            TfsOperationContext.recordPhase("scan", startNanos);
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void checkout(Collection<File> files) throws ConfigurationManagementException {
+    public void checkout(final Collection<File> files) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("checkout", OperationPriority.BULK, files.size()) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                pendLock(files);
+                return null;
+            }
+        });
+    }
+
+    // Lock the specified files.
+    private void pendLock(Collection<File> files) throws ConfigurationManagementException {
         // NOTE: This method is tied to the LOCK adapter feature. We explicitly request a lock
         // rather than doing the Visual Studio "Checkout for edit" operation.
 
@@ -474,21 +998,86 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public void export(Map<File, Revision> revisionMap, Map<File, File> destinationMap) 
+    public void export(final Map<File, Revision> revisionMap, final Map<File, File> destinationMap) 
+        throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("export", OperationPriority.BULK, revisionMap.size()) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                exportRevisions(revisionMap, destinationMap);
+                return null;
+            }
+        });
+    }
+
+    // Copy the specified file revisions to their destinations, from the revision cache if they
+    // were prefetched and otherwise from the server.
+    private void exportRevisions(Map<File, Revision> revisionMap, Map<File, File> destinationMap) 
         throws ConfigurationManagementException {
 
+        TfsRevisionCache revisionCache = this.context.getRevisionCache();
+        Map<File, Revision> missingRevisions = new LinkedHashMap<File, Revision>();
         for (Map.Entry<File, Revision> entry : revisionMap.entrySet()) {
-            File file = entry.getKey();
             Revision revision = entry.getValue();
-            File destinationFile = destinationMap.get(file);
+            File cachedFile = revisionCache.get(getPathFromRevision(revision), revision.getStringRepresentation());
+            if (cachedFile != null) {
+                try {
+                    Files.copy(cachedFile.toPath(), destinationMap.get(entry.getKey()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                    continue;
+                }
+                catch (IOException ex) {
+                    // Download the revision instead.
+                }
+            }
+            missingRevisions.put(entry.getKey(), revision);
+        }
 
-            String itemPath = getPathFromRevision(revision);
-            VersionSpec versionSpec = VersionSpec.parseSingleVersionFromSpec(revision.getStringRepresentation(), null);
-            Item item = getWorkspace().getClient().getItem(itemPath, versionSpec, DeletedState.NON_DELETED,
+        downloadRevisions(missingRevisions, destinationMap);
+    }
+
+    // Download the specified file revisions from the server to their destinations.
+    private void downloadRevisions(Map<File, Revision> revisionMap, Map<File, File> destinationMap) 
+        throws ConfigurationManagementException {
+
+        // Group the files by revision, so the items at each revision are found with one server call.
+        Map<String, List<File>> filesByVersion = new LinkedHashMap<String, List<File>>();
+        for (Map.Entry<File, Revision> entry : revisionMap.entrySet()) {
+            String version = entry.getValue().getStringRepresentation();
+            List<File> versionFiles = filesByVersion.get(version);
+            if (versionFiles == null) {
+                versionFiles = new ArrayList<File>();
+                filesByVersion.put(version, versionFiles);
+            }
+            versionFiles.add(entry.getKey());
+        }
+
+        VersionControlClient client = getWorkspace().getClient();
+        for (Map.Entry<String, List<File>> versionEntry : filesByVersion.entrySet()) {
+            TfsCancellationMonitor.throwIfCanceled();
+
+            List<File> versionFiles = versionEntry.getValue();
+            ItemSpec[] itemSpecs = new ItemSpec[versionFiles.size()];
+            for (int i = 0; i < itemSpecs.length; i++) {
+                String itemPath = getPathFromRevision(revisionMap.get(versionFiles.get(i)));
+                itemSpecs[i] = new ItemSpec(itemPath, RecursionType.NONE);
+            }
+            VersionSpec versionSpec = VersionSpec.parseSingleVersionFromSpec(versionEntry.getKey(), null);
+            ItemSet[] itemSets = client.getItems(itemSpecs, versionSpec, DeletedState.NON_DELETED, ItemType.ANY,
                 GetItemsOptions.INCLUDE_SOURCE_RENAMES);
-            // Can't download a directory
-            if (item.getItemType() == ItemType.FILE) {
-                item.downloadFile(getWorkspace().getClient(), destinationFile.getAbsolutePath());
+
+            for (int i = 0; i < itemSets.length; i++) {
+                TfsCancellationMonitor.throwIfCanceled();
+
+                Item[] items = itemSets[i].getItems();
+                if (items.length == 0) {
+                    throw new ConfigurationManagementException(
+                        "No item was found for " + itemSpecs[i].getItem() + " at revision " + versionEntry.getKey());
+                }
+                // Can't download a directory
+                if (items[0].getItemType() == ItemType.FILE) {
+                    File destinationFile = destinationMap.get(versionFiles.get(i));
+                    items[0].downloadFile(client, destinationFile.getAbsolutePath());
+                }
             }
         }
     }
@@ -506,7 +1095,23 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public Map<File, FileState> getFileState(Collection<File> files) throws ConfigurationManagementException {
+    public Map<File, FileState> getFileState(final Collection<File> files) throws ConfigurationManagementException {
+        return runOperation(new TfsOperation<Map<File, FileState>>("getFileState",
+            OperationPriority.INTERACTIVE, files.size()) {
+            @Override
+            public Map<File, FileState> execute() throws ConfigurationManagementException {
+                return context.getStatusRequests().getFileStates(files, new TfsStatusRequestCoalescer.StatusQuery() {
+                    @Override
+                    public Map<File, FileState> execute() throws ConfigurationManagementException {
+                        return queryFileStates(files);
+                    }
+                });
+            }
+        });
+    }
+
+    // Get the state of the specified files.
+    private Map<File, FileState> queryFileStates(Collection<File> files) throws ConfigurationManagementException {
         Map<File, FileState> fileStateMap = new HashMap<>();
         ArrayList<ItemSpec> fileSpecs = new ArrayList<ItemSpec>();
 
@@ -517,11 +1122,11 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
         ItemSpec[] specArray = fileSpecs.toArray(new ItemSpec[fileSpecs.size()]);
         if (specArray.length > 0) {
 
-            Map<String, TfsFileState> statesByPath = getTrackedFileStatesByPath(specArray);
+            TfsStatusTable statusTable = getTrackedFileStates(specArray);
             for (File file : files) {
-                String path = file.getAbsolutePath();
-                if (statesByPath.containsKey(path)) {
-                    fileStateMap.put(file, statesByPath.get(path));
+                TfsFileState state = statusTable.getState(file.getAbsolutePath());
+                if (state != null) {
+                    fileStateMap.put(file, state);
                 }
                 else {
                     // This file is not tracked by source control. Add an empty TfsFileState
@@ -535,7 +1140,7 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
     }
 
     // Gets the TFS file state of the specified files, if they're tracked by TFS.
-    private Map<String, TfsFileState> getTrackedFileStatesByPath(ItemSpec[] fileSpecs) 
+    private TfsStatusTable getTrackedFileStates(ItemSpec[] fileSpecs)
         throws ConfigurationManagementException {
         // TODO: Revisit algorithm. Goal was to minimize the # of server calls,
         // but this results in more looping through collections client side.  
@@ -543,58 +1148,149 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
         // non-recursive callers too.
 
         scanForChanges();
+        return lookUpTrackedFileStates(fileSpecs);
+    }
 
-        Map<String, TfsFileState> fileStateMap = new HashMap<String, TfsFileState>();
-
-        ExtendedItem[][] extendedItemsPerItemSpec = getWorkspace().getExtendedItems(
-            fileSpecs,
-            DeletedState.NON_DELETED, 
-            ItemType.ANY,
-            GetItemsOptions.NONE);
-        boolean isRecursive = fileSpecs.length == 1 && fileSpecs[0].getRecursionType() == RecursionType.FULL;
-
-        Map<String, Conflict> conflictsByLocalPath = new HashMap<String, Conflict>();
+    // Gets the TFS file state of the specified files once the workspace has been scanned,
+    // from the cache if they were queried recently.
+    private TfsStatusTable lookUpTrackedFileStates(ItemSpec[] fileSpecs) throws ConfigurationManagementException {
+        boolean isRecursive = fileSpecs.length > 0;
+        for (ItemSpec fileSpec : fileSpecs) {
+            isRecursive &= fileSpec.getRecursionType() == RecursionType.FULL;
+        }
+        TfsOperationContext.setArgument("itemSpecs", fileSpecs.length);
+        TfsOperationContext.setArgument("recursion",
+            fileSpecs.length == 1 || isRecursive ? fileSpecs[0].getRecursionType() : RecursionType.NONE);
+
+        // Another adapter for this workspace may have just queried the same files.
+        long statusGeneration = this.context.getStatusGeneration();
+        TfsStatusTable statusTable = this.context.getCachedFileStates(fileSpecs);
+        if (statusTable != null) {
+            TfsOperationContext.setArgument("statusSource", "cache");
+            return statusTable;
+        }
 
-        Map<String, ExtendedItem> extendedItemsByPath = new HashMap<String, ExtendedItem>();
-        for (ExtendedItem[] itemSpecExtendedItems : extendedItemsPerItemSpec) {
-            // In the recursive case, we only get 1 ExtendedItem[], with one ExtendedItem per file
-            if (isRecursive) {
-                for (ExtendedItem extendedItem : itemSpecExtendedItems) {
-                    // For a pending Delete, extendedItem.getLocalItem() returns null instead of the file path,
-                    // so use the workspace's mapping function.
-                    String localPath = getWorkspace().getMappedLocalPath(extendedItem.getTargetServerItem());
-                    extendedItemsByPath.put(localPath, extendedItem);
+        statusTable = queryTrackedFileStates(fileSpecs);
+        if (fileSpecs.length == 1 && isRecursive) {
+            this.context.putFileStates(fileSpecs[0].getItem(), statusTable, statusGeneration);
+        }
+        else if (isRecursive) {
+            // Each folder of a batch is cached as if it had been queried on its own.
+            for (ItemSpec fileSpec : fileSpecs) {
+                TfsStatusTable folderStates = new TfsStatusTable();
+                for (int row = 0; row < statusTable.size(); row++) {
+                    if (Utilities.isUnderDirectory(statusTable.getLocalPath(row), fileSpec.getItem())) {
+                        folderStates.add(statusTable, row);
+                    }
                 }
+                this.context.putFileStates(fileSpec.getItem(), folderStates, statusGeneration);
             }
-            else {
-                // Size 0 means the file is not tracked by source control.
-                // In the non-recursive case, we should only have 1 ExtendedItem per ItemSpec.
-                if (itemSpecExtendedItems.length > 0) {
-                    ExtendedItem extendedItem = itemSpecExtendedItems[0];
-                    String localPath = getWorkspace().getMappedLocalPath(extendedItem.getTargetServerItem());
-                    extendedItemsByPath.put(localPath, extendedItem);
+        }
+        return statusTable;
+    }
+
+    // Queries the TFS file state of the specified files, if they're tracked by TFS.
+    private TfsStatusTable queryTrackedFileStates(ItemSpec[] fileSpecs)
+        throws ConfigurationManagementException {
+        // Local Workspaces can answer from their own metadata, which is used when the user
+        // asked for it or when the server can't be reached.
+        Workspace currentWorkspace = getWorkspace();
+        if (TfsLocalStatusProvider.isSupported(currentWorkspace)) {
+            if (TfsSettingsService.getInstance().getSettings().getStatusMode() == StatusMode.LOCAL) {
+                return getLocalFileStates(currentWorkspace, fileSpecs, true);
+            }
+            try {
+                return getServerFileStates(fileSpecs);
+            }
+            catch (RuntimeException ex) {
+                // The SDK reports an unreachable, unavailable or failing server with a variety
+                // of runtime exceptions, and any of them leaves the metadata as the only source.
+                if (TfsCancellationMonitor.isCurrentOperationCanceled()) {
+                    throw ex;
                 }
+                TfsOperationContext.setArgument("serverStatusError", ex.getClass().getSimpleName());
+                return getLocalFileStates(currentWorkspace, fileSpecs, false);
             }
         }
 
-        Conflict[] conflicts = getWorkspace().queryConflicts(null);
-        if (conflicts != null) {
-            for (Conflict conflict : conflicts) {
-                conflictsByLocalPath.put(conflict.getTargetLocalItem(), conflict);
+        return getServerFileStates(fileSpecs);
+    }
+
+    // Gets the TFS file state of the specified files from the local Workspace metadata. Conflicts
+    // are only recorded on the server, so they're queried from it when the caller needs them
+    // and the server hasn't just failed.
+    private TfsStatusTable getLocalFileStates(Workspace localWorkspace, ItemSpec[] fileSpecs,
+        boolean queryConflicts) throws ConfigurationManagementException {
+        TfsOperationContext.setArgument("statusSource", StatusMode.LOCAL);
+        Conflict[] conflicts = null;
+        if (queryConflicts) {
+            long phaseStart = System.nanoTime();
+            try {
+                conflicts = this.context.getConflicts();
+            }
+            catch (RuntimeException ex) {
+                // The files are shown without conflicts until the server can be reached.
+                if (TfsCancellationMonitor.isCurrentOperationCanceled()) {
+                    throw ex;
+                }
+            }
+            finally {
+                TfsOperationContext.recordPhase("conflictQuery", phaseStart);
             }
         }
 
-        for (Map.Entry<String, ExtendedItem> entry : extendedItemsByPath.entrySet()) {
-            String localPath = entry.getKey();
-            ExtendedItem extendedItem = entry.getValue();
-            Conflict conflict = null;
-            if (conflictsByLocalPath.containsKey(localPath)) {
-                conflict = conflictsByLocalPath.get(localPath);
+        long phaseStart = System.nanoTime();
+        TfsLocalStatusProvider provider =
+            new TfsLocalStatusProvider(localWorkspace, this.context.getLatestVersionTracker(), conflicts);
+        TfsStatusTable statusTable = provider.getTrackedFileStates(fileSpecs);
+        TfsOperationContext.recordPhase("localStatusQuery", phaseStart);
+        return statusTable;
+    }
+
+    // Gets the TFS file state of the specified files from the TFS server.
+    private TfsStatusTable getServerFileStates(ItemSpec[] fileSpecs)
+        throws ConfigurationManagementException {
+        TfsOperationContext.setArgument("statusSource", StatusMode.SERVER);
+        TfsStatusTable statusTable = new TfsStatusTable();
+
+        long phaseStart = System.nanoTime();
+        ExtendedItem[][] extendedItemsPerItemSpec = getWorkspace().getExtendedItems(
+            fileSpecs,
+            DeletedState.NON_DELETED, 
+            ItemType.ANY,
+            GetItemsOptions.NONE);
+        TfsOperationContext.recordPhase("extendedItemQuery", phaseStart);
+
+        // Conflicts are few, so they're looked up by path while the items are added to the table.
+        phaseStart = System.nanoTime();
+        Conflict[] conflicts = this.context.getConflicts();
+        TfsOperationContext.recordPhase("conflictQuery", phaseStart);
+        Map<String, Conflict> conflictsByLocalPath = new HashMap<String, Conflict>();
+        for (Conflict conflict : conflicts) {
+            conflictsByLocalPath.put(conflict.getTargetLocalItem(), conflict);
+        }
+
+        phaseStart = System.nanoTime();
+        Workspace currentWorkspace = getWorkspace();
+        for (int specIndex = 0; specIndex < extendedItemsPerItemSpec.length; specIndex++) {
+            // A recursive ItemSpec gets one ExtendedItem per file in and under its folder.
+            // A non-recursive ItemSpec should only get 1 ExtendedItem, and size 0 means the
+            // file is not tracked by source control.
+            ExtendedItem[] itemSpecExtendedItems = extendedItemsPerItemSpec[specIndex];
+            int itemCount = fileSpecs[specIndex].getRecursionType() != RecursionType.NONE
+                ? itemSpecExtendedItems.length
+                : Math.min(itemSpecExtendedItems.length, 1);
+            for (int i = 0; i < itemCount; i++) {
+                ExtendedItem extendedItem = itemSpecExtendedItems[i];
+                // For a pending Delete, extendedItem.getLocalItem() returns null instead of the file path,
+                // so use the workspace's mapping function.
+                String localPath = currentWorkspace.getMappedLocalPath(extendedItem.getTargetServerItem());
+                statusTable.add(localPath, extendedItem, conflictsByLocalPath.get(localPath));
             }
-            fileStateMap.put(localPath, new TfsFileState(extendedItem, conflict));
         }
+        TfsOperationContext.recordPhase("mapping", phaseStart);
 
-        return fileStateMap;
+        return statusTable;
     }
 
     /**
@@ -613,7 +1309,18 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public void getLatest(Collection<File> files) throws ConfigurationManagementException {
+    public void getLatest(final Collection<File> files) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("getLatest", OperationPriority.BULK, files.size()) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                getLatestFiles(files);
+                return null;
+            }
+        });
+    }
+
+    // Get the latest version of the specified files.
+    private void getLatestFiles(Collection<File> files) throws ConfigurationManagementException {
         ArrayList<GetRequest> getRequests = new ArrayList<GetRequest>();
         for (File file : files) {
             ItemSpec spec = new ItemSpec(file.getAbsolutePath(), RecursionType.NONE);
@@ -638,7 +1345,18 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public void getRevision(Map<File, Revision> revisions) throws ConfigurationManagementException {
+    public void getRevision(final Map<File, Revision> revisions) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("getRevision", OperationPriority.BULK, revisions.size()) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                getRevisions(revisions);
+                return null;
+            }
+        });
+    }
+
+    // Get the specified revisions of files into the workspace.
+    private void getRevisions(Map<File, Revision> revisions) throws ConfigurationManagementException {
         ArrayList<GetRequest> getRequests = new ArrayList<GetRequest>();
         for (Map.Entry<File, Revision> entry : revisions.entrySet()) {
             Revision revision = entry.getValue();
@@ -658,23 +1376,133 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public ConflictedRevisions getRevisionCausingConflict(File file) throws ConfigurationManagementException {
-        FileState fileState = getFileState(Collections.singleton(file)).get(file);
+    public ConflictedRevisions getRevisionCausingConflict(final File file) throws ConfigurationManagementException {
+        return runOperation(new TfsOperation<ConflictedRevisions>("getRevisionCausingConflict",
+            OperationPriority.INTERACTIVE, 1) {
+            @Override
+            public ConflictedRevisions execute() throws ConfigurationManagementException {
+                return queryConflictedRevisions(file);
+            }
+        });
+    }
 
-        if (fileState.getLocalStatus() != LocalStatus.CONFLICTED) {
-            throw new ConfigurationManagementException("File " + file + " is not conflicted");
+    // Get the base and their revisions of a conflicted file from the conflicts in the workspace,
+    // which the server is asked for even when the file states are read locally.
+    private ConflictedRevisions queryConflictedRevisions(File file) throws ConfigurationManagementException {
+        return queryConflictedRevisions(Collections.singleton(file)).get(file);
+    }
+
+    /**
+     * Gets the base and their revisions of many conflicted files with one conflict query,
+     * rather than a status query per file.
+     * @param files
+     *     The conflicted files.
+     * @param prefetchContents
+     *     Whether to also download the content of the revisions to the revision cache, so
+     *     exporting them for a comparison doesn't call the server.
+     * @return
+     *     The revisions causing the conflict of each file.
+     * @throws ConfigurationManagementException
+     *     If a file isn't conflicted.
+     */
+    public Map<File, ConflictedRevisions> getRevisionsCausingConflict(final Collection<File> files,
+        final boolean prefetchContents) throws ConfigurationManagementException {
+        return runOperation(new TfsOperation<Map<File, ConflictedRevisions>>("getRevisionsCausingConflict",
+            prefetchContents ? OperationPriority.BULK : OperationPriority.INTERACTIVE, files.size()) {
+            @Override
+            public Map<File, ConflictedRevisions> execute() throws ConfigurationManagementException {
+                TfsOperationContext.setArgument("prefetch", prefetchContents);
+                Map<File, ConflictedRevisions> revisions = queryConflictedRevisions(files);
+                if (prefetchContents) {
+                    prefetchConflictedRevisions(revisions);
+                }
+                return revisions;
+            }
+        });
+    }
+
+    // Get the base and their revisions of conflicted files from the server, rather than the
+    // cached workspace conflicts, which can miss a conflict created since they were queried.
+    private Map<File, ConflictedRevisions> queryConflictedRevisions(Collection<File> files)
+        throws ConfigurationManagementException {
+        Map<String, Conflict> conflictsByPath = queryConflictsByPath(toItemSpecs(files, RecursionType.NONE));
+
+        Map<File, ConflictedRevisions> revisions = new LinkedHashMap<File, ConflictedRevisions>();
+        for (File file : files) {
+            Conflict conflict = conflictsByPath.get(file.getAbsolutePath());
+            if (conflict == null) {
+                throw new ConfigurationManagementException("File " + file + " is not conflicted");
+            }
+            revisions.put(file, new TfsConflictedRevisions(
+                TfsFileState.createRevision(conflict.getBaseVersion(), conflict.getBaseServerItem()),
+                TfsFileState.createRevision(conflict.getTheirVersion(), conflict.getTheirServerItem())));
         }
-        if(TfsFileState.class.isInstance(fileState)) {
-            TfsFileState tfsState = (TfsFileState)fileState;
-            Revision baseRevision = tfsState.getBaseConflictRevision();
-            Revision theirRevision = tfsState.getTheirConflictRevision();
-            
-            return new TfsConflictedRevisions(baseRevision, theirRevision);
+        return revisions;
+    }
+
+    // Download the base and their revisions of conflicted files to the revision cache. This is
+    // only a head start for the comparison, so failures other than cancellation are ignored and
+    // the revisions are downloaded again when they are exported.
+    private void prefetchConflictedRevisions(Map<File, ConflictedRevisions> revisions)
+        throws ConfigurationManagementException {
+        TfsRevisionCache revisionCache = this.context.getRevisionCache();
+
+        // The base and their revisions of a file share its key, so each needs its own download.
+        Map<File, Revision> baseRevisions = new HashMap<File, Revision>();
+        Map<File, Revision> theirRevisions = new HashMap<File, Revision>();
+        for (Map.Entry<File, ConflictedRevisions> entry : revisions.entrySet()) {
+            baseRevisions.put(entry.getKey(), entry.getValue().getBaseRevision());
+            theirRevisions.put(entry.getKey(), entry.getValue().getTheirsRevision());
         }
-        else
-        {
-            throw new ConfigurationManagementException(
-                "Internal error: File State map contained an unexpected type.");
+
+        // Files created for downloads which haven't been added to the cache yet, and are deleted
+        // if the prefetch stops before they are.
+        Set<File> unregisteredFiles = new HashSet<File>();
+        long phaseStart = System.nanoTime();
+        try {
+            prefetchRevisions(revisionCache, baseRevisions, unregisteredFiles);
+            prefetchRevisions(revisionCache, theirRevisions, unregisteredFiles);
+        }
+        catch (IOException ex) {
+            // The revisions are downloaded when they're exported instead.
+        }
+        catch (ConfigurationManagementException ex) {
+            if (TfsCancellationMonitor.isCurrentOperationCanceled()) {
+                throw ex;
+            }
+        }
+        finally {
+            for (File file : unregisteredFiles) {
+                file.delete();
+            }
+            TfsOperationContext.recordPhase("prefetch", phaseStart);
+        }
+    }
+
+    // Download the revisions missing from the revision cache into it. Each file created for a
+    // download stays in the unregistered set until the cache has taken it.
+    private void prefetchRevisions(TfsRevisionCache revisionCache, Map<File, Revision> revisionMap,
+        Set<File> unregisteredFiles) throws ConfigurationManagementException, IOException {
+        Map<File, Revision> missingRevisions = new HashMap<File, Revision>();
+        Map<File, File> destinationMap = new HashMap<File, File>();
+        for (Map.Entry<File, Revision> entry : revisionMap.entrySet()) {
+            // A conflict on an added file has no server item for its base revision.
+            Revision revision = entry.getValue();
+            String serverItem = getPathFromRevision(revision);
+            if (serverItem != null && revisionCache.get(serverItem, revision.getStringRepresentation()) == null) {
+                missingRevisions.put(entry.getKey(), revision);
+                File cacheFile = revisionCache.createFile();
+                unregisteredFiles.add(cacheFile);
+                destinationMap.put(entry.getKey(), cacheFile);
+            }
+        }
+
+        downloadRevisions(missingRevisions, destinationMap);
+        for (Map.Entry<File, Revision> entry : missingRevisions.entrySet()) {
+            Revision revision = entry.getValue();
+            File cacheFile = destinationMap.get(entry.getKey());
+            revisionCache.put(getPathFromRevision(revision), revision.getStringRepresentation(), cacheFile);
+            unregisteredFiles.remove(cacheFile);
         }
     }
 
@@ -682,19 +1510,113 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public Map<File, FileState> getStateForAllKnownFilesRecursively(File root) 
+    public Map<File, FileState> getStateForAllKnownFilesRecursively(final File root) 
         throws ConfigurationManagementException {
+        return runOperation(new TfsOperation<Map<File, FileState>>("getStateForAllKnownFilesRecursively",
+            OperationPriority.INTERACTIVE) {
+            @Override
+            public Map<File, FileState> execute() throws ConfigurationManagementException {
+                return context.getStatusRequests().getFileStatesRecursively(root, new TfsStatusRequestCoalescer.StatusQuery() {
+                    @Override
+                    public Map<File, FileState> execute() throws ConfigurationManagementException {
+                        return queryFileStatesRecursively(root);
+                    }
+                });
+            }
+        });
+    }
 
-        Map<File, FileState> fileStateMap = new HashMap<File, FileState>();
+    // Get the state of all files known to TFS under the specified directory.
+    private Map<File, FileState> queryFileStatesRecursively(File root) 
+        throws ConfigurationManagementException {
 
+        // The states are created from the table as MATLAB reads them, rather than all at once.
         ItemSpec fileSpec = new ItemSpec(root.getAbsolutePath(), RecursionType.FULL);
-        Map<String, TfsFileState> statesByPath = getTrackedFileStatesByPath(new ItemSpec[] { fileSpec });
-        for (Map.Entry<String, TfsFileState> entry : statesByPath.entrySet()) {
-            String path = entry.getKey();
-            fileStateMap.put(new File(path), statesByPath.get(path));
+        TfsStatusTable statusTable = getTrackedFileStates(new ItemSpec[] { fileSpec });
+        TfsOperationContext.getCurrent().addItems(statusTable.size());
+
+        return statusTable.asFileStateMap();
+    }
+
+    /**
+     * Gets the state of all files known to TFS under a directory a page at a time, and
+     * publishes each page as soon as it arrives, so large folders can be shown
+     * progressively. The first page holds the directory and the files directly in it,
+     * and each following page the files under a batch of its subfolders, which are
+     * queried together.
+     * @param root
+     *     The directory to get the state of the files under.
+     * @param fileStates
+     *     The map the states are published to, which other threads may read while the
+     *     query runs.
+     * @param listener
+     *     Notified of each page once it has been published, or null.
+     * @return
+     *     The map the states were published to, once every page has been published.
+     * @throws ConfigurationManagementException
+     */
+    public Map<File, FileState> getStateForAllKnownFilesRecursively(final File root,
+        final ConcurrentMap<File, FileState> fileStates, final IFileStateListener listener)
+        throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("getStateForAllKnownFilesRecursively", OperationPriority.INTERACTIVE) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                queryFileStatesInPages(root, fileStates, listener);
+                return null;
+            }
+        });
+        return fileStates;
+    }
+
+    // Get the state of all files known to TFS under the specified directory, publishing
+    // the directory's own files first and then the files under its subfolders, a batch at a time.
+    private void queryFileStatesInPages(File root, ConcurrentMap<File, FileState> fileStates,
+        IFileStateListener listener) throws ConfigurationManagementException {
+
+        scanForChanges();
+
+        String rootPath = root.getAbsolutePath();
+        TfsStatusTable topLevel =
+            lookUpTrackedFileStates(new ItemSpec[] { new ItemSpec(rootPath, RecursionType.ONE_LEVEL) });
+        TfsStatusTable firstPage = new TfsStatusTable();
+        List<String> subfolderPaths = new ArrayList<String>();
+        for (int row = 0; row < topLevel.size(); row++) {
+            String localPath = topLevel.getLocalPath(row);
+            if (topLevel.isFolder(row) && !localPath.equals(rootPath)) {
+                subfolderPaths.add(localPath);
+            }
+            else {
+                firstPage.add(topLevel, row);
+            }
         }
+        int batchCount = (subfolderPaths.size() + SubfoldersPerPage - 1) / SubfoldersPerPage;
+        TfsOperationContext.setArgument("pages", batchCount + 1);
+        publishPage(firstPage, fileStates, listener);
+
+        // Each batch of subfolders is a single query, rather than a round trip per subfolder.
+        Collections.sort(subfolderPaths);
+        for (int start = 0; start < subfolderPaths.size(); start += SubfoldersPerPage) {
+            TfsCancellationMonitor.throwIfCanceled();
+            List<String> batch =
+                subfolderPaths.subList(start, Math.min(start + SubfoldersPerPage, subfolderPaths.size()));
+            ItemSpec[] subfolderSpecs = new ItemSpec[batch.size()];
+            for (int i = 0; i < subfolderSpecs.length; i++) {
+                subfolderSpecs[i] = new ItemSpec(batch.get(i), RecursionType.FULL);
+            }
+            publishPage(lookUpTrackedFileStates(subfolderSpecs), fileStates, listener);
+        }
+    }
 
-        return fileStateMap;
+    // Publish a page of file states to the result map, then to the listener.
+    private static void publishPage(TfsStatusTable page, ConcurrentMap<File, FileState> fileStates,
+        IFileStateListener listener) {
+
+        Map<File, FileState> pageStates = new HashMap<File, FileState>(page.asFileStateMap());
+        fileStates.putAll(pageStates);
+        TfsOperationContext.getCurrent().addItems(pageStates.size());
+        if (listener != null) {
+            listener.fileStatesReceived(Collections.unmodifiableMap(pageStates));
+        }
     }
 
     /**
@@ -709,8 +1631,22 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public Map<File, Boolean> isLatest(Collection<File> files) throws ConfigurationManagementException {
-        Map<File, FileState> states = getFileState(files);
+    public Map<File, Boolean> isLatest(final Collection<File> files) throws ConfigurationManagementException {
+        return runOperation(new TfsOperation<Map<File, Boolean>>("isLatest",
+            OperationPriority.INTERACTIVE, files.size()) {
+            @Override
+            public Map<File, Boolean> execute() throws ConfigurationManagementException {
+                return queryIsLatest(files);
+            }
+        });
+    }
+
+    // Get whether the specified files are at their latest version.
+    private Map<File, Boolean> queryIsLatest(Collection<File> files) throws ConfigurationManagementException {
+        Map<File, FileState> states = queryTrackedLatestStates(files);
+        if (states == null) {
+            states = getFileState(files);
+        }
         Map<File, Boolean> isLatestMap = new HashMap<File, Boolean>();
 
         for (Map.Entry<File, FileState> entry : states.entrySet()) {
@@ -729,11 +1665,54 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
         return isLatestMap;
     }
 
+    // Get the state of the specified files from the local Workspace metadata and the latest
+    // version tracker when status is read locally, or null if it's read from the server or the
+    // tracker isn't current.
+    private Map<File, FileState> queryTrackedLatestStates(Collection<File> files)
+        throws ConfigurationManagementException {
+        // The tracker can be up to a poll interval behind the server, so it's only used when
+        // the user chose local status over the server's answer.
+        Workspace currentWorkspace = getWorkspace();
+        if (!TfsLocalStatusProvider.isSupported(currentWorkspace) ||
+            TfsSettingsService.getInstance().getSettings().getStatusMode() != StatusMode.LOCAL) {
+            return null;
+        }
+        TfsLatestVersionTracker tracker = this.context.getLatestVersionTracker();
+        if (tracker == null || !tracker.isCurrent()) {
+            return null;
+        }
+
+        ItemSpec[] fileSpecs = new ItemSpec[files.size()];
+        int index = 0;
+        for (File file : files) {
+            fileSpecs[index++] = new ItemSpec(file.getAbsolutePath(), RecursionType.NONE);
+        }
+        TfsStatusTable statusTable = getLocalFileStates(currentWorkspace, fileSpecs, false);
+
+        Map<File, FileState> states = new HashMap<File, FileState>();
+        for (File file : files) {
+            TfsFileState state = statusTable.getState(file.getAbsolutePath());
+            states.put(file, state != null ? state : new TfsFileState());
+        }
+        return states;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
-    public Map<File, Boolean> isStored(Collection<File> files) throws ConfigurationManagementException {
+    public Map<File, Boolean> isStored(final Collection<File> files) throws ConfigurationManagementException {
+        return runOperation(new TfsOperation<Map<File, Boolean>>("isStored",
+            OperationPriority.INTERACTIVE, files.size()) {
+            @Override
+            public Map<File, Boolean> execute() throws ConfigurationManagementException {
+                return queryIsStored(files);
+            }
+        });
+    }
+
+    // Get whether the specified files are tracked by TFS.
+    private Map<File, Boolean> queryIsStored(Collection<File> files) throws ConfigurationManagementException {
         HashMap<File, Boolean> isStoredMap = new HashMap<File, Boolean>();
         Map<File, FileState> fileStates = getFileState(files);
         
@@ -755,7 +1734,25 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public Collection<Revision> listRevisions(File file) throws ConfigurationManagementException {
+    public Collection<Revision> listRevisions(final File file) throws ConfigurationManagementException {
+        return runOperation(new TfsOperation<Collection<Revision>>("listRevisions", OperationPriority.INTERACTIVE, 1) {
+            @Override
+            public Collection<Revision> execute() throws ConfigurationManagementException {
+                return queryRevisions(file);
+            }
+        });
+    }
+
+    // Get the changeset history of the specified file.
+    private Collection<Revision> queryRevisions(File file) throws ConfigurationManagementException {
+        // Histories are cached while the latest version tracker can tell when they change.
+        this.context.ensureLatestVersionTracker();
+        Collection<Revision> cachedRevisions = this.context.getCachedHistory(file.getAbsolutePath());
+        if (cachedRevisions != null) {
+            return new ArrayList<Revision>(cachedRevisions);
+        }
+        long generation = this.context.getGeneration();
+
         ArrayList<Revision> revisions = new ArrayList<Revision>();
         Changeset[] changesets;
 
@@ -780,6 +1777,7 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
         catch (ServerPathFormatException ex) {
             throw new ConfigurationManagementException(ex);
         }
+        TfsCancellationMonitor.throwIfCanceled();
 
         if (changesets != null) {
             for (Changeset change : changesets) {
@@ -808,6 +1806,7 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
             }
         }
 
+        this.context.putHistory(file.getAbsolutePath(), new ArrayList<Revision>(revisions), generation);
         return revisions;
     }
 
@@ -815,7 +1814,18 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public void moveFile(File oldLocation, File newLocation) throws ConfigurationManagementException {
+    public void moveFile(final File oldLocation, final File newLocation) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("moveFile", OperationPriority.BULK, 1) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                pendRename(oldLocation, newLocation);
+                return null;
+            }
+        });
+    }
+
+    // Pend a rename of the specified file.
+    private void pendRename(File oldLocation, File newLocation) throws ConfigurationManagementException {
         TfsErrorListener errorListener = new TfsErrorListener();
         AddErrorListener(errorListener);
         try {
@@ -836,7 +1846,18 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public void remove(Collection<File> files) throws ConfigurationManagementException {
+    public void remove(final Collection<File> files) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("remove", OperationPriority.BULK, files.size()) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                pendDelete(files);
+                return null;
+            }
+        });
+    }
+
+    // Pend a delete of the specified files.
+    private void pendDelete(Collection<File> files) throws ConfigurationManagementException {
         ArrayList<ItemSpec> fileSpecs = new ArrayList<ItemSpec>();
         for (File file : files) {
             // For delete, the directory's contents are deleted too, even with RecusrionType.NONE.
@@ -864,7 +1885,18 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public void resolveConflict(File file) throws ConfigurationManagementException {
+    public void resolveConflict(final File file) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("resolveConflict", OperationPriority.BULK, 1) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                resolveConflictAcceptingYours(file);
+                return null;
+            }
+        });
+    }
+
+    // Resolve the conflict on the specified file by keeping the local version.
+    private void resolveConflictAcceptingYours(File file) throws ConfigurationManagementException {
         // SVN example just accepts the sandbox copy. Assume the user has compared the conflicting versions
         // and made their changes.
         Conflict conflict = getConflictForFile(file);
@@ -886,31 +1918,163 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
         }
     }
 
-    // Get the conflict information for the specified file.
+    // Get the conflict information for the specified file from the server, which is the only
+    // source of conflicts even when the file states are read locally.
     private Conflict getConflictForFile(File file) throws ConfigurationManagementException {
-        FileState fileState = getFileState(Collections.singleton(file)).get(file);
-
-        if (fileState.getLocalStatus() != LocalStatus.CONFLICTED) {
+        Conflict conflict = queryConflictsByPath(toItemSpecs(Collections.singleton(file), RecursionType.NONE))
+            .get(file.getAbsolutePath());
+        if (conflict == null) {
             throw new ConfigurationManagementException("File " + file + " is not conflicted");
         }
-        if(TfsFileState.class.isInstance(fileState)) {
-            TfsFileState tfsState = (TfsFileState)fileState;
-            Conflict conflict = tfsState.getConflict();
+        return conflict;
+    }
+
+    /**
+     * Resolves the conflicts on many files the same way. The conflicts are queried once
+     * for all the files rather than with a status query per file, and the state of the
+     * files is refreshed once at the end.
+     * @param files
+     *     The conflicted files.
+     * @param resolution
+     *     How to resolve the conflicts: {@link Resolution#ACCEPT_YOURS} keeps the local
+     *     version and {@link Resolution#ACCEPT_THEIRS} takes the server version.
+     * @throws ConfigurationManagementException
+     */
+    public void resolveConflicts(final Collection<File> files, final Resolution resolution)
+        throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("resolveConflicts", OperationPriority.BULK) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                Map<String, Conflict> conflictsByPath = queryConflictsByPath(toItemSpecs(files, RecursionType.NONE));
+                for (File file : files) {
+                    if (!conflictsByPath.containsKey(file.getAbsolutePath())) {
+                        throw new ConfigurationManagementException("File " + file + " is not conflicted");
+                    }
+                }
+                resolveConflictsInBatches(new ArrayList<Conflict>(conflictsByPath.values()), resolution);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Resolves every conflict under a directory the same way, querying the conflicts once.
+     * @param directory
+     *     The directory to resolve the conflicts under.
+     * @param resolution
+     *     How to resolve the conflicts: {@link Resolution#ACCEPT_YOURS} keeps the local
+     *     version and {@link Resolution#ACCEPT_THEIRS} takes the server version.
+     * @return
+     *     The number of conflicts resolved.
+     * @throws ConfigurationManagementException
+     */
+    public int resolveAllConflicts(final File directory, final Resolution resolution)
+        throws ConfigurationManagementException {
+        return runOperation(new TfsOperation<Integer>("resolveAllConflicts", OperationPriority.BULK) {
+            @Override
+            public Integer execute() throws ConfigurationManagementException {
+                ItemSpec[] specs = new ItemSpec[] { new ItemSpec(directory.getAbsolutePath(), RecursionType.FULL) };
+                List<Conflict> conflicts = new ArrayList<Conflict>(queryConflictsByPath(specs).values());
+                resolveConflictsInBatches(conflicts, resolution);
+                return conflicts.size();
+            }
+        });
+    }
+
+    // Resolve conflicts a batch at a time, stopping between batches if the operation is
+    // canceled. The files of the batch's LOCAL conflicts are got once, then their conflicts
+    // are queried again, since a LOCAL conflict can't be resolved until it's refreshed to
+    // a GET/CHECKIN/etc. conflict.
+    private void resolveConflictsInBatches(List<Conflict> conflicts, Resolution resolution)
+        throws ConfigurationManagementException {
+
+        List<String> failedPaths = new ArrayList<String>();
+        for (int start = 0; start < conflicts.size(); start += ConflictBatchSize) {
+            TfsCancellationMonitor.throwIfCanceled();
+            List<Conflict> batch = conflicts.subList(start, Math.min(start + ConflictBatchSize, conflicts.size()));
+
+            List<Conflict> resolvableConflicts = new ArrayList<Conflict>();
+            List<File> localConflictFiles = new ArrayList<File>();
+            for (Conflict conflict : batch) {
+                if (conflict.getType().getValue() == ConflictType.LOCAL.getValue() &&
+                    conflict.getTargetLocalItem() != null) {
+                    localConflictFiles.add(new File(conflict.getTargetLocalItem()));
+                }
+                else {
+                    resolvableConflicts.add(conflict);
+                }
+            }
+            if (!localConflictFiles.isEmpty()) {
+                getLatestFiles(localConflictFiles);
+                resolvableConflicts.addAll(
+                    queryConflictsByPath(toItemSpecs(localConflictFiles, RecursionType.NONE)).values());
+            }
+
+            for (Conflict conflict : resolvableConflicts) {
+                conflict.setResolution(resolution);
+                getWorkspace().resolveConflict(conflict);
+                if (!conflict.isResolved()) {
+                    failedPaths.add(conflict.getTargetLocalItem() != null
+                        ? conflict.getTargetLocalItem()
+                        : conflict.getYourServerItem());
+                }
+            }
+            TfsOperationContext.getCurrent().addItems(batch.size());
+        }
 
-            return conflict;
+        if (!failedPaths.isEmpty()) {
+            throw new ConfigurationManagementException("Failed to resolve " + failedPaths.size() +
+                " conflicts, including the conflict on " + failedPaths.get(0));
         }
-        else
-        {
-            throw new ConfigurationManagementException(
-                "Internal error: File State map contained an unexpected type.");
+    }
+
+    // Query the conflicts on the specified items, keyed by local path.
+    private Map<String, Conflict> queryConflictsByPath(ItemSpec[] specs) throws ConfigurationManagementException {
+        Map<String, Conflict> conflictsByPath = new LinkedHashMap<String, Conflict>();
+        if (specs.length == 0) {
+            return conflictsByPath;
         }
+
+        long phaseStart = System.nanoTime();
+        Conflict[] conflicts = getWorkspace().queryConflicts(specs);
+        TfsOperationContext.recordPhase("conflictQuery", phaseStart);
+        if (conflicts != null) {
+            for (Conflict conflict : conflicts) {
+                String key = conflict.getTargetLocalItem() != null
+                    ? conflict.getTargetLocalItem()
+                    : conflict.getYourServerItem();
+                conflictsByPath.put(key, conflict);
+            }
+        }
+        return conflictsByPath;
+    }
+
+    // Create an ItemSpec with the given recursion for each file.
+    private static ItemSpec[] toItemSpecs(Collection<File> files, RecursionType recursion) {
+        ItemSpec[] specs = new ItemSpec[files.size()];
+        int index = 0;
+        for (File file : files) {
+            specs[index++] = new ItemSpec(file.getAbsolutePath(), recursion);
+        }
+        return specs;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void uncheckout(Collection<File> files) throws ConfigurationManagementException {
+    public void uncheckout(final Collection<File> files) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("uncheckout", OperationPriority.BULK, files.size()) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                undoPendingChanges(files);
+                return null;
+            }
+        });
+    }
+
+    // Undo the pending changes on the specified files.
+    private void undoPendingChanges(Collection<File> files) throws ConfigurationManagementException {
         ArrayList<ItemSpec> fileSpecs = new ArrayList<ItemSpec>();
         for (File file : files) {
             // Want full recursion on undo based on SDK test cases
@@ -934,15 +2098,41 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
      * {@inheritDoc}
      */
     @Override
-    public void update(File directory) throws ConfigurationManagementException {
+    public void update(final File directory) throws ConfigurationManagementException {
+        runOperation(new TfsOperation<Void>("update", OperationPriority.BULK) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                getLatestRecursively(directory);
+                return null;
+            }
+        });
+    }
+
+    // Get the latest version of all files under the specified directory.
+    private void getLatestRecursively(File directory) throws ConfigurationManagementException {
         ItemSpec spec = new ItemSpec(directory.getAbsolutePath(), RecursionType.FULL);
         GetRequest request = new GetRequest(spec, LatestVersionSpec.INSTANCE);
+        TfsOperationContext.setArgument("recursion", RecursionType.FULL);
 
         // Use GET_ALL to force re-download. The MATLAB UI pops up a warning about this,
         // indicating this is the expected behavior.
         getWorkspace().get(request, GetOptions.GET_ALL);
     }
 
+    // Run an adapter operation through the operation scheduler. Bulk operations may change
+    // the workspace, so they drop the state cached for it even if they fail.
+    private <T> T runOperation(TfsOperation<T> operation) throws ConfigurationManagementException {
+        TfsWorkspaceContext operationContext = getContext();
+        try {
+            return this.scheduler.run(operation);
+        }
+        finally {
+            if (operation.getPriority() == OperationPriority.BULK) {
+                operationContext.invalidate();
+            }
+        }
+    }
+
     // Add a listener that gets information about errors that occur during TFS operations.
     private void AddErrorListener(TfsErrorListener errorListener) throws ConfigurationManagementException {
     	getWorkspace().getClient().getEventEngine().addNonFatalErrorListener(errorListener);
@@ -955,17 +2145,17 @@ public class TfsAdapter extends TfsBase implements CMAdapter {
         errorListener.ProcessErrors();
     }
     
-    // Gets the cached Workspace for this adapter, refreshing it if necessary.
+    // Gets the Workspace shared by the adapters for this sandbox, refreshing it if necessary.
     private Workspace getWorkspace() throws ConfigurationManagementException {
-        // Refresh the cached workspace if the TFS connection has changed.
-        if (this.workspace.getClient().getConnection().isClosed()) {
-            Workspace newWorkspace = Utilities.getWorkspaceForLocalPath(this.sandboxRoot.getAbsolutePath());
-            if (newWorkspace == null) {
-            	throw new ConfigurationManagementException("No Workspace found for directory " +
-            	    this.sandboxRoot.getAbsolutePath() + " under current TFS connection.");
-            }
-            this.workspace = newWorkspace;
+        return getContext().getWorkspace();
+    }
+
+    // Gets the state shared with the other adapters of the Workspace, once the adapter has connected.
+    private TfsWorkspaceContext getContext() throws ConfigurationManagementException {
+        TfsWorkspaceContext currentContext = this.context;
+        if (currentContext == null) {
+            throw new ConfigurationManagementException("The adapter for " + this.sandboxRoot + " isn't connected.");
         }
-        return this.workspace;
+        return currentContext;
     }
 }
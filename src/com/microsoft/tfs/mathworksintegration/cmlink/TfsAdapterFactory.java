@@ -3,6 +3,8 @@
 package com.microsoft.tfs.mathworksintegration.cmlink;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -15,6 +17,7 @@ import com.mathworks.cmlink.api.version.r16b.CMAdapterFactory;
 import com.mathworks.cmlink.api.version.r16b.CMRepository;
 import com.microsoft.tfs.core.config.httpclient.DefaultHTTPClientFactory;
 import com.microsoft.tfs.core.ws.runtime.client.SOAPService;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsMetrics;
 
 /**
  * Implementation of the {@link CMAdapterFactory} interface which creates
@@ -26,6 +29,7 @@ public class TfsAdapterFactory implements CMAdapterFactory {
         // Set the TFS Java SDK SimpleLog output levels to minimize the 
         // amount of data written to the MATLAB output window.
         // This code is executed when MATLAB starts up.
+        // Use the "traceEnabled" TFS setting to trace requests to a file instead (see TfsSoapTracer).
         Log log = LogFactory.getLog(SOAPService.class);
         if (log.getClass() == SimpleLog.class) {
             ((SimpleLog)log).setLevel(SimpleLog.LOG_LEVEL_ERROR);
@@ -35,8 +39,14 @@ public class TfsAdapterFactory implements CMAdapterFactory {
         if (log.getClass() == SimpleLog.class) {
             ((SimpleLog)log).setLevel(SimpleLog.LOG_LEVEL_ERROR);
         }
+
+        // Publish the adapter operation metrics through JMX.
+        TfsMetrics.getInstance();
     }
 
+    // The state shared by the adapters of each Workspace, by Workspace root directory.
+    private static final Map<File, TfsWorkspaceContext> WorkspaceContexts = new HashMap<File, TfsWorkspaceContext>();
+
     private final ICheckinDataProvider checkinDataProvider;
 
     /**
@@ -68,6 +78,45 @@ public class TfsAdapterFactory implements CMAdapterFactory {
         return adapter;
     }
 
+    /**
+     * Gets the state shared by the adapters of the Workspace holding a sandbox directory,
+     * creating it if no adapter for the Workspace is connected, and registers a connecting
+     * adapter with it. Both happen under the lock {@link #releaseWorkspaceContext} takes,
+     * so the last adapter to disconnect can't forget the context in between.
+     * @param directory
+     *     The sandbox directory.
+     */
+    static synchronized TfsWorkspaceContext acquireWorkspaceContext(File directory) {
+        // Directories outside local Workspaces can't be matched to a Workspace without
+        // asking the server, so they get a context of their own.
+        File root = Utilities.findLocalWorkspaceRoot(directory.getAbsoluteFile());
+        TfsWorkspaceContext context;
+        if (root == null) {
+            context = new TfsWorkspaceContext(directory.getAbsoluteFile());
+        }
+        else {
+            context = WorkspaceContexts.get(root);
+            if (context == null) {
+                context = new TfsWorkspaceContext(root);
+                WorkspaceContexts.put(root, context);
+            }
+        }
+        context.retain();
+        return context;
+    }
+
+    /**
+     * Releases the shared state of a Workspace once an adapter has disconnected, and
+     * forgets it once no adapter for the Workspace is connected.
+     * @param context
+     *     The state shared by the adapters of the Workspace.
+     */
+    static synchronized void releaseWorkspaceContext(TfsWorkspaceContext context) {
+        if (context.disconnect()) {
+            WorkspaceContexts.remove(context.getRoot());
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -108,12 +157,7 @@ public class TfsAdapterFactory implements CMAdapterFactory {
             return false;
         }
 
-        File workspaceDir = new File(directory, Utilities.TfsLocalWorkspaceFolder);
-        if (workspaceDir.exists()) {
-            return true;
-        }
-
-        return isDirSandboxForThisAdapter(directory.getParentFile());
+        return Utilities.findLocalWorkspaceRoot(directory) != null;
     }
 
 }
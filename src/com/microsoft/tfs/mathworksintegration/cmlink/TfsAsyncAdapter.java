@@ -0,0 +1,317 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.mathworks.cmlink.api.ConflictedRevisions;
+import com.mathworks.cmlink.api.Revision;
+import com.mathworks.cmlink.api.version.r16b.FileState;
+
+/**
+ * Asynchronous facade over a {@link TfsAdapter}, intended for automation scripts
+ * which operate on several sandboxes or large file sets and want to overlap the
+ * server latency of independent operations.
+ * <p>
+ * Each method submits the corresponding {@link TfsAdapter} operation to an executor
+ * and returns immediately with a {@link ListenableFuture}. From MATLAB, call get()
+ * on the returned future to wait for the result, and cancel(true) to cancel it.
+ * Cancelling a future which has not started yet prevents the operation from running,
+ * and cancelling a running future interrupts the thread performing the operation.
+ * Failures are reported by get() as an ExecutionException whose cause is the
+ * {@link ConfigurationManagementException} thrown by the adapter.
+ */
+public class TfsAsyncAdapter {
+
+    private static final String ThreadNameFormat = "TFS async adapter %d";
+
+    private final TfsAdapter adapter;
+    private final ListeningExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Initializes a TfsAsyncAdapter instance which runs operations on its own
+     * thread pool, sized by the "parallelism" TFS setting.
+     * @param adapter
+     *     The connected {@link TfsAdapter} to perform operations with.
+     */
+    public TfsAsyncAdapter(TfsAdapter adapter) {
+        this(adapter, createDefaultExecutor(), true);
+    }
+
+    /**
+     * Initializes a TfsAsyncAdapter instance.
+     * @param adapter
+     *     The connected {@link TfsAdapter} to perform operations with.
+     * @param executor
+     *     The {@link ExecutorService} to run operations on. The caller remains
+     *     responsible for shutting it down.
+     */
+    public TfsAsyncAdapter(TfsAdapter adapter, ExecutorService executor) {
+        this(adapter, executor, false);
+    }
+
+    private TfsAsyncAdapter(TfsAdapter adapter, ExecutorService executor, boolean ownsExecutor) {
+        this.adapter = adapter;
+        this.executor = MoreExecutors.listeningDecorator(executor);
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Creates a TfsAsyncAdapter for a sandbox directory, connecting to TFS if needed.
+     * Checkin information is requested from the user with a prompt.
+     * @param sandboxRoot
+     *     The sandbox root directory.
+     * @throws ConfigurationManagementException
+     */
+    public static TfsAsyncAdapter forSandbox(File sandboxRoot) throws ConfigurationManagementException {
+        TfsAdapter adapter = new TfsAdapter(sandboxRoot, null, new CheckinDataUserPrompt());
+        adapter.connect();
+        return new TfsAsyncAdapter(adapter);
+    }
+
+    /**
+     * Gets the {@link TfsAdapter} which performs the operations.
+     */
+    public TfsAdapter getAdapter() {
+        return this.adapter;
+    }
+
+    /**
+     * Asynchronously gets the state of the specified files.
+     * @see TfsAdapter#getFileState(Collection)
+     */
+    public ListenableFuture<Map<File, FileState>> getFileState(final Collection<File> files) {
+        return this.executor.submit(new Callable<Map<File, FileState>>() {
+            @Override
+            public Map<File, FileState> call() throws ConfigurationManagementException {
+                return adapter.getFileState(files);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously gets the state of all files known to TFS under a directory.
+     * @see TfsAdapter#getStateForAllKnownFilesRecursively(File)
+     */
+    public ListenableFuture<Map<File, FileState>> getStateForAllKnownFilesRecursively(final File root) {
+        return this.executor.submit(new Callable<Map<File, FileState>>() {
+            @Override
+            public Map<File, FileState> call() throws ConfigurationManagementException {
+                return adapter.getStateForAllKnownFilesRecursively(root);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously gets the state of all files known to TFS under a directory, a page
+     * at a time. The states are put in the given map as each page arrives, so it can be
+     * read before the future completes.
+     * @see TfsAdapter#getStateForAllKnownFilesRecursively(File, ConcurrentMap, IFileStateListener)
+     */
+    public ListenableFuture<Map<File, FileState>> getStateForAllKnownFilesRecursively(final File root,
+        final ConcurrentMap<File, FileState> fileStates, final IFileStateListener listener) {
+        return this.executor.submit(new Callable<Map<File, FileState>>() {
+            @Override
+            public Map<File, FileState> call() throws ConfigurationManagementException {
+                return adapter.getStateForAllKnownFilesRecursively(root, fileStates, listener);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously gets the revisions causing the conflicts of the specified files, and
+     * optionally downloads their content ahead of a comparison.
+     * @see TfsAdapter#getRevisionsCausingConflict(Collection, boolean)
+     */
+    public ListenableFuture<Map<File, ConflictedRevisions>> getRevisionsCausingConflict(final Collection<File> files,
+        final boolean prefetchContents) {
+        return this.executor.submit(new Callable<Map<File, ConflictedRevisions>>() {
+            @Override
+            public Map<File, ConflictedRevisions> call() throws ConfigurationManagementException {
+                return adapter.getRevisionsCausingConflict(files, prefetchContents);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously gets the latest version of the specified files.
+     * @see TfsAdapter#getLatest(Collection)
+     */
+    public ListenableFuture<Void> getLatest(final Collection<File> files) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ConfigurationManagementException {
+                adapter.getLatest(files);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously gets the latest version of all files under a directory.
+     * @see TfsAdapter#update(File)
+     */
+    public ListenableFuture<Void> update(final File directory) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ConfigurationManagementException {
+                adapter.update(directory);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously downloads file revisions to the specified destinations.
+     * @see TfsAdapter#export(Map, Map)
+     */
+    public ListenableFuture<Void> export(final Map<File, Revision> revisionMap, final Map<File, File> destinationMap) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ConfigurationManagementException {
+                adapter.export(revisionMap, destinationMap);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously lists the revisions of a file.
+     * @see TfsAdapter#listRevisions(File)
+     */
+    public ListenableFuture<Collection<Revision>> listRevisions(final File file) {
+        return this.executor.submit(new Callable<Collection<Revision>>() {
+            @Override
+            public Collection<Revision> call() throws ConfigurationManagementException {
+                return adapter.listRevisions(file);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously checks in the pending changes of the specified files.
+     * @see TfsAdapter#checkin(Collection, String)
+     */
+    public ListenableFuture<Void> checkin(final Collection<File> files, final String comment) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ConfigurationManagementException {
+                adapter.checkin(files, comment);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously checks in all pending changes under a directory.
+     * @see TfsAdapter#checkin(File, String)
+     */
+    public ListenableFuture<Void> checkin(final File directory, final String comment) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ConfigurationManagementException {
+                adapter.checkin(directory, comment);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously pends an add of the specified files.
+     * @see TfsAdapter#add(Collection)
+     */
+    public ListenableFuture<Void> add(final Collection<File> files) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ConfigurationManagementException {
+                adapter.add(files);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously pends a delete of the specified files.
+     * @see TfsAdapter#remove(Collection)
+     */
+    public ListenableFuture<Void> remove(final Collection<File> files) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ConfigurationManagementException {
+                adapter.remove(files);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously pends a rename of a file.
+     * @see TfsAdapter#moveFile(File, File)
+     */
+    public ListenableFuture<Void> moveFile(final File oldLocation, final File newLocation) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ConfigurationManagementException {
+                adapter.moveFile(oldLocation, newLocation);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously locks the specified files.
+     * @see TfsAdapter#checkout(Collection)
+     */
+    public ListenableFuture<Void> checkout(final Collection<File> files) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ConfigurationManagementException {
+                adapter.checkout(files);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronously undoes the pending changes of the specified files.
+     * @see TfsAdapter#uncheckout(Collection)
+     */
+    public ListenableFuture<Void> uncheckout(final Collection<File> files) {
+        return this.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ConfigurationManagementException {
+                adapter.uncheckout(files);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stops accepting new operations. If the executor was created by this
+     * TfsAsyncAdapter, its threads exit once queued operations have completed.
+     */
+    public void shutdown() {
+        if (this.ownsExecutor) {
+            this.executor.shutdown();
+        }
+    }
+
+    // Create the thread pool used when no executor is supplied.
+    private static ExecutorService createDefaultExecutor() {
+        int threadCount = TfsSettingsService.getInstance().getSettings().getParallelism();
+        return Executors.newFixedThreadPool(threadCount,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat(ThreadNameFormat).build());
+    }
+}
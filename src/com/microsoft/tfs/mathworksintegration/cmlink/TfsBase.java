@@ -10,6 +10,7 @@ import com.mathworks.cmlink.api.InteractorSupportedFeature;
 import com.mathworks.cmlink.api.customization.CoreAction;
 import com.mathworks.cmlink.api.customization.CustomizationWidgetFactory;
 import com.mathworks.cmlink.api.version.r16b.CMInteractor;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsPerformanceDialog;
 
 /**
  * Implementation of the {@link CMInteractor} interface which handles TFS connections.
@@ -53,6 +54,24 @@ public class TfsBase implements CMInteractor {
             }
         });
 
+        // This shows live adapter statistics, for diagnosing performance problems.
+        widgetFactory.createActionWidget("TFS Performance", null, new CoreAction() {
+            @Override
+            public void execute() throws ConfigurationManagementException {
+                TfsPerformanceDialog.show();
+            }
+
+            @Override
+            public String getDescription() {
+                return "Show TFS operation timings, server round trips, cache hit rates and connection usage.";
+            }
+
+            @Override
+            public boolean canCancel() {
+                return false;
+            }
+        });
+
         // This text shows up in the View Details dialog under the "TFS info:" label.
         String infoString = null;
         String endpoint = Utilities.getStoredEndpoint();
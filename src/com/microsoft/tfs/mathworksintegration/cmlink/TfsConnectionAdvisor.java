@@ -0,0 +1,32 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+import com.microsoft.tfs.core.config.ConnectionInstanceData;
+import com.microsoft.tfs.core.config.DefaultConnectionAdvisor;
+import com.microsoft.tfs.core.config.httpclient.HTTPClientFactory;
+
+/**
+ * Extension of the {@link DefaultConnectionAdvisor} which supplies the
+ * {@link TfsHTTPClientFactory} to TFS connections.
+ */
+public class TfsConnectionAdvisor extends DefaultConnectionAdvisor {
+
+    /**
+     * Initializes a TfsConnectionAdvisor instance.
+     */
+    public TfsConnectionAdvisor() {
+        super(Locale.getDefault(), TimeZone.getDefault());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HTTPClientFactory getHTTPClientFactory(ConnectionInstanceData instanceData) {
+        return new TfsHTTPClientFactory(instanceData, TfsSettingsService.getInstance().getSettings());
+    }
+}
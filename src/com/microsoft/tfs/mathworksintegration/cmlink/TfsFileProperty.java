@@ -9,9 +9,20 @@ import com.mathworks.cmlink.api.FileProperty;
  */
 public class TfsFileProperty implements FileProperty {
 
-	private String name;
-	private String type;
-	private boolean isMod;
+	/** Shown for files at the latest server version. */
+	public static final TfsFileProperty Latest = new TfsFileProperty("latest", "latest", false);
+	/** Shown for files behind the latest server version. */
+	public static final TfsFileProperty NotLatest = new TfsFileProperty("not latest", "latest", false);
+	/** Shown for files with a pending rename. */
+	public static final TfsFileProperty Rename = new TfsFileProperty("rename", "rename", true);
+	/** Shown for files with a pending branch. */
+	public static final TfsFileProperty Branch = new TfsFileProperty("branch", "branch", true);
+	/** Shown for files with a pending merge. */
+	public static final TfsFileProperty Merge = new TfsFileProperty("merge", "merge", true);
+
+	private final String name;
+	private final String type;
+	private final boolean isMod;
 	
     /**
      * Initializes a TfsFileProperty instance.
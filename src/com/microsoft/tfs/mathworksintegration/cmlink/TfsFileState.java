@@ -4,7 +4,9 @@ package com.microsoft.tfs.mathworksintegration.cmlink;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 import com.mathworks.cmlink.api.FileProperty;
 import com.mathworks.cmlink.api.IntegerRevision;
@@ -18,13 +20,37 @@ import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.LockLevel;
 
 /**
  * Extension of the {@FileState} class which contains TFS specific state information.
+ * <p>
+ * MATLAB asks for the status, properties and revision of every visible file each time
+ * it repaints, so the state is snapshotted when it is created and the answers are
+ * shared or memoized rather than rebuilt on every call.
  */
 public class TfsFileState implements FileState {
 
     private static final int DefaultVersion = 0;
 
-    private ExtendedItem extendedItem;
-    private Conflict conflict;
+    // Bits of the index into PropertyLists.
+    private static final int RenameBit = 1;
+    private static final int BranchBit = 2;
+    private static final int MergeBit = 4;
+    private static final int NotLatestBit = 8;
+
+    // The property list for each combination of pending changes and latest state.
+    private static final List<Collection<FileProperty>> PropertyLists = createPropertyLists();
+
+    private final boolean isUnderCm;
+    private final String targetServerItem;
+    private final int localVersion;
+    private final int latestVersion;
+    private final boolean hasLock;
+    private final Conflict conflict;
+    private final LocalStatus localStatus;
+    private final int propertyListIndex;
+
+    private volatile Revision revision;
+    private volatile Revision latestRevision;
+    private volatile Revision baseConflictRevision;
+    private volatile Revision theirConflictRevision;
 
     /**
      * Initializes a TfsFileState instance.
@@ -41,8 +67,55 @@ public class TfsFileState implements FileState {
      *     The {@link Conflict} containing information about any conflicts.
      */
     public TfsFileState(ExtendedItem extendedItem, Conflict conflict) {
-        this.extendedItem = extendedItem;
+        this(
+            extendedItem != null,
+            extendedItem == null ? null : extendedItem.getTargetServerItem(),
+            extendedItem == null || !extendedItem.hasLocalChange() ? null : extendedItem.getPendingChange(),
+            extendedItem == null ? DefaultVersion : extendedItem.getLocalVersion(),
+            extendedItem == null ? DefaultVersion : extendedItem.getLatestVersion(),
+            extendedItem != null && extendedItem.getLockLevel() != LockLevel.NONE,
+            conflict);
+    }
+
+    /**
+     * Initializes a TfsFileState instance from the TFS information about a file.
+     * @param isUnderCm
+     *     Whether the file is known to TFS. If false, the other arguments are ignored.
+     * @param targetServerItem
+     *     The server path of the file.
+     * @param pendingChange
+     *     The change pending on the file, or null if there is none.
+     * @param localVersion
+     *     The version of the file in the workspace, or 0 if it hasn't been downloaded.
+     * @param latestVersion
+     *     The latest version of the file on the server.
+     * @param hasLock
+     *     Whether the file is locked.
+     * @param conflict
+     *     The {@link Conflict} containing information about any conflicts.
+     */
+    public TfsFileState(boolean isUnderCm, String targetServerItem, ChangeType pendingChange, int localVersion,
+        int latestVersion, boolean hasLock, Conflict conflict) {
+
+        this.isUnderCm = isUnderCm;
+        this.targetServerItem = targetServerItem;
+        this.localVersion = isUnderCm ? localVersion : DefaultVersion;
+        this.latestVersion = isUnderCm ? latestVersion : DefaultVersion;
+        this.hasLock = isUnderCm && hasLock;
         this.conflict = conflict;
+
+        ChangeType change = isUnderCm && pendingChange != null && !pendingChange.equals(ChangeType.NONE)
+            ? pendingChange
+            : null;
+        this.localStatus = getLocalStatus(isUnderCm, change, conflict);
+
+        int index = isLatest() ? 0 : NotLatestBit;
+        if (change != null) {
+            index |= change.contains(ChangeType.RENAME) ? RenameBit : 0;
+            index |= change.contains(ChangeType.BRANCH) ? BranchBit : 0;
+            index |= change.contains(ChangeType.MERGE) ? MergeBit : 0;
+        }
+        this.propertyListIndex = index;
     }
 
     /**
@@ -50,18 +123,22 @@ public class TfsFileState implements FileState {
      */
     @Override
     public LocalStatus getLocalStatus() {
-        if (this.extendedItem == null) {
+        return this.localStatus;
+    }
+
+    // Gets the LocalStatus for a file's pending change, which is null if the file has none.
+    private static LocalStatus getLocalStatus(boolean isUnderCm, ChangeType tfsChange, Conflict conflict) {
+        if (!isUnderCm) {
             return LocalStatus.NOT_UNDER_CM;
         }
-        else if (!this.extendedItem.hasLocalChange()) {
+        else if (tfsChange == null) {
             return LocalStatus.UNMODIFIED;
         }
         else {
-            if (this.conflict != null) {
+            if (conflict != null) {
                 return LocalStatus.CONFLICTED; 
             }
 
-            ChangeType tfsChange = this.extendedItem.getPendingChange();
             if (tfsChange.contains(ChangeType.ADD) || tfsChange.contains(ChangeType.RENAME) ||
                 tfsChange.contains(ChangeType.BRANCH)) {
                 // Renames and branches show up with a LocalStatus of ADDED, but we add an entry
@@ -89,33 +166,31 @@ public class TfsFileState implements FileState {
     
     /**
      * {@inheritDoc}
+     * The returned collection is shared and can't be modified.
      */
     @Override
     public Collection<FileProperty> getProperties() {
-        ArrayList<FileProperty> properties = new ArrayList<FileProperty>();
+        return PropertyLists.get(this.propertyListIndex);
+    }
 
-        if (this.extendedItem != null && this.extendedItem.hasLocalChange()) {
-            ChangeType tfsChange = this.extendedItem.getPendingChange();
-            if (tfsChange.contains(ChangeType.RENAME)) {
-        	    TfsFileProperty renamedProperty = new TfsFileProperty("rename", "rename", true);
-        	    properties.add(renamedProperty);
+    // Build the property list for each combination of the bits of the property list index.
+    private static List<Collection<FileProperty>> createPropertyLists() {
+        List<Collection<FileProperty>> lists = new ArrayList<Collection<FileProperty>>();
+        for (int index = 0; index <= (RenameBit | BranchBit | MergeBit | NotLatestBit); index++) {
+            List<FileProperty> properties = new ArrayList<FileProperty>();
+            if ((index & RenameBit) != 0) {
+                properties.add(TfsFileProperty.Rename);
             }
-            if (tfsChange.contains(ChangeType.BRANCH)) {
-        	    TfsFileProperty branchProperty = new TfsFileProperty("branch", "branch", true);
-        	    properties.add(branchProperty);
+            if ((index & BranchBit) != 0) {
+                properties.add(TfsFileProperty.Branch);
             }
-            if (tfsChange.contains(ChangeType.MERGE)) {
-        	    TfsFileProperty mergeProperty = new TfsFileProperty("merge", "merge", true);
-        	    properties.add(mergeProperty);
+            if ((index & MergeBit) != 0) {
+                properties.add(TfsFileProperty.Merge);
             }
+            properties.add((index & NotLatestBit) != 0 ? TfsFileProperty.NotLatest : TfsFileProperty.Latest);
+            lists.add(Collections.unmodifiableList(properties));
         }
-        TfsFileProperty latestProperty = new TfsFileProperty(
-            isLatest() ? "latest" : "not latest",
-            "latest",
-            false);
-        properties.add(latestProperty);
-        
-        return properties;
+        return Collections.unmodifiableList(lists);
     }
 
     /**
@@ -123,21 +198,19 @@ public class TfsFileState implements FileState {
      */
     @Override
     public Revision getRevision() {
-        Revision revision = null;
-
-        if (this.extendedItem != null) {
-            int versionNumber = this.extendedItem.getLocalVersion();
-            // SDK tests expects null instead of Revision(0) when a file has not been downloaded for the first time.
-            if (versionNumber != DefaultVersion && this.extendedItem.getLatestVersion() != DefaultVersion) {
-                // The path is stored on the Revision because if a file is renamed, the original path is 
-                // required for some operations.
-                HashMap<String, String> revisionInfo = new HashMap<String, String>();
-                revisionInfo.put(Utilities.RevisionInfoKey_Path, extendedItem.getTargetServerItem());
-                revision = new IntegerRevision(versionNumber, revisionInfo);
-            }
+        // SDK tests expects null instead of Revision(0) when a file has not been downloaded for the first time.
+        if (!this.isUnderCm || this.localVersion == DefaultVersion || this.latestVersion == DefaultVersion) {
+            return null;
         }
 
-        return revision;
+        Revision result = this.revision;
+        if (result == null) {
+            // The path is stored on the Revision because if a file is renamed, the original path is 
+            // required for some operations.
+            result = createRevision(this.localVersion, this.targetServerItem);
+            this.revision = result;
+        }
+        return result;
     }
 
     /**
@@ -145,14 +218,14 @@ public class TfsFileState implements FileState {
      */
     @Override
     public boolean hasLock() {
-        return this.extendedItem != null && this.extendedItem.getLockLevel() != LockLevel.NONE;
+        return this.hasLock;
     }
 
     /**
      * Whether this is the latest revision of the file.
      */
     public boolean isLatest() {
-        return this.extendedItem == null || this.extendedItem.getLocalVersion() == this.extendedItem.getLatestVersion();
+        return !this.isUnderCm || this.localVersion == this.latestVersion;
     }
 
     /**
@@ -166,41 +239,54 @@ public class TfsFileState implements FileState {
      * Gets the base revision for a conflict. If there is no conflict, then return null.
      */
     public Revision getBaseConflictRevision() {
-        Revision revision = null;
-        if (this.conflict != null) {
-            HashMap<String, String> revisionInfo = new HashMap<String, String>();
-            revisionInfo.put(Utilities.RevisionInfoKey_Path, this.conflict.getBaseServerItem());
-            revision = new IntegerRevision(this.conflict.getBaseVersion(), revisionInfo);
+        if (this.conflict == null) {
+            return null;
         }
 
-        return revision;
+        Revision result = this.baseConflictRevision;
+        if (result == null) {
+            result = createRevision(this.conflict.getBaseVersion(), this.conflict.getBaseServerItem());
+            this.baseConflictRevision = result;
+        }
+        return result;
     }
 
     /**
      * Gets the revision causing the conflict. If there is no conflict, then return null.
      */
     public Revision getTheirConflictRevision() {
-        Revision revision = null;
-        if (this.conflict != null) {
-            HashMap<String, String> revisionInfo = new HashMap<String, String>();
-            revisionInfo.put(Utilities.RevisionInfoKey_Path, this.conflict.getTheirServerItem());
-            revision = new IntegerRevision(this.conflict.getTheirVersion(), revisionInfo);
+        if (this.conflict == null) {
+            return null;
         }
 
-        return revision;
+        Revision result = this.theirConflictRevision;
+        if (result == null) {
+            result = createRevision(this.conflict.getTheirVersion(), this.conflict.getTheirServerItem());
+            this.theirConflictRevision = result;
+        }
+        return result;
     }
 
     /**
      * Get the latest revision for the file.
      */
     public Revision getLatestRevision() {
-        Revision revision = null;
-        if (this.extendedItem != null) {	
-            HashMap<String, String> revisionInfo = new HashMap<String, String>();
-            revisionInfo.put(Utilities.RevisionInfoKey_Path, extendedItem.getTargetServerItem());
-            revision = new IntegerRevision(this.extendedItem.getLatestVersion(), revisionInfo);
+        if (!this.isUnderCm) {
+            return null;
         }
 
-        return revision;
+        Revision result = this.latestRevision;
+        if (result == null) {
+            result = createRevision(this.latestVersion, this.targetServerItem);
+            this.latestRevision = result;
+        }
+        return result;
+    }
+
+    // Create a Revision which holds the server path of the file at that version.
+    static Revision createRevision(int version, String serverItem) {
+        HashMap<String, String> revisionInfo = new HashMap<String, String>();
+        revisionInfo.put(Utilities.RevisionInfoKey_Path, serverItem);
+        return new IntegerRevision(version, revisionInfo);
     }
 }
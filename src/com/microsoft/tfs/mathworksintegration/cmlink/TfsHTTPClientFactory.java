@@ -0,0 +1,92 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microsoft.tfs.core.config.ConnectionInstanceData;
+import com.microsoft.tfs.core.config.httpclient.DefaultHTTPClientFactory;
+import com.microsoft.tfs.core.httpclient.Header;
+import com.microsoft.tfs.core.httpclient.HttpClient;
+import com.microsoft.tfs.core.httpclient.HttpConnectionManager;
+import com.microsoft.tfs.core.httpclient.HttpVersion;
+import com.microsoft.tfs.core.httpclient.params.HostParams;
+import com.microsoft.tfs.core.httpclient.params.HttpClientParams;
+import com.microsoft.tfs.core.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * Extension of the {@link DefaultHTTPClientFactory} which tunes the HTTP transport
+ * used for TFS requests: the connection pool size, persistent (keep-alive) connections
+ * and compressed responses. Requests are counted by a {@link TfsMeteredHttpClient}.
+ */
+public class TfsHTTPClientFactory extends DefaultHTTPClientFactory {
+
+    private static final String ConnectionHeader = "Connection";
+    private static final String KeepAlive = "keep-alive";
+    private static final String AcceptEncodingHeader = "Accept-Encoding";
+    // The SDK's SOAP response reader decodes gzip but not deflate content.
+    private static final String GzipEncoding = "gzip";
+
+    private final TfsSettings settings;
+
+    /**
+     * Initializes a TfsHTTPClientFactory instance.
+     * @param connectionInstanceData
+     *     The {@link ConnectionInstanceData} for the TFS connection.
+     * @param settings
+     *     The {@link TfsSettings} containing the transport tuning settings.
+     */
+    public TfsHTTPClientFactory(ConnectionInstanceData connectionInstanceData, TfsSettings settings) {
+        super(connectionInstanceData);
+        this.settings = settings;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpClient newHTTPClient(HttpConnectionManager connectionManager,
+        ConnectionInstanceData connectionInstanceData) {
+        return new TfsMeteredHttpClient(connectionManager);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void configureConnectionManagerParams(ConnectionInstanceData connectionInstanceData,
+        HttpConnectionManagerParams params) {
+        super.configureConnectionManagerParams(connectionInstanceData, params);
+
+        int poolSize = this.settings.getConnectionPoolSize();
+        if (poolSize > 0) {
+            params.setDefaultMaxConnectionsPerHost(poolSize);
+            params.setMaxTotalConnections(Math.max(poolSize, params.getMaxTotalConnections()));
+        }
+
+        // Pooled connections may have been closed by the server while idle, so check
+        // them before re-use instead of failing the request.
+        params.setStaleCheckingEnabled(true);
+        params.setTcpNoDelay(true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void configureClientParams(HttpClient httpClient, HttpClientParams params,
+        ConnectionInstanceData connectionInstanceData) {
+        super.configureClientParams(httpClient, params, connectionInstanceData);
+
+        // Persistent connections require HTTP/1.1, and avoid a new TLS handshake per request.
+        params.setVersion(HttpVersion.HTTP_1_1);
+
+        List<Header> defaultHeaders = new ArrayList<Header>();
+        defaultHeaders.add(new Header(ConnectionHeader, KeepAlive));
+        if (this.settings.isCompressResponses()) {
+            defaultHeaders.add(new Header(AcceptEncodingHeader, GzipEncoding));
+        }
+        httpClient.getHostConfiguration().getParams().setParameter(HostParams.DEFAULT_HEADERS, defaultHeaders);
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.tfs.core.clients.versioncontrol.GetItemsOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Change;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.DeletedState;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Item;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemSet;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.ItemSpec;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.LatestVersionSpec;
+
+/**
+ * Tracks the latest version of each item under the server path of a sandbox, so
+ * whether a file is latest can be answered without asking the server.
+ * <p>
+ * The latest version of every item is read once when the tracker starts. After that
+ * the tracker polls the server in the background for changesets newer than the last
+ * one it saw, and records the changeset of each item they changed. If a poll fails
+ * the tracker keeps its table, but reports that it isn't current until a poll
+ * succeeds again.
+ */
+public class TfsLatestVersionTracker {
+
+    private static final String ThreadNameFormat = "TFS latest version tracker %d";
+
+    private static final ScheduledExecutorService PollExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat(ThreadNameFormat).build());
+
+    private final String serverRoot;
+    private final long pollIntervalMillis;
+    private final ConcurrentMap<String, Integer> latestVersions;
+    private volatile Workspace workspace;
+    private volatile int lastChangeset;
+    private volatile long lastPollMillis;
+    private ScheduledFuture<?> pollTask;
+
+    /**
+     * Initializes a TfsLatestVersionTracker instance.
+     * @param workspace
+     *     The Workspace of the sandbox.
+     * @param serverRoot
+     *     The server path the sandbox maps.
+     * @param pollIntervalMillis
+     *     The time between polls of the server, in milliseconds.
+     */
+    public TfsLatestVersionTracker(Workspace workspace, String serverRoot, long pollIntervalMillis) {
+        this.workspace = workspace;
+        this.serverRoot = serverRoot;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.latestVersions = new ConcurrentHashMap<String, Integer>();
+    }
+
+    /**
+     * Starts polling the server in the background. The first poll reads the latest
+     * version of every item.
+     */
+    public synchronized void start() {
+        if (this.pollTask == null) {
+            this.pollTask = PollExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            }, 0, this.pollIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops polling the server.
+     */
+    public synchronized void stop() {
+        if (this.pollTask != null) {
+            this.pollTask.cancel(false);
+            this.pollTask = null;
+        }
+    }
+
+    /**
+     * Sets the Workspace used to poll the server, after the TFS connection has changed.
+     * @param newWorkspace
+     *     The Workspace of the sandbox.
+     */
+    public void setWorkspace(Workspace newWorkspace) {
+        this.workspace = newWorkspace;
+    }
+
+    /**
+     * Gets whether the tracker has read the latest versions and polled the server
+     * recently enough for its answers to be used.
+     */
+    public boolean isCurrent() {
+        return this.lastChangeset > 0 && System.currentTimeMillis() - this.lastPollMillis <= 2 * this.pollIntervalMillis;
+    }
+
+    /**
+     * Gets the last changeset the tracker has seen, or 0 if it hasn't polled the server yet.
+     */
+    public int getLastChangeset() {
+        return this.lastChangeset;
+    }
+
+    /**
+     * Gets the latest version of an item, which is its local version if the item hasn't
+     * changed on the server since it was downloaded.
+     * @param serverItem
+     *     The server path of the item.
+     * @param localVersion
+     *     The version of the item in the workspace.
+     */
+    public int getLatestVersion(String serverItem, int localVersion) {
+        Integer latestVersion = serverItem == null ? null : this.latestVersions.get(getKey(serverItem));
+        return latestVersion == null ? localVersion : Math.max(latestVersion, localVersion);
+    }
+
+    /**
+     * Reads the changesets committed since the last poll, or the latest version of
+     * every item on the first poll. Polls are normally made in the background.
+     */
+    public synchronized void poll() {
+        try {
+            VersionControlClient client = this.workspace.getClient();
+            int latestChangeset = client.getLatestChangesetID();
+            if (this.lastChangeset == 0) {
+                readLatestVersions(client, latestChangeset);
+            }
+            else if (latestChangeset > this.lastChangeset) {
+                readChangesets(client, latestChangeset);
+            }
+            this.lastChangeset = latestChangeset;
+            this.lastPollMillis = System.currentTimeMillis();
+        }
+        catch (RuntimeException ex) {
+            // The server can't be reached. isCurrent() turns false once the polls have
+            // failed for long enough, and the next successful poll catches up.
+        }
+    }
+
+    // Read the version of every item under the server root at the given changeset.
+    private void readLatestVersions(VersionControlClient client, int changeset) {
+        ItemSet[] itemSets = client.getItems(
+            new ItemSpec[] { new ItemSpec(this.serverRoot, RecursionType.FULL) },
+            new ChangesetVersionSpec(changeset),
+            DeletedState.NON_DELETED,
+            ItemType.FILE,
+            GetItemsOptions.NONE);
+        for (ItemSet itemSet : itemSets) {
+            for (Item item : itemSet.getItems()) {
+                this.latestVersions.put(getKey(item.getServerItem()), item.getChangeSetID());
+            }
+        }
+    }
+
+    // Record the items changed by the changesets after the last one seen, up to the given changeset.
+    private void readChangesets(VersionControlClient client, int latestChangeset) {
+        Changeset[] changesets = client.queryHistory(
+            this.serverRoot,
+            LatestVersionSpec.INSTANCE,
+            0,
+            RecursionType.FULL,
+            null,
+            new ChangesetVersionSpec(this.lastChangeset + 1),
+            new ChangesetVersionSpec(latestChangeset),
+            Integer.MAX_VALUE,
+            true,
+            false,
+            false,
+            true);
+        if (changesets == null) {
+            return;
+        }
+
+        // Changesets are sorted ascending, so later changes to an item overwrite earlier ones.
+        for (Changeset changeset : changesets) {
+            for (Change change : changeset.getChanges()) {
+                this.latestVersions.put(getKey(change.getItem().getServerItem()), changeset.getChangesetID());
+            }
+        }
+    }
+
+    // Server paths are case insensitive.
+    private static String getKey(String serverItem) {
+        return serverItem.toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,195 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceLocation;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.AllTablesTransaction;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalPendingChange;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalPendingChangesTable;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalWorkspaceProperties;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalWorkspaceTransaction;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.WorkspaceLocalItem;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.WorkspaceVersionTable;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Conflict;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.ItemSpec;
+
+/**
+ * Gets the state of files in a local Workspace from the Workspace's own metadata,
+ * without calling the TFS server.
+ * <p>
+ * A local Workspace keeps the version of each file it has downloaded and the changes
+ * pending on its files in the $tf folder, and the Workspace scan pends edits for
+ * files which were modified on disk. This is enough to tell whether a file is
+ * modified, added, deleted, unmodified or not under source control, and whether the
+ * Workspace holds a lock on it. The latest version of a file is taken from a
+ * {@link TfsLatestVersionTracker} while it is current, and otherwise the file is treated
+ * as latest. Conflicts are only recorded on the server, so they're passed in by the
+ * caller, and locks held by other Workspaces aren't known.
+ */
+public class TfsLocalStatusProvider {
+
+    private final Workspace workspace;
+    private final TfsLatestVersionTracker latestVersionTracker;
+    private final Map<String, Conflict> conflictsByLocalPath;
+
+    /**
+     * Initializes a TfsLocalStatusProvider instance.
+     * @param workspace
+     *     The local Workspace to read the metadata of.
+     * @param latestVersionTracker
+     *     The tracker of the latest versions of the Workspace's files. May be null.
+     * @param conflicts
+     *     The conflicts in the Workspace, as queried from the server. May be null if the
+     *     server can't be reached.
+     */
+    public TfsLocalStatusProvider(Workspace workspace, TfsLatestVersionTracker latestVersionTracker,
+        Conflict[] conflicts) {
+        this.workspace = workspace;
+        this.latestVersionTracker = latestVersionTracker;
+        this.conflictsByLocalPath = new HashMap<String, Conflict>();
+        if (conflicts != null) {
+            for (Conflict conflict : conflicts) {
+                if (conflict.getTargetLocalItem() != null) {
+                    this.conflictsByLocalPath.put(conflict.getTargetLocalItem(), conflict);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets whether the state of the files in a Workspace can be read from its metadata,
+     * which is only the case for local Workspaces.
+     * @param workspace
+     *     The Workspace.
+     */
+    public static boolean isSupported(Workspace workspace) {
+        return workspace.getLocation() == WorkspaceLocation.LOCAL;
+    }
+
+    /**
+     * Gets the state of the files tracked by TFS which match the given specs. Files which
+     * aren't tracked by TFS are left out of the result.
+     * @param fileSpecs
+     *     The local paths to get the state of. Folders may be queried one level deep or
+     *     recursively.
+     */
+    public TfsStatusTable getTrackedFileStates(final ItemSpec[] fileSpecs) {
+        final TfsStatusTable statusTable = new TfsStatusTable();
+
+        LocalWorkspaceTransaction transaction = new LocalWorkspaceTransaction(this.workspace);
+        try {
+            transaction.execute(new AllTablesTransaction() {
+                @Override
+                public void invoke(LocalWorkspaceProperties wp, WorkspaceVersionTable lv,
+                    LocalPendingChangesTable pc) {
+                    for (ItemSpec fileSpec : fileSpecs) {
+                        if (fileSpec.getRecursionType() != RecursionType.NONE) {
+                            addFileStatesRecursively(fileSpec.getItem(), fileSpec.getRecursionType(), lv, pc,
+                                statusTable);
+                        }
+                        else {
+                            addFileState(fileSpec.getItem(), lv, pc, statusTable);
+                        }
+                    }
+                }
+            });
+        }
+        finally {
+            transaction.close();
+        }
+
+        return statusTable;
+    }
+
+    /**
+     * Gets the server paths of the changes pending in or under a server folder.
+     * @param serverRoot
+     *     The server path of the folder.
+     */
+    public Set<String> getPendingServerItems(final String serverRoot) {
+        final Set<String> serverItems = new HashSet<String>();
+
+        LocalWorkspaceTransaction transaction = new LocalWorkspaceTransaction(this.workspace);
+        try {
+            transaction.execute(new AllTablesTransaction() {
+                @Override
+                public void invoke(LocalWorkspaceProperties wp, WorkspaceVersionTable lv,
+                    LocalPendingChangesTable pc) {
+                    for (LocalPendingChange pendingChange : pc.queryByTargetItem(serverRoot, RecursionType.FULL,
+                        null)) {
+                        serverItems.add(pendingChange.getTargetServerItem());
+                    }
+                }
+            });
+        }
+        finally {
+            transaction.close();
+        }
+
+        return serverItems;
+    }
+
+    // Add the state of every tracked file in or under a folder, including pending adds and deletes.
+    private void addFileStatesRecursively(String localRoot, RecursionType recursion, WorkspaceVersionTable lv,
+        LocalPendingChangesTable pc, TfsStatusTable statusTable) {
+
+        for (WorkspaceLocalItem localItem : lv.queryByLocalItem(localRoot, recursion, null)) {
+            if (localItem.getLocalItem() != null) {
+                addFileState(localItem.getLocalItem(), lv, pc, statusTable);
+            }
+        }
+
+        // Pending adds, branches and the targets of pending renames may not have a local
+        // version yet, so add the states of the pending changes under the folder too.
+        String serverRoot = this.workspace.getMappedServerPath(localRoot);
+        if (serverRoot != null) {
+            for (LocalPendingChange pendingChange : pc.queryByTargetItem(serverRoot, recursion, null)) {
+                // For a pending Delete there's no local item, so use the workspace's mapping function.
+                String localPath = this.workspace.getMappedLocalPath(pendingChange.getTargetServerItem());
+                if (localPath != null && !statusTable.contains(localPath)) {
+                    addFileState(localPath, lv, pc, statusTable);
+                }
+            }
+        }
+    }
+
+    // Add the state of a single file, if it's tracked by TFS.
+    private void addFileState(String localPath, WorkspaceVersionTable lv, LocalPendingChangesTable pc,
+        TfsStatusTable statusTable) {
+
+        String serverItem = this.workspace.getMappedServerPath(localPath);
+        WorkspaceLocalItem localItem = lv.getByLocalItem(localPath);
+        LocalPendingChange pendingChange = serverItem == null ? null : pc.getByTargetItem(serverItem);
+        if (localItem == null && pendingChange == null) {
+            return;
+        }
+
+        ChangeType change = pendingChange == null ? null : pendingChange.getChangeType();
+        String targetServerItem = pendingChange != null
+            ? pendingChange.getTargetServerItem()
+            : localItem.getServerItem();
+        int localVersion = localItem == null ? 0 : localItem.getVersion();
+
+        // The latest version is only known to the server, so the local version stands in for
+        // it unless the tracker knows of a newer one.
+        int latestVersion = this.latestVersionTracker != null && this.latestVersionTracker.isCurrent()
+            ? this.latestVersionTracker.getLatestVersion(targetServerItem, localVersion)
+            : localVersion;
+        boolean isFolder = localItem != null
+            ? localItem.isDirectory()
+            : pendingChange.getItemType() == ItemType.FOLDER;
+        // A lock taken by this Workspace is pended like any other change.
+        boolean hasLock = change != null && change.contains(ChangeType.LOCK);
+        statusTable.add(localPath, targetServerItem, change, localVersion, latestVersion, hasLock, isFolder,
+            this.conflictsByLocalPath.get(localPath));
+    }
+}
@@ -0,0 +1,80 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.mathworks.cmlink.api.Revision;
+
+/**
+ * Stores what a merge would do, found without pending any changes, so the user can
+ * decide whether to run it or narrow its changeset range first.
+ */
+public class TfsMergePreview {
+
+    private final BranchMergeInformation mergeInfo;
+    private final List<Revision> candidates;
+    private final int fileCount;
+    private final int conflictCount;
+    private final long downloadBytes;
+
+    /**
+     * Initializes a TfsMergePreview instance.
+     * @param mergeInfo
+     *     The merge which was previewed.
+     * @param candidates
+     *     The changesets which would be merged, oldest first.
+     * @param fileCount
+     *     The number of files the merge would change.
+     * @param conflictCount
+     *     The number of conflicts the TFS server expects the merge to produce.
+     * @param downloadBytes
+     *     The approximate number of bytes the merge would download.
+     */
+    public TfsMergePreview(BranchMergeInformation mergeInfo, List<Revision> candidates, int fileCount,
+        int conflictCount, long downloadBytes) {
+        this.mergeInfo = mergeInfo;
+        this.candidates = Collections.unmodifiableList(candidates);
+        this.fileCount = fileCount;
+        this.conflictCount = conflictCount;
+        this.downloadBytes = downloadBytes;
+    }
+
+    /**
+     * Gets the merge which was previewed.
+     */
+    public BranchMergeInformation getMergeInformation() {
+        return this.mergeInfo;
+    }
+
+    /**
+     * Gets the changesets which would be merged, oldest first. The revision info of each
+     * holds its user, date and comment.
+     */
+    public List<Revision> getCandidates() {
+        return this.candidates;
+    }
+
+    /**
+     * Gets the number of files the merge would change.
+     */
+    public int getFileCount() {
+        return this.fileCount;
+    }
+
+    /**
+     * Gets the number of conflicts the TFS server expects the merge to produce.
+     */
+    public int getConflictCount() {
+        return this.conflictCount;
+    }
+
+    /**
+     * Gets the approximate number of bytes the merge would download, which is the size of
+     * the latest merged version of each file the candidate changesets add or edit.
+     */
+    public long getDownloadBytes() {
+        return this.downloadBytes;
+    }
+}
@@ -0,0 +1,253 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.CountingOutputStream;
+import com.microsoft.tfs.core.httpclient.Header;
+import com.microsoft.tfs.core.httpclient.HostConfiguration;
+import com.microsoft.tfs.core.httpclient.HttpClient;
+import com.microsoft.tfs.core.httpclient.HttpConnectionManager;
+import com.microsoft.tfs.core.httpclient.HttpException;
+import com.microsoft.tfs.core.httpclient.HttpMethod;
+import com.microsoft.tfs.core.httpclient.HttpMethodBase;
+import com.microsoft.tfs.core.httpclient.HttpState;
+import com.microsoft.tfs.core.httpclient.methods.EntityEnclosingMethod;
+import com.microsoft.tfs.core.httpclient.methods.RequestEntity;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsMetrics;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsSoapTracer;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationContext;
+
+/**
+ * Extension of the TFS SDK's {@link HttpClient} which counts the requests made to
+ * the TFS server and their sizes in {@link TfsMetrics}, and writes them to the
+ * {@link TfsSoapTracer} when tracing is enabled.
+ * <p>
+ * Request and response bodies are counted as they are written and read, so bodies
+ * which are streamed without a Content-Length (such as chunked downloads) are counted
+ * too. A response body is read after its round trip has been recorded, so its bytes
+ * are added to the metrics once the TFS SDK closes the response.
+ */
+public class TfsMeteredHttpClient extends HttpClient {
+
+    private static final String ContentLengthHeader = "Content-Length";
+    private static final String SoapActionHeader = "SOAPAction";
+    // HttpMethodBase only lets subclasses replace its response stream, and the TFS SDK
+    // creates its own methods, so the stream is wrapped through these accessors.
+    private static final Method GetResponseStream = getResponseStreamAccessor("getResponseStream");
+    private static final Method SetResponseStream = getResponseStreamAccessor("setResponseStream", InputStream.class);
+
+    /**
+     * Initializes a TfsMeteredHttpClient instance.
+     * @param connectionManager
+     *     The {@link HttpConnectionManager} which provides connections to the server.
+     */
+    public TfsMeteredHttpClient(HttpConnectionManager connectionManager) {
+        super(connectionManager);
+        TfsMetrics.getInstance().setConnectionManager(connectionManager);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int executeMethod(HostConfiguration hostConfiguration, HttpMethod method, HttpState state)
+        throws IOException, HttpException {
+
+        long startNanos = System.nanoTime();
+        TfsOperationContext context = TfsOperationContext.getAttributed();
+        CountingRequestEntity requestEntity = countRequestBody(method);
+        boolean isResponseCounted = false;
+        TfsMetrics.getInstance().recordRequestStarted();
+        try {
+            int statusCode = super.executeMethod(hostConfiguration, method, state);
+            isResponseCounted = countResponseBody(method, context);
+            return statusCode;
+        }
+        finally {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            long requestLength = requestEntity == null ? -1 : requestEntity.getBytesWritten();
+            long responseLength = getResponseLength(method);
+            Header soapAction = method.getRequestHeader(SoapActionHeader);
+            String requestName = TfsSoapTracer.getRequestName(
+                soapAction == null ? null : soapAction.getValue(), method.getName(), method.getPath());
+            TfsMetrics.getInstance().recordRoundTrip(
+                requestName, requestLength, isResponseCounted ? -1 : responseLength, elapsedMillis);
+
+            TfsSoapTracer tracer = TfsSoapTracer.getInstance();
+            if (tracer.isEnabled()) {
+                tracer.trace(
+                    requestName,
+                    method.getStatusLine() == null ? 0 : method.getStatusCode(),
+                    requestLength,
+                    responseLength,
+                    elapsedMillis);
+            }
+        }
+    }
+
+    // Wrap the body of a request so the bytes written are counted, returning null if it has none.
+    private static CountingRequestEntity countRequestBody(HttpMethod method) {
+        if (!(method instanceof EntityEnclosingMethod)) {
+            return null;
+        }
+        EntityEnclosingMethod entityMethod = (EntityEnclosingMethod)method;
+        RequestEntity entity = entityMethod.getRequestEntity();
+        if (entity == null) {
+            return null;
+        }
+        CountingRequestEntity countingEntity = entity instanceof CountingRequestEntity
+            ? (CountingRequestEntity)entity : new CountingRequestEntity(entity);
+        countingEntity.reset();
+        entityMethod.setRequestEntity(countingEntity);
+        return countingEntity;
+    }
+
+    // Wrap the body of a response so the bytes read are recorded for the operation which
+    // made the request. Returns false if the response has no body or can't be wrapped.
+    private static boolean countResponseBody(HttpMethod method, TfsOperationContext context) {
+        if (GetResponseStream == null || SetResponseStream == null || !(method instanceof HttpMethodBase)) {
+            return false;
+        }
+        try {
+            InputStream responseStream = (InputStream)GetResponseStream.invoke(method);
+            if (responseStream == null) {
+                return false;
+            }
+            SetResponseStream.invoke(method, new CountingResponseStream(responseStream, context));
+            return true;
+        }
+        catch (ReflectiveOperationException ex) {
+            // Fall back to the Content-Length of the response.
+            return false;
+        }
+    }
+
+    // Look up an accessor of the response stream of HttpMethodBase, or return null if it doesn't exist.
+    private static Method getResponseStreamAccessor(String name, Class<?>... parameterTypes) {
+        try {
+            Method accessor = HttpMethodBase.class.getDeclaredMethod(name, parameterTypes);
+            accessor.setAccessible(true);
+            return accessor;
+        }
+        catch (NoSuchMethodException | SecurityException ex) {
+            return null;
+        }
+    }
+
+    // Get the length of a response body, or -1 if it is unknown.
+    private static long getResponseLength(HttpMethod method) {
+        Header header = method.getResponseHeader(ContentLengthHeader);
+        if (header != null) {
+            try {
+                return Long.parseLong(header.getValue().trim());
+            }
+            catch (NumberFormatException ex) {
+                // Treat a malformed length as unknown.
+            }
+        }
+        return -1;
+    }
+
+    // A request body which counts the bytes written to the server.
+    private static class CountingRequestEntity implements RequestEntity {
+
+        private final RequestEntity entity;
+        private volatile long bytesWritten;
+
+        public CountingRequestEntity(RequestEntity entity) {
+            this.entity = entity;
+        }
+
+        public long getBytesWritten() {
+            return this.bytesWritten;
+        }
+
+        public void reset() {
+            this.bytesWritten = 0;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return this.entity.isRepeatable();
+        }
+
+        @Override
+        public void writeRequest(OutputStream out) throws IOException {
+            CountingOutputStream countingStream = new CountingOutputStream(out);
+            try {
+                this.entity.writeRequest(countingStream);
+            }
+            finally {
+                this.bytesWritten += countingStream.getCount();
+            }
+        }
+
+        @Override
+        public long getContentLength() {
+            return this.entity.getContentLength();
+        }
+
+        @Override
+        public String getContentType() {
+            return this.entity.getContentType();
+        }
+    }
+
+    // A response body which records the bytes read from the server when it is closed.
+    private static class CountingResponseStream extends FilterInputStream {
+
+        private final TfsOperationContext context;
+        private long bytesRead;
+        private boolean isRecorded;
+
+        public CountingResponseStream(InputStream in, TfsOperationContext context) {
+            super(in);
+            this.context = context;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result != -1) {
+                this.bytesRead++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                this.bytesRead += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            this.bytesRead += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                if (!this.isRecorded) {
+                    this.isRecorded = true;
+                    TfsMetrics.getInstance().recordBytesReceived(this.context, this.bytesRead);
+                }
+            }
+        }
+    }
+}
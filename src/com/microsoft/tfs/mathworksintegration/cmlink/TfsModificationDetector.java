@@ -0,0 +1,310 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalVersionTransaction;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.LocalWorkspaceTransaction;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.WorkspaceLocalItem;
+import com.microsoft.tfs.core.clients.versioncontrol.localworkspace.WorkspaceVersionTable;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsMetrics;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsCancellationMonitor;
+
+/**
+ * Finds the files of a local Workspace whose content may have changed since the
+ * Workspace was last scanned, so the scan can be skipped when nothing changed.
+ * <p>
+ * The size and modification time of each file are cached. Files whose size and time
+ * are unchanged are never read. The other files are compared with the length and MD5
+ * hash of their baseline in the Workspace metadata, and are only hashed when their
+ * size matches the baseline. Hashing is done in parallel, reading through a direct
+ * buffer per thread, so large binary model files which were only touched are cheap to
+ * rule out. A file found to differ from its baseline is reported again the next time
+ * its size or time changes, even if its content then matches the baseline, so an edit
+ * which was reverted is still scanned and dropped. Files aren't memory-mapped, since
+ * Windows keeps a mapped file locked until the mapping is garbage collected, which
+ * would fail the user's next save.
+ */
+public class TfsModificationDetector {
+
+    private static final String CacheName = "modificationDetector";
+    private static final String HashAlgorithm = "MD5";
+    private static final String ThreadNameFormat = "TFS file hashing %d";
+    private static final int ReadBufferSize = 256 * 1024;
+
+    private static ExecutorService hashExecutor;
+
+    // Direct buffers are costly to allocate, so each hashing thread keeps its own.
+    private static final ThreadLocal<ByteBuffer> ReadBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(ReadBufferSize);
+        }
+    };
+
+    private final File sandboxRoot;
+    private final Map<String, FileStamp> stamps;
+    private boolean isPrimed;
+
+    /**
+     * Initializes a TfsModificationDetector instance.
+     * @param sandboxRoot
+     *     The root directory of the sandbox to watch.
+     */
+    public TfsModificationDetector(File sandboxRoot) {
+        this.sandboxRoot = sandboxRoot;
+        this.stamps = new HashMap<String, FileStamp>();
+    }
+
+    /**
+     * Finds the files which were added, deleted or modified since the last call, by
+     * comparing the content of files with a new size or modification time against
+     * their baseline. Files which were only touched aren't included.
+     * <p>
+     * Changes are only returned once, so a caller which fails to scan them must
+     * {@link #reset} the detector.
+     * @param workspace
+     *     The local Workspace of the sandbox.
+     * @return
+     *     The changed files, or null on the first call, when nothing is known about the
+     *     files yet and the whole Workspace must be scanned.
+     * @throws ConfigurationManagementException
+     */
+    public synchronized Set<File> findChangedFiles(Workspace workspace) throws ConfigurationManagementException {
+        final Map<String, FileStamp> currentStamps = new HashMap<String, FileStamp>(this.stamps.size());
+        try {
+            Files.walkFileTree(this.sandboxRoot.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    return Utilities.TfsLocalWorkspaceFolder.equals(String.valueOf(dir.getFileName()))
+                        ? FileVisitResult.SKIP_SUBTREE
+                        : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        currentStamps.put(file.toAbsolutePath().toString(),
+                            new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                    // The file was deleted while walking the sandbox, which the scan will pick up.
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException ex) {
+            throw new ConfigurationManagementException(ex);
+        }
+
+        Set<File> changedFiles = new HashSet<File>();
+        List<String> candidates = new ArrayList<String>();
+        for (Map.Entry<String, FileStamp> entry : currentStamps.entrySet()) {
+            FileStamp previous = this.stamps.get(entry.getKey());
+            if (entry.getValue().equals(previous)) {
+                entry.getValue().isModified = previous.isModified;
+            }
+            else {
+                candidates.add(entry.getKey());
+            }
+        }
+        TfsMetrics.getInstance().recordCacheLookups(CacheName, currentStamps.size() - candidates.size(),
+            candidates.size());
+        for (String path : this.stamps.keySet()) {
+            if (!currentStamps.containsKey(path)) {
+                changedFiles.add(new File(path));
+            }
+        }
+
+        // The new stamps are only kept once the candidates have been compared, so if the
+        // comparison fails the next call finds the same candidates again.
+        boolean wasPrimed = this.isPrimed;
+        if (wasPrimed && !candidates.isEmpty()) {
+            Set<String> modifiedPaths = compareWithBaselines(workspace, candidates, currentStamps);
+            for (String path : candidates) {
+                // A file which differed from its baseline has a pending edit, which the scan must
+                // drop if the file was reverted to its baseline content since.
+                FileStamp previous = this.stamps.get(path);
+                boolean isModified = modifiedPaths.contains(path);
+                currentStamps.get(path).isModified = isModified;
+                if (isModified || (previous != null && previous.isModified)) {
+                    changedFiles.add(new File(path));
+                }
+            }
+        }
+        this.stamps.clear();
+        this.stamps.putAll(currentStamps);
+        this.isPrimed = true;
+        return wasPrimed ? changedFiles : null;
+    }
+
+    /**
+     * Forgets the cached state of all files, so the next call to findChangedFiles asks
+     * for a full scan.
+     */
+    public synchronized void reset() {
+        this.stamps.clear();
+        this.isPrimed = false;
+    }
+
+    // Get the paths of the candidate files whose content differs from their baseline, hashing those
+    // whose size matches.
+    private Set<String> compareWithBaselines(Workspace workspace, final List<String> candidates,
+        Map<String, FileStamp> currentStamps) throws ConfigurationManagementException {
+
+        final Map<String, WorkspaceLocalItem> baselines = new HashMap<String, WorkspaceLocalItem>();
+        LocalWorkspaceTransaction transaction = new LocalWorkspaceTransaction(workspace);
+        try {
+            transaction.execute(new LocalVersionTransaction() {
+                @Override
+                public void invoke(WorkspaceVersionTable lv) {
+                    for (String path : candidates) {
+                        WorkspaceLocalItem localItem = lv.getByLocalItem(path);
+                        if (localItem != null) {
+                            baselines.put(path, localItem);
+                        }
+                    }
+                }
+            });
+        }
+        finally {
+            transaction.close();
+        }
+
+        Set<String> modifiedPaths = new HashSet<String>();
+        Map<String, Future<byte[]>> hashes = new HashMap<String, Future<byte[]>>();
+        for (String path : candidates) {
+            WorkspaceLocalItem baseline = baselines.get(path);
+            FileStamp stamp = currentStamps.get(path);
+            if (baseline == null || baseline.getHashValue() == null || baseline.getLength() != stamp.size) {
+                modifiedPaths.add(path);
+            }
+            else {
+                hashes.put(path, getHashExecutor().submit(new HashTask(new File(path))));
+            }
+        }
+
+        try {
+            for (Map.Entry<String, Future<byte[]>> entry : hashes.entrySet()) {
+                TfsCancellationMonitor.throwIfCanceled();
+                byte[] hash = entry.getValue().get();
+                if (!Arrays.equals(hash, baselines.get(entry.getKey()).getHashValue())) {
+                    modifiedPaths.add(entry.getKey());
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationManagementException(ex);
+        }
+        catch (ExecutionException ex) {
+            throw new ConfigurationManagementException(ex.getCause());
+        }
+        finally {
+            for (Future<byte[]> hash : hashes.values()) {
+                hash.cancel(true);
+            }
+        }
+
+        return modifiedPaths;
+    }
+
+    // Gets the thread pool shared by all detectors, creating it on first use.
+    private static synchronized ExecutorService getHashExecutor() {
+        if (hashExecutor == null) {
+            int threadCount = TfsSettingsService.getInstance().getSettings().getParallelism();
+            hashExecutor = Executors.newFixedThreadPool(threadCount,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat(ThreadNameFormat).build());
+        }
+        return hashExecutor;
+    }
+
+    // Compute the MD5 hash of a file, reading it through the thread's direct buffer.
+    private static byte[] hash(File file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance(HashAlgorithm);
+        ByteBuffer buffer = ReadBuffers.get();
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    // Hashes a file on the shared thread pool.
+    private static class HashTask implements Callable<byte[]> {
+
+        private final File file;
+
+        public HashTask(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public byte[] call() throws Exception {
+            return hash(this.file);
+        }
+    }
+
+    // The size and modification time of a file when it was last seen, and whether its content
+    // differed from its baseline when it was last compared.
+    private static class FileStamp {
+
+        private final long size;
+        private final long lastModified;
+        private boolean isModified;
+
+        public FileStamp(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof FileStamp)) {
+                return false;
+            }
+            FileStamp otherStamp = (FileStamp)other;
+            return this.size == otherStamp.size && this.lastModified == otherStamp.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int)(this.size ^ (this.size >>> 32)) * 31 + (int)(this.lastModified ^ (this.lastModified >>> 32));
+        }
+    }
+}
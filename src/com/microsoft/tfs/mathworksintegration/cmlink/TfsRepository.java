@@ -6,6 +6,7 @@ import java.awt.Frame;
 import java.io.File;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.UUID;
 
 import javax.swing.JOptionPane;
 
@@ -24,6 +25,9 @@ import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.WorkingFolde
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.ItemSpec;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.LatestVersionSpec;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.OperationPriority;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperation;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationScheduler;
 
 /**
  * Implementation of the {@link CMRepository} interface which performs 
@@ -31,7 +35,10 @@ import com.microsoft.tfs.core.clients.versioncontrol.specs.version.LatestVersion
  */
 public class TfsRepository extends TfsBase implements CMRepository {
 
+    private static final String WorkspaceNamePrefix = "MathworksSandbox-";
+
     private final Collection<RepositorySupportedFeature> supportedFeatures;
+    private final TfsOperationScheduler scheduler;
 
     /**
      * Initializes a TfsRepository instance.
@@ -39,11 +46,25 @@ public class TfsRepository extends TfsBase implements CMRepository {
      *     The {@link ApplicationInteractor} to use with this TfsRepository.
      */
     public TfsRepository(ApplicationInteractor interactor) {
+        this(interactor, TfsOperationScheduler.getDefault());
+    }
+
+    /**
+     * Initializes a TfsRepository instance which runs its operations on the given
+     * scheduler rather than the one shared by all adapters, such as to create many
+     * sandboxes at once.
+     * @param interactor
+     *     The {@link ApplicationInteractor} to use with this TfsRepository.
+     * @param scheduler
+     *     The {@link TfsOperationScheduler} which runs the operations.
+     */
+    public TfsRepository(ApplicationInteractor interactor, TfsOperationScheduler scheduler) {
         super();
 
         this.supportedFeatures = EnumSet.of(
             RepositorySupportedFeature.REPOSITORY_BROWSER
             );
+        this.scheduler = scheduler;
     }
 
     /**
@@ -91,13 +112,27 @@ public class TfsRepository extends TfsBase implements CMRepository {
      * {@inheritDoc}
      */
     @Override
-    public void retrieveSandboxFromRepository(String repositorySpecifier, File sandboxRoot) 
+    public void retrieveSandboxFromRepository(final String repositorySpecifier, final File sandboxRoot) 
         throws ConfigurationManagementException {
 
+        // Connecting may prompt for credentials, so it's done on the calling thread rather
+        // than on a scheduler worker holding a bulk slot.
         if (!isReady()) {
             connect();
         }
 
+        this.scheduler.run(
+            new TfsOperation<Void>("retrieveSandboxFromRepository", OperationPriority.BULK) {
+            @Override
+            public Void execute() throws ConfigurationManagementException {
+                createSandbox(repositorySpecifier, sandboxRoot);
+                return null;
+            }
+        });
+    }
+
+    // Create a TFS Workspace mapping the repository path to the sandbox directory, and download its files.
+    private void createSandbox(String repositorySpecifier, File sandboxRoot) throws ConfigurationManagementException {
         VersionControlClient versionControlClient = Utilities.getTfsConnection().getVersionControlClient();
         Workspace workspace = Utilities.getWorkspaceForLocalPath(sandboxRoot.getAbsolutePath());
         if (workspace != null) {
@@ -108,7 +143,7 @@ public class TfsRepository extends TfsBase implements CMRepository {
             // TODO: Investigate if there's a TEE Workspace creation UI.
             workspace = versionControlClient.createWorkspace(
                 null,
-                "MathworksSandbox" + System.currentTimeMillis(), 
+                WorkspaceNamePrefix + UUID.randomUUID(),
                 null,
                 WorkspaceLocation.LOCAL,
                 WorkspaceOptions.SET_FILE_TO_CHECKIN,
@@ -0,0 +1,147 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsMetrics;
+
+/**
+ * Keeps the content of file revisions which were downloaded ahead of time in a
+ * temporary directory, so exporting them later doesn't call the server.
+ * <p>
+ * The content of a file at a given version never changes, so entries are only dropped
+ * to keep the cache within the revisionCacheSize setting, least recently used first,
+ * or when the cache is cleared. MATLAB usually exits without disconnecting the adapter,
+ * so the directory is also deleted when the JVM shuts down.
+ */
+public class TfsRevisionCache {
+
+    private static final String CacheName = "revisions";
+    private static final String DirectoryPrefix = "TfsRevisionCache";
+    private static final long BytesPerMegabyte = 1024 * 1024;
+    private static final String ShutdownThreadName = "TFS revision cache cleanup";
+
+    // Cached files by server path and version, least recently used first.
+    private final LinkedHashMap<String, File> entries;
+    private File directory;
+    private Thread shutdownHook;
+    private long totalBytes;
+    private int nextFileId;
+
+    /**
+     * Initializes an empty TfsRevisionCache instance.
+     */
+    public TfsRevisionCache() {
+        this.entries = new LinkedHashMap<String, File>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets the cached content of a file revision, or null if it isn't cached.
+     * @param serverItem
+     *     The server path of the file at that revision.
+     * @param version
+     *     The string representation of the revision.
+     */
+    public synchronized File get(String serverItem, String version) {
+        File file = this.entries.get(getKey(serverItem, version));
+        boolean isHit = file != null && file.isFile();
+        TfsMetrics.getInstance().recordCacheLookup(CacheName, isHit);
+        return isHit ? file : null;
+    }
+
+    /**
+     * Creates the path of a new file in the cache directory, for a revision to be
+     * downloaded to before it is added with {@link #put}.
+     * @throws IOException
+     */
+    public synchronized File createFile() throws IOException {
+        if (this.directory == null) {
+            this.directory = Files.createTempDirectory(DirectoryPrefix).toFile();
+            this.shutdownHook = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    deleteDirectory();
+                }
+            }, ShutdownThreadName);
+            Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+        }
+        return new File(this.directory, Integer.toString(this.nextFileId++));
+    }
+
+    /**
+     * Adds a downloaded file revision to the cache, dropping the least recently used
+     * revisions if the cache grows beyond the revisionCacheSize setting.
+     * @param serverItem
+     *     The server path of the file at that revision.
+     * @param version
+     *     The string representation of the revision.
+     * @param file
+     *     The file created by {@link #createFile} which holds the content of the revision.
+     */
+    public synchronized void put(String serverItem, String version, File file) {
+        if (!file.isFile()) {
+            return;
+        }
+
+        File previousFile = this.entries.put(getKey(serverItem, version), file);
+        if (previousFile != null && !previousFile.equals(file)) {
+            this.totalBytes -= previousFile.length();
+            previousFile.delete();
+        }
+        this.totalBytes += file.length();
+
+        long maxBytes = TfsSettingsService.getInstance().getSettings().getRevisionCacheSize() * BytesPerMegabyte;
+        Iterator<Map.Entry<String, File>> iterator = this.entries.entrySet().iterator();
+        while (this.totalBytes > maxBytes && this.entries.size() > 1 && iterator.hasNext()) {
+            File evictedFile = iterator.next().getValue();
+            this.totalBytes -= evictedFile.length();
+            evictedFile.delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Deletes all the cached revisions and the cache directory.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.totalBytes = 0;
+        if (this.shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+            }
+            catch (IllegalStateException ex) {
+                // The JVM is shutting down, and the hook deletes the directory anyway.
+            }
+            this.shutdownHook = null;
+        }
+        deleteDirectory();
+    }
+
+    // Delete the cache directory and every file in it, including downloads never added to the cache.
+    private synchronized void deleteDirectory() {
+        if (this.directory == null) {
+            return;
+        }
+        File[] files = this.directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.directory.delete();
+        this.directory = null;
+    }
+
+    // Server paths are case insensitive.
+    private static String getKey(String serverItem, String version) {
+        return serverItem.toLowerCase(Locale.ENGLISH) + ';' + version;
+    }
+}
@@ -0,0 +1,301 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the user's TFS settings, as read from the TfsSettings.txt file.
+ * <p>
+ * The first line of the file holds the TFS project collection endpoint and the
+ * second line holds whether an on-premise TFS server with Windows credentials is
+ * used (this is the format written by storeTfsSettings.m). Any following lines
+ * are optional tuning settings in the form "name=value". Blank lines and lines
+ * starting with '#' are ignored.
+ */
+public class TfsSettings {
+
+    /** Maximum number of threads used for parallel adapter work. */
+    public static final String Key_Parallelism = "parallelism";
+    /** Maximum number of file states kept in memory per workspace. */
+    public static final String Key_StatusCacheSize = "statusCacheSize";
+    /** Maximum number of file histories kept in memory per workspace. */
+    public static final String Key_HistoryCacheSize = "historyCacheSize";
+    /** Maximum size in megabytes of the file revisions cached on disk per workspace. */
+    public static final String Key_RevisionCacheSize = "revisionCacheSize";
+    /** Maximum number of pooled HTTP connections to the TFS server. */
+    public static final String Key_ConnectionPoolSize = "connectionPoolSize";
+    /** Whether the TFS server is asked to compress its responses. */
+    public static final String Key_CompressResponses = "compressResponses";
+    /** Whether each request to the TFS server is written to the trace file. */
+    public static final String Key_TraceEnabled = "traceEnabled";
+    /** Maximum size of each trace file, in kilobytes. */
+    public static final String Key_TraceFileSize = "traceFileSize";
+    /** Number of trace files kept before the oldest is overwritten. */
+    public static final String Key_TraceFileCount = "traceFileCount";
+    /** Time in milliseconds above which an adapter operation is logged as slow. */
+    public static final String Key_SlowOperationThreshold = "slowOperationThreshold";
+    /** Where the status of files in a local Workspace is read from: "server" or "local". */
+    public static final String Key_StatusMode = "statusMode";
+    /** Time in seconds between polls of the server for new changesets in a local Workspace. */
+    public static final String Key_LatestVersionPollInterval = "latestVersionPollInterval";
+
+    private static final char KeyValueDelimiter = '=';
+    private static final String CommentPrefix = "#";
+
+    private static final int DefaultParallelism = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    private static final int DefaultStatusCacheSize = 100000;
+    private static final int DefaultHistoryCacheSize = 500;
+    private static final int DefaultRevisionCacheSize = 256;
+    private static final int DefaultConnectionPoolSize = 0;
+    private static final boolean DefaultCompressResponses = true;
+    private static final boolean DefaultTraceEnabled = false;
+    private static final int DefaultTraceFileSize = 10240;
+    private static final int DefaultTraceFileCount = 5;
+    private static final int DefaultSlowOperationThreshold = 5000;
+    private static final StatusMode DefaultStatusMode = StatusMode.SERVER;
+    private static final int DefaultLatestVersionPollInterval = 60;
+
+    private static final TfsSettings EmptySettings = new TfsSettings(null, false, new HashMap<String, String>());
+
+    /**
+     * Where the status of files in a local Workspace is read from.
+     */
+    public enum StatusMode {
+        /**
+         * The TFS server is asked for the status of files, which includes whether they
+         * are latest and locked. The Workspace metadata is used if the server can't be reached.
+         */
+        SERVER,
+        /**
+         * The status of files is read from the Workspace metadata, and only the
+         * Workspace's conflicts are queried from the server.
+         */
+        LOCAL
+    }
+
+    private final String endpoint;
+    private final boolean onPremiseWindows;
+    private final Map<String, String> values;
+
+    private TfsSettings(String endpoint, boolean onPremiseWindows, Map<String, String> values) {
+        this.endpoint = endpoint;
+        this.onPremiseWindows = onPremiseWindows;
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Gets the settings used when no TfsSettings.txt file has been saved.
+     */
+    public static TfsSettings empty() {
+        return EmptySettings;
+    }
+
+    /**
+     * Parses the lines of a TfsSettings.txt file.
+     * @param lines
+     *     The lines of the settings file. May be null.
+     */
+    public static TfsSettings parse(List<String> lines) {
+        if (lines == null || lines.isEmpty()) {
+            return EmptySettings;
+        }
+
+        String endpoint = lines.get(0).trim();
+        if (endpoint.isEmpty()) {
+            endpoint = null;
+        }
+        boolean onPremiseWindows = lines.size() > 1 && Boolean.valueOf(lines.get(1).trim());
+
+        Map<String, String> values = new HashMap<String, String>();
+        for (int i = 2; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith(CommentPrefix)) {
+                continue;
+            }
+            int delimiterIndex = line.indexOf(KeyValueDelimiter);
+            if (delimiterIndex > 0) {
+                values.put(line.substring(0, delimiterIndex).trim(), line.substring(delimiterIndex + 1).trim());
+            }
+        }
+
+        return new TfsSettings(endpoint, onPremiseWindows, values);
+    }
+
+    /**
+     * Gets a copy of these settings which connects to another TFS project collection,
+     * keeping the tuning settings.
+     * @param newEndpoint
+     *     The TFS project collection endpoint.
+     * @param newOnPremiseWindows
+     *     Whether the server is an on-premise TFS server with Windows credentials.
+     */
+    public TfsSettings withEndpoint(String newEndpoint, boolean newOnPremiseWindows) {
+        return new TfsSettings(newEndpoint, newOnPremiseWindows, this.values);
+    }
+
+    /**
+     * Gets a copy of these settings with a tuning setting changed, for example to
+     * override the statusMode in a test.
+     * @param key
+     *     The name of the setting.
+     * @param value
+     *     The value of the setting, or null to remove it.
+     */
+    public TfsSettings withValue(String key, String value) {
+        Map<String, String> newValues = new HashMap<String, String>(this.values);
+        if (value == null) {
+            newValues.remove(key);
+        }
+        else {
+            newValues.put(key, value);
+        }
+        return new TfsSettings(this.endpoint, this.onPremiseWindows, newValues);
+    }
+
+    /**
+     * Gets the stored TFS project collection endpoint, or null if none was stored.
+     */
+    public String getEndpoint() {
+        return this.endpoint;
+    }
+
+    /**
+     * Gets whether an on-premise TFS server with Windows credentials is used.
+     */
+    public boolean isOnPremiseWindows() {
+        return this.onPremiseWindows;
+    }
+
+    /**
+     * Gets the maximum number of threads used for parallel adapter work.
+     */
+    public int getParallelism() {
+        return getPositiveInt(Key_Parallelism, DefaultParallelism);
+    }
+
+    /**
+     * Gets the maximum number of file states kept in memory per workspace.
+     */
+    public int getStatusCacheSize() {
+        return getPositiveInt(Key_StatusCacheSize, DefaultStatusCacheSize);
+    }
+
+    /**
+     * Gets the maximum number of file histories kept in memory per workspace.
+     */
+    public int getHistoryCacheSize() {
+        return getPositiveInt(Key_HistoryCacheSize, DefaultHistoryCacheSize);
+    }
+
+    /**
+     * Gets the maximum size in megabytes of the file revisions cached on disk per workspace.
+     */
+    public int getRevisionCacheSize() {
+        return getPositiveInt(Key_RevisionCacheSize, DefaultRevisionCacheSize);
+    }
+
+    /**
+     * Gets the maximum number of pooled HTTP connections to the TFS server, or 0
+     * to use the TFS SDK default.
+     */
+    public int getConnectionPoolSize() {
+        return getPositiveInt(Key_ConnectionPoolSize, DefaultConnectionPoolSize);
+    }
+
+    /**
+     * Gets whether the TFS server is asked to compress its responses.
+     */
+    public boolean isCompressResponses() {
+        return getBoolean(Key_CompressResponses, DefaultCompressResponses);
+    }
+
+    /**
+     * Gets whether each request to the TFS server is written to the trace file.
+     */
+    public boolean isTraceEnabled() {
+        return getBoolean(Key_TraceEnabled, DefaultTraceEnabled);
+    }
+
+    /**
+     * Gets the maximum size of each trace file, in kilobytes.
+     */
+    public int getTraceFileSize() {
+        return getPositiveInt(Key_TraceFileSize, DefaultTraceFileSize);
+    }
+
+    /**
+     * Gets the number of trace files kept before the oldest is overwritten.
+     */
+    public int getTraceFileCount() {
+        return getPositiveInt(Key_TraceFileCount, DefaultTraceFileCount);
+    }
+
+    /**
+     * Gets the time in milliseconds above which an adapter operation is logged as slow.
+     */
+    public int getSlowOperationThreshold() {
+        return getPositiveInt(Key_SlowOperationThreshold, DefaultSlowOperationThreshold);
+    }
+
+    /**
+     * Gets where the status of files in a local Workspace is read from.
+     */
+    public StatusMode getStatusMode() {
+        String value = this.values.get(Key_StatusMode);
+        if (value != null) {
+            for (StatusMode mode : StatusMode.values()) {
+                if (mode.name().equalsIgnoreCase(value)) {
+                    return mode;
+                }
+            }
+        }
+        return DefaultStatusMode;
+    }
+
+    /**
+     * Gets the time in seconds between polls of the server for new changesets in a
+     * local Workspace.
+     */
+    public int getLatestVersionPollInterval() {
+        return getPositiveInt(Key_LatestVersionPollInterval, DefaultLatestVersionPollInterval);
+    }
+
+    /**
+     * Gets the raw value of a tuning setting, or null if it was not set.
+     * @param key
+     *     The name of the setting.
+     */
+    public String getValue(String key) {
+        return this.values.get(key);
+    }
+
+    // Gets a positive integer setting, falling back to the default if it is missing or invalid.
+    private int getPositiveInt(String key, int defaultValue) {
+        long value = getLong(key, defaultValue);
+        return value > 0 && value <= Integer.MAX_VALUE ? (int)value : defaultValue;
+    }
+
+    // Gets a long setting, falling back to the default if it is missing or invalid.
+    private long getLong(String key, long defaultValue) {
+        String value = this.values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    // Gets a boolean setting, falling back to the default if it is missing.
+    private boolean getBoolean(String key, boolean defaultValue) {
+        String value = this.values.get(key);
+        return value == null ? defaultValue : Boolean.valueOf(value);
+    }
+}
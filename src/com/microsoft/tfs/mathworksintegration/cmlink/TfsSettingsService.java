@@ -0,0 +1,192 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+
+import com.google.common.io.Files;
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+
+/**
+ * Loads the user's TfsSettings.txt file once and keeps the in-memory copy
+ * up to date by watching the file for changes.
+ */
+public class TfsSettingsService {
+
+    private static final String TfsSettingsFileName = "TfsSettings.txt";
+    private static final String Utf8 = "UTF-8";
+
+    private static final TfsSettingsService Instance = new TfsSettingsService();
+
+    private final Object lock = new Object();
+    private File distDirectory;
+    private volatile TfsSettings settings;
+    private volatile TfsSettings settingsOverride;
+    private WatchService watchService;
+
+    private TfsSettingsService() {
+    }
+
+    /**
+     * Gets the TfsSettingsService shared by all adapters in this MATLAB process.
+     */
+    public static TfsSettingsService getInstance() {
+        return Instance;
+    }
+
+    /**
+     * Gets the current TFS settings. The settings file is only read the first time
+     * this is called, or after the file has changed on disk.
+     */
+    public TfsSettings getSettings() {
+        TfsSettings override = this.settingsOverride;
+        if (override != null) {
+            return override;
+        }
+
+        TfsSettings current = this.settings;
+        if (current == null) {
+            synchronized (this.lock) {
+                if (this.settings == null) {
+                    this.settings = readSettings();
+                    startWatching();
+                }
+                current = this.settings;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Gets the top level distributable directory, which contains the TfsSettings.txt file.
+     * @throws ConfigurationManagementException
+     */
+    public File getDistDirectory() throws ConfigurationManagementException {
+        synchronized (this.lock) {
+            if (this.distDirectory == null) {
+                File currentJarPath;
+                try {
+                    currentJarPath = new File(
+                        TfsSettingsService.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath());
+                }
+                catch (URISyntaxException ex) {
+                    throw new ConfigurationManagementException(ex);
+                }
+                File jarDirectory = currentJarPath.getParentFile();
+                this.distDirectory = jarDirectory.getParentFile();
+            }
+            return this.distDirectory;
+        }
+    }
+
+    /**
+     * Gets the TfsSettings.txt file.
+     * @throws ConfigurationManagementException
+     */
+    public File getSettingsFile() throws ConfigurationManagementException {
+        return new File(getDistDirectory(), TfsSettingsFileName);
+    }
+
+    /**
+     * Reads the settings file again, replacing the in-memory settings.
+     */
+    public void reload() {
+        synchronized (this.lock) {
+            this.settings = readSettings();
+        }
+    }
+
+    /**
+     * Uses the given settings in place of the settings file, for example to point tests
+     * at a local server without changing the user's saved settings.
+     * @param override
+     *     The settings to use, or null to go back to the settings file.
+     */
+    public void setSettingsOverride(TfsSettings override) {
+        this.settingsOverride = override;
+    }
+
+    // Read the user's saved TFS settings from disk.
+    private TfsSettings readSettings() {
+        try {
+            List<String> lines = Files.readLines(getSettingsFile(), Charset.forName(Utf8));
+            return TfsSettings.parse(lines);
+        }
+        catch (IOException | ConfigurationManagementException ex) {
+            // Just continue - we'll have to prompt the user for login info.
+            return TfsSettings.empty();
+        }
+    }
+
+    // Start a background thread which reloads the settings when the settings file changes.
+    private void startWatching() {
+        if (this.watchService != null) {
+            return;
+        }
+
+        final Path directory;
+        try {
+            directory = getDistDirectory().toPath();
+            this.watchService = directory.getFileSystem().newWatchService();
+            directory.register(this.watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        }
+        catch (IOException | ConfigurationManagementException ex) {
+            // Without a watcher, changes are only picked up through reload().
+            return;
+        }
+
+        final WatchService service = this.watchService;
+        Thread watcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchSettingsFile(service);
+            }
+        }, "TFS settings watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    // Wait for changes to the settings file and reload it when one is seen.
+    private void watchSettingsFile(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+
+            boolean settingsChanged = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                Object context = event.context();
+                if (event.kind() == OVERFLOW) {
+                    settingsChanged = true;
+                }
+                else if (context instanceof Path && TfsSettingsFileName.equals(((Path)context).getFileName().toString())) {
+                    settingsChanged = true;
+                }
+            }
+            if (settingsChanged) {
+                reload();
+            }
+            if (!key.reset()) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.mathworks.cmlink.api.version.r16b.FileState;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsMetrics;
+
+/**
+ * Lets concurrent status requests for the same files share one query.
+ * <p>
+ * MATLAB's Project view, Current Folder browser and dependency analyzer often ask for
+ * the status of the same folder at the same time. A request which is covered by one
+ * already in flight waits for that query and takes its answer, instead of scanning
+ * the workspace and querying the server again. A recursive request covers the files
+ * and recursive requests under its root, and a request for a set of files covers any
+ * subset of them. If the shared query fails, each waiting request runs its own.
+ * <p>
+ * Requests must be made from threads which are already running an adapter operation,
+ * so the query being waited for is never queued behind the requests waiting for it.
+ */
+public class TfsStatusRequestCoalescer {
+
+    private static final String CacheName = "statusRequests";
+
+    private final List<InFlightRequest> inFlightRequests;
+
+    /**
+     * A status query which may be shared between requests.
+     */
+    public interface StatusQuery {
+
+        /**
+         * Gets the state of the requested files.
+         * @throws ConfigurationManagementException
+         */
+        Map<File, FileState> execute() throws ConfigurationManagementException;
+    }
+
+    /**
+     * Initializes a TfsStatusRequestCoalescer instance.
+     */
+    public TfsStatusRequestCoalescer() {
+        this.inFlightRequests = new ArrayList<InFlightRequest>();
+    }
+
+    /**
+     * Gets the state of the specified files, sharing the result of a request in flight
+     * which covers them.
+     * @param files
+     *     The files to get the state of.
+     * @param query
+     *     The query run if no request in flight covers the files.
+     * @throws ConfigurationManagementException
+     */
+    public Map<File, FileState> getFileStates(Collection<File> files, StatusQuery query)
+        throws ConfigurationManagementException {
+
+        Set<String> paths = new HashSet<String>();
+        for (File file : files) {
+            paths.add(file.getAbsolutePath());
+        }
+        InFlightRequest request = new InFlightRequest(null, paths);
+
+        InFlightRequest coveringRequest = joinOrRegister(request);
+        if (coveringRequest != null) {
+            Map<File, FileState> coveringStates = awaitResult(coveringRequest);
+            if (coveringStates != null) {
+                Map<String, FileState> statesByPath = new HashMap<String, FileState>();
+                for (Map.Entry<File, FileState> entry : coveringStates.entrySet()) {
+                    statesByPath.put(entry.getKey().getAbsolutePath(), entry.getValue());
+                }
+                Map<File, FileState> fileStateMap = new HashMap<File, FileState>();
+                for (File file : files) {
+                    FileState state = statesByPath.get(file.getAbsolutePath());
+                    // Recursive requests only return tracked files.
+                    fileStateMap.put(file, state != null ? state : new TfsFileState());
+                }
+                return fileStateMap;
+            }
+        }
+
+        return executeAndPublish(request, query);
+    }
+
+    /**
+     * Gets the state of all files known to TFS under a directory, sharing the result of
+     * a recursive request in flight for the same directory or one of its parents.
+     * @param root
+     *     The directory to get the state of the files under.
+     * @param query
+     *     The query run if no request in flight covers the directory.
+     * @throws ConfigurationManagementException
+     */
+    public Map<File, FileState> getFileStatesRecursively(File root, StatusQuery query)
+        throws ConfigurationManagementException {
+
+        String rootPath = root.getAbsolutePath();
+        InFlightRequest request = new InFlightRequest(rootPath, null);
+
+        InFlightRequest coveringRequest = joinOrRegister(request);
+        if (coveringRequest != null) {
+            Map<File, FileState> coveringStates = awaitResult(coveringRequest);
+            if (coveringStates != null) {
+                Map<File, FileState> fileStateMap = new HashMap<File, FileState>();
+                for (Map.Entry<File, FileState> entry : coveringStates.entrySet()) {
+                    if (Utilities.isUnderDirectory(entry.getKey().getAbsolutePath(), rootPath)) {
+                        fileStateMap.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                return fileStateMap;
+            }
+        }
+
+        return executeAndPublish(request, query);
+    }
+
+    // Find a request in flight which covers the given one, or else register the given one as in flight.
+    private synchronized InFlightRequest joinOrRegister(InFlightRequest request) {
+        for (InFlightRequest inFlight : this.inFlightRequests) {
+            if (inFlight.covers(request)) {
+                TfsMetrics.getInstance().recordCacheLookup(CacheName, true);
+                inFlight.hasWaitingRequests = true;
+                return inFlight;
+            }
+        }
+        TfsMetrics.getInstance().recordCacheLookup(CacheName, false);
+        this.inFlightRequests.add(request);
+        return null;
+    }
+
+    // Run a registered request's query and publish its result to the requests waiting for it.
+    private Map<File, FileState> executeAndPublish(InFlightRequest request, StatusQuery query)
+        throws ConfigurationManagementException {
+
+        Map<File, FileState> result;
+        try {
+            result = query.execute();
+        }
+        catch (ConfigurationManagementException | RuntimeException | Error ex) {
+            unregister(request);
+            request.result.setException(ex);
+            throw ex;
+        }
+
+        // No request can join once this one is unregistered, so the waiting requests are
+        // only given a copy when there are some, in case the caller changes its result.
+        unregister(request);
+        request.result.set(request.hasWaitingRequests ? new HashMap<File, FileState>(result) : result);
+        return result;
+    }
+
+    // Stop other requests from joining a request whose query has finished.
+    private synchronized void unregister(InFlightRequest request) {
+        this.inFlightRequests.remove(request);
+    }
+
+    // Wait for the result of a request in flight, or return null if it failed.
+    private static Map<File, FileState> awaitResult(InFlightRequest request) throws ConfigurationManagementException {
+        try {
+            return request.result.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationManagementException("The operation was canceled.");
+        }
+        catch (ExecutionException ex) {
+            // The query may have failed because its own operation was canceled, so the
+            // waiting request runs its own query instead.
+            return null;
+        }
+    }
+
+    // A status request whose query is running.
+    private static class InFlightRequest {
+
+        // The directory of a recursive request, or null.
+        private final String rootPath;
+        // The files of a non-recursive request, or null.
+        private final Set<String> paths;
+        private final SettableFuture<Map<File, FileState>> result;
+        // Whether other requests are waiting for the result. Guarded by the coalescer.
+        private boolean hasWaitingRequests;
+
+        public InFlightRequest(String rootPath, Set<String> paths) {
+            this.rootPath = rootPath;
+            this.paths = paths;
+            this.result = SettableFuture.create();
+        }
+
+        // Gets whether this request's result holds the answer to another request.
+        public boolean covers(InFlightRequest other) {
+            if (this.rootPath != null) {
+                if (other.rootPath != null) {
+                    return Utilities.isUnderDirectory(other.rootPath, this.rootPath);
+                }
+                for (String path : other.paths) {
+                    if (!Utilities.isUnderDirectory(path, this.rootPath)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return other.paths != null && this.paths.containsAll(other.paths);
+        }
+    }
+}
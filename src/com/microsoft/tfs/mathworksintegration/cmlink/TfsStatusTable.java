@@ -0,0 +1,426 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.io.File;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.mathworks.cmlink.api.version.r16b.FileState;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Conflict;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ExtendedItem;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.LockLevel;
+
+/**
+ * A compact table of the state of the files tracked by TFS under a folder, keyed by
+ * local path.
+ * <p>
+ * Recursive status of a large workspace holds one row per file, so the rows are kept
+ * in columns of primitive arrays rather than as objects. The folders of the local and
+ * server paths are interned, so each row only holds a folder ID and its file name.
+ * Pending changes, locks and item types are kept as byte flags, and conflicts, which are rare, in
+ * a separate map. {@link TfsFileState} instances are only created when a row is read.
+ * <p>
+ * A table is filled by one thread and must not be changed once it is shared.
+ */
+public class TfsStatusTable {
+
+    private static final int InitialCapacity = 64;
+    private static final char ServerPathSeparator = '/';
+
+    // Bit i of the pending change flags stands for FlagChangeTypes[i]. The last one stands
+    // for any other change, and is only set when none of the others are, since they decide
+    // the status on their own.
+    private static final int OtherChangeBit = 128;
+    private static final ChangeType[] FlagChangeTypes = {
+        ChangeType.ADD, ChangeType.EDIT, ChangeType.DELETE, ChangeType.RENAME,
+        ChangeType.BRANCH, ChangeType.MERGE, ChangeType.LOCK, ChangeType.UNDELETE };
+
+    // Bits of the item flags.
+    private static final int HasLockBit = 1;
+    private static final int FolderBit = 2;
+
+    // Folder paths, including their trailing separator, by folder ID.
+    private final List<String> folders;
+    private final Map<String, Integer> folderIds;
+    private final Map<Integer, Conflict> conflicts;
+
+    private int rowCount;
+    private int[] localFolders;
+    private String[] localNames;
+    private int[] serverFolders;
+    // The same String as the local name when the names match.
+    private String[] serverNames;
+    private int[] localVersions;
+    private int[] latestVersions;
+    private byte[] changeFlags;
+    private byte[] itemFlags;
+    // Open addressing index of the rows by local path, holding the row + 1 or 0 when free.
+    private int[] index;
+
+    /**
+     * Initializes an empty TfsStatusTable instance.
+     */
+    public TfsStatusTable() {
+        this.folders = new ArrayList<String>();
+        this.folderIds = new HashMap<String, Integer>();
+        this.conflicts = new HashMap<Integer, Conflict>();
+        this.localFolders = new int[InitialCapacity];
+        this.localNames = new String[InitialCapacity];
+        this.serverFolders = new int[InitialCapacity];
+        this.serverNames = new String[InitialCapacity];
+        this.localVersions = new int[InitialCapacity];
+        this.latestVersions = new int[InitialCapacity];
+        this.changeFlags = new byte[InitialCapacity];
+        this.itemFlags = new byte[InitialCapacity];
+        this.index = new int[InitialCapacity * 2];
+    }
+
+    /**
+     * Gets the number of files in the table.
+     */
+    public int size() {
+        return this.rowCount;
+    }
+
+    /**
+     * Adds the state of a file from the TFS information about it, replacing any state
+     * the table already holds for its local path.
+     * @param localPath
+     *     The local path of the file.
+     * @param extendedItem
+     *     The {@link ExtendedItem} containing TFS information about the file.
+     * @param conflict
+     *     The {@link Conflict} containing information about any conflicts, or null.
+     */
+    public void add(String localPath, ExtendedItem extendedItem, Conflict conflict) {
+        add(
+            localPath,
+            extendedItem.getTargetServerItem(),
+            extendedItem.hasLocalChange() ? extendedItem.getPendingChange() : null,
+            extendedItem.getLocalVersion(),
+            extendedItem.getLatestVersion(),
+            extendedItem.getLockLevel() != LockLevel.NONE,
+            extendedItem.getItemType() == ItemType.FOLDER,
+            conflict);
+    }
+
+    /**
+     * Adds the state of a file, replacing any state the table already holds for its
+     * local path.
+     * @param localPath
+     *     The local path of the file.
+     * @param targetServerItem
+     *     The server path of the file.
+     * @param pendingChange
+     *     The change pending on the file, or null if there is none.
+     * @param localVersion
+     *     The version of the file in the workspace, or 0 if it hasn't been downloaded.
+     * @param latestVersion
+     *     The latest version of the file on the server.
+     * @param hasLock
+     *     Whether the file is locked.
+     * @param isFolder
+     *     Whether the item is a folder rather than a file.
+     * @param conflict
+     *     The {@link Conflict} containing information about any conflicts, or null.
+     */
+    public void add(String localPath, String targetServerItem, ChangeType pendingChange, int localVersion,
+        int latestVersion, boolean hasLock, boolean isFolder, Conflict conflict) {
+
+        int row = addRow(localPath);
+        String localName = this.localNames[row];
+        if (targetServerItem == null) {
+            this.serverFolders[row] = -1;
+            this.serverNames[row] = null;
+        }
+        else {
+            int serverSplit = targetServerItem.lastIndexOf(ServerPathSeparator) + 1;
+            String serverName = targetServerItem.substring(serverSplit);
+            this.serverFolders[row] = internFolder(targetServerItem.substring(0, serverSplit));
+            this.serverNames[row] = serverName.equals(localName) ? localName : serverName;
+        }
+
+        this.localVersions[row] = localVersion;
+        this.latestVersions[row] = latestVersion;
+        this.changeFlags[row] = toChangeFlags(pendingChange);
+        this.itemFlags[row] = (byte)((hasLock ? HasLockBit : 0) | (isFolder ? FolderBit : 0));
+        setConflict(row, conflict);
+    }
+
+    /**
+     * Adds a row of another table, replacing any state this table already holds for its
+     * local path.
+     * @param source
+     *     The table to copy the row from.
+     * @param sourceRow
+     *     The row of the source table.
+     */
+    public void add(TfsStatusTable source, int sourceRow) {
+        int row = addRow(source.getLocalPath(sourceRow));
+        this.localNames[row] = source.localNames[sourceRow];
+        int serverFolder = source.serverFolders[sourceRow];
+        this.serverFolders[row] = serverFolder < 0 ? -1 : internFolder(source.folders.get(serverFolder));
+        this.serverNames[row] = source.serverNames[sourceRow];
+        this.localVersions[row] = source.localVersions[sourceRow];
+        this.latestVersions[row] = source.latestVersions[sourceRow];
+        this.changeFlags[row] = source.changeFlags[sourceRow];
+        this.itemFlags[row] = source.itemFlags[sourceRow];
+        setConflict(row, source.conflicts.get(sourceRow));
+    }
+
+    /**
+     * Gets whether the table holds the state of a file.
+     * @param localPath
+     *     The local path of the file.
+     */
+    public boolean contains(String localPath) {
+        return indexOf(localPath) >= 0;
+    }
+
+    /**
+     * Gets the state of a file, or null if the table doesn't hold it.
+     * @param localPath
+     *     The local path of the file.
+     */
+    public TfsFileState getState(String localPath) {
+        int row = indexOf(localPath);
+        return row < 0 ? null : getState(row);
+    }
+
+    /**
+     * Gets the local path of the file in a row.
+     * @param row
+     *     The row, from 0 to size() - 1.
+     */
+    public String getLocalPath(int row) {
+        return this.folders.get(this.localFolders[row]).concat(this.localNames[row]);
+    }
+
+    /**
+     * Gets whether the item in a row is a folder.
+     * @param row
+     *     The row, from 0 to size() - 1.
+     */
+    public boolean isFolder(int row) {
+        return (this.itemFlags[row] & FolderBit) != 0;
+    }
+
+    /**
+     * Creates the state of the file in a row.
+     * @param row
+     *     The row, from 0 to size() - 1.
+     */
+    public TfsFileState getState(int row) {
+        int serverFolder = this.serverFolders[row];
+        String targetServerItem = serverFolder < 0
+            ? null
+            : this.folders.get(serverFolder).concat(this.serverNames[row]);
+        return new TfsFileState(
+            true,
+            targetServerItem,
+            toChangeType(this.changeFlags[row]),
+            this.localVersions[row],
+            this.latestVersions[row],
+            (this.itemFlags[row] & HasLockBit) != 0,
+            this.conflicts.get(row));
+    }
+
+    /**
+     * Gets a read-only map of the files in the table to their state, whose entries are
+     * created as they are read.
+     */
+    public Map<File, FileState> asFileStateMap() {
+        return new FileStateMap();
+    }
+
+    /**
+     * Gets the row of a file, or -1 if the table doesn't hold it.
+     * @param localPath
+     *     The local path of the file.
+     */
+    public int indexOf(String localPath) {
+        int localSplit = localPath.lastIndexOf(File.separatorChar) + 1;
+        Integer folderId = this.folderIds.get(localPath.substring(0, localSplit));
+        if (folderId == null) {
+            return -1;
+        }
+        String localName = localPath.substring(localSplit);
+        int mask = this.index.length - 1;
+        for (int slot = hash(folderId, localName) & mask; this.index[slot] != 0; slot = (slot + 1) & mask) {
+            int row = this.index[slot] - 1;
+            if (this.localFolders[row] == folderId && this.localNames[row].equals(localName)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    // Get the row for a local path, adding a new one if it isn't in the table yet. Only
+    // the local path of a new row is set.
+    private int addRow(String localPath) {
+        int existingRow = indexOf(localPath);
+        if (existingRow >= 0) {
+            return existingRow;
+        }
+
+        if (this.rowCount == this.localFolders.length) {
+            grow();
+        }
+        int row = this.rowCount++;
+        int localSplit = localPath.lastIndexOf(File.separatorChar) + 1;
+        this.localFolders[row] = internFolder(localPath.substring(0, localSplit));
+        this.localNames[row] = localPath.substring(localSplit);
+        addToIndex(row);
+        return row;
+    }
+
+    // Double the capacity of the columns and rebuild the index.
+    private void grow() {
+        int capacity = this.localFolders.length * 2;
+        this.localFolders = Arrays.copyOf(this.localFolders, capacity);
+        this.localNames = Arrays.copyOf(this.localNames, capacity);
+        this.serverFolders = Arrays.copyOf(this.serverFolders, capacity);
+        this.serverNames = Arrays.copyOf(this.serverNames, capacity);
+        this.localVersions = Arrays.copyOf(this.localVersions, capacity);
+        this.latestVersions = Arrays.copyOf(this.latestVersions, capacity);
+        this.changeFlags = Arrays.copyOf(this.changeFlags, capacity);
+        this.itemFlags = Arrays.copyOf(this.itemFlags, capacity);
+
+        this.index = new int[capacity * 2];
+        for (int row = 0; row < this.rowCount; row++) {
+            addToIndex(row);
+        }
+    }
+
+    // Add a row to the index of rows by local path.
+    private void addToIndex(int row) {
+        int mask = this.index.length - 1;
+        int slot = hash(this.localFolders[row], this.localNames[row]) & mask;
+        while (this.index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        this.index[slot] = row + 1;
+    }
+
+    // Set or clear the conflict of a row.
+    private void setConflict(int row, Conflict conflict) {
+        if (conflict != null) {
+            this.conflicts.put(row, conflict);
+        }
+        else {
+            this.conflicts.remove(row);
+        }
+    }
+
+    // Get the ID of a folder path, adding it to the folders if it's new.
+    private int internFolder(String folder) {
+        Integer folderId = this.folderIds.get(folder);
+        if (folderId == null) {
+            folderId = this.folders.size();
+            this.folders.add(folder);
+            this.folderIds.put(folder, folderId);
+        }
+        return folderId;
+    }
+
+    // Hash a local path by its folder ID and file name, spreading the high bits.
+    private static int hash(int folderId, String name) {
+        int hash = folderId * 31 + name.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    // Convert a pending change to the flags which decide the status and properties of a file.
+    private static byte toChangeFlags(ChangeType pendingChange) {
+        if (pendingChange == null || pendingChange.equals(ChangeType.NONE)) {
+            return 0;
+        }
+        int flags = 0;
+        for (int bit = 0; bit < FlagChangeTypes.length - 1; bit++) {
+            if (pendingChange.contains(FlagChangeTypes[bit])) {
+                flags |= 1 << bit;
+            }
+        }
+        return (byte)(flags != 0 ? flags : OtherChangeBit);
+    }
+
+    // Convert change flags back to a pending change with the same status and properties.
+    private static ChangeType toChangeType(byte flags) {
+        if (flags == 0) {
+            return null;
+        }
+        ChangeType change = ChangeType.NONE;
+        for (int bit = 0; bit < FlagChangeTypes.length; bit++) {
+            if ((flags & (1 << bit)) != 0) {
+                change = change.combine(FlagChangeTypes[bit]);
+            }
+        }
+        return change;
+    }
+
+    // A read-only view of the table keyed by File.
+    private class FileStateMap extends AbstractMap<File, FileState> {
+
+        @Override
+        public int size() {
+            return rowCount;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof File && contains(((File)key).getAbsolutePath());
+        }
+
+        @Override
+        public FileState get(Object key) {
+            return key instanceof File ? getState(((File)key).getAbsolutePath()) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<File, FileState>> entrySet() {
+            return new AbstractSet<Map.Entry<File, FileState>>() {
+                @Override
+                public int size() {
+                    return rowCount;
+                }
+
+                @Override
+                public Iterator<Map.Entry<File, FileState>> iterator() {
+                    return new Iterator<Map.Entry<File, FileState>>() {
+                        private int row;
+
+                        @Override
+                        public boolean hasNext() {
+                            return this.row < rowCount;
+                        }
+
+                        @Override
+                        public Map.Entry<File, FileState> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int current = this.row++;
+                            return new AbstractMap.SimpleImmutableEntry<File, FileState>(
+                                new File(getLocalPath(current)), getState(current));
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
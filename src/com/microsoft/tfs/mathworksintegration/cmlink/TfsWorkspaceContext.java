@@ -0,0 +1,459 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.mathworks.cmlink.api.Revision;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Conflict;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.ItemSpec;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsMetrics;
+
+/**
+ * The state shared by all {@link TfsAdapter} instances for directories in the same
+ * TFS Workspace.
+ * <p>
+ * MATLAB asks for adapters for many folders of the same sandbox, so the Workspace
+ * handle, the modification detector, the latest version tracker and the status
+ * requests in flight are kept here rather than per adapter. The context also caches
+ * the results of recursive status queries, the Workspace's conflicts and file
+ * histories, so work done for one folder answers the questions asked for the others.
+ * <p>
+ * Cached status and conflicts are dropped when any adapter changes the Workspace or
+ * when files change on disk, and are otherwise kept for a few seconds, which covers
+ * the bursts of queries MATLAB makes when it repaints. Histories are kept until the
+ * latest version tracker sees a new changeset.
+ */
+public class TfsWorkspaceContext {
+
+    // How long cached status and conflicts are used for, since changes made by other
+    // users or tools aren't seen until they are queried again.
+    private static final long CacheMaxAgeMillis = TimeUnit.SECONDS.toMillis(5);
+
+    private static final String StatusCacheName = "status";
+    private static final String ConflictCacheName = "conflicts";
+    private static final String HistoryCacheName = "history";
+
+    private final File root;
+    private final TfsModificationDetector modificationDetector;
+    private final TfsStatusRequestCoalescer statusRequests;
+    private final TfsRevisionCache revisionCache;
+    // Recursive status results by root path, oldest first.
+    private final LinkedHashMap<String, StatusSnapshot> statusSnapshots;
+    // File histories by local path, least recently used first.
+    private final LinkedHashMap<String, HistoryEntry> histories;
+
+    private Workspace workspace;
+    private TfsLatestVersionTracker latestVersionTracker;
+    private int connectedAdapterCount;
+    // Incremented whenever the Workspace changes, which invalidates all cached state.
+    private long generation;
+    // Incremented whenever files change on disk, which invalidates the cached status.
+    private long statusGeneration;
+    private int cachedStateCount;
+    private Conflict[] conflicts;
+    private long conflictsGeneration;
+    private long conflictsMillis;
+
+    /**
+     * Initializes a TfsWorkspaceContext instance.
+     * @param root
+     *     The root directory of the Workspace, or the sandbox directory if the root
+     *     isn't known.
+     */
+    public TfsWorkspaceContext(File root) {
+        this.root = root;
+        this.modificationDetector = new TfsModificationDetector(root);
+        this.statusRequests = new TfsStatusRequestCoalescer();
+        this.revisionCache = new TfsRevisionCache();
+        this.statusSnapshots = new LinkedHashMap<String, StatusSnapshot>();
+        this.histories = new LinkedHashMap<String, HistoryEntry>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets the root directory of the Workspace.
+     */
+    public File getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Registers an adapter which is connecting. {@link TfsAdapterFactory} calls this
+     * while holding the lock it releases contexts under, so a context can't be forgotten
+     * between an adapter taking it and registering with it.
+     */
+    synchronized void retain() {
+        this.connectedAdapterCount++;
+    }
+
+    /**
+     * Gets the Workspace for an adapter which is connecting, if no earlier adapter has.
+     * @throws ConfigurationManagementException
+     */
+    public synchronized void connect() throws ConfigurationManagementException {
+        if (this.workspace == null || this.workspace.getClient().getConnection().isClosed()) {
+            // A missing Workspace is reported when the adapter first uses it.
+            Workspace foundWorkspace = Utilities.getWorkspaceForLocalPath(this.root.getAbsolutePath());
+            if (foundWorkspace != null) {
+                setWorkspace(foundWorkspace);
+            }
+        }
+    }
+
+    /**
+     * Unregisters an adapter which has disconnected. Once no adapter is connected, the
+     * latest version tracker is stopped and the cached state and revisions are dropped.
+     * @return
+     *     Whether this was the last connected adapter.
+     */
+    public synchronized boolean disconnect() {
+        this.connectedAdapterCount = Math.max(0, this.connectedAdapterCount - 1);
+        if (this.connectedAdapterCount > 0) {
+            return false;
+        }
+
+        if (this.latestVersionTracker != null) {
+            this.latestVersionTracker.stop();
+            this.latestVersionTracker = null;
+        }
+        invalidate();
+        this.modificationDetector.reset();
+        this.revisionCache.clear();
+        return true;
+    }
+
+    /**
+     * Gets the Workspace, refreshing it if the TFS connection has changed.
+     * Synchronized since operations may be run concurrently through several adapters.
+     * @throws ConfigurationManagementException
+     */
+    public synchronized Workspace getWorkspace() throws ConfigurationManagementException {
+        if (this.workspace == null || this.workspace.getClient().getConnection().isClosed()) {
+            setWorkspace(findWorkspace());
+        }
+        return this.workspace;
+    }
+
+    /**
+     * Gets the cache of file revisions downloaded ahead of time. Revisions never change,
+     * so the cache isn't dropped when the Workspace changes.
+     */
+    public TfsRevisionCache getRevisionCache() {
+        return this.revisionCache;
+    }
+
+    /**
+     * Gets the detector of changed files in the Workspace.
+     */
+    public TfsModificationDetector getModificationDetector() {
+        return this.modificationDetector;
+    }
+
+    /**
+     * Gets the status requests in flight for the Workspace.
+     */
+    public TfsStatusRequestCoalescer getStatusRequests() {
+        return this.statusRequests;
+    }
+
+    /**
+     * Gets the tracker of the latest versions of the files in a local Workspace,
+     * starting it on first use, so the server isn't polled for Workspaces which never
+     * ask. Returns null if the Workspace isn't a local Workspace.
+     * @throws ConfigurationManagementException
+     */
+    public synchronized TfsLatestVersionTracker getLatestVersionTracker() throws ConfigurationManagementException {
+        Workspace currentWorkspace = getWorkspace();
+        if (this.latestVersionTracker == null && TfsLocalStatusProvider.isSupported(currentWorkspace)) {
+            String serverRoot = currentWorkspace.getMappedServerPath(this.root.getAbsolutePath());
+            if (serverRoot != null) {
+                long pollIntervalMillis = TimeUnit.SECONDS.toMillis(
+                    TfsSettingsService.getInstance().getSettings().getLatestVersionPollInterval());
+                this.latestVersionTracker = new TfsLatestVersionTracker(currentWorkspace, serverRoot, pollIntervalMillis);
+                this.latestVersionTracker.start();
+            }
+        }
+        return this.latestVersionTracker;
+    }
+
+    /**
+     * Starts the tracker of the latest versions of the files in a local Workspace if it
+     * isn't running yet, so the cached histories can be told apart from new changesets.
+     * @throws ConfigurationManagementException
+     */
+    public void ensureLatestVersionTracker() throws ConfigurationManagementException {
+        getLatestVersionTracker();
+    }
+
+    /**
+     * Drops all cached state, after an adapter has changed the Workspace.
+     */
+    public synchronized void invalidate() {
+        this.generation++;
+        this.conflicts = null;
+        this.histories.clear();
+        invalidateFileStates();
+    }
+
+    /**
+     * Drops the cached status, after files in the Workspace have changed on disk.
+     */
+    public synchronized void invalidateFileStates() {
+        this.statusGeneration++;
+        this.statusSnapshots.clear();
+        this.cachedStateCount = 0;
+    }
+
+    /**
+     * Gets the current status generation, to be passed to {@link #putFileStates} once
+     * a status query started now has finished.
+     */
+    public synchronized long getStatusGeneration() {
+        return this.statusGeneration;
+    }
+
+    /**
+     * Gets the cached state of the files tracked by TFS which match the given specs, or
+     * null if they aren't all covered by a recent recursive status query.
+     * @param fileSpecs
+     *     The local paths to get the state of. Folders may be queried one level deep or
+     *     recursively.
+     */
+    public synchronized TfsStatusTable getCachedFileStates(ItemSpec[] fileSpecs) {
+        long now = System.currentTimeMillis();
+        StatusSnapshot[] snapshots = new StatusSnapshot[fileSpecs.length];
+        for (int i = 0; i < fileSpecs.length; i++) {
+            snapshots[i] = findSnapshot(fileSpecs[i].getItem(), now);
+            if (snapshots[i] == null) {
+                TfsMetrics.getInstance().recordCacheLookup(StatusCacheName, false);
+                return null;
+            }
+        }
+        TfsMetrics.getInstance().recordCacheLookup(StatusCacheName, true);
+
+        // Tables aren't changed once they're cached, so a snapshot of the same folder is shared.
+        if (fileSpecs.length == 1 && fileSpecs[0].getRecursionType() == RecursionType.FULL &&
+            snapshots[0].rootPath.equals(fileSpecs[0].getItem())) {
+            return snapshots[0].states;
+        }
+
+        TfsStatusTable statusTable = new TfsStatusTable();
+        for (int i = 0; i < fileSpecs.length; i++) {
+            TfsStatusTable states = snapshots[i].states;
+            String path = fileSpecs[i].getItem();
+            if (fileSpecs[i].getRecursionType() == RecursionType.FULL) {
+                for (int row = 0; row < states.size(); row++) {
+                    if (Utilities.isUnderDirectory(states.getLocalPath(row), path)) {
+                        statusTable.add(states, row);
+                    }
+                }
+            }
+            else if (fileSpecs[i].getRecursionType() == RecursionType.ONE_LEVEL) {
+                for (int row = 0; row < states.size(); row++) {
+                    String localPath = states.getLocalPath(row);
+                    if (localPath.equals(path) || path.equals(new File(localPath).getParent())) {
+                        statusTable.add(states, row);
+                    }
+                }
+            }
+            else {
+                // Files missing from the snapshot aren't tracked by TFS.
+                int row = states.indexOf(path);
+                if (row >= 0) {
+                    statusTable.add(states, row);
+                }
+            }
+        }
+        return statusTable;
+    }
+
+    /**
+     * Caches the result of a recursive status query, unless the Workspace changed while
+     * it ran or it holds more states than the statusCacheSize setting allows.
+     * @param rootPath
+     *     The local path of the folder which was queried.
+     * @param states
+     *     The state of every file tracked by TFS under the folder. The table must not be
+     *     changed once it is cached.
+     * @param startStatusGeneration
+     *     The status generation when the query started.
+     */
+    public synchronized void putFileStates(String rootPath, TfsStatusTable states,
+        long startStatusGeneration) {
+
+        int maxStateCount = TfsSettingsService.getInstance().getSettings().getStatusCacheSize();
+        if (startStatusGeneration != this.statusGeneration || states.size() > maxStateCount) {
+            return;
+        }
+
+        // Drop the snapshots the new one covers, then the oldest ones until there is room.
+        Iterator<Map.Entry<String, StatusSnapshot>> iterator = this.statusSnapshots.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, StatusSnapshot> entry = iterator.next();
+            if (Utilities.isUnderDirectory(entry.getKey(), rootPath)) {
+                this.cachedStateCount -= entry.getValue().states.size();
+                iterator.remove();
+            }
+        }
+        iterator = this.statusSnapshots.entrySet().iterator();
+        while (iterator.hasNext() && this.cachedStateCount + states.size() > maxStateCount) {
+            this.cachedStateCount -= iterator.next().getValue().states.size();
+            iterator.remove();
+        }
+
+        this.statusSnapshots.put(rootPath, new StatusSnapshot(rootPath, states, System.currentTimeMillis()));
+        this.cachedStateCount += states.size();
+    }
+
+    /**
+     * Gets the conflicts in the Workspace, querying the server unless they were queried
+     * recently and the Workspace hasn't changed since.
+     * @throws ConfigurationManagementException
+     */
+    public Conflict[] getConflicts() throws ConfigurationManagementException {
+        long startGeneration;
+        synchronized (this) {
+            boolean isHit = this.conflicts != null && this.conflictsGeneration == this.generation &&
+                System.currentTimeMillis() - this.conflictsMillis <= CacheMaxAgeMillis;
+            TfsMetrics.getInstance().recordCacheLookup(ConflictCacheName, isHit);
+            if (isHit) {
+                return this.conflicts;
+            }
+            startGeneration = this.generation;
+        }
+
+        Conflict[] queriedConflicts = getWorkspace().queryConflicts(null);
+        if (queriedConflicts == null) {
+            queriedConflicts = new Conflict[0];
+        }
+
+        synchronized (this) {
+            if (startGeneration == this.generation) {
+                this.conflicts = queriedConflicts;
+                this.conflictsGeneration = startGeneration;
+                this.conflictsMillis = System.currentTimeMillis();
+            }
+        }
+        return queriedConflicts;
+    }
+
+    /**
+     * Gets the cached history of a file, or null if it isn't cached or the latest version
+     * tracker has seen a new changeset since it was cached.
+     * @param localPath
+     *     The local path of the file.
+     */
+    public synchronized Collection<Revision> getCachedHistory(String localPath) {
+        HistoryEntry entry = this.histories.get(localPath);
+        boolean isHit = entry != null && entry.generation == this.generation &&
+            entry.changeset == getTrackedChangeset();
+        TfsMetrics.getInstance().recordCacheLookup(HistoryCacheName, isHit);
+        return isHit ? entry.revisions : null;
+    }
+
+    /**
+     * Caches the history of a file, if the latest version tracker is current, so new
+     * changesets can be told apart from the cached ones. The number of histories kept
+     * is limited by the historyCacheSize setting.
+     * @param localPath
+     *     The local path of the file.
+     * @param revisions
+     *     The revisions of the file.
+     * @param startGeneration
+     *     The generation when the history query started.
+     */
+    public synchronized void putHistory(String localPath, Collection<Revision> revisions, long startGeneration) {
+        int changeset = getTrackedChangeset();
+        if (changeset <= 0 || startGeneration != this.generation) {
+            return;
+        }
+
+        this.histories.put(localPath, new HistoryEntry(revisions, changeset, startGeneration));
+        int maxHistoryCount = TfsSettingsService.getInstance().getSettings().getHistoryCacheSize();
+        Iterator<HistoryEntry> iterator = this.histories.values().iterator();
+        while (this.histories.size() > maxHistoryCount && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Gets the current generation, to be passed to {@link #putHistory} once a history
+     * query started now has finished.
+     */
+    public synchronized long getGeneration() {
+        return this.generation;
+    }
+
+    // Gets the last changeset seen by a current latest version tracker, or 0 if there isn't one.
+    private int getTrackedChangeset() {
+        TfsLatestVersionTracker tracker = this.latestVersionTracker;
+        return tracker != null && tracker.isCurrent() ? tracker.getLastChangeset() : 0;
+    }
+
+    // Find a recent snapshot whose root is the given path or one of its parents.
+    private StatusSnapshot findSnapshot(String path, long now) {
+        for (Map.Entry<String, StatusSnapshot> entry : this.statusSnapshots.entrySet()) {
+            if (now - entry.getValue().createdMillis <= CacheMaxAgeMillis &&
+                Utilities.isUnderDirectory(path, entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    // Use a Workspace, which may have been refreshed after the TFS connection changed.
+    private void setWorkspace(Workspace newWorkspace) {
+        this.workspace = newWorkspace;
+        invalidate();
+        if (this.latestVersionTracker != null) {
+            this.latestVersionTracker.setWorkspace(newWorkspace);
+        }
+    }
+
+    // Get the Workspace of the root directory from the current TFS connection.
+    private Workspace findWorkspace() throws ConfigurationManagementException {
+        Workspace foundWorkspace = Utilities.getWorkspaceForLocalPath(this.root.getAbsolutePath());
+        if (foundWorkspace == null) {
+            throw new ConfigurationManagementException("No Workspace found for directory " +
+                this.root.getAbsolutePath() + " under current TFS connection.");
+        }
+        return foundWorkspace;
+    }
+
+    // The result of a recursive status query.
+    private static class StatusSnapshot {
+
+        private final String rootPath;
+        private final TfsStatusTable states;
+        private final long createdMillis;
+
+        public StatusSnapshot(String rootPath, TfsStatusTable states, long createdMillis) {
+            this.rootPath = rootPath;
+            this.states = states;
+            this.createdMillis = createdMillis;
+        }
+    }
+
+    // The history of a file, and the state of the Workspace when it was queried.
+    private static class HistoryEntry {
+
+        private final Collection<Revision> revisions;
+        private final int changeset;
+        private final long generation;
+
+        public HistoryEntry(Collection<Revision> revisions, int changeset, long generation) {
+            this.revisions = revisions;
+            this.changeset = changeset;
+            this.generation = generation;
+        }
+    }
+}
@@ -4,10 +4,6 @@ package com.microsoft.tfs.mathworksintegration.cmlink;
 
 import java.awt.Color;
 import java.io.File;
-import java.io.IOException;
-import java.net.URISyntaxException;
-import java.nio.charset.Charset;
-import java.util.List;
 
 import javax.swing.JComponent;
 import javax.swing.JLabel;
@@ -15,7 +11,6 @@ import javax.swing.JOptionPane;
 import javax.swing.JPasswordField;
 import javax.swing.JTextField;
 
-import com.google.common.io.Files;
 import com.mathworks.cmlink.api.ConfigurationManagementException;
 import com.microsoft.tfs.core.TFSTeamProjectCollection;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
@@ -40,8 +35,6 @@ public class Utilities {
 
     private static final String TfsNativeJvmSetting = "com.microsoft.tfs.jni.native.base-directory";
     private static final String TfsNativeRedistPathFromDistDirectory = "TFS-SDK/redist/native";
-    private static final String TfsSettingsFileName = "TfsSettings.txt";
-    private static final String Utf8 = "UTF-8";
 
     private static TFSTeamProjectCollection teamProjectCollection;
 
@@ -55,16 +48,12 @@ public class Utilities {
      * @throws ConfigurationManagementException
      */
     public static void connectToTfs(boolean forcePrompt) throws ConfigurationManagementException {
-        File distDirectory = getDistDirectory();
-        setNativeRedistJvmSetting(distDirectory);
-
-        String endpoint = null;
-        boolean onPremiseWindows = false; 
-        List<String> settings = getSavedTfsSettings(distDirectory);	
-        if (settings != null) {
-            endpoint = settings.get(0);
-            onPremiseWindows = Boolean.valueOf(settings.get(1));
-        }
+        TfsSettingsService settingsService = TfsSettingsService.getInstance();
+        setNativeRedistJvmSetting(settingsService.getDistDirectory());
+
+        TfsSettings settings = settingsService.getSettings();
+        String endpoint = settings.getEndpoint();
+        boolean onPremiseWindows = settings.isOnPremiseWindows();
 
         boolean showConnectionPrompt = true;
         if (!forcePrompt && endpoint != null && onPremiseWindows) {
@@ -79,6 +68,11 @@ public class Utilities {
         TfsConnectionData connectionData = null;
 
         while (!isConnected) {
+            // The "Change TFS Connection" action is canceled by interrupting this thread.
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+
             if (showConnectionPrompt) {
                 connectionData = showConnectionPrompt(endpoint, authError, endpointNotFound);
                 if (connectionData.isCanceled()) {
@@ -93,8 +87,13 @@ public class Utilities {
             }
 
             try {
-                collection = new TFSTeamProjectCollection(URIUtils.newURI(endpoint), creds);
+                collection = new TFSTeamProjectCollection(URIUtils.newURI(endpoint), creds, new TfsConnectionAdvisor());
                 collection.ensureAuthenticated();
+                if (Thread.currentThread().isInterrupted()) {
+                    // Canceled while authenticating, so keep the existing connection.
+                    collection.close();
+                    break;
+                }
                 isConnected = true;
             }
             catch (TFSUnauthorizedException ex) {
@@ -126,32 +125,6 @@ public class Utilities {
         }
     }
 
-    // Gets the top level distributable directory relative to the currently executing code.
-    private static File getDistDirectory() throws ConfigurationManagementException{
-        File currentJarPath;
-        try {
-            currentJarPath = new File(Utilities.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath());
-        } catch (URISyntaxException ex) {
-            throw new ConfigurationManagementException(ex);
-        }
-        File jarDirectory = currentJarPath.getParentFile();
-        return jarDirectory.getParentFile();
-    }
-
-    // Fetch the user's saved TFS settings
-    private static List<String> getSavedTfsSettings(File parentDirectory) {
-        List<String> settings = null;
-        try {
-            File settingsFile = new File(parentDirectory, TfsSettingsFileName);
-            settings = Files.readLines(settingsFile, Charset.forName(Utf8));
-        }
-        catch (IOException ex) {
-            // Just continue - we'll have to prompt the user for login info.
-        }
-
-        return settings;
-    }
-
     // Set the JVM setting required by the native components of the TFS SDK redistributable.
     private static void setNativeRedistJvmSetting(File distDirectory) throws ConfigurationManagementException {
         if (!isNativeRedistJvmPropertySet) {
@@ -165,19 +138,7 @@ public class Utilities {
 
     // Gets the stored TFS project collection endpoint
     public static String getStoredEndpoint() {
-    	String endpoint = null;
-        try {
-        	File distDirectory = getDistDirectory();
-            List<String> settings = getSavedTfsSettings(distDirectory);
-            if (settings != null) {
-                endpoint = settings.get(0);
-            }
-        }
-        catch (Exception ex) {
-        	// Just don't return anything
-        }
-    	
-    	return endpoint;
+        return TfsSettingsService.getInstance().getSettings().getEndpoint();
     }
     
     // Initialize the TFSTeamProjectCollection, or retrieve the previously initialized instance.
@@ -189,6 +150,36 @@ public class Utilities {
         return teamProjectCollection;
     }
 
+    /**
+     * Finds the root directory of the local TFS Workspace holding a directory, which
+     * is the closest directory containing a "$tf" folder.
+     * @param directory
+     *     The directory in the Workspace.
+     * @return
+     *     The root directory, or null if the directory isn't in a local Workspace.
+     */
+    public static File findLocalWorkspaceRoot(File directory) {
+        for (File current = directory; current != null; current = current.getParentFile()) {
+            if (new File(current, TfsLocalWorkspaceFolder).exists()) {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets whether a path is a directory or one of the files and directories under it.
+     * @param path
+     *     The absolute local path.
+     * @param directoryPath
+     *     The absolute local path of the directory.
+     */
+    public static boolean isUnderDirectory(String path, String directoryPath) {
+        return path.equals(directoryPath) ||
+            (path.startsWith(directoryPath) && path.length() > directoryPath.length() &&
+                path.charAt(directoryPath.length()) == File.separatorChar);
+    }
+
     // Get the TFS Workspace associated with the given local path.
     public static Workspace getWorkspaceForLocalPath(String localPath) throws ConfigurationManagementException {
         // There are version compatibility issues with this method. The Java SDK uses an older version than
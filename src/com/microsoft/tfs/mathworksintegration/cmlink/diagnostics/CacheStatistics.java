@@ -0,0 +1,55 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.diagnostics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the hit and miss counts of one of the adapter's caches.
+ * Published through the {@link TfsMetricsMXBean}.
+ */
+public class CacheStatistics {
+
+    private final String cacheName;
+    private final long hitCount;
+    private final long missCount;
+
+    /**
+     * Initializes a CacheStatistics instance.
+     */
+    @ConstructorProperties({ "cacheName", "hitCount", "missCount" })
+    public CacheStatistics(String cacheName, long hitCount, long missCount) {
+        this.cacheName = cacheName;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+    }
+
+    /**
+     * Gets the name of the cache.
+     */
+    public String getCacheName() {
+        return this.cacheName;
+    }
+
+    /**
+     * Gets the number of lookups which were answered from the cache.
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Gets the number of lookups which had to go to the TFS server or the disk.
+     */
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Gets the fraction of lookups which were answered from the cache, between 0 and 1.
+     */
+    public double getHitRate() {
+        long total = this.hitCount + this.missCount;
+        return total == 0 ? 0 : (double)this.hitCount / total;
+    }
+}
@@ -0,0 +1,121 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.diagnostics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the statistics collected for one kind of adapter operation,
+ * such as "getFileState". Published through the {@link TfsMetricsMXBean}.
+ */
+public class OperationStatistics {
+
+    private final String operationName;
+    private final long callCount;
+    private final long errorCount;
+    private final long itemCount;
+    private final long totalLatencyMillis;
+    private final long maxLatencyMillis;
+    private final long[] latencyHistogram;
+    private final long roundTripCount;
+    private final long bytesSent;
+    private final long bytesReceived;
+
+    /**
+     * Initializes an OperationStatistics instance.
+     */
+    @ConstructorProperties({ "operationName", "callCount", "errorCount", "itemCount", "totalLatencyMillis",
+        "maxLatencyMillis", "latencyHistogram", "roundTripCount", "bytesSent", "bytesReceived" })
+    public OperationStatistics(String operationName, long callCount, long errorCount, long itemCount,
+        long totalLatencyMillis, long maxLatencyMillis, long[] latencyHistogram, long roundTripCount,
+        long bytesSent, long bytesReceived) {
+        this.operationName = operationName;
+        this.callCount = callCount;
+        this.errorCount = errorCount;
+        this.itemCount = itemCount;
+        this.totalLatencyMillis = totalLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.latencyHistogram = latencyHistogram.clone();
+        this.roundTripCount = roundTripCount;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+    }
+
+    /**
+     * Gets the name of the operation.
+     */
+    public String getOperationName() {
+        return this.operationName;
+    }
+
+    /**
+     * Gets the number of times the operation was called.
+     */
+    public long getCallCount() {
+        return this.callCount;
+    }
+
+    /**
+     * Gets the number of calls which failed with an exception.
+     */
+    public long getErrorCount() {
+        return this.errorCount;
+    }
+
+    /**
+     * Gets the total number of files or revisions handled by all calls.
+     */
+    public long getItemCount() {
+        return this.itemCount;
+    }
+
+    /**
+     * Gets the total time spent in all calls, in milliseconds.
+     */
+    public long getTotalLatencyMillis() {
+        return this.totalLatencyMillis;
+    }
+
+    /**
+     * Gets the mean time spent per call, in milliseconds.
+     */
+    public long getMeanLatencyMillis() {
+        return this.callCount == 0 ? 0 : this.totalLatencyMillis / this.callCount;
+    }
+
+    /**
+     * Gets the longest time spent in a single call, in milliseconds.
+     */
+    public long getMaxLatencyMillis() {
+        return this.maxLatencyMillis;
+    }
+
+    /**
+     * Gets the number of calls in each latency bucket. The upper bound of each bucket
+     * is given by {@link TfsMetricsMXBean#getLatencyBucketBoundsMillis()}.
+     */
+    public long[] getLatencyHistogram() {
+        return this.latencyHistogram.clone();
+    }
+
+    /**
+     * Gets the total number of HTTP requests made to the TFS server by all calls.
+     */
+    public long getRoundTripCount() {
+        return this.roundTripCount;
+    }
+
+    /**
+     * Gets the total number of request body bytes sent to the TFS server by all calls.
+     */
+    public long getBytesSent() {
+        return this.bytesSent;
+    }
+
+    /**
+     * Gets the total number of response body bytes received from the TFS server by all calls.
+     */
+    public long getBytesReceived() {
+        return this.bytesReceived;
+    }
+}
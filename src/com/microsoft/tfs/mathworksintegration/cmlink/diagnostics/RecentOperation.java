@@ -0,0 +1,75 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.diagnostics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A record of a single adapter operation which took longer than the slow
+ * operation threshold. Published through the {@link TfsMetricsMXBean}.
+ */
+public class RecentOperation {
+
+    private final String operationName;
+    private final long startTime;
+    private final long latencyMillis;
+    private final long itemCount;
+    private final long roundTripCount;
+    private final boolean failed;
+
+    /**
+     * Initializes a RecentOperation instance.
+     */
+    @ConstructorProperties({ "operationName", "startTime", "latencyMillis", "itemCount", "roundTripCount", "failed" })
+    public RecentOperation(String operationName, long startTime, long latencyMillis, long itemCount,
+        long roundTripCount, boolean failed) {
+        this.operationName = operationName;
+        this.startTime = startTime;
+        this.latencyMillis = latencyMillis;
+        this.itemCount = itemCount;
+        this.roundTripCount = roundTripCount;
+        this.failed = failed;
+    }
+
+    /**
+     * Gets the name of the operation.
+     */
+    public String getOperationName() {
+        return this.operationName;
+    }
+
+    /**
+     * Gets the time the operation started, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    /**
+     * Gets the time spent in the operation, in milliseconds.
+     */
+    public long getLatencyMillis() {
+        return this.latencyMillis;
+    }
+
+    /**
+     * Gets the number of files or revisions handled by the operation.
+     */
+    public long getItemCount() {
+        return this.itemCount;
+    }
+
+    /**
+     * Gets the number of HTTP requests made to the TFS server by the operation.
+     */
+    public long getRoundTripCount() {
+        return this.roundTripCount;
+    }
+
+    /**
+     * Gets whether the operation failed with an exception.
+     */
+    public boolean isFailed() {
+        return this.failed;
+    }
+}
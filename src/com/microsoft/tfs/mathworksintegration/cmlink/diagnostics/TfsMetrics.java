@@ -0,0 +1,399 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.diagnostics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.microsoft.tfs.core.httpclient.HttpConnectionManager;
+import com.microsoft.tfs.core.httpclient.MultiThreadedHttpConnectionManager;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsSettingsService;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationContext;
+
+/**
+ * Collects call counts, item counts, latency histograms, server round trips and
+ * bytes transferred for every adapter operation, along with cache hit rates, recent
+ * slow operations and the duration of the last workspace scan. These are published
+ * through JMX as a {@link TfsMetricsMXBean}.
+ */
+public class TfsMetrics implements TfsMetricsMXBean {
+
+    /** The JMX object name the metrics are published under. */
+    public static final String ObjectNameString = "com.microsoft.tfs.mathworksintegration:type=TfsMetrics";
+
+    private static final long[] LatencyBucketBoundsMillis = {
+        10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+    private static final int MaxRecentSlowOperations = 20;
+
+    private static TfsMetrics instance;
+
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+    private final AtomicLong totalRoundTripCount = new AtomicLong();
+    private final AtomicLong totalBytesSent = new AtomicLong();
+    private final AtomicLong totalBytesReceived = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong[]> caches = new ConcurrentHashMap<String, AtomicLong[]>();
+    private final Deque<RecentOperation> recentSlowOperations = new ArrayDeque<RecentOperation>();
+    private final AtomicLong lastScanMillis = new AtomicLong(-1);
+    private final AtomicInteger activeRequestCount = new AtomicInteger();
+    private volatile HttpConnectionManager connectionManager;
+
+    private TfsMetrics() {
+    }
+
+    /**
+     * Gets the metrics for this MATLAB process, publishing them through JMX on first use.
+     */
+    public static synchronized TfsMetrics getInstance() {
+        if (instance == null) {
+            instance = new TfsMetrics();
+            instance.register();
+        }
+        return instance;
+    }
+
+    /**
+     * Records a completed adapter operation. Nested operations aren't recorded, since
+     * their counters are already included in the operation which called them.
+     * @param context
+     *     The {@link TfsOperationContext} of the operation.
+     * @param failed
+     *     Whether the operation failed with an exception.
+     */
+    public void recordOperation(TfsOperationContext context, boolean failed) {
+        if (!context.isRoot()) {
+            return;
+        }
+
+        OperationMetrics metrics = this.operations.get(context.getOperationName());
+        if (metrics == null) {
+            OperationMetrics newMetrics = new OperationMetrics();
+            metrics = this.operations.putIfAbsent(context.getOperationName(), newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(context.getElapsedNanos());
+        metrics.record(context, latencyMillis, failed);
+
+        if (latencyMillis >= getSlowOperationThresholdMillis()) {
+            TfsSlowOperationLog.getInstance().write(context, latencyMillis, failed);
+
+            RecentOperation operation = new RecentOperation(context.getOperationName(), context.getStartTime(),
+                latencyMillis, context.getItemCount(), context.getRoundTripCount(), failed);
+            synchronized (this.recentSlowOperations) {
+                this.recentSlowOperations.addFirst(operation);
+                if (this.recentSlowOperations.size() > MaxRecentSlowOperations) {
+                    this.recentSlowOperations.removeLast();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a lookup in one of the adapter's caches.
+     * @param cacheName
+     *     The name of the cache.
+     * @param hit
+     *     Whether the lookup was answered from the cache.
+     */
+    public void recordCacheLookup(String cacheName, boolean hit) {
+        recordCacheLookups(cacheName, hit ? 1 : 0, hit ? 0 : 1);
+    }
+
+    /**
+     * Records a number of lookups in one of the adapter's caches at once, for callers
+     * which look up many entries in a loop.
+     * @param cacheName
+     *     The name of the cache.
+     * @param hitCount
+     *     The number of lookups which were answered from the cache.
+     * @param missCount
+     *     The number of lookups which weren't.
+     */
+    public void recordCacheLookups(String cacheName, long hitCount, long missCount) {
+        AtomicLong[] counts = this.caches.get(cacheName);
+        if (counts == null) {
+            AtomicLong[] newCounts = new AtomicLong[] { new AtomicLong(), new AtomicLong() };
+            counts = this.caches.putIfAbsent(cacheName, newCounts);
+            if (counts == null) {
+                counts = newCounts;
+            }
+        }
+        counts[0].addAndGet(hitCount);
+        counts[1].addAndGet(missCount);
+    }
+
+    /**
+     * Records a scan of a local workspace for changes.
+     * @param elapsedMillis
+     *     The duration of the scan, in milliseconds.
+     */
+    public void recordScan(long elapsedMillis) {
+        this.lastScanMillis.set(elapsedMillis);
+    }
+
+    /**
+     * Sets the connection manager whose pool usage is reported. Called when the HTTP
+     * client for a TFS connection is created.
+     * @param connectionManager
+     *     The {@link HttpConnectionManager} of the TFS connection.
+     */
+    public void setConnectionManager(HttpConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    /**
+     * Records the start of an HTTP request to the TFS server. Every call must be
+     * followed by a call to {@link #recordRoundTrip(String, long, long, long)}.
+     */
+    public void recordRequestStarted() {
+        this.activeRequestCount.incrementAndGet();
+    }
+
+    /**
+     * Records a completed HTTP request to the TFS server.
+     * @param requestName
+     *     The SOAP method or other name identifying the request.
+     * @param requestBytes
+     *     The size of the request body, or a negative value if unknown.
+     * @param responseBytes
+     *     The size of the response body, or a negative value if unknown or recorded later
+     *     with {@link #recordBytesReceived(TfsOperationContext, long)}.
+     * @param elapsedMillis
+     *     The time until the response headers were received, in milliseconds.
+     */
+    public void recordRoundTrip(String requestName, long requestBytes, long responseBytes, long elapsedMillis) {
+        this.activeRequestCount.decrementAndGet();
+        this.totalRoundTripCount.incrementAndGet();
+        this.totalBytesSent.addAndGet(Math.max(0, requestBytes));
+        this.totalBytesReceived.addAndGet(Math.max(0, responseBytes));
+
+        TfsOperationContext context = TfsOperationContext.getAttributed();
+        if (context != null) {
+            context.addRoundTrip(requestName, requestBytes, responseBytes, elapsedMillis);
+        }
+    }
+
+    /**
+     * Records response body bytes read from the TFS server after the round trip of the
+     * request was recorded.
+     * @param context
+     *     The {@link TfsOperationContext} of the operation which made the request, or null.
+     * @param count
+     *     The number of bytes read.
+     */
+    public void recordBytesReceived(TfsOperationContext context, long count) {
+        this.totalBytesReceived.addAndGet(count);
+        if (context != null) {
+            context.addBytesReceived(count);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, OperationStatistics> getOperations() {
+        Map<String, OperationStatistics> statistics = new TreeMap<String, OperationStatistics>();
+        for (Map.Entry<String, OperationMetrics> entry : this.operations.entrySet()) {
+            statistics.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return statistics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, CacheStatistics> getCaches() {
+        Map<String, CacheStatistics> statistics = new TreeMap<String, CacheStatistics>();
+        for (Map.Entry<String, AtomicLong[]> entry : this.caches.entrySet()) {
+            AtomicLong[] counts = entry.getValue();
+            statistics.put(entry.getKey(), new CacheStatistics(entry.getKey(), counts[0].get(), counts[1].get()));
+        }
+        return statistics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<RecentOperation> getRecentSlowOperations() {
+        synchronized (this.recentSlowOperations) {
+            return new ArrayList<RecentOperation>(this.recentSlowOperations);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSlowOperationThresholdMillis() {
+        return TfsSettingsService.getInstance().getSettings().getSlowOperationThreshold();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLastScanMillis() {
+        return this.lastScanMillis.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getActiveRequestCount() {
+        return this.activeRequestCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPooledConnectionCount() {
+        HttpConnectionManager manager = this.connectionManager;
+        if (manager instanceof MultiThreadedHttpConnectionManager) {
+            return ((MultiThreadedHttpConnectionManager)manager).getConnectionsInPool();
+        }
+        return -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxConnectionCount() {
+        HttpConnectionManager manager = this.connectionManager;
+        return manager == null ? -1 : manager.getParams().getMaxTotalConnections();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long[] getLatencyBucketBoundsMillis() {
+        return LatencyBucketBoundsMillis.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTotalRoundTripCount() {
+        return this.totalRoundTripCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTotalBytesSent() {
+        return this.totalBytesSent.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTotalBytesReceived() {
+        return this.totalBytesReceived.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        this.operations.clear();
+        this.caches.clear();
+        synchronized (this.recentSlowOperations) {
+            this.recentSlowOperations.clear();
+        }
+        this.totalRoundTripCount.set(0);
+        this.totalBytesSent.set(0);
+        this.totalBytesReceived.set(0);
+        this.lastScanMillis.set(-1);
+    }
+
+    // Publish the metrics on the platform MBean server.
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(ObjectNameString);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        }
+        catch (JMException ex) {
+            // Metrics are still collected for the diagnostics UI without JMX.
+        }
+    }
+
+    // Get the index of the histogram bucket for a latency.
+    private static int getBucketIndex(long latencyMillis) {
+        for (int i = 0; i < LatencyBucketBoundsMillis.length; i++) {
+            if (latencyMillis <= LatencyBucketBoundsMillis[i]) {
+                return i;
+            }
+        }
+        return LatencyBucketBoundsMillis.length;
+    }
+
+    // The running totals for one kind of operation.
+    private static class OperationMetrics {
+
+        private final AtomicLong callCount = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final AtomicLong itemCount = new AtomicLong();
+        private final AtomicLong totalLatencyMillis = new AtomicLong();
+        private final AtomicLong maxLatencyMillis = new AtomicLong();
+        private final AtomicLongArray latencyHistogram = new AtomicLongArray(LatencyBucketBoundsMillis.length + 1);
+        private final AtomicLong roundTripCount = new AtomicLong();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+
+        public void record(TfsOperationContext context, long latencyMillis, boolean failed) {
+            this.callCount.incrementAndGet();
+            if (failed) {
+                this.errorCount.incrementAndGet();
+            }
+            this.itemCount.addAndGet(context.getItemCount());
+            this.totalLatencyMillis.addAndGet(latencyMillis);
+            long max = this.maxLatencyMillis.get();
+            while (latencyMillis > max && !this.maxLatencyMillis.compareAndSet(max, latencyMillis)) {
+                max = this.maxLatencyMillis.get();
+            }
+            this.latencyHistogram.incrementAndGet(getBucketIndex(latencyMillis));
+            this.roundTripCount.addAndGet(context.getRoundTripCount());
+            this.bytesSent.addAndGet(context.getBytesSent());
+            this.bytesReceived.addAndGet(context.getBytesReceived());
+        }
+
+        public OperationStatistics snapshot(String operationName) {
+            long[] histogram = new long[this.latencyHistogram.length()];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = this.latencyHistogram.get(i);
+            }
+            return new OperationStatistics(operationName, this.callCount.get(), this.errorCount.get(),
+                this.itemCount.get(), this.totalLatencyMillis.get(), this.maxLatencyMillis.get(), histogram,
+                this.roundTripCount.get(), this.bytesSent.get(), this.bytesReceived.get());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.diagnostics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface for the adapter operation metrics, published in the MATLAB
+ * JVM under the name {@value TfsMetrics#ObjectNameString}. Attach JConsole or any
+ * JMX client to the MATLAB process to read it.
+ */
+public interface TfsMetricsMXBean {
+
+    /**
+     * Gets the statistics of each adapter operation which has been called, keyed by
+     * operation name. Only operations called by a user or script are listed; an
+     * operation called from inside another one is counted as part of its caller.
+     */
+    Map<String, OperationStatistics> getOperations();
+
+    /**
+     * Gets the hit and miss counts of each of the adapter's caches, keyed by cache name.
+     */
+    Map<String, CacheStatistics> getCaches();
+
+    /**
+     * Gets the most recent operations which took longer than the slow operation
+     * threshold, newest first.
+     */
+    List<RecentOperation> getRecentSlowOperations();
+
+    /**
+     * Gets the latency, in milliseconds, above which an operation is considered slow.
+     * This is the "slowOperationThreshold" TFS setting.
+     */
+    long getSlowOperationThresholdMillis();
+
+    /**
+     * Gets the duration of the last scan of a local workspace for changes, in
+     * milliseconds, or -1 if no scan has been made.
+     */
+    long getLastScanMillis();
+
+    /**
+     * Gets the number of HTTP requests to the TFS server currently in progress.
+     */
+    int getActiveRequestCount();
+
+    /**
+     * Gets the number of connections to the TFS server held by the connection pool,
+     * or -1 if unknown.
+     */
+    int getPooledConnectionCount();
+
+    /**
+     * Gets the maximum number of connections to the TFS server, or -1 if not connected.
+     */
+    int getMaxConnectionCount();
+
+    /**
+     * Gets the upper bound, in milliseconds, of each bucket of the operation latency
+     * histograms. The last bucket has no upper bound.
+     */
+    long[] getLatencyBucketBoundsMillis();
+
+    /**
+     * Gets the total number of HTTP requests made to the TFS server.
+     */
+    long getTotalRoundTripCount();
+
+    /**
+     * Gets the total number of request body bytes sent to the TFS server.
+     */
+    long getTotalBytesSent();
+
+    /**
+     * Gets the total number of response body bytes received from the TFS server.
+     */
+    long getTotalBytesReceived();
+
+    /**
+     * Clears all collected statistics.
+     */
+    void reset();
+}
@@ -0,0 +1,124 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.diagnostics;
+
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationScheduler;
+
+/**
+ * Dialog showing live adapter statistics from {@link TfsMetrics} and the
+ * {@link TfsOperationScheduler}, so users can include real numbers when they
+ * report performance problems. The text can be selected and copied.
+ */
+public class TfsPerformanceDialog {
+
+    private static final String Title = "TFS Performance";
+    private static final int RefreshIntervalMillis = 1000;
+    private static final int Width = 720;
+    private static final int Height = 480;
+
+    private TfsPerformanceDialog() {
+    }
+
+    /**
+     * Shows the dialog, refreshing its statistics every second until it is closed.
+     */
+    public static void show() {
+        final JTextArea reportText = new JTextArea(buildReport());
+        reportText.setEditable(false);
+        reportText.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JScrollPane scrollPane = new JScrollPane(reportText);
+        scrollPane.setPreferredSize(new Dimension(Width, Height));
+
+        Timer refreshTimer = new Timer(RefreshIntervalMillis, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Keep the user's selection while refreshing, so it can still be copied.
+                if (reportText.getSelectionStart() == reportText.getSelectionEnd()) {
+                    reportText.setText(buildReport());
+                    reportText.setCaretPosition(0);
+                }
+            }
+        });
+        refreshTimer.start();
+        try {
+            JOptionPane.showMessageDialog(null, scrollPane, Title, JOptionPane.PLAIN_MESSAGE);
+        }
+        finally {
+            refreshTimer.stop();
+        }
+    }
+
+    /**
+     * Builds the text shown in the dialog.
+     */
+    public static String buildReport() {
+        TfsMetrics metrics = TfsMetrics.getInstance();
+        TfsOperationScheduler scheduler = TfsOperationScheduler.getDefault();
+        StringBuilder report = new StringBuilder();
+
+        report.append(String.format("Scheduler: %d queued, %d running on %d workers%n",
+            scheduler.getQueueDepth(), scheduler.getActiveOperationCount(), scheduler.getWorkerCount()));
+        report.append(String.format("Connections: %d requests in progress, %s pooled, %s maximum%n",
+            metrics.getActiveRequestCount(), formatOptional(metrics.getPooledConnectionCount()),
+            formatOptional(metrics.getMaxConnectionCount())));
+        report.append(String.format("Last workspace scan: %s%n",
+            metrics.getLastScanMillis() < 0 ? "none" : metrics.getLastScanMillis() + " ms"));
+        report.append(String.format("Server totals: %d round trips, %d KB sent, %d KB received%n",
+            metrics.getTotalRoundTripCount(), metrics.getTotalBytesSent() / 1024,
+            metrics.getTotalBytesReceived() / 1024));
+
+        report.append(String.format("%nOperations%n"));
+        report.append(String.format("  %-36s %7s %6s %9s %8s %8s %11s%n",
+            "Name", "Calls", "Errors", "Items", "Mean ms", "Max ms", "Round trips"));
+        for (OperationStatistics operation : metrics.getOperations().values()) {
+            report.append(String.format("  %-36s %7d %6d %9d %8d %8d %11d%n",
+                operation.getOperationName(), operation.getCallCount(), operation.getErrorCount(),
+                operation.getItemCount(), operation.getMeanLatencyMillis(), operation.getMaxLatencyMillis(),
+                operation.getRoundTripCount()));
+        }
+
+        report.append(String.format("%nCaches%n"));
+        Map<String, CacheStatistics> caches = metrics.getCaches();
+        if (caches.isEmpty()) {
+            report.append(String.format("  No cache lookups yet.%n"));
+        }
+        for (CacheStatistics cache : caches.values()) {
+            report.append(String.format("  %-36s %5.1f%% hit rate (%d hits, %d misses)%n",
+                cache.getCacheName(), cache.getHitRate() * 100, cache.getHitCount(), cache.getMissCount()));
+        }
+
+        report.append(String.format("%nRecent slow operations (over %d ms)%n", metrics.getSlowOperationThresholdMillis()));
+        List<RecentOperation> slowOperations = metrics.getRecentSlowOperations();
+        if (slowOperations.isEmpty()) {
+            report.append(String.format("  None.%n"));
+        }
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+        for (RecentOperation operation : slowOperations) {
+            report.append(String.format("  %s  %-36s %8d ms %6d round trips %8d items%s%n",
+                timeFormat.format(new Date(operation.getStartTime())), operation.getOperationName(),
+                operation.getLatencyMillis(), operation.getRoundTripCount(), operation.getItemCount(),
+                operation.isFailed() ? "  (failed)" : ""));
+        }
+
+        return report.toString();
+    }
+
+    // Format a value which is negative when unknown.
+    private static String formatOptional(int value) {
+        return value < 0 ? "unknown" : Integer.toString(value);
+    }
+}
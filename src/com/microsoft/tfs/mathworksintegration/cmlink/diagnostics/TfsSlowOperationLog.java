@@ -0,0 +1,132 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.diagnostics;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsSettingsService;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationContext;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationContext.ServerCallStatistics;
+
+/**
+ * Writes adapter operations which take longer than the "slowOperationThreshold" TFS
+ * setting to TfsSlowOperations.log in the dist directory, beside TfsSettings.txt.
+ * <p>
+ * Each entry holds the operation's arguments, the time spent in each of its phases
+ * (such as the workspace scan and the extended item query) and the server calls it
+ * made, so slow calls which can't be reproduced can still be diagnosed.
+ */
+public class TfsSlowOperationLog {
+
+    private static final String LogFileName = "TfsSlowOperations.log";
+    private static final int MaxLogFileSize = 10 * 1024 * 1024;
+
+    private static final TfsSlowOperationLog Instance = new TfsSlowOperationLog();
+
+    private final Logger logger;
+    private boolean isOpen;
+
+    private TfsSlowOperationLog() {
+        this.logger = Logger.getAnonymousLogger();
+        this.logger.setUseParentHandlers(false);
+        this.logger.setLevel(Level.INFO);
+    }
+
+    /**
+     * Gets the slow operation log for this MATLAB process.
+     */
+    public static TfsSlowOperationLog getInstance() {
+        return Instance;
+    }
+
+    /**
+     * Writes an entry for a slow operation.
+     * @param context
+     *     The {@link TfsOperationContext} of the operation.
+     * @param latencyMillis
+     *     The time spent in the operation, in milliseconds.
+     * @param failed
+     *     Whether the operation failed with an exception.
+     */
+    public void write(TfsOperationContext context, long latencyMillis, boolean failed) {
+        if (!open()) {
+            return;
+        }
+
+        String newLine = System.lineSeparator();
+        StringBuilder entry = new StringBuilder(512);
+        entry.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(context.getStartTime())));
+        entry.append(' ').append(context.getOperationName()).append(" took ").append(latencyMillis).append(" ms");
+        if (failed) {
+            entry.append(" and failed");
+        }
+        entry.append(" on thread ").append(Thread.currentThread().getName()).append(newLine);
+
+        entry.append("  Arguments: items=").append(context.getItemCount());
+        for (Map.Entry<String, Object> argument : context.getArguments().entrySet()) {
+            entry.append(", ").append(argument.getKey()).append('=').append(argument.getValue());
+        }
+        entry.append(newLine);
+
+        entry.append("  Phases:");
+        long phaseTotalMillis = 0;
+        for (Map.Entry<String, Long> phase : context.getPhaseNanos().entrySet()) {
+            long phaseMillis = TimeUnit.NANOSECONDS.toMillis(phase.getValue());
+            phaseTotalMillis += phaseMillis;
+            entry.append(' ').append(phase.getKey()).append('=').append(phaseMillis).append(" ms,");
+        }
+        entry.append(" other=").append(Math.max(0, latencyMillis - phaseTotalMillis)).append(" ms").append(newLine);
+
+        entry.append("  Server calls: ").append(context.getRoundTripCount()).append(" round trips, ");
+        entry.append(context.getBytesSent()).append(" bytes sent, ");
+        entry.append(context.getBytesReceived()).append(" bytes received").append(newLine);
+        for (ServerCallStatistics call : context.getServerCalls().values()) {
+            entry.append("    ").append(call.getName()).append(" x").append(call.getCount());
+            entry.append(" (").append(call.getTotalMillis()).append(" ms)").append(newLine);
+        }
+
+        this.logger.info(entry.toString());
+    }
+
+    // Open the log file the first time a slow operation is written.
+    // Returns false if the log file can't be written.
+    private synchronized boolean open() {
+        if (this.isOpen) {
+            return true;
+        }
+
+        try {
+            File distDirectory = TfsSettingsService.getInstance().getDistDirectory();
+            String pattern = new File(distDirectory, LogFileName).getAbsolutePath();
+            FileHandler handler = new FileHandler(pattern, MaxLogFileSize, 1, true);
+            handler.setFormatter(new EntryFormatter());
+            this.logger.addHandler(handler);
+            this.isOpen = true;
+            return true;
+        }
+        catch (ConfigurationManagementException | IOException ex) {
+            // Logging is best effort and must never fail a TFS operation.
+            return false;
+        }
+    }
+
+    // Writes each entry as it was built.
+    private static class EntryFormatter extends Formatter {
+
+        @Override
+        public String format(LogRecord record) {
+            return record.getMessage();
+        }
+    }
+}
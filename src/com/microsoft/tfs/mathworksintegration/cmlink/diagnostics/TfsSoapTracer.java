@@ -0,0 +1,200 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.diagnostics;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsSettings;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsSettingsService;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationContext;
+
+/**
+ * Writes a trace entry for each request made to the TFS server, when enabled by the
+ * "traceEnabled" TFS setting.
+ * <p>
+ * Entries are written one per line as JSON objects to TfsTrace0.log in the dist
+ * directory, beside TfsSettings.txt. When the file reaches the "traceFileSize"
+ * setting it is rotated to TfsTrace1.log and so on, keeping "traceFileCount" files.
+ * Each entry holds the SOAP method, the adapter operation which made the request
+ * and the operation the user invoked, the HTTP status, the request and response
+ * sizes and the time until the response headers arrived.
+ */
+public class TfsSoapTracer {
+
+    private static final String TraceFilePattern = "TfsTrace%g.log";
+    private static final String SoapActionPathDelimiter = "/";
+    private static final String NoOperation = "";
+
+    private static final TfsSoapTracer Instance = new TfsSoapTracer();
+
+    private final Logger logger;
+    private FileHandler handler;
+    private int handlerFileSize;
+    private int handlerFileCount;
+
+    private TfsSoapTracer() {
+        this.logger = Logger.getAnonymousLogger();
+        this.logger.setUseParentHandlers(false);
+        this.logger.setLevel(Level.INFO);
+    }
+
+    /**
+     * Gets the tracer for this MATLAB process.
+     */
+    public static TfsSoapTracer getInstance() {
+        return Instance;
+    }
+
+    /**
+     * Gets whether tracing is enabled in the TFS settings.
+     */
+    public boolean isEnabled() {
+        return TfsSettingsService.getInstance().getSettings().isTraceEnabled();
+    }
+
+    /**
+     * Writes a trace entry for a request to the TFS server, if tracing is enabled.
+     * @param requestName
+     *     The SOAP method or other name identifying the request, from {@link #getRequestName}.
+     * @param statusCode
+     *     The HTTP status code of the response, or 0 if no response was received.
+     * @param requestBytes
+     *     The size of the request body, or a negative value if unknown.
+     * @param responseBytes
+     *     The size of the response body, or a negative value if unknown.
+     * @param elapsedMillis
+     *     The time until the response headers were received, in milliseconds.
+     */
+    public void trace(String requestName, int statusCode, long requestBytes, long responseBytes,
+        long elapsedMillis) {
+
+        TfsSettings settings = TfsSettingsService.getInstance().getSettings();
+        if (!settings.isTraceEnabled() || !openHandler(settings)) {
+            return;
+        }
+
+        TfsOperationContext context = TfsOperationContext.getCurrent();
+        StringBuilder entry = new StringBuilder(256);
+        entry.append('{');
+        appendField(entry, "method", requestName).append(',');
+        appendField(entry, "operation", context == null ? NoOperation : context.getOperationName()).append(',');
+        appendField(entry, "rootOperation", context == null ? NoOperation : context.getRootOperationName()).append(',');
+        appendField(entry, "thread", Thread.currentThread().getName()).append(',');
+        entry.append("\"status\":").append(statusCode).append(',');
+        entry.append("\"requestBytes\":").append(requestBytes).append(',');
+        entry.append("\"responseBytes\":").append(responseBytes).append(',');
+        entry.append("\"millis\":").append(elapsedMillis);
+        entry.append('}');
+
+        this.logger.info(entry.toString());
+    }
+
+    // Open the trace file, or re-open it if the rotation settings have changed.
+    // Returns false if the trace file can't be written.
+    private synchronized boolean openHandler(TfsSettings settings) {
+        int fileSize = settings.getTraceFileSize();
+        int fileCount = settings.getTraceFileCount();
+        if (this.handler != null && this.handlerFileSize == fileSize && this.handlerFileCount == fileCount) {
+            return true;
+        }
+
+        if (this.handler != null) {
+            this.logger.removeHandler(this.handler);
+            this.handler.close();
+            this.handler = null;
+        }
+
+        try {
+            File distDirectory = TfsSettingsService.getInstance().getDistDirectory();
+            String pattern = new File(distDirectory, TraceFilePattern).getAbsolutePath();
+            // FileHandler limits are ints, so sizes of 2 GB or more are capped.
+            int limitBytes = (int)Math.min(fileSize * 1024L, Integer.MAX_VALUE);
+            FileHandler newHandler = new FileHandler(pattern, limitBytes, fileCount, true);
+            newHandler.setFormatter(new TraceFormatter());
+            this.logger.addHandler(newHandler);
+            this.handler = newHandler;
+            this.handlerFileSize = fileSize;
+            this.handlerFileCount = fileCount;
+            return true;
+        }
+        catch (ConfigurationManagementException | IOException | RuntimeException ex) {
+            // Tracing is best effort and must never fail a TFS operation. It runs in
+            // the finally block of every request, where an exception would also hide
+            // the request's own failure.
+            return false;
+        }
+    }
+
+    /**
+     * Gets the name identifying a request to the TFS server. For SOAP calls this is the
+     * method name, which ends the SOAPAction header. Other requests, such as file
+     * downloads, are identified by their HTTP method and path.
+     * @param soapAction
+     *     The SOAPAction header of the request, or null if it isn't a SOAP request.
+     * @param httpMethod
+     *     The HTTP method of the request.
+     * @param uri
+     *     The request URI.
+     */
+    public static String getRequestName(String soapAction, String httpMethod, String uri) {
+        if (soapAction != null) {
+            String action = soapAction.replace("\"", "").trim();
+            int delimiterIndex = action.lastIndexOf(SoapActionPathDelimiter);
+            if (delimiterIndex >= 0 && delimiterIndex < action.length() - 1) {
+                return action.substring(delimiterIndex + 1);
+            }
+            if (!action.isEmpty()) {
+                return action;
+            }
+        }
+
+        int queryIndex = uri.indexOf('?');
+        return httpMethod + " " + (queryIndex >= 0 ? uri.substring(0, queryIndex) : uri);
+    }
+
+    // Append a JSON string field to a trace entry.
+    private static StringBuilder appendField(StringBuilder entry, String name, String value) {
+        entry.append('"').append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                entry.append('\\').append(c);
+            }
+            else if (c < ' ') {
+                entry.append(String.format("\\u%04x", (int)c));
+            }
+            else {
+                entry.append(c);
+            }
+        }
+        return entry.append('"');
+    }
+
+    // Prefixes each trace entry with its UTC timestamp.
+    private static class TraceFormatter extends Formatter {
+
+        private final SimpleDateFormat dateFormat;
+
+        public TraceFormatter() {
+            this.dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+
+        @Override
+        public synchronized String format(LogRecord record) {
+            String message = record.getMessage();
+            return "{\"time\":\"" + this.dateFormat.format(new Date(record.getMillis())) + "\","
+                + message.substring(1) + System.lineSeparator();
+        }
+    }
+}
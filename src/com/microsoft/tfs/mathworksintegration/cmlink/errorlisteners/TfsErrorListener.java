@@ -5,9 +5,13 @@ package com.microsoft.tfs.mathworksintegration.cmlink.errorlisteners;
 import java.util.ArrayList;
 
 import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.microsoft.tfs.core.clients.versioncontrol.events.EventSource;
 import com.microsoft.tfs.core.clients.versioncontrol.events.NonFatalErrorEvent;
 import com.microsoft.tfs.core.clients.versioncontrol.events.NonFatalErrorListener;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Failure;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsCancellationMonitor;
+import com.microsoft.tfs.util.tasks.TaskMonitor;
+import com.microsoft.tfs.util.tasks.TaskMonitorService;
 
 /**
  * Implementation of the {@link NonFataErrorListener} interface which processes
@@ -16,12 +20,21 @@ import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Failure;
 public class TfsErrorListener implements NonFatalErrorListener {
 
     protected ArrayList<NonFatalErrorEvent> errors;
+    private final TaskMonitor ownerMonitor;
 
     /**
-     * Initializes a TfsErrorListener instance.
+     * Initializes a TfsErrorListener instance for the adapter operation running on the
+     * current thread.
+     * <p>
+     * The TFS SDK raises some errors, such as failed downloads, on its own worker
+     * threads, but the event source of each error carries the task monitor of the
+     * operation that caused it. Errors whose task monitor belongs to another adapter
+     * operation are ignored, so that operations running concurrently on the same TFS
+     * connection don't report each other's errors.
      */
     public TfsErrorListener() {
         this.errors = new ArrayList<NonFatalErrorEvent>();
+        this.ownerMonitor = TaskMonitorService.getTaskMonitor();
     }
 
     /**
@@ -29,7 +42,12 @@ public class TfsErrorListener implements NonFatalErrorListener {
      */
     @Override
     public void onNonFatalError(NonFatalErrorEvent errorEvent) {
-        this.errors.add(errorEvent);
+        if (isFromOtherOperation(errorEvent)) {
+            return;
+        }
+        synchronized (this.errors) {
+            this.errors.add(errorEvent);
+        }
     }
 
     /**
@@ -39,12 +57,16 @@ public class TfsErrorListener implements NonFatalErrorListener {
      * @throws ConfigurationManagementException
      */
     public void ProcessErrors() throws ConfigurationManagementException {
-        if (errors.isEmpty()) {
+        ArrayList<NonFatalErrorEvent> raisedErrors;
+        synchronized (this.errors) {
+            raisedErrors = new ArrayList<NonFatalErrorEvent>(this.errors);
+        }
+        if (raisedErrors.isEmpty()) {
             return;
         }
 
         StringBuilder sb = new StringBuilder();
-        for (NonFatalErrorEvent error : errors) {
+        for (NonFatalErrorEvent error : raisedErrors) {
         	Failure failure = error.getFailure();
         	if (failure != null) {
                 sb.append(failure.getCode());
@@ -56,4 +78,15 @@ public class TfsErrorListener implements NonFatalErrorListener {
 
         throw new ConfigurationManagementException(sb.toString());
     }
+
+    // Check whether an error was raised on behalf of another adapter operation. Errors
+    // that can't be attributed to an operation are kept.
+    private boolean isFromOtherOperation(NonFatalErrorEvent errorEvent) {
+        if (!(this.ownerMonitor instanceof TfsCancellationMonitor)) {
+            return false;
+        }
+        EventSource source = errorEvent.getEventSource();
+        TaskMonitor sourceMonitor = source == null ? null : source.getTaskMonitor();
+        return sourceMonitor instanceof TfsCancellationMonitor && sourceMonitor != this.ownerMonitor;
+    }
 }
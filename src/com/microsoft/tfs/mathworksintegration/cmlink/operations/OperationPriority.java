@@ -0,0 +1,20 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.operations;
+
+/**
+ * The priority classes used by the {@link TfsOperationScheduler}.
+ * Operations with a lower ordinal are run first.
+ */
+public enum OperationPriority {
+
+    /**
+     * Short reads which the user is waiting on, such as file status queries.
+     */
+    INTERACTIVE,
+
+    /**
+     * File transfers and pending change operations, such as update, checkin and merge.
+     */
+    BULK
+}
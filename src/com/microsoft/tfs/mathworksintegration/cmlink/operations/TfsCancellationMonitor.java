@@ -0,0 +1,129 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.operations;
+
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.microsoft.tfs.util.tasks.TaskMonitor;
+import com.microsoft.tfs.util.tasks.TaskMonitorService;
+
+/**
+ * {@link TaskMonitor} which lets the TFS SDK observe the cancellation of an adapter
+ * operation.
+ * <p>
+ * The TFS SDK polls the task monitor of the current thread between items of long
+ * operations such as get, checkin and merge, and aborts them with a CanceledException
+ * once the monitor reports that it was canceled. This monitor is canceled either
+ * explicitly, or when the thread running the operation is interrupted.
+ */
+public class TfsCancellationMonitor implements TaskMonitor {
+
+    private final Thread operationThread;
+    private volatile boolean isCanceled;
+    private volatile TfsOperationContext operationContext;
+
+    /**
+     * Initializes a TfsCancellationMonitor instance for the current thread.
+     */
+    public TfsCancellationMonitor() {
+        this.operationThread = Thread.currentThread();
+    }
+
+    /**
+     * Throws if the operation running on the current thread has been canceled. Long
+     * loops in the adapter call this between server requests.
+     * @throws ConfigurationManagementException
+     */
+    public static void throwIfCanceled() throws ConfigurationManagementException {
+        if (isCurrentOperationCanceled()) {
+            throw new ConfigurationManagementException("The operation was canceled.");
+        }
+    }
+
+    /**
+     * Gets whether the operation running on the current thread has been canceled.
+     */
+    public static boolean isCurrentOperationCanceled() {
+        return Thread.currentThread().isInterrupted() || TaskMonitorService.getTaskMonitor().isCanceled();
+    }
+
+    /**
+     * Gets the context of the operation this monitor belongs to, or null if it hasn't
+     * started or has ended.
+     */
+    public TfsOperationContext getOperationContext() {
+        return this.operationContext;
+    }
+
+    // Set by the operation's outermost TfsOperationContext, so TFS SDK worker threads
+    // given this monitor can attribute their requests to the operation.
+    void setOperationContext(TfsOperationContext context) {
+        this.operationContext = context;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCanceled() {
+        return this.isCanceled || this.operationThread.isInterrupted();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCanceled() {
+        this.isCanceled = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void begin(String taskName, int totalWork) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beginWithUnknownTotalWork(String taskName) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void done() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void worked(int amount) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TaskMonitor newSubTaskMonitor(int amount) {
+        // Sub tasks are canceled together with the operation.
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTaskName(String taskName) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setCurrentWorkDescription(String description) {
+    }
+}
@@ -0,0 +1,70 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.operations;
+
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+
+/**
+ * An adapter operation which is run by the {@link TfsOperationScheduler}.
+ * @param <T>
+ *     The type of the operation's result.
+ */
+public abstract class TfsOperation<T> {
+
+    private final String name;
+    private final OperationPriority priority;
+    private final int itemCount;
+
+    /**
+     * Initializes a TfsOperation instance.
+     * @param name
+     *     The name of the operation, such as "getFileState".
+     * @param priority
+     *     The {@link OperationPriority} of the operation.
+     */
+    protected TfsOperation(String name, OperationPriority priority) {
+        this(name, priority, 0);
+    }
+
+    /**
+     * Initializes a TfsOperation instance.
+     * @param name
+     *     The name of the operation, such as "getFileState".
+     * @param priority
+     *     The {@link OperationPriority} of the operation.
+     * @param itemCount
+     *     The number of files or revisions the operation was called with.
+     */
+    protected TfsOperation(String name, OperationPriority priority, int itemCount) {
+        this.name = name;
+        this.priority = priority;
+        this.itemCount = itemCount;
+    }
+
+    /**
+     * Gets the name of the operation.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets the {@link OperationPriority} of the operation.
+     */
+    public OperationPriority getPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Gets the number of files or revisions the operation was called with.
+     */
+    public int getItemCount() {
+        return this.itemCount;
+    }
+
+    /**
+     * Performs the operation.
+     * @throws ConfigurationManagementException
+     */
+    public abstract T execute() throws ConfigurationManagementException;
+}
@@ -0,0 +1,335 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.operations;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.microsoft.tfs.util.tasks.TaskMonitor;
+import com.microsoft.tfs.util.tasks.TaskMonitorService;
+
+/**
+ * Tracks the adapter operation running on the current thread, so work done on its
+ * behalf (such as HTTP requests to the TFS server) can be attributed to it.
+ * <p>
+ * Besides counters, a context records the arguments of the operation, the time spent
+ * in each of its phases and the server calls it made, which are written to the slow
+ * operation log when the operation takes too long.
+ * <p>
+ * Contexts nest: an adapter operation called from inside another one gets its own
+ * context, and when it ends its item count, round trips, bytes transferred, phases and
+ * server calls are added to the enclosing context.
+ * <p>
+ * The TFS SDK makes some requests, such as parallel downloads, on its own worker
+ * threads, which pass on the task monitor of the operation they work for. A scheduled
+ * operation's context is registered with its {@link TfsCancellationMonitor}, so such
+ * requests are attributed to the operation too.
+ */
+public class TfsOperationContext {
+
+    private static final ThreadLocal<TfsOperationContext> current = new ThreadLocal<TfsOperationContext>();
+
+    private final String operationName;
+    private final TfsOperationContext parent;
+    private final long startTime;
+    private final long startNanos;
+    private long itemCount;
+    private long roundTripCount;
+    private long bytesSent;
+    private long bytesReceived;
+    private final Map<String, Object> arguments = new LinkedHashMap<String, Object>();
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+    private final Map<String, ServerCallStatistics> serverCalls = new LinkedHashMap<String, ServerCallStatistics>();
+
+    private TfsOperationContext(String operationName, TfsOperationContext parent) {
+        this.operationName = operationName;
+        this.parent = parent;
+        this.startTime = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Gets the context of the operation running on the current thread, or null if no
+     * adapter operation is running.
+     */
+    public static TfsOperationContext getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Gets the context of the operation the current thread is working for: the operation
+     * running on it, or for a TFS SDK worker thread, the operation whose task monitor it
+     * was given. Returns null if the work can't be attributed to an adapter operation.
+     */
+    public static TfsOperationContext getAttributed() {
+        TfsOperationContext context = current.get();
+        if (context == null) {
+            TaskMonitor monitor = TaskMonitorService.getTaskMonitor();
+            if (monitor instanceof TfsCancellationMonitor) {
+                context = ((TfsCancellationMonitor)monitor).getOperationContext();
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Starts a context for an operation on the current thread.
+     * @param operationName
+     *     The name of the operation.
+     */
+    public static TfsOperationContext begin(String operationName) {
+        TfsOperationContext context = new TfsOperationContext(operationName, current.get());
+        current.set(context);
+        if (context.parent == null) {
+            TaskMonitor monitor = TaskMonitorService.getTaskMonitor();
+            if (monitor instanceof TfsCancellationMonitor) {
+                ((TfsCancellationMonitor)monitor).setOperationContext(context);
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Sets an argument of the operation running on the current thread, such as the
+     * recursion type, for the slow operation log. Does nothing if no operation is running.
+     * @param name
+     *     The name of the argument.
+     * @param value
+     *     The value of the argument.
+     */
+    public static void setArgument(String name, Object value) {
+        TfsOperationContext context = current.get();
+        if (context != null) {
+            context.arguments.put(name, value);
+        }
+    }
+
+    /**
+     * Adds the time spent in a phase, such as the workspace scan, to the operation
+     * running on the current thread. Does nothing if no operation is running.
+     * @param phase
+     *     The name of the phase.
+     * @param phaseStartNanos
+     *     The value of System.nanoTime() when the phase started.
+     */
+    public static void recordPhase(String phase, long phaseStartNanos) {
+        TfsOperationContext context = current.get();
+        if (context != null) {
+            context.addPhaseNanos(phase, System.nanoTime() - phaseStartNanos);
+        }
+    }
+
+    /**
+     * Ends this context, restoring the enclosing context on the current thread.
+     */
+    public void end() {
+        if (this.parent != null) {
+            for (Map.Entry<String, Long> phase : this.phaseNanos.entrySet()) {
+                this.parent.addPhaseNanos(phase.getKey(), phase.getValue());
+            }
+            synchronized (this) {
+                synchronized (this.parent) {
+                    this.parent.itemCount += this.itemCount;
+                    this.parent.roundTripCount += this.roundTripCount;
+                    this.parent.bytesSent += this.bytesSent;
+                    this.parent.bytesReceived += this.bytesReceived;
+                    for (ServerCallStatistics call : this.serverCalls.values()) {
+                        this.parent.getServerCallStatistics(call.getName()).add(call.getCount(), call.getTotalMillis());
+                    }
+                }
+            }
+            current.set(this.parent);
+        }
+        else {
+            TaskMonitor monitor = TaskMonitorService.getTaskMonitor();
+            if (monitor instanceof TfsCancellationMonitor) {
+                ((TfsCancellationMonitor)monitor).setOperationContext(null);
+            }
+            current.remove();
+        }
+    }
+
+    /**
+     * Gets the name of the operation.
+     */
+    public String getOperationName() {
+        return this.operationName;
+    }
+
+    /**
+     * Gets the name of the outermost operation running on the current thread, which
+     * is the one a user or script invoked.
+     */
+    public String getRootOperationName() {
+        TfsOperationContext root = this;
+        while (root.parent != null) {
+            root = root.parent;
+        }
+        return root.operationName;
+    }
+
+    /**
+     * Gets the time the operation started, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    /**
+     * Gets the number of nanoseconds since the operation started.
+     */
+    public long getElapsedNanos() {
+        return System.nanoTime() - this.startNanos;
+    }
+
+    /**
+     * Adds to the number of files or revisions handled by the operation.
+     * @param count
+     *     The number of items to add.
+     */
+    public void addItems(long count) {
+        this.itemCount += count;
+    }
+
+    /**
+     * Gets whether this is the outermost operation running on the current thread.
+     */
+    public boolean isRoot() {
+        return this.parent == null;
+    }
+
+    /**
+     * Records an HTTP request made to the TFS server by the operation.
+     * @param requestName
+     *     The SOAP method or other name identifying the request.
+     * @param requestBytes
+     *     The size of the request body, or a negative value if unknown.
+     * @param responseBytes
+     *     The size of the response body, or a negative value if unknown or counted later
+     *     with {@link #addBytesReceived(long)}.
+     * @param elapsedMillis
+     *     The time until the response headers were received, in milliseconds.
+     */
+    public synchronized void addRoundTrip(String requestName, long requestBytes, long responseBytes,
+        long elapsedMillis) {
+        this.roundTripCount++;
+        this.bytesSent += Math.max(0, requestBytes);
+        this.bytesReceived += Math.max(0, responseBytes);
+        getServerCallStatistics(requestName).add(1, elapsedMillis);
+    }
+
+    /**
+     * Adds response body bytes received by the operation once they have been read.
+     * @param count
+     *     The number of bytes read.
+     */
+    public synchronized void addBytesReceived(long count) {
+        this.bytesReceived += count;
+    }
+
+    /**
+     * Gets the arguments recorded for the operation.
+     */
+    public Map<String, Object> getArguments() {
+        return Collections.unmodifiableMap(this.arguments);
+    }
+
+    /**
+     * Gets the time spent in each phase of the operation, in nanoseconds, keyed by phase name.
+     */
+    public Map<String, Long> getPhaseNanos() {
+        return Collections.unmodifiableMap(this.phaseNanos);
+    }
+
+    /**
+     * Gets the server calls made by the operation, keyed by request name.
+     */
+    public synchronized Map<String, ServerCallStatistics> getServerCalls() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, ServerCallStatistics>(this.serverCalls));
+    }
+
+    /**
+     * Gets the number of files or revisions handled by the operation.
+     */
+    public long getItemCount() {
+        return this.itemCount;
+    }
+
+    /**
+     * Gets the number of HTTP requests made to the TFS server by the operation.
+     */
+    public synchronized long getRoundTripCount() {
+        return this.roundTripCount;
+    }
+
+    /**
+     * Gets the number of request body bytes sent to the TFS server by the operation.
+     */
+    public synchronized long getBytesSent() {
+        return this.bytesSent;
+    }
+
+    /**
+     * Gets the number of response body bytes received from the TFS server by the operation.
+     */
+    public synchronized long getBytesReceived() {
+        return this.bytesReceived;
+    }
+
+    // Add time to a phase of this operation.
+    private void addPhaseNanos(String phase, long nanos) {
+        Long total = this.phaseNanos.get(phase);
+        this.phaseNanos.put(phase, total == null ? nanos : total + nanos);
+    }
+
+    // Get the statistics of a kind of server call made by this operation, creating them if needed.
+    private ServerCallStatistics getServerCallStatistics(String requestName) {
+        ServerCallStatistics statistics = this.serverCalls.get(requestName);
+        if (statistics == null) {
+            statistics = new ServerCallStatistics(requestName);
+            this.serverCalls.put(requestName, statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * The number of calls an operation made to one server method, and their total time.
+     */
+    public static class ServerCallStatistics {
+
+        private final String name;
+        private long count;
+        private long totalMillis;
+
+        private ServerCallStatistics(String name) {
+            this.name = name;
+        }
+
+        private void add(long calls, long millis) {
+            this.count += calls;
+            this.totalMillis += millis;
+        }
+
+        /**
+         * Gets the SOAP method or other name identifying the request.
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Gets the number of calls made.
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * Gets the total time of the calls, in milliseconds.
+         */
+        public long getTotalMillis() {
+            return this.totalMillis;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.cmlink.operations;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsSettingsService;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsMetrics;
+import com.microsoft.tfs.util.tasks.CanceledException;
+import com.microsoft.tfs.util.tasks.TaskMonitorService;
+
+/**
+ * Runs adapter operations on a fixed set of worker threads, ordered by
+ * {@link OperationPriority}.
+ * <p>
+ * Queued {@link OperationPriority#INTERACTIVE} operations always run before queued
+ * {@link OperationPriority#BULK} operations. Admission control limits bulk operations
+ * to one less than the number of workers, so a worker is always available for
+ * interactive operations even while long updates or checkins are running.
+ * <p>
+ * Every operation runs within a {@link TfsOperationContext}, and its latency, item
+ * count and server round trips are recorded in {@link TfsMetrics}.
+ * <p>
+ * Operations started from inside another scheduled operation run inline on the
+ * calling worker, so nested adapter calls can't deadlock the scheduler.
+ * <p>
+ * Each operation runs with a {@link TfsCancellationMonitor} pushed on the TFS SDK's
+ * task monitor stack. Interrupting the thread waiting in {@link #run(TfsOperation)}
+ * cancels the operation: it is removed from the queue if it hasn't started, and
+ * otherwise the TFS SDK aborts it at the next item boundary. A running operation which
+ * completes before it notices the cancellation still reports its result.
+ */
+public class TfsOperationScheduler {
+
+    private static final int MinimumWorkerCount = 2;
+    private static final String WorkerThreadName = "TFS operation worker ";
+
+    private static TfsOperationScheduler defaultScheduler;
+
+    private final int workerCount;
+    private final int maxConcurrentBulkOperations;
+    private final Object lock = new Object();
+    private final PriorityQueue<ScheduledOperation<?>> queue = new PriorityQueue<ScheduledOperation<?>>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadLocal<Boolean> isWorkerThread = new ThreadLocal<Boolean>();
+    private boolean workersStarted;
+    private int activeOperationCount;
+    private int activeBulkOperationCount;
+
+    /**
+     * Initializes a TfsOperationScheduler instance.
+     * @param workerCount
+     *     The number of worker threads. At least two workers are always used.
+     */
+    public TfsOperationScheduler(int workerCount) {
+        this.workerCount = Math.max(MinimumWorkerCount, workerCount);
+        this.maxConcurrentBulkOperations = this.workerCount - 1;
+    }
+
+    /**
+     * Gets the scheduler shared by all adapters in this MATLAB process. Its worker
+     * count is taken from the "parallelism" TFS setting.
+     */
+    public static synchronized TfsOperationScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new TfsOperationScheduler(
+                TfsSettingsService.getInstance().getSettings().getParallelism());
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Runs an operation on a worker thread and waits for its result. If the calling
+     * thread is interrupted while waiting, the operation is canceled, and the result or
+     * exception it finished with is reported once the worker has stopped.
+     * @param operation
+     *     The {@link TfsOperation} to run.
+     * @throws ConfigurationManagementException
+     */
+    public <T> T run(TfsOperation<T> operation) throws ConfigurationManagementException {
+        if (this.isWorkerThread.get() != null) {
+            return executeAndRecord(operation);
+        }
+
+        ScheduledOperation<T> scheduled = new ScheduledOperation<T>(operation, this.sequence.getAndIncrement());
+        synchronized (this.lock) {
+            startWorkers();
+            this.queue.add(scheduled);
+            this.lock.notifyAll();
+        }
+
+        try {
+            scheduled.get();
+        }
+        catch (InterruptedException ex) {
+            boolean wasQueued;
+            synchronized (this.lock) {
+                wasQueued = this.queue.remove(scheduled);
+            }
+            if (wasQueued) {
+                scheduled.cancel(false);
+            }
+            else {
+                // A worker has taken the operation, which may complete before the TFS SDK
+                // notices the cancellation. Wait for the worker to stop, so the workspace is
+                // consistent when we return, and report whatever the operation finished with.
+                scheduled.cancelRunning();
+                scheduled.awaitFinished();
+            }
+            Thread.currentThread().interrupt();
+        }
+        catch (CancellationException | ExecutionException ex) {
+            // Reported by getResult.
+        }
+        return getResult(scheduled, operation);
+    }
+
+    /**
+     * Gets the number of operations waiting for a worker.
+     */
+    public int getQueueDepth() {
+        synchronized (this.lock) {
+            return this.queue.size();
+        }
+    }
+
+    /**
+     * Gets the number of operations currently running.
+     */
+    public int getActiveOperationCount() {
+        synchronized (this.lock) {
+            return this.activeOperationCount;
+        }
+    }
+
+    /**
+     * Gets the number of worker threads.
+     */
+    public int getWorkerCount() {
+        return this.workerCount;
+    }
+
+    // Run an operation on the current thread within a TfsOperationContext, and record its metrics.
+    private static <T> T executeAndRecord(TfsOperation<T> operation) throws ConfigurationManagementException {
+        TfsOperationContext context = TfsOperationContext.begin(operation.getName());
+        context.addItems(operation.getItemCount());
+        boolean failed = true;
+        try {
+            T result = operation.execute();
+            failed = false;
+            return result;
+        }
+        finally {
+            context.end();
+            TfsMetrics.getInstance().recordOperation(context, failed);
+        }
+    }
+
+    // Get the result of a finished operation, rethrowing the exception it failed with.
+    private static <T> T getResult(ScheduledOperation<T> scheduled, TfsOperation<T> operation)
+        throws ConfigurationManagementException {
+
+        try {
+            return Uninterruptibles.getUninterruptibly(scheduled);
+        }
+        catch (CancellationException ex) {
+            throw new ConfigurationManagementException("The " + operation.getName() + " operation was canceled.");
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof ConfigurationManagementException) {
+                throw (ConfigurationManagementException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new ConfigurationManagementException(cause);
+        }
+    }
+
+    // Start the worker threads the first time an operation is scheduled.
+    private void startWorkers() {
+        if (this.workersStarted) {
+            return;
+        }
+        for (int i = 0; i < this.workerCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            }, WorkerThreadName + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+        }
+        this.workersStarted = true;
+    }
+
+    // Take operations off the queue and run them, for the lifetime of the process.
+    private void runWorker() {
+        this.isWorkerThread.set(Boolean.TRUE);
+        while (true) {
+            ScheduledOperation<?> next;
+            synchronized (this.lock) {
+                next = takeAdmissibleOperation();
+                while (next == null) {
+                    try {
+                        this.lock.wait();
+                    }
+                    catch (InterruptedException ex) {
+                        // Workers are only interrupted to cancel an operation, so keep going.
+                    }
+                    next = takeAdmissibleOperation();
+                }
+                this.activeOperationCount++;
+                if (next.getPriority() == OperationPriority.BULK) {
+                    this.activeBulkOperationCount++;
+                }
+            }
+
+            try {
+                next.run();
+            }
+            finally {
+                // Clear any interrupt used to cancel the operation before running the next one.
+                Thread.interrupted();
+                next.finished();
+                synchronized (this.lock) {
+                    this.activeOperationCount--;
+                    if (next.getPriority() == OperationPriority.BULK) {
+                        this.activeBulkOperationCount--;
+                    }
+                    this.lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Remove the highest priority operation from the queue, unless it is bulk work
+    // and the limit on concurrent bulk operations has been reached.
+    private ScheduledOperation<?> takeAdmissibleOperation() {
+        ScheduledOperation<?> head = this.queue.peek();
+        if (head == null) {
+            return null;
+        }
+        if (head.getPriority() == OperationPriority.BULK
+            && this.activeBulkOperationCount >= this.maxConcurrentBulkOperations) {
+            return null;
+        }
+        return this.queue.poll();
+    }
+
+    // A queued operation, ordered by priority and then by submission order.
+    private static class ScheduledOperation<T> extends FutureTask<T> implements Comparable<ScheduledOperation<?>> {
+
+        private final OperationCall<T> call;
+        private final OperationPriority priority;
+        private final long sequenceNumber;
+        private final CountDownLatch finishedSignal = new CountDownLatch(1);
+
+        public ScheduledOperation(TfsOperation<T> operation, long sequenceNumber) {
+            this(new OperationCall<T>(operation), operation.getPriority(), sequenceNumber);
+        }
+
+        private ScheduledOperation(OperationCall<T> call, OperationPriority priority, long sequenceNumber) {
+            super(call);
+            this.call = call;
+            this.priority = priority;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        public OperationPriority getPriority() {
+            return this.priority;
+        }
+
+        // Called by the worker once it is done with the operation, whether or not it ran.
+        public void finished() {
+            this.finishedSignal.countDown();
+        }
+
+        public void awaitFinished() {
+            Uninterruptibles.awaitUninterruptibly(this.finishedSignal);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean canceled = super.cancel(mayInterruptIfRunning);
+            this.call.cancel();
+            return canceled;
+        }
+
+        // Asks the worker running the operation to stop, without discarding the result
+        // or exception the operation finishes with.
+        public void cancelRunning() {
+            this.call.cancel();
+        }
+
+        @Override
+        public int compareTo(ScheduledOperation<?> other) {
+            int priorityComparison = this.priority.compareTo(other.priority);
+            if (priorityComparison != 0) {
+                return priorityComparison;
+            }
+            return Long.compare(this.sequenceNumber, other.sequenceNumber);
+        }
+    }
+
+    // Runs an operation on a worker with a TfsCancellationMonitor, so the TFS SDK
+    // stops long running requests when the operation is canceled.
+    private static class OperationCall<T> implements Callable<T> {
+
+        private final TfsOperation<T> operation;
+        private TfsCancellationMonitor monitor;
+        private Thread worker;
+        private boolean isCanceled;
+
+        public OperationCall(TfsOperation<T> operation) {
+            this.operation = operation;
+        }
+
+        // Cancels the operation, interrupting the worker if it is running. The worker is
+        // only interrupted while it runs this operation, never a later one.
+        public synchronized void cancel() {
+            this.isCanceled = true;
+            if (this.monitor != null) {
+                this.monitor.setCanceled();
+            }
+            if (this.worker != null) {
+                this.worker.interrupt();
+            }
+        }
+
+        @Override
+        public T call() throws ConfigurationManagementException {
+            TfsCancellationMonitor newMonitor = new TfsCancellationMonitor();
+            synchronized (this) {
+                this.monitor = newMonitor;
+                this.worker = Thread.currentThread();
+                if (this.isCanceled) {
+                    newMonitor.setCanceled();
+                }
+            }
+
+            TaskMonitorService.pushTaskMonitor(newMonitor);
+            try {
+                TfsCancellationMonitor.throwIfCanceled();
+                return executeAndRecord(this.operation);
+            }
+            catch (CanceledException ex) {
+                throw new ConfigurationManagementException(
+                    "The " + this.operation.getName() + " operation was canceled.");
+            }
+            finally {
+                TaskMonitorService.popTaskMonitor();
+                synchronized (this) {
+                    this.monitor = null;
+                    this.worker = null;
+                }
+            }
+        }
+    }
+}
@@ -3,9 +3,27 @@
 package com.microsoft.tfs.mathworksintegration.tests.cmlink;
 
 import com.microsoft.tfs.mathworksintegration.cmlink.BranchMergeInformation;
+import com.microsoft.tfs.mathworksintegration.cmlink.IFileStateListener;
 import com.microsoft.tfs.mathworksintegration.cmlink.TfsFileProperty;
 import com.microsoft.tfs.mathworksintegration.cmlink.TfsAdapter;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsAdapterFactory;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsAsyncAdapter;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsLatestVersionTracker;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsMergePreview;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsModificationDetector;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsSettings;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsSettings.StatusMode;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsSettingsService;
 import com.microsoft.tfs.mathworksintegration.cmlink.Utilities;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.CacheStatistics;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsMetrics;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.OperationPriority;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperation;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationScheduler;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Resolution;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
+import com.microsoft.tfs.core.httpclient.HostConfiguration;
+import com.mathworks.cmlink.api.ConfigurationManagementException;
 import com.mathworks.cmlink.api.ConflictedRevisions;
 import com.mathworks.cmlink.api.FileProperty;
 import com.mathworks.cmlink.api.LocalStatus;
@@ -15,26 +33,48 @@ import com.mathworks.cmlink.api.version.r16b.FileState;
 import com.mathworks.cmlink.sdk.tests.TAdapter;
 import com.mathworks.cmlink.sdk.tests.util.FileCreation;
 import com.mathworks.cmlink.sdk.tests.util.SourceControlSetupRule;
+import com.mathworks.cmlink.util.interactor.NullApplicationInteractor;
 import com.mathworks.toolbox.shared.computils.file.ChecksumGenerator;
 import com.mathworks.toolbox.shared.computils.file.FileUtil;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.junit.Test;
 import org.junit.AfterClass;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.mathworks.cmlink.sdk.tests.util.Matchers.allValues;
+import static com.mathworks.cmlink.sdk.tests.util.Matchers.areLocked;
 import static com.mathworks.cmlink.sdk.tests.util.Matchers.haveStatus;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.hamcrest.core.IsNot.not;
 import static org.hamcrest.core.IsNull.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  * An extension of the {@link TAdapter} class for use with tests.
@@ -42,6 +82,9 @@ import static org.junit.Assert.assertThat;
  */
 public class TTfsAdapter extends TAdapter {
 
+    // The name status cache lookups are counted under in TfsMetrics.
+    private static final String StatusCacheName = "status";
+
     /**
      * Initializes a TTfsAdapter instance.
      */
@@ -54,11 +97,12 @@ public class TTfsAdapter extends TAdapter {
     }
 
     /**
-     * Closes the TFS connection once all tests are complete.
+     * Deletes the pooled sandboxes and closes the TFS connection once all tests are complete.
      */
     @AfterClass
     public static void CloseTfsConnection() {
         try {
+            SourceControlSetupRule.deletePooledSandboxes();
             Utilities.getTfsConnection().close();
         }
         catch (Exception ex) {
@@ -114,6 +158,84 @@ public class TTfsAdapter extends TAdapter {
             secondaryLatestProperty.getName(),is("not latest"));
     }
 
+    @Test
+    public void testLatestVersionTracker() throws Exception {
+        File primarySandbox = fSourceControlSetupRule.newSandbox();
+        CMAdapter primaryAdapter = fSourceControlSetupRule.getCMAdapterFor(primarySandbox);
+        File secondarySandbox = fSourceControlSetupRule.newSandbox();
+
+        // Add a file and get it into the secondary sandbox
+        File file = FileCreation.createTempFileContainingText(primarySandbox);
+        Collection<File> fileAsCollection = Collections.singleton(file);
+        primaryAdapter.add(fileAsCollection);
+        primaryAdapter.checkin(fileAsCollection, "add file");
+        fSourceControlSetupRule.getCMAdapterFor(secondarySandbox).update(secondarySandbox);
+
+        Workspace workspace = Utilities.getWorkspaceForLocalPath(secondarySandbox.getAbsolutePath());
+        String serverItem = workspace.getMappedServerPath(
+            FileCreation.changeRoot(file, primarySandbox, secondarySandbox).getAbsolutePath());
+        int addedVersion = workspace.getClient().getItem(serverItem).getChangeSetID();
+        TfsLatestVersionTracker tracker = new TfsLatestVersionTracker(workspace,
+            workspace.getMappedServerPath(secondarySandbox.getAbsolutePath()), TimeUnit.MINUTES.toMillis(1));
+        assertThat("Tracker is current before the first poll", tracker.isCurrent(), is(false));
+
+        // The first poll reads the latest version of every item
+        tracker.poll();
+        assertThat("Tracker is current after the first poll", tracker.isCurrent(), is(true));
+        assertThat("Latest version after the first poll", tracker.getLatestVersion(serverItem, 0),
+            is(addedVersion));
+
+        // Later polls pick up the changesets made since the last one
+        FileCreation.modifyFiles(fileAsCollection);
+        primaryAdapter.checkin(fileAsCollection, "edit file");
+        int editedVersion = workspace.getClient().getItem(serverItem).getChangeSetID();
+        assertThat("Latest version before the next poll", tracker.getLatestVersion(serverItem, addedVersion),
+            is(addedVersion));
+        tracker.poll();
+        assertThat("Latest version after the next poll", tracker.getLatestVersion(serverItem, addedVersion),
+            is(editedVersion));
+        assertThat("Last changeset seen", tracker.getLastChangeset() >= editedVersion, is(true));
+    }
+
+    @Test
+    public void testServerStatusModeIsLatestIgnoresTracker() throws Exception {
+        File primarySandbox = fSourceControlSetupRule.newSandbox();
+        CMAdapter primaryAdapter = fSourceControlSetupRule.getCMAdapterFor(primarySandbox);
+        File secondarySandbox = fSourceControlSetupRule.newSandbox();
+        CMAdapter secondaryAdapter = fSourceControlSetupRule.getCMAdapterFor(secondarySandbox);
+
+        File file = FileCreation.createTempFileContainingText(primarySandbox);
+        Collection<File> fileAsCollection = Collections.singleton(file);
+        primaryAdapter.add(fileAsCollection);
+        primaryAdapter.checkin(fileAsCollection, "add file");
+        secondaryAdapter.update(secondarySandbox);
+        File fileInSecondary = changeRoot(fileAsCollection, secondarySandbox, primarySandbox).iterator().next();
+        Collection<File> fileInSecondaryAsCollection = Collections.singleton(fileInSecondary);
+
+        // Start the secondary sandbox's tracker in local mode, with a poll interval long
+        // enough for it to stay current while missing the next changeset
+        TfsSettingsService settingsService = TfsSettingsService.getInstance();
+        settingsService.setSettingsOverride(settingsService.getSettings()
+            .withValue(TfsSettings.Key_StatusMode, StatusMode.LOCAL.name())
+            .withValue(TfsSettings.Key_LatestVersionPollInterval, "3600"));
+        try {
+            assertThat("File is latest", secondaryAdapter.isLatest(fileInSecondaryAsCollection).get(fileInSecondary),
+                is(true));
+            Uninterruptibles.sleepUninterruptibly(2, TimeUnit.SECONDS);
+
+            // In server mode the server is asked, however current the tracker claims to be
+            FileCreation.modifyFiles(fileAsCollection);
+            primaryAdapter.checkin(fileAsCollection, "edit file");
+            settingsService.setSettingsOverride(settingsService.getSettings()
+                .withValue(TfsSettings.Key_StatusMode, StatusMode.SERVER.name()));
+            assertThat("File is latest after another sandbox's checkin",
+                secondaryAdapter.isLatest(fileInSecondaryAsCollection).get(fileInSecondary), is(false));
+        }
+        finally {
+            settingsService.setSettingsOverride(null);
+        }
+    }
+
     @Test
     public void testFileStateProperties() throws Exception {
         File sandbox = fSourceControlSetupRule.newSandbox();
@@ -241,6 +363,42 @@ public class TTfsAdapter extends TAdapter {
         }
     }
 
+    @Test
+    public void testPagedRecursiveStatus() throws Exception {
+        File sandbox = fSourceControlSetupRule.newSandbox();
+        TfsAdapter adapter = (TfsAdapter)fSourceControlSetupRule.getCMAdapterFor(sandbox);
+
+        // Create a directory with a file of its own and two subdirectories with files.
+        File directory = new File(sandbox, "PagedTestDir" + System.currentTimeMillis());
+        Collection<File> files = new ArrayList<>();
+        files.add(directory);
+        files.add(FileCreation.createTempFileContainingText(directory));
+        for (int counter = 0; counter < 2; counter++) {
+            File subdirectory = new File(directory, "Subdir" + counter);
+            files.add(subdirectory);
+            files.add(FileCreation.createTempFileContainingText(subdirectory));
+            files.add(FileCreation.createTempFileContainingText(subdirectory));
+        }
+        adapter.add(files);
+        adapter.checkin(files, "paged status test check-in");
+
+        final List<Map<File, FileState>> pages = new ArrayList<Map<File, FileState>>();
+        ConcurrentMap<File, FileState> pagedStates = new ConcurrentHashMap<File, FileState>();
+        adapter.getStateForAllKnownFilesRecursively(directory, pagedStates, new IFileStateListener() {
+            @Override
+            public void fileStatesReceived(Map<File, FileState> fileStates) {
+                pages.add(fileStates);
+            }
+        });
+
+        // One page for the directory and its file, and one for its subdirectories, which are
+        // queried together.
+        assertThat("Page count", pages.size(), is(2));
+        assertThat("Paged status should hold every file", pagedStates.keySet(),
+            is(equalTo(adapter.getStateForAllKnownFilesRecursively(directory).keySet())));
+        assertThat(pagedStates, allValues(haveStatus(LocalStatus.UNMODIFIED)));
+    }
+
     @Test
     public void testBranchMergeSingleFile() throws Exception {
         File sandbox = fSourceControlSetupRule.newSandbox();
@@ -372,6 +530,7 @@ public class TTfsAdapter extends TAdapter {
         FileCreation.modifyFiles(branchedFileAsCollection);
         adapter.checkin(branchedFileAsCollection, "edit branched file");
         Revision modifiedBranchRevision = adapter.getFileState(branchedFileAsCollection).get(branchedFile).getRevision();
+        long modifiedBranchChecksum = ChecksumGenerator.getCRC32Checksum(branchedFile);
 
         // Create a conflicting change in the main file
         FileCreation.modifyFiles(mainFileAsCollection);
@@ -381,6 +540,15 @@ public class TTfsAdapter extends TAdapter {
         // Merge the branched file back to the main file
         BranchMergeInformation mergeInfo = new BranchMergeInformation(branchedFile.getAbsolutePath(),
             mainFile.getAbsolutePath(), null);
+
+        // Previewing the merge lists the edit of the branched file without pending it
+        TfsMergePreview preview = primaryTfsAdapter.previewMerge(mergeInfo);
+        assertThat("Merge candidates", preview.getCandidates().size(), is(equalTo(1)));
+        assertThat("Merge candidate", preview.getCandidates().get(0).getStringRepresentation(),
+            is(equalTo(modifiedBranchRevision.getStringRepresentation())));
+        assertThat("Files affected by merge", preview.getFileCount(), is(equalTo(1)));
+        assertThat(adapter.getFileState(mainFileAsCollection), allValues(haveStatus(LocalStatus.UNMODIFIED)));
+
         primaryTfsAdapter.merge(mergeInfo);
 
         assertThat(adapter.getFileState(mainFileAsCollection), allValues(haveStatus(LocalStatus.CONFLICTED)));
@@ -388,6 +556,19 @@ public class TTfsAdapter extends TAdapter {
         assertThat("Revision causing conflict", conflictRevision.getTheirsRevision().getStringRepresentation(),
             is(equalTo(modifiedBranchRevision.getStringRepresentation())));
 
+        // The batch query gives the same revisions, and exports their prefetched content
+        Map<File, ConflictedRevisions> batchRevisions =
+            primaryTfsAdapter.getRevisionsCausingConflict(mainFileAsCollection, true);
+        Revision theirRevision = batchRevisions.get(mainFile).getTheirsRevision();
+        assertThat("Batched revision causing conflict", theirRevision.getStringRepresentation(),
+            is(equalTo(modifiedBranchRevision.getStringRepresentation())));
+        File exportedFile = new File(sandbox, "exported.txt");
+        adapter.export(Collections.singletonMap(mainFile, theirRevision),
+            Collections.singletonMap(mainFile, exportedFile));
+        assertThat("Exported revision checksum", ChecksumGenerator.getCRC32Checksum(exportedFile),
+            is(equalTo(modifiedBranchChecksum)));
+        exportedFile.delete();
+
         // Resolve conflict
         adapter.resolveConflict(mainFile);
         assertThat(adapter.getFileState(mainFileAsCollection), allValues(haveStatus(LocalStatus.MODIFIED)));
@@ -397,6 +578,236 @@ public class TTfsAdapter extends TAdapter {
         assertThat("Main file checksum after merge", modifiedChecksumAfterMerge, is(equalTo(modifiedChecksum)));
     }
 
+    @Test
+    public void testBulkConflictResolution() throws Exception {
+        File sandbox = fSourceControlSetupRule.newSandbox();
+        TfsAdapter adapter = (TfsAdapter)fSourceControlSetupRule.getCMAdapterFor(sandbox);
+
+        // Create the original files and branch the Main directory
+        File mainBranch = new File(sandbox, "Main");
+        mainBranch.mkdir();
+        ArrayList<File> mainFiles = new ArrayList<File>();
+        for (int i = 0; i < 3; i++) {
+            mainFiles.add(FileCreation.createTempFileContainingText(mainBranch));
+        }
+        adapter.add(mainFiles);
+        adapter.checkin(mainFiles, "add test files");
+
+        File branchDir = FileUtil.fullFile(sandbox, "Branch_" + System.currentTimeMillis());
+        ArrayList<File> branchedFiles = new ArrayList<File>();
+        for (File file : mainFiles) {
+            branchedFiles.add(getBranchedFilePath(file, branchDir));
+        }
+        adapter.branch(new BranchMergeInformation(mainBranch.getAbsolutePath(), branchDir.getAbsolutePath(), null));
+        adapter.checkin(branchedFiles, "create branched files");
+
+        // Make conflicting edits in both branches, then merge the Branch directory back to Main
+        FileCreation.modifyFiles(branchedFiles);
+        adapter.checkin(branchedFiles, "edit branched files");
+        FileCreation.modifyFiles(mainFiles);
+        adapter.checkin(mainFiles, "edit main files");
+        Map<File, Long> modifiedMainChecksums = ChecksumGenerator.getCRC32CheckSums(mainFiles);
+
+        adapter.merge(new BranchMergeInformation(branchDir.getAbsolutePath(), mainBranch.getAbsolutePath(), null));
+        assertThat(adapter.getFileState(mainFiles), allValues(haveStatus(LocalStatus.CONFLICTED)));
+
+        // Resolve all the conflicts at once, keeping the local versions
+        int resolvedCount = adapter.resolveAllConflicts(mainBranch, Resolution.ACCEPT_YOURS);
+        assertThat("Resolved conflict count", resolvedCount, is(mainFiles.size()));
+        assertThat(adapter.getFileState(mainFiles), allValues(haveStatus(LocalStatus.MODIFIED)));
+        assertThat("Checksums after resolving",
+            ChecksumGenerator.getCRC32CheckSums(mainFiles), is(equalTo(modifiedMainChecksums)));
+        adapter.checkin(mainFiles, "merged file edits");
+    }
+
+    @Test
+    public void testLocalStatusModeShowsLocksAndConflicts() throws Exception {
+        TfsSettingsService settingsService = TfsSettingsService.getInstance();
+        settingsService.setSettingsOverride(
+            settingsService.getSettings().withValue(TfsSettings.Key_StatusMode, StatusMode.LOCAL.name()));
+        try {
+            File sandbox = fSourceControlSetupRule.newSandbox();
+            TfsAdapter adapter = (TfsAdapter)fSourceControlSetupRule.getCMAdapterFor(sandbox);
+
+            // Add a file, and check that the Workspace's lock on it is shown
+            File mainBranch = new File(sandbox, "Main");
+            mainBranch.mkdir();
+            File mainFile = FileCreation.createTempFileContainingText(mainBranch);
+            Collection<File> mainFileAsCollection = Collections.singleton(mainFile);
+            adapter.add(mainFileAsCollection);
+            adapter.checkin(mainFileAsCollection, "add test file");
+            adapter.checkout(mainFileAsCollection);
+            assertThat(adapter.getFileState(mainFileAsCollection), allValues(areLocked()));
+            adapter.uncheckout(mainFileAsCollection);
+
+            // Branch the file, make conflicting edits in both branches and merge them
+            File branchDir = FileUtil.fullFile(sandbox, "Branch_" + System.currentTimeMillis());
+            File branchedFile = getBranchedFilePath(mainFile, branchDir);
+            Collection<File> branchedFileAsCollection = Collections.singleton(branchedFile);
+            adapter.branch(new BranchMergeInformation(mainFile.getAbsolutePath(), branchedFile.getAbsolutePath(), null));
+            adapter.checkin(branchedFileAsCollection, "create branched file");
+            FileCreation.modifyFiles(branchedFileAsCollection);
+            adapter.checkin(branchedFileAsCollection, "edit branched file");
+            Revision modifiedBranchRevision =
+                adapter.getFileState(branchedFileAsCollection).get(branchedFile).getRevision();
+            FileCreation.modifyFiles(mainFileAsCollection);
+            adapter.checkin(mainFileAsCollection, "edit main file");
+            adapter.merge(new BranchMergeInformation(branchedFile.getAbsolutePath(), mainFile.getAbsolutePath(), null));
+
+            // The conflict is shown, and can be inspected and resolved
+            assertThat(adapter.getFileState(mainFileAsCollection), allValues(haveStatus(LocalStatus.CONFLICTED)));
+            ConflictedRevisions conflictRevision = adapter.getRevisionCausingConflict(mainFile);
+            assertThat("Revision causing conflict", conflictRevision.getTheirsRevision().getStringRepresentation(),
+                is(equalTo(modifiedBranchRevision.getStringRepresentation())));
+            adapter.resolveConflict(mainFile);
+            assertThat(adapter.getFileState(mainFileAsCollection), allValues(haveStatus(LocalStatus.MODIFIED)));
+            adapter.checkin(mainFileAsCollection, "merged file edits");
+        }
+        finally {
+            settingsService.setSettingsOverride(null);
+        }
+    }
+
+    @Test
+    public void testServerStatusFallsBackToWorkspaceMetadata() throws Exception {
+        File sandbox = fSourceControlSetupRule.newSandbox();
+        CMAdapter adapter = fSourceControlSetupRule.getCMAdapterFor(sandbox);
+
+        // Edit a checked in file and add another
+        File editedFile = FileCreation.createTempFileContainingText(sandbox);
+        Collection<File> editedFileAsCollection = Collections.singleton(editedFile);
+        adapter.add(editedFileAsCollection);
+        adapter.checkin(editedFileAsCollection, "add test file");
+        FileCreation.modifyFiles(editedFileAsCollection);
+        File addedFile = FileCreation.createTempFileContainingText(sandbox);
+        adapter.add(Collections.singleton(addedFile));
+        List<File> files = Arrays.asList(editedFile, addedFile);
+
+        // Send every request to a proxy which isn't listening, so the server can't be reached
+        TfsSettingsService settingsService = TfsSettingsService.getInstance();
+        settingsService.setSettingsOverride(
+            settingsService.getSettings().withValue(TfsSettings.Key_StatusMode, StatusMode.SERVER.name()));
+        HostConfiguration hostConfiguration = Utilities.getTfsConnection().getHTTPClient().getHostConfiguration();
+        hostConfiguration.setProxy(InetAddress.getLoopbackAddress().getHostAddress(), getUnusedPort());
+        try {
+            Map<File, FileState> fileStates = adapter.getFileState(files);
+            assertThat("Status of the edited file", fileStates.get(editedFile).getLocalStatus(),
+                is(LocalStatus.MODIFIED));
+            assertThat("Status of the added file", fileStates.get(addedFile).getLocalStatus(),
+                is(LocalStatus.ADDED));
+        }
+        finally {
+            hostConfiguration.setProxyHost(null);
+            settingsService.setSettingsOverride(null);
+        }
+
+        adapter.uncheckout(files);
+    }
+
+    @Test
+    public void testAdaptersShareWorkspaceState() throws Exception {
+        File sandbox = fSourceControlSetupRule.newSandbox();
+        CMAdapter firstAdapter = fSourceControlSetupRule.getCMAdapterFor(sandbox);
+        File file = FileCreation.createTempFileContainingText(sandbox);
+        Collection<File> fileAsCollection = Collections.singleton(file);
+        firstAdapter.add(fileAsCollection);
+        firstAdapter.checkin(fileAsCollection, "add file");
+
+        CMAdapter secondAdapter = new TfsAdapterFactory(new TestCheckinDataProvider())
+            .getAdapterForThisSandboxDir(sandbox, new NullApplicationInteractor());
+        try {
+            // The second adapter is answered from the status the first one queried
+            firstAdapter.getStateForAllKnownFilesRecursively(sandbox);
+            long hitCount = getStatusCacheHitCount();
+            Map<File, FileState> fileStates = secondAdapter.getStateForAllKnownFilesRecursively(sandbox);
+            assertThat("Status cache hits", getStatusCacheHitCount(), is(greaterThan(hitCount)));
+            assertThat("Status of the checked in file", fileStates.get(file).getLocalStatus(),
+                is(LocalStatus.UNMODIFIED));
+
+            // A change made through the second adapter drops the status cached for both
+            File addedFile = FileCreation.createTempFileContainingText(sandbox);
+            Collection<File> addedFileAsCollection = Collections.singleton(addedFile);
+            secondAdapter.add(addedFileAsCollection);
+            fileStates = firstAdapter.getStateForAllKnownFilesRecursively(sandbox);
+            assertThat("Status of the file added through the other adapter",
+                fileStates.get(addedFile).getLocalStatus(), is(LocalStatus.ADDED));
+            secondAdapter.uncheckout(addedFileAsCollection);
+        }
+        finally {
+            secondAdapter.disconnect();
+        }
+    }
+
+    // Get the number of status queries answered from the cache so far.
+    private static long getStatusCacheHitCount() {
+        CacheStatistics statistics = TfsMetrics.getInstance().getCaches().get(StatusCacheName);
+        return statistics == null ? 0 : statistics.getHitCount();
+    }
+
+    @Test
+    public void testModificationDetectorFindsContentChanges() throws Exception {
+        File sandbox = fSourceControlSetupRule.newSandbox();
+        CMAdapter adapter = fSourceControlSetupRule.getCMAdapterFor(sandbox);
+
+        File touchedFile = FileCreation.createTempFileContainingText(sandbox);
+        File editedFile = FileCreation.createTempFileContainingText(sandbox);
+        File stampedEditFile = FileCreation.createTempFileContainingText(sandbox);
+        File resizedFile = FileCreation.createTempFileContainingText(sandbox);
+        File deletedFile = FileCreation.createTempFileContainingText(sandbox);
+        List<File> files = Arrays.asList(touchedFile, editedFile, stampedEditFile, resizedFile, deletedFile);
+        adapter.add(files);
+        adapter.checkin(files, "add test files");
+
+        Workspace workspace = Utilities.getWorkspaceForLocalPath(sandbox.getAbsolutePath());
+        TfsModificationDetector detector = new TfsModificationDetector(sandbox);
+        assertThat("Changed files before the first scan", detector.findChangedFiles(workspace), is(nullValue()));
+        assertThat("Changed files when nothing changed", detector.findChangedFiles(workspace).size(), is(0));
+
+        // Touching a file doesn't change it, and an edit which keeps the size and time of a
+        // file isn't looked for, since the file isn't read.
+        byte[] baselineContent = Files.readAllBytes(editedFile.toPath());
+        long lastModified = editedFile.lastModified() + 10000;
+        touchedFile.setLastModified(lastModified);
+        rewriteWithSameSize(editedFile, lastModified);
+        rewriteWithSameSize(stampedEditFile, stampedEditFile.lastModified());
+        Files.write(resizedFile.toPath(), "resized".getBytes(), StandardOpenOption.APPEND);
+        deletedFile.delete();
+        File newFile = FileCreation.createTempFileContainingText(sandbox);
+
+        Set<File> expectedFiles = new HashSet<File>(Arrays.asList(editedFile, resizedFile, deletedFile, newFile));
+        assertThat("Changed files", detector.findChangedFiles(workspace), is(equalTo(expectedFiles)));
+        assertThat("Changed files found again", detector.findChangedFiles(workspace).size(), is(0));
+
+        // An edit reverted to the baseline content is still reported, so the scan drops it,
+        // but only once.
+        Files.write(editedFile.toPath(), baselineContent);
+        editedFile.setLastModified(lastModified + 10000);
+        assertThat("Reverted files", detector.findChangedFiles(workspace),
+            is(equalTo(Collections.singleton(editedFile))));
+        editedFile.setLastModified(lastModified + 20000);
+        assertThat("Touched reverted files", detector.findChangedFiles(workspace).size(), is(0));
+
+        // After a reset the whole workspace must be scanned again.
+        detector.reset();
+        assertThat("Changed files after a reset", detector.findChangedFiles(workspace), is(nullValue()));
+        newFile.delete();
+    }
+
+    // Change the content of a file without changing its size, then set its modification time.
+    private static void rewriteWithSameSize(File file, long lastModified) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        content[0] = (byte)(content[0] == 'x' ? 'y' : 'x');
+        Files.write(file.toPath(), content);
+        file.setLastModified(lastModified);
+    }
+
+    // Get a port on the loopback interface which nothing is listening on.
+    private static int getUnusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
     @Test
     public void testBranchSpecificChange() throws Exception {
         File sandbox = fSourceControlSetupRule.newSandbox();
@@ -494,4 +905,137 @@ public class TTfsAdapter extends TAdapter {
         modifiedMainChecksum = ChecksumGenerator.getCRC32Checksum(mainFile);
         assertThat("Modified file checksum", modifiedMainChecksum, is(equalTo(modifiedBranchedChecksum3)));
     }
+
+    @Test
+    public void testAsyncAdapterOperations() throws Exception {
+        File sandbox = fSourceControlSetupRule.newSandbox();
+        TfsAdapter adapter = (TfsAdapter)fSourceControlSetupRule.getCMAdapterFor(sandbox);
+        TfsAsyncAdapter asyncAdapter = new TfsAsyncAdapter(adapter);
+
+        try {
+            Collection<File> files = new ArrayList<File>();
+            for (int i = 0; i < 3; i++) {
+                files.add(FileCreation.createTempFileContainingText(sandbox));
+            }
+            asyncAdapter.add(files).get();
+            asyncAdapter.checkin(files, "async checkin").get();
+
+            // Start a status query per file at once, then wait for all of them.
+            List<Future<Map<File, FileState>>> stateFutures = new ArrayList<Future<Map<File, FileState>>>();
+            for (File file : files) {
+                stateFutures.add(asyncAdapter.getFileState(Collections.singleton(file)));
+            }
+            for (Future<Map<File, FileState>> stateFuture : stateFutures) {
+                assertThat(stateFuture.get(), allValues(haveStatus(LocalStatus.UNMODIFIED)));
+            }
+
+            Collection<Revision> revisions = asyncAdapter.listRevisions(files.iterator().next()).get();
+            assertThat("Revision count after a single checkin", revisions.size(), is(1));
+        }
+        finally {
+            asyncAdapter.shutdown();
+        }
+    }
+
+    @Test
+    public void testCanceledOperation() throws Exception {
+        File sandbox = fSourceControlSetupRule.newSandbox();
+        CMAdapter adapter = fSourceControlSetupRule.getCMAdapterFor(sandbox);
+        Collection<File> files = Collections.singleton(FileCreation.createTempFileContainingText(sandbox));
+
+        // Keep every worker busy, so the add is still queued when it is canceled.
+        TfsOperationScheduler scheduler = TfsOperationScheduler.getDefault();
+        final CountDownLatch workersBusy = new CountDownLatch(scheduler.getWorkerCount());
+        final CountDownLatch releaseWorkers = new CountDownLatch(1);
+        ExecutorService blockers = occupyWorkers(scheduler, workersBusy, releaseWorkers);
+        try {
+            workersBusy.await();
+
+            // Interrupting the calling thread cancels the operation.
+            Thread.currentThread().interrupt();
+            try {
+                adapter.add(files);
+                fail("An operation started on an interrupted thread should be canceled.");
+            }
+            catch (ConfigurationManagementException exception) {
+                // Expected
+            }
+            finally {
+                Thread.interrupted();
+            }
+        }
+        finally {
+            releaseWorkers.countDown();
+            blockers.shutdown();
+        }
+
+        assertThat(adapter.getFileState(files), allValues(haveStatus(LocalStatus.NOT_UNDER_CM)));
+        adapter.add(files);
+        assertThat(adapter.getFileState(files), allValues(haveStatus(LocalStatus.ADDED)));
+    }
+
+    @Test
+    public void testCanceledOperationReportsCompletion() throws Exception {
+        final TfsOperationScheduler scheduler = new TfsOperationScheduler(2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final TfsOperation<String> operation =
+            new TfsOperation<String>("completeDespiteCancel", OperationPriority.INTERACTIVE) {
+            @Override
+            public String execute() throws ConfigurationManagementException {
+                started.countDown();
+                try {
+                    // Block until the cancellation interrupts the worker, then finish anyway.
+                    new CountDownLatch(1).await();
+                }
+                catch (InterruptedException ex) {
+                    // Expected
+                }
+                return "completed";
+            }
+        };
+
+        final AtomicReference<String> result = new AtomicReference<String>();
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(scheduler.run(operation));
+                }
+                catch (ConfigurationManagementException ex) {
+                    result.set(ex.getMessage());
+                }
+            }
+        });
+        caller.start();
+        started.await();
+        caller.interrupt();
+        caller.join();
+
+        // The canceled caller still gets the result the operation finished with.
+        assertThat(result.get(), is("completed"));
+    }
+
+    // Run an interactive operation on every worker of a scheduler, each of which blocks
+    // until it is released.
+    private static ExecutorService occupyWorkers(final TfsOperationScheduler scheduler,
+        final CountDownLatch workersBusy, final CountDownLatch releaseWorkers) {
+
+        ExecutorService blockers = Executors.newFixedThreadPool(scheduler.getWorkerCount());
+        for (int i = 0; i < scheduler.getWorkerCount(); i++) {
+            blockers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    return scheduler.run(new TfsOperation<Void>("block", OperationPriority.INTERACTIVE) {
+                        @Override
+                        public Void execute() {
+                            workersBusy.countDown();
+                            Uninterruptibles.awaitUninterruptibly(releaseWorkers);
+                            return null;
+                        }
+                    });
+                }
+            });
+        }
+        return blockers;
+    }
 }
@@ -0,0 +1,320 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.tests.cmlink;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+import com.mathworks.cmlink.api.LocalStatus;
+import com.mathworks.cmlink.api.Revision;
+import com.mathworks.cmlink.api.version.r16b.FileState;
+import com.mathworks.cmlink.sdk.tests.util.SandboxGenerator;
+import com.mathworks.toolbox.shared.computils.file.FileDeleter;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsAdapter;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.CacheStatistics;
+import com.microsoft.tfs.mathworksintegration.cmlink.diagnostics.TfsMetrics;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeSandbox;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeTfsServer;
+
+import static com.mathworks.cmlink.sdk.tests.util.Matchers.allValues;
+import static com.mathworks.cmlink.sdk.tests.util.Matchers.areLocked;
+import static com.mathworks.cmlink.sdk.tests.util.Matchers.haveStatus;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Performance regression tests, which fail when an adapter operation makes more server
+ * calls or takes longer than its budget.
+ * <p>
+ * Each test runs against a {@link FakeSandbox}, so the results don't depend on the
+ * network or a live server. Run the tests with "ant runPerformanceTests".
+ */
+public class TTfsPerformance {
+
+    // Server calls allowed for the status of a single file.
+    private static final int MaxFileStateRoundTrips = 3;
+    // Time allowed for the recursive status of a sandbox of LargeSandboxFileCount files.
+    private static final long MaxRecursiveStatusMillis = 5000;
+    // Item queries allowed to export any number of files at the same revision.
+    private static final int MaxExportItemQueries = 1;
+    // Server calls allowed for concurrent recursive status requests of the same folder.
+    private static final int MaxConcurrentStatusRoundTrips = MaxFileStateRoundTrips;
+    // Extended item queries allowed for the paged status of a folder with PagedSandboxSubfolderCount
+    // subfolders: one for the folder itself and one for each batch of up to 20 subfolders.
+    private static final int MaxPagedStatusItemQueries = 4;
+
+    private static final String ItemQueryMethod = "QueryItems";
+    private static final String ExtendedItemQueryMethod = "QueryItemsExtended";
+    private static final String StatusRequestCacheName = "statusRequests";
+    private static final int SmallSandboxFileCount = 10;
+    private static final int ExportSandboxFileCount = 100;
+    private static final int LargeSandboxFileCount = 10000;
+    private static final int ConcurrentRequestCount = 2;
+    // Server latency which keeps the first request in flight while the others are made.
+    private static final long ConcurrentRequestLatencyMillis = 200;
+    private static final int PagedSandboxSubfolderCount = 50;
+    private static final int ScalabilitySandboxFileCount = 50000;
+    private static final int ScalabilityBinaryFileCount = 100;
+    private static final int ScalabilityBinaryFileSize = 64 * 1024;
+    // Number of files given each kind of pending change, and number of conflicted files.
+    private static final int ScalabilityChangeCount = 50;
+    // Time allowed for the recursive status of a sandbox of ScalabilitySandboxFileCount files
+    // with pending changes, which should grow no faster than the number of files.
+    private static final long MaxScalabilityStatusMillis =
+        MaxRecursiveStatusMillis * ScalabilitySandboxFileCount / LargeSandboxFileCount;
+
+    @Test
+    public void testFileStateRoundTrips() throws Exception {
+        FakeSandbox sandbox = new FakeSandbox("fileStateBudget", SmallSandboxFileCount);
+        sandbox.open();
+        try {
+            FakeTfsServer server = sandbox.getServer();
+            server.resetCallCounts();
+
+            getFirstFileState(sandbox);
+
+            assertThat(server.getTotalCallCount(), is(lessThanOrEqualTo(MaxFileStateRoundTrips)));
+            assertThat(server.getUnsupportedRequests(), is(empty()));
+        }
+        finally {
+            sandbox.close();
+        }
+    }
+
+    @Test
+    public void testRecursiveStatusLatency() throws Exception {
+        // Warm up on a sandbox of its own, so the budget covers the steady state rather than
+        // class loading, and the timed query isn't answered from the adapter's status cache.
+        FakeSandbox warmUpSandbox = new FakeSandbox("recursiveStatusWarmUp", SmallSandboxFileCount);
+        warmUpSandbox.open();
+        try {
+            warmUpSandbox.getAdapter().getStateForAllKnownFilesRecursively(warmUpSandbox.getSandboxRoot());
+        }
+        finally {
+            warmUpSandbox.close();
+        }
+
+        FakeSandbox sandbox = new FakeSandbox("recursiveStatusBudget", LargeSandboxFileCount);
+        sandbox.open();
+        try {
+            TfsAdapter adapter = sandbox.getAdapter();
+            FakeTfsServer server = sandbox.getServer();
+            server.resetCallCounts();
+
+            long startNanos = System.nanoTime();
+            Map<File, FileState> states = adapter.getStateForAllKnownFilesRecursively(sandbox.getSandboxRoot());
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            assertThat(states.size(), is(sandbox.getFiles().size()));
+            assertThat(server.getCallCount(ExtendedItemQueryMethod), is(greaterThan(0)));
+            assertThat(elapsedMillis, is(lessThanOrEqualTo(MaxRecursiveStatusMillis)));
+            assertThat(server.getUnsupportedRequests(), is(empty()));
+        }
+        finally {
+            sandbox.close();
+        }
+    }
+
+    @Test
+    public void testExportItemQueries() throws Exception {
+        FakeSandbox sandbox = new FakeSandbox("exportBudget", ExportSandboxFileCount);
+        sandbox.open();
+        try {
+            Map<File, Revision> revisions = getRevisions(sandbox);
+            FakeTfsServer server = sandbox.getServer();
+            server.resetCallCounts();
+
+            exportAll(sandbox, revisions);
+
+            assertThat(server.getCallCount(ItemQueryMethod), is(lessThanOrEqualTo(MaxExportItemQueries)));
+            assertThat(server.getUnsupportedRequests(), is(empty()));
+        }
+        finally {
+            sandbox.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentStatusRoundTrips() throws Exception {
+        FakeSandbox sandbox = new FakeSandbox("concurrentStatusBudget", SmallSandboxFileCount);
+        sandbox.open();
+        try {
+            FakeTfsServer server = sandbox.getServer();
+            server.setLatency(ConcurrentRequestLatencyMillis, 0);
+            server.resetCallCounts();
+            long initialJoinCount = getStatusRequestJoinCount();
+
+            List<Map<File, FileState>> results = getStatesConcurrently(sandbox);
+
+            for (Map<File, FileState> states : results) {
+                assertThat(states.size(), is(sandbox.getFiles().size()));
+            }
+            // A request which missed the one in flight would be answered by the status cache
+            // within the round trip budget, so check that the requests were really coalesced.
+            assertThat(getStatusRequestJoinCount(), is(initialJoinCount + ConcurrentRequestCount - 1));
+            assertThat(server.getTotalCallCount(), is(lessThanOrEqualTo(MaxConcurrentStatusRoundTrips)));
+            assertThat(server.getUnsupportedRequests(), is(empty()));
+        }
+        finally {
+            sandbox.close();
+        }
+    }
+
+    @Test
+    public void testPagedStatusItemQueries() throws Exception {
+        // One file in each of many subfolders of the sandbox root.
+        SandboxGenerator generator = new SandboxGenerator(PagedSandboxSubfolderCount)
+            .setFileCount(PagedSandboxSubfolderCount)
+            .setDirectoryShape(1, PagedSandboxSubfolderCount, 1);
+        FakeSandbox sandbox = new FakeSandbox("pagedStatusBudget", generator);
+        sandbox.open();
+        try {
+            FakeTfsServer server = sandbox.getServer();
+            server.resetCallCounts();
+
+            ConcurrentMap<File, FileState> states = new ConcurrentHashMap<File, FileState>();
+            sandbox.getAdapter().getStateForAllKnownFilesRecursively(sandbox.getSandboxRoot(), states, null);
+
+            assertThat(states.keySet().containsAll(sandbox.getFiles()), is(true));
+            assertThat(server.getCallCount(ExtendedItemQueryMethod), is(lessThanOrEqualTo(MaxPagedStatusItemQueries)));
+            assertThat(server.getUnsupportedRequests(), is(empty()));
+        }
+        finally {
+            sandbox.close();
+        }
+    }
+
+    @Test
+    public void testLargeSandboxStatusScalability() throws Exception {
+        SandboxGenerator generator = new SandboxGenerator(ScalabilitySandboxFileCount)
+            .setFileCount(ScalabilitySandboxFileCount)
+            .setBinaryFiles(ScalabilityBinaryFileCount, ScalabilityBinaryFileSize)
+            .setDirectoryShape(100, 10, 3);
+        FakeSandbox sandbox = new FakeSandbox("scalabilityBudget", generator);
+        sandbox.open();
+        try {
+            // Conflict files in a copy of the sandbox, then pend a mix of changes in the sandbox.
+            TfsAdapter adapter = sandbox.getAdapter();
+            File sandboxRoot = sandbox.getSandboxRoot();
+            File copyRoot = new File(sandboxRoot.getParentFile(), sandboxRoot.getName() + "-copy");
+            TfsAdapter copyAdapter = sandbox.openCopy(copyRoot);
+            List<File> conflicted = generator.createConflicts(adapter, sandboxRoot, copyAdapter, copyRoot,
+                sandbox.getFiles(), ScalabilityChangeCount);
+            SandboxGenerator.PendingChanges changes = generator.pendChanges(adapter, sandbox.getFiles(),
+                ScalabilityChangeCount, ScalabilityChangeCount, ScalabilityChangeCount, ScalabilityChangeCount,
+                ScalabilityChangeCount);
+            FakeTfsServer server = sandbox.getServer();
+            server.resetCallCounts();
+
+            long startNanos = System.nanoTime();
+            Map<File, FileState> states = adapter.getStateForAllKnownFilesRecursively(sandboxRoot);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            assertThat(elapsedMillis, is(lessThanOrEqualTo(MaxScalabilityStatusMillis)));
+            assertThat(getStates(states, changes.getEdited()), allValues(haveStatus(LocalStatus.MODIFIED)));
+            assertThat(getStates(states, changes.getAdded()), allValues(haveStatus(LocalStatus.ADDED)));
+            assertThat(getStates(states, changes.getDeleted()), allValues(haveStatus(LocalStatus.DELETED)));
+            assertThat(getStates(states, changes.getRenamed().values()), allValues(haveStatus(LocalStatus.ADDED)));
+            assertThat(getStates(states, changes.getLocked()), allValues(areLocked()));
+
+            Map<File, FileState> copyStates = copyAdapter.getStateForAllKnownFilesRecursively(copyRoot);
+            assertThat(getStates(copyStates, conflicted), allValues(haveStatus(LocalStatus.CONFLICTED)));
+            assertThat(server.getUnsupportedRequests(), is(empty()));
+        }
+        finally {
+            sandbox.close();
+        }
+    }
+
+    // Get the states of the given files, with a null state for any file missing from the map.
+    private static Map<File, FileState> getStates(Map<File, FileState> states, Collection<File> files) {
+        Map<File, FileState> selected = new HashMap<File, FileState>();
+        for (File file : files) {
+            selected.put(file, states.get(file));
+        }
+        return selected;
+    }
+
+    // Get the number of status requests which have joined a request already in flight.
+    private static long getStatusRequestJoinCount() {
+        CacheStatistics statistics = TfsMetrics.getInstance().getCaches().get(StatusRequestCacheName);
+        return statistics == null ? 0 : statistics.getHitCount();
+    }
+
+    // Get the state of a sandbox from several threads at once.
+    private static List<Map<File, FileState>> getStatesConcurrently(final FakeSandbox sandbox)
+        throws Exception {
+        final CountDownLatch startSignal = new CountDownLatch(ConcurrentRequestCount);
+        List<Callable<Map<File, FileState>>> requests = new ArrayList<Callable<Map<File, FileState>>>();
+        for (int i = 0; i < ConcurrentRequestCount; i++) {
+            requests.add(new Callable<Map<File, FileState>>() {
+                @Override
+                public Map<File, FileState> call() throws Exception {
+                    startSignal.countDown();
+                    startSignal.await();
+                    return sandbox.getAdapter().getStateForAllKnownFilesRecursively(sandbox.getSandboxRoot());
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(ConcurrentRequestCount);
+        try {
+            List<Map<File, FileState>> results = new ArrayList<Map<File, FileState>>();
+            for (Future<Map<File, FileState>> result : executor.invokeAll(requests)) {
+                results.add(result.get());
+            }
+            return results;
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    // Get the state of the first file in a sandbox.
+    private static Map<File, FileState> getFirstFileState(FakeSandbox sandbox) throws Exception {
+        return sandbox.getAdapter().getFileState(Collections.singleton(sandbox.getFiles().get(0)));
+    }
+
+    // Get the current revision of every file in a sandbox.
+    private static Map<File, Revision> getRevisions(FakeSandbox sandbox) throws Exception {
+        Map<File, Revision> revisions = new HashMap<File, Revision>();
+        for (Map.Entry<File, FileState> entry : sandbox.getAdapter().getFileState(sandbox.getFiles()).entrySet()) {
+            revisions.put(entry.getKey(), entry.getValue().getRevision());
+        }
+        return revisions;
+    }
+
+    // Export the given revision of each file to a temporary directory.
+    private static void exportAll(FakeSandbox sandbox, Map<File, Revision> revisions) throws Exception {
+        File exportDirectory = Files.createTempDir();
+        try {
+            Map<File, File> destinations = new HashMap<File, File>();
+            for (File file : revisions.keySet()) {
+                destinations.put(file, new File(exportDirectory, file.getName()));
+            }
+            sandbox.getAdapter().export(revisions, destinations);
+        }
+        finally {
+            FileDeleter.deleteDirectoryIfItExists(exportDirectory);
+        }
+    }
+}
@@ -6,9 +6,11 @@ import java.io.File;
 
 import com.mathworks.cmlink.api.version.r16b.CMAdapterFactory;
 import com.mathworks.cmlink.sdk.tests.CMTestEnvironment;
+import com.mathworks.cmlink.sdk.tests.util.SandboxPool;
 import com.mathworks.cmlink.util.interactor.NullApplicationInteractor;
 import com.microsoft.tfs.mathworksintegration.cmlink.TfsAdapterFactory;
 import com.microsoft.tfs.mathworksintegration.cmlink.TfsRepository;
+import com.microsoft.tfs.mathworksintegration.cmlink.operations.TfsOperationScheduler;
 
 /**
  * An implementation of the {@link CMTestEnvironment} interface for use with tests.
@@ -18,6 +20,13 @@ public class TfsTestEnvironment implements CMTestEnvironment {
     // Enter the TFS server path where test files should be checked in.
     private static final String TestCheckinPath = "$/Test/CmlinkTests";
 
+    // Creating a sandbox is a bulk operation, which the scheduler limits to one less than
+    // its worker count. Sandboxes are created on their own scheduler, with a worker for
+    // each provisioning thread of the SandboxPool, so they are created in parallel and
+    // don't hold up the operations of the tests.
+    private static final TfsOperationScheduler ProvisioningScheduler =
+        new TfsOperationScheduler(SandboxPool.ProvisioningThreadCount + 1);
+
     /**
      * {@inheritDoc}
      */
@@ -31,7 +40,7 @@ public class TfsTestEnvironment implements CMTestEnvironment {
      */
     @Override
     public void createSandbox(String repositorySpecifierString, File sandboxDir) throws Exception {
-        TfsRepository repository = new TfsRepository(new NullApplicationInteractor());
+        TfsRepository repository = new TfsRepository(new NullApplicationInteractor(), ProvisioningScheduler);
         repository.connect();
         repository.retrieveSandboxFromRepository(repositorySpecifierString, sandboxDir);
     }
@@ -0,0 +1,180 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.tests.fakeserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.w3c.dom.Element;
+
+/**
+ * The location service of a {@link FakeTfsServer}, which tells the SDK who the user is
+ * and where the version control web services are. The services are registered as a
+ * TFS 2010 project collection registers them.
+ */
+class FakeLocationService {
+
+    /**
+     * The path of the location service, relative to the collection.
+     */
+    public static final String ServicePath = "/Services/v3.0/LocationService.asmx";
+
+    private static final String AccessMappingMoniker = "PublicAccessMapping";
+    private static final String AnyServiceType = "*";
+    private static final String EmptyIdentifier = "00000000-0000-0000-0000-000000000000";
+    private static final String UserSid = "S-1-5-21-1000000000-1000000000-1000000000-1000";
+
+    private final String collectionUrl;
+    private final String userName;
+    private final UUID instanceId;
+    private final UUID userId;
+    private final Map<String, String[]> services;
+
+    /**
+     * Initializes a FakeLocationService instance.
+     * @param collectionUrl
+     *     The URL of the project collection, without a trailing slash.
+     * @param userName
+     *     The name of the user every request is authenticated as, without a domain.
+     */
+    public FakeLocationService(String collectionUrl, String userName) {
+        this.collectionUrl = collectionUrl;
+        this.userName = userName;
+        this.instanceId = UUID.randomUUID();
+        this.userId = UUID.randomUUID();
+
+        // Service type, identifier and path relative to the collection.
+        this.services = new LinkedHashMap<String, String[]>();
+        addService("LocationService", "bf9cf1d0-24ac-4d35-aeca-6cd18c69c1fe", ServicePath);
+        addService("ISCCProvider", "b2b178f5-bef9-460d-a5cf-35bcc0281cc4", FakeVersionControlService.RepositoryPath);
+        addService("Download", "d2b3f9b8-3fc3-4ba4-9ac4-d3c1ba1e9a28", FakeVersionControlService.DownloadPath);
+        addService("Upload", "1c04c122-7ad1-4f02-87ea-8357457eff2c", FakeVersionControlService.UploadPath);
+    }
+
+    /**
+     * Gets the unique name of the user, as the owner of workspaces and changesets.
+     */
+    public String getUniqueUserName() {
+        return "FAKE\\" + this.userName;
+    }
+
+    /**
+     * Answers a request to the location service.
+     * @throws FakeServerException
+     *     If the web method isn't supported.
+     */
+    public byte[] handle(SoapRequest request) throws FakeServerException {
+        SoapWriter writer = new SoapWriter(request);
+        if ("Connect".equals(request.getMethodName())) {
+            writer.start("ConnectResult")
+                .attribute("InstanceId", this.instanceId)
+                .attribute("CatalogResourceId", this.instanceId)
+                .attribute("WebApplicationRelativeDirectory", "/")
+                .attribute("ServerCapabilities", 0);
+            writeIdentity(writer, "AuthenticatedUser");
+            writeIdentity(writer, "AuthorizedUser");
+            writeLocationServiceData(writer, "LocationServiceData", null);
+            writer.end();
+        }
+        else if ("QueryServices".equals(request.getMethodName())) {
+            writeLocationServiceData(writer, "QueryServicesResult", request.getElement("serviceTypeFilters"));
+        }
+        else {
+            throw new FakeServerException("NotSupportedException", "The fake TFS server doesn't support "
+                + request.getMethodName() + ".");
+        }
+        return writer.finish();
+    }
+
+    // Register a service by type.
+    private void addService(String serviceType, String identifier, String relativePath) {
+        this.services.put(serviceType, new String[] { identifier, relativePath });
+    }
+
+    // Write the identity every request is authenticated as.
+    private void writeIdentity(SoapWriter writer, String name) {
+        writer.start(name)
+            .attribute("TeamFoundationId", this.userId)
+            .attribute("DisplayName", this.userName)
+            .attribute("IsContainer", false)
+            .attribute("IsActive", true)
+            .attribute("UniqueUserId", 0);
+        writer.start("Descriptor")
+            .attribute("IdentityType", "System.Security.Principal.WindowsIdentity")
+            .attribute("Identifier", UserSid)
+            .end();
+        writer.start("Attributes");
+        writeAttribute(writer, "Domain", "FAKE");
+        writeAttribute(writer, "Account", this.userName);
+        writeAttribute(writer, "SchemaClassName", "User");
+        writer.end();
+        writer.start("LocalProperties").end();
+        writer.start("MemberOf").end();
+        writer.start("Members").end();
+        writer.end();
+    }
+
+    // Write a property of an identity.
+    private static void writeAttribute(SoapWriter writer, String key, String value) {
+        writer.start("KeyValueOfStringString").element("Key", key).element("Value", value).end();
+    }
+
+    // Write the access mapping and the service definitions matching the filters of a query.
+    // A filter for a known service type is answered with the identifier it asks for, so the
+    // SDK finds the service whichever identifier it registers it under.
+    private void writeLocationServiceData(SoapWriter writer, String name, Element filters) {
+        writer.start(name)
+            .attribute("LastChangeId", 1)
+            .attribute("ClientCacheFresh", false)
+            .attribute("AccessPointsDoNotIncludeWebAppRelativeDirectory", false);
+        writer.start("AccessMappings");
+        writer.start("AccessMapping")
+            .attribute("DisplayName", "Public Access Mapping")
+            .attribute("Moniker", AccessMappingMoniker)
+            .attribute("AccessPoint", this.collectionUrl)
+            .end();
+        writer.end();
+        writer.element("DefaultAccessMappingMoniker", AccessMappingMoniker);
+
+        Map<String, String> requested = new LinkedHashMap<String, String>();
+        for (Element filter : SoapRequest.getChildren(filters, null)) {
+            requested.put(SoapRequest.getAttribute(filter, "ServiceType"), SoapRequest.getAttribute(filter, "Identifier"));
+        }
+        boolean isEveryServiceRequested = requested.isEmpty() || requested.containsKey(AnyServiceType);
+
+        writer.start("ServiceDefinitions");
+        for (Map.Entry<String, String[]> service : this.services.entrySet()) {
+            String serviceType = service.getKey();
+            if (!isEveryServiceRequested && !requested.containsKey(serviceType)) {
+                continue;
+            }
+            String identifier = requested.get(serviceType);
+            if (identifier == null || EmptyIdentifier.equals(identifier)) {
+                identifier = service.getValue()[0];
+            }
+            writeServiceDefinition(writer, serviceType, identifier, service.getValue()[1]);
+        }
+        writer.end();
+        writer.end();
+    }
+
+    // Write the definition of a service at a path relative to the collection.
+    private void writeServiceDefinition(SoapWriter writer, String serviceType, String identifier, String relativePath) {
+        writer.start("ServiceDefinition")
+            .attribute("serviceType", serviceType)
+            .attribute("identifier", identifier)
+            .attribute("displayName", serviceType)
+            .attribute("relativeToSetting", 3)
+            .attribute("relativePath", relativePath)
+            .attribute("description", serviceType)
+            .attribute("toolId", "vstfs");
+        writer.start("LocationMappings");
+        writer.start("LocationMapping")
+            .attribute("accessMappingMoniker", AccessMappingMoniker)
+            .attribute("location", this.collectionUrl + relativePath)
+            .end();
+        writer.end();
+        writer.end();
+    }
+}
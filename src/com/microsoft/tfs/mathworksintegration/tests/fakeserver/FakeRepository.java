@@ -0,0 +1,1613 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.tests.fakeserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.google.common.io.Files;
+
+/**
+ * The version control state of a {@link FakeTfsServer}: items and their versions,
+ * changesets, and the server workspaces of clients, with their local versions, pending
+ * changes, locks and conflicts.
+ * <p>
+ * The repository follows the TFS rules for server workspaces, which the SDK relies on:
+ * a client pends each change before making it, the server tells it which files to
+ * download, move or delete through get operations, and the client then reports the
+ * versions it has. Server paths are compared ignoring case, as TFS does. Branches,
+ * merges, labels, shelvesets, folder renames and local workspaces aren't supported.
+ * <p>
+ * Tests can seed the repository directly with {@link #addFiles}, which is much faster
+ * than checking the files in through the adapter.
+ */
+public class FakeRepository {
+
+    /**
+     * The root of the repository.
+     */
+    public static final String RootItem = "$/";
+
+    /**
+     * The code page of text files, as detected by {@link #addFiles}.
+     */
+    public static final int TextEncoding = 1252;
+
+    /**
+     * The encoding TFS gives binary files.
+     */
+    public static final int BinaryEncoding = -1;
+
+    static final String RecursionNone = "None";
+    static final String RecursionOneLevel = "OneLevel";
+    static final String RecursionFull = "Full";
+    static final String LockNone = "None";
+    static final String LockUnchanged = "Unchanged";
+    static final String VersionLatest = "LatestVersionSpec";
+    static final String VersionChangeset = "ChangesetVersionSpec";
+    static final String VersionDate = "DateVersionSpec";
+    static final String VersionWorkspace = "WorkspaceVersionSpec";
+
+    // The encoding TFS gives folders.
+    private static final int FolderEncoding = -3;
+    private static final int RootItemId = 1;
+
+    private final String ownerName;
+    private final TreeMap<String, ItemVersion> latestItems;
+    private final Map<Integer, List<ItemVersion>> history;
+    private final TreeMap<Integer, Changeset> changesets;
+    private final List<byte[]> contents;
+    private final TreeMap<String, Workspace> workspaces;
+    private int latestChangeset;
+    private int nextItemId;
+    private int nextPendingChangeId;
+    private int nextConflictId;
+
+    /**
+     * Initializes a FakeRepository instance holding only its root folder.
+     * @param ownerName
+     *     The user who owns the changesets created by {@link #addFiles}.
+     */
+    public FakeRepository(String ownerName) {
+        this.ownerName = ownerName;
+        this.latestItems = new TreeMap<String, ItemVersion>(String.CASE_INSENSITIVE_ORDER);
+        this.history = new HashMap<Integer, List<ItemVersion>>();
+        this.changesets = new TreeMap<Integer, Changeset>();
+        this.contents = new ArrayList<byte[]>();
+        this.workspaces = new TreeMap<String, Workspace>(String.CASE_INSENSITIVE_ORDER);
+        this.nextItemId = RootItemId + 1;
+        this.nextPendingChangeId = 1;
+        this.nextConflictId = 1;
+
+        Changeset changeset = new Changeset(1, ownerName, new Date(), "Created the repository");
+        addVersion(changeset, EnumSet.of(Change.Add), RootItemId, RootItem, true, 0, FolderEncoding, -1);
+        commit(changeset);
+    }
+
+    /**
+     * Checks in the files under a local directory in a single changeset, with the folders
+     * above them.
+     * @param serverFolder
+     *     The server path of the local directory, such as $/Project/Sandbox.
+     * @param localRoot
+     *     The local directory.
+     * @param comment
+     *     The comment of the changeset.
+     * @return The number of the changeset.
+     * @throws IOException
+     */
+    public synchronized int addFiles(String serverFolder, File localRoot, String comment) throws IOException {
+        Changeset changeset = new Changeset(this.latestChangeset + 1, this.ownerName, new Date(), comment);
+        String folder = normalizeServerItem(serverFolder);
+        List<String> missingFolders = new ArrayList<String>();
+        for (String parent = folder; parent != null && !this.latestItems.containsKey(parent); parent = getParent(parent)) {
+            missingFolders.add(0, parent);
+        }
+        for (String missingFolder : missingFolders) {
+            addVersion(changeset, EnumSet.of(Change.Add), this.nextItemId++, missingFolder, true, 0, FolderEncoding, -1);
+        }
+        addTree(changeset, folder, localRoot);
+        commit(changeset);
+        return changeset.changesetId;
+    }
+
+    /**
+     * Gets the number of the latest changeset.
+     */
+    public synchronized int getLatestChangeset() {
+        return this.latestChangeset;
+    }
+
+    /**
+     * Gets the number of items in the repository at its latest changeset, including folders.
+     */
+    public synchronized int getItemCount() {
+        return this.latestItems.size();
+    }
+
+    /**
+     * Gets the workspaces on the server, keyed by name.
+     */
+    synchronized Collection<Workspace> getWorkspaces() {
+        return new ArrayList<Workspace>(this.workspaces.values());
+    }
+
+    /**
+     * Gets a workspace by name.
+     * @throws FakeServerException
+     *     If there is no such workspace.
+     */
+    synchronized Workspace getWorkspace(String name) throws FakeServerException {
+        Workspace workspace = this.workspaces.get(name);
+        if (workspace == null) {
+            throw new FakeServerException("WorkspaceNotFoundException", "The workspace " + name + " does not exist.");
+        }
+        return workspace;
+    }
+
+    /**
+     * Creates a workspace.
+     */
+    synchronized Workspace createWorkspace(String name, String owner, String computer, String comment,
+        List<WorkingFolder> folders) throws FakeServerException {
+
+        if (this.workspaces.containsKey(name)) {
+            throw new FakeServerException("WorkspaceExistsException", "The workspace " + name + " already exists.");
+        }
+        Workspace workspace = new Workspace(owner);
+        workspace.update(name, computer, comment, folders);
+        this.workspaces.put(name, workspace);
+        return workspace;
+    }
+
+    /**
+     * Renames a workspace or changes its mappings.
+     */
+    synchronized Workspace updateWorkspace(String oldName, String newName, String computer, String comment,
+        List<WorkingFolder> folders) throws FakeServerException {
+
+        Workspace workspace = getWorkspace(oldName);
+        if (!oldName.equalsIgnoreCase(newName) && this.workspaces.containsKey(newName)) {
+            throw new FakeServerException("WorkspaceExistsException", "The workspace " + newName + " already exists.");
+        }
+        this.workspaces.remove(oldName);
+        workspace.update(newName, computer, comment, folders);
+        this.workspaces.put(newName, workspace);
+        return workspace;
+    }
+
+    /**
+     * Deletes a workspace with its pending changes and locks.
+     */
+    synchronized void deleteWorkspace(String name) throws FakeServerException {
+        this.workspaces.remove(getWorkspace(name).name);
+    }
+
+    /**
+     * Gets the operations which bring the items under an item spec to a version.
+     * @param workspace
+     *     The workspace getting the items.
+     * @param spec
+     *     The items to get.
+     * @param version
+     *     The version to get.
+     * @param isForced
+     *     Whether to get items the workspace already has at that version.
+     * @param noGet
+     *     Whether to only record that the workspace has the items, as the client
+     *     already has them on disk.
+     */
+    synchronized List<GetOperation> get(Workspace workspace, ItemSpec spec, VersionSpec version, boolean isForced,
+        boolean noGet) throws FakeServerException {
+
+        List<GetOperation> operations = new ArrayList<GetOperation>();
+        String serverItem = toServerItem(workspace, spec.item);
+        if (serverItem == null) {
+            return operations;
+        }
+
+        Set<Integer> targetIds = new LinkedHashSet<Integer>();
+        for (ItemVersion target : getItems(workspace, serverItem, spec.recursion, version)) {
+            targetIds.add(target.itemId);
+            String targetLocalItem = toLocalItem(workspace, target.serverItem);
+            if (targetLocalItem == null) {
+                continue;
+            }
+
+            LocalVersion localVersion = workspace.localVersions.get(target.itemId);
+            PendingChange pendingChange = workspace.pendingChanges.get(target.itemId);
+            if (pendingChange != null) {
+                // An edit of an older version conflicts with the newer one. Other pending changes keep their version.
+                if (pendingChange.changes.contains(Change.Edit) && localVersion != null
+                    && target.changeset > localVersion.version) {
+                    addConflict(workspace, pendingChange, localVersion, target);
+                    GetOperation operation = newGetOperation(target, localVersion, targetLocalItem);
+                    operation.changes = EnumSet.copyOf(pendingChange.changes);
+                    operation.pendingChangeId = pendingChange.pendingChangeId;
+                    operation.hasConflict = true;
+                    operations.add(operation);
+                }
+                continue;
+            }
+            if (!isForced && localVersion != null && localVersion.version == target.changeset
+                && localVersion.localItem.equals(targetLocalItem)) {
+                continue;
+            }
+            operations.add(newGetOperation(target, localVersion, targetLocalItem));
+        }
+
+        // Remove the local copies of items which don't exist at the version.
+        for (Map.Entry<Integer, LocalVersion> entry : workspace.localVersions.entrySet()) {
+            int itemId = entry.getKey();
+            if (targetIds.contains(itemId) || workspace.pendingChanges.containsKey(itemId)) {
+                continue;
+            }
+            ItemVersion local = getVersion(itemId, entry.getValue().version);
+            if (local != null && matches(local.serverItem, serverItem, spec.recursion)) {
+                GetOperation operation = newGetOperation(local, entry.getValue(), null);
+                operation.contentId = -1;
+                operations.add(operation);
+            }
+        }
+
+        if (noGet) {
+            for (GetOperation operation : operations) {
+                if (!operation.hasConflict) {
+                    updateLocalVersion(workspace, operation.itemId, operation.targetLocalItem, operation.version);
+                }
+            }
+            operations.clear();
+        }
+        return operations;
+    }
+
+    /**
+     * Records the version of an item a workspace has on disk after processing a get operation.
+     * @param targetLocalItem
+     *     The local path of the item, or null if it was removed from disk.
+     */
+    synchronized void updateLocalVersion(Workspace workspace, int itemId, String targetLocalItem, int version) {
+        if (targetLocalItem == null) {
+            workspace.localVersions.remove(itemId);
+        }
+        else {
+            workspace.localVersions.put(itemId, new LocalVersion(targetLocalItem, version));
+        }
+    }
+
+    /**
+     * Pends changes in a workspace.
+     * @param failures
+     *     The list to add a failure to for each change which couldn't be pended.
+     * @return The operations the client must process for the pended changes.
+     */
+    synchronized List<GetOperation> pendChanges(Workspace workspace, List<ChangeRequest> requests,
+        List<Failure> failures) {
+
+        List<GetOperation> operations = new ArrayList<GetOperation>();
+        for (ChangeRequest request : requests) {
+            String serverItem = toServerItem(workspace, request.item.item);
+            if (serverItem == null) {
+                failures.add(new Failure("ItemNotMappedException", request.item.item,
+                    "The item " + request.item.item + " is not mapped in the workspace."));
+                continue;
+            }
+
+            if ("Add".equals(request.requestType)) {
+                pendAdd(workspace, serverItem, "Folder".equals(request.itemType), request.encoding, operations, failures);
+                continue;
+            }
+            if ("Rename".equals(request.requestType)) {
+                String targetServerItem = request.target == null ? null : toServerItem(workspace, request.target);
+                pendRename(workspace, serverItem, targetServerItem, operations, failures);
+                continue;
+            }
+
+            String recursion = request.item.recursion;
+            ItemVersion item = this.latestItems.get(serverItem);
+            if ("Delete".equals(request.requestType) && item != null && item.isFolder) {
+                // Deleting a folder deletes everything in it.
+                recursion = RecursionFull;
+            }
+            Set<Integer> itemIds = findItems(workspace, serverItem, recursion);
+            if (itemIds.isEmpty()) {
+                failures.add(new Failure("ItemNotFoundException", request.item.item,
+                    "No matching items found in " + serverItem + " in your workspace."));
+                continue;
+            }
+            for (int itemId : itemIds) {
+                pendChange(workspace, itemId, request, operations, failures);
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Undoes the pending changes of a workspace under an item spec.
+     * @return The operations which restore the items on disk.
+     */
+    synchronized List<GetOperation> undo(Workspace workspace, ItemSpec spec, List<Failure> failures) {
+        List<GetOperation> operations = new ArrayList<GetOperation>();
+        String serverItem = toServerItem(workspace, spec.item);
+        List<PendingChange> undone = new ArrayList<PendingChange>();
+        if (serverItem != null) {
+            for (PendingChange pendingChange : workspace.pendingChanges.values()) {
+                if (matches(pendingChange.serverItem, serverItem, spec.recursion)
+                    || (pendingChange.sourceServerItem != null
+                        && matches(pendingChange.sourceServerItem, serverItem, spec.recursion))) {
+                    undone.add(pendingChange);
+                }
+            }
+        }
+        if (undone.isEmpty()) {
+            failures.add(new Failure("ItemNotCheckedOutException", spec.item,
+                "No pending changes were found for " + spec.item + "."));
+        }
+
+        for (PendingChange pendingChange : undone) {
+            GetOperation operation = newGetOperation(workspace, pendingChange);
+            workspace.pendingChanges.remove(pendingChange.itemId);
+            removeConflicts(workspace, pendingChange.itemId);
+            if (pendingChange.changes.contains(Change.Add)) {
+                // The client keeps the file of an undone add, but the workspace no longer has it.
+                operation.targetLocalItem = null;
+                workspace.localVersions.remove(pendingChange.itemId);
+            }
+            else {
+                ItemVersion base = getVersion(pendingChange.itemId, pendingChange.version);
+                operation.targetLocalItem = toLocalItem(workspace, base.serverItem);
+                operation.targetServerItem = base.serverItem;
+                if (pendingChange.changes.contains(Change.Delete)) {
+                    operation.sourceLocalItem = null;
+                }
+                if (pendingChange.changes.contains(Change.Edit) || pendingChange.changes.contains(Change.Delete)) {
+                    // The local file must be replaced by the version it was changed from.
+                    operation.localVersion = 0;
+                }
+            }
+            operations.add(operation);
+        }
+        return operations;
+    }
+
+    /**
+     * Gets the pending changes under item specs, by workspace.
+     * @param localWorkspace
+     *     The workspace which maps local paths in the item specs, or null.
+     * @param queryWorkspaceName
+     *     The name of the workspace to get the pending changes of, or null for every workspace.
+     */
+    synchronized Map<Workspace, List<PendingChange>> queryPendingChanges(Workspace localWorkspace,
+        String queryWorkspaceName, List<ItemSpec> specs) {
+
+        List<String> serverItems = new ArrayList<String>();
+        List<String> recursions = new ArrayList<String>();
+        for (ItemSpec spec : specs) {
+            String serverItem = toServerItem(localWorkspace, spec.item);
+            if (serverItem != null) {
+                serverItems.add(serverItem);
+                recursions.add(spec.recursion);
+            }
+        }
+
+        Map<Workspace, List<PendingChange>> found = new LinkedHashMap<Workspace, List<PendingChange>>();
+        for (Workspace workspace : this.workspaces.values()) {
+            if (queryWorkspaceName != null && !queryWorkspaceName.equalsIgnoreCase(workspace.name)) {
+                continue;
+            }
+            List<PendingChange> changes = new ArrayList<PendingChange>();
+            for (PendingChange pendingChange : workspace.pendingChanges.values()) {
+                for (int i = 0; i < serverItems.size(); i++) {
+                    if (matches(pendingChange.serverItem, serverItems.get(i), recursions.get(i))) {
+                        changes.add(pendingChange);
+                        break;
+                    }
+                }
+            }
+            if (!changes.isEmpty()) {
+                found.put(workspace, changes);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Stores the content of a file with a pending add or edit, uploaded before checking it in.
+     */
+    synchronized void upload(Workspace workspace, String serverItem, byte[] content) throws FakeServerException {
+        PendingChange pendingChange = findPendingChange(workspace, normalizeServerItem(serverItem));
+        if (pendingChange == null) {
+            throw new FakeServerException("ItemNotCheckedOutException", "The item " + serverItem
+                + " has no pending change in the workspace.");
+        }
+        pendingChange.upload = content;
+    }
+
+    /**
+     * Checks in the pending changes of a workspace on some server items.
+     * @return The number of the new changeset, or 0 if only locks were checked in.
+     */
+    synchronized int checkIn(Workspace workspace, Collection<String> serverItems, String owner, String comment,
+        List<Failure> failures) {
+
+        Set<String> itemsToCheckIn = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        for (String serverItem : serverItems) {
+            itemsToCheckIn.add(normalizeServerItem(serverItem));
+        }
+
+        List<PendingChange> checkedIn = new ArrayList<PendingChange>();
+        for (PendingChange pendingChange : workspace.pendingChanges.values()) {
+            if (itemsToCheckIn.remove(pendingChange.serverItem)) {
+                checkedIn.add(pendingChange);
+                if (!pendingChange.isFolder && pendingChange.upload == null
+                    && pendingChange.changes.contains(Change.Add)) {
+                    failures.add(new Failure("ContentNotUploadedException", pendingChange.serverItem,
+                        "The content of " + pendingChange.serverItem + " was not uploaded."));
+                }
+            }
+        }
+        for (String missing : itemsToCheckIn) {
+            failures.add(new Failure("ItemNotCheckedOutException", missing,
+                "The item " + missing + " has no pending change in the workspace."));
+        }
+        if (!failures.isEmpty()) {
+            return 0;
+        }
+
+        Collections.sort(checkedIn, new Comparator<PendingChange>() {
+            @Override
+            public int compare(PendingChange first, PendingChange second) {
+                return String.CASE_INSENSITIVE_ORDER.compare(first.serverItem, second.serverItem);
+            }
+        });
+
+        Changeset changeset = new Changeset(this.latestChangeset + 1, owner, new Date(), comment);
+        for (PendingChange pendingChange : checkedIn) {
+            workspace.pendingChanges.remove(pendingChange.itemId);
+            removeConflicts(workspace, pendingChange.itemId);
+
+            EnumSet<Change> changes = EnumSet.copyOf(pendingChange.changes);
+            changes.remove(Change.Lock);
+            if (changes.isEmpty()) {
+                continue;
+            }
+            if (changes.contains(Change.Delete)) {
+                addVersion(changeset, changes, pendingChange.itemId, pendingChange.sourceServerItem,
+                    pendingChange.isFolder, changeset.changesetId, pendingChange.encoding, -1);
+                workspace.localVersions.remove(pendingChange.itemId);
+                continue;
+            }
+
+            int contentId = -1;
+            if (!pendingChange.isFolder) {
+                contentId = pendingChange.upload != null
+                    ? storeContent(pendingChange.upload)
+                    : getVersion(pendingChange.itemId, pendingChange.version).contentId;
+            }
+            addVersion(changeset, changes, pendingChange.itemId, pendingChange.serverItem, pendingChange.isFolder, 0,
+                pendingChange.encoding, contentId);
+            updateLocalVersion(workspace, pendingChange.itemId, toLocalItem(workspace, pendingChange.serverItem),
+                changeset.changesetId);
+        }
+
+        if (changeset.changes.isEmpty()) {
+            return 0;
+        }
+        commit(changeset);
+        return changeset.changesetId;
+    }
+
+    /**
+     * Gets the changesets which changed the items under an item spec, newest first.
+     * @param workspace
+     *     The workspace which maps a local path in the item spec, or null.
+     * @param versionFrom
+     *     The oldest changeset to return.
+     * @param versionTo
+     *     The newest changeset to return.
+     * @param maxCount
+     *     The largest number of changesets to return.
+     * @param includeChanges
+     *     Whether to return the changes to the items with each changeset.
+     */
+    synchronized List<Changeset> queryHistory(Workspace workspace, ItemSpec spec, int versionFrom, int versionTo,
+        int maxCount, boolean includeChanges) {
+
+        List<Changeset> found = new ArrayList<Changeset>();
+        String serverItem = toServerItem(workspace, spec.item);
+        if (serverItem == null) {
+            return found;
+        }
+
+        // Follow the items now under the path through their renames.
+        Set<Integer> itemIds = new LinkedHashSet<Integer>();
+        for (ItemVersion item : getItems(serverItem, spec.recursion, this.latestChangeset)) {
+            itemIds.add(item.itemId);
+        }
+
+        for (Changeset changeset : this.changesets.headMap(versionTo, true).descendingMap().values()) {
+            if (changeset.changesetId < versionFrom || found.size() >= maxCount) {
+                break;
+            }
+            Changeset matching = new Changeset(changeset.changesetId, changeset.owner, changeset.date,
+                changeset.comment);
+            for (ChangeRecord change : changeset.changes) {
+                if (itemIds.contains(change.item.itemId) || matches(change.item.serverItem, serverItem, spec.recursion)) {
+                    matching.changes.add(change);
+                }
+            }
+            if (!matching.changes.isEmpty()) {
+                if (!includeChanges) {
+                    matching.changes.clear();
+                }
+                found.add(matching);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets the items under an item spec at a version.
+     * @param workspace
+     *     The workspace which maps a local path in the item spec, or null.
+     * @param isFolder
+     *     Whether to return only folders, only files, or both if null.
+     */
+    synchronized List<ItemVersion> queryItems(Workspace workspace, ItemSpec spec, VersionSpec version,
+        Boolean isFolder) throws FakeServerException {
+
+        List<ItemVersion> found = new ArrayList<ItemVersion>();
+        String serverItem = toServerItem(workspace, spec.item);
+        if (serverItem == null) {
+            return found;
+        }
+        for (ItemVersion item : getItems(workspace, serverItem, spec.recursion, version)) {
+            if (isFolder == null || isFolder == item.isFolder) {
+                found.add(item);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets the state of the items under an item spec in a workspace: those in the
+     * repository, with their local versions, and those with pending changes.
+     * @param isFolder
+     *     Whether to return only folders, only files, or both if null.
+     */
+    synchronized List<ExtendedItem> queryItemsExtended(Workspace workspace, ItemSpec spec, Boolean isFolder) {
+        Map<Integer, ExtendedItem> found = new LinkedHashMap<Integer, ExtendedItem>();
+        String serverItem = toServerItem(workspace, spec.item);
+        if (serverItem == null) {
+            return new ArrayList<ExtendedItem>();
+        }
+
+        for (ItemVersion item : getItems(serverItem, spec.recursion, this.latestChangeset)) {
+            PendingChange pendingChange = workspace.pendingChanges.get(item.itemId);
+            // An item renamed away by a pending change is found at its new path.
+            if (pendingChange == null || matches(pendingChange.serverItem, serverItem, spec.recursion)) {
+                found.put(item.itemId, newExtendedItem(workspace, item, pendingChange));
+            }
+        }
+        for (PendingChange pendingChange : workspace.pendingChanges.values()) {
+            if (!found.containsKey(pendingChange.itemId)
+                && matches(pendingChange.serverItem, serverItem, spec.recursion)) {
+                found.put(pendingChange.itemId,
+                    newExtendedItem(workspace, getLatestVersion(pendingChange.itemId), pendingChange));
+            }
+        }
+
+        List<ExtendedItem> items = new ArrayList<ExtendedItem>(found.size());
+        for (ExtendedItem item : found.values()) {
+            if (isFolder == null || isFolder == item.isFolder) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Gets the conflicts of a workspace under item specs, or all its conflicts if there are none.
+     */
+    synchronized List<Conflict> queryConflicts(Workspace workspace, List<ItemSpec> specs) {
+        List<Conflict> found = new ArrayList<Conflict>();
+        for (Conflict conflict : workspace.conflicts.values()) {
+            boolean isMatch = specs.isEmpty();
+            for (ItemSpec spec : specs) {
+                String serverItem = toServerItem(workspace, spec.item);
+                if (serverItem != null && matches(conflict.yourServerItem, serverItem, spec.recursion)) {
+                    isMatch = true;
+                    break;
+                }
+            }
+            if (isMatch) {
+                found.add(conflict);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Resolves a conflict.
+     * @param resolution
+     *     AcceptYours, AcceptTheirs or DeleteConflict.
+     * @param operations
+     *     The list to add the operations which apply the resolution on disk to.
+     * @return The resolved conflict.
+     */
+    synchronized Conflict resolve(Workspace workspace, int conflictId, String resolution,
+        List<GetOperation> operations) throws FakeServerException {
+
+        Conflict conflict = workspace.conflicts.get(conflictId);
+        if (conflict == null) {
+            throw new FakeServerException("ItemNotFoundException", "There is no conflict " + conflictId + ".");
+        }
+
+        PendingChange pendingChange = workspace.pendingChanges.get(conflict.itemId);
+        LocalVersion localVersion = workspace.localVersions.get(conflict.itemId);
+        if ("AcceptYours".equals(resolution)) {
+            // Keep the local content, now based on their version.
+            if (pendingChange != null) {
+                pendingChange.version = conflict.theirs.changeset;
+            }
+            if (localVersion != null) {
+                updateLocalVersion(workspace, conflict.itemId, localVersion.localItem, conflict.theirs.changeset);
+            }
+        }
+        else if ("AcceptTheirs".equals(resolution)) {
+            if (pendingChange != null) {
+                pendingChange.changes.remove(Change.Edit);
+                if (pendingChange.changes.isEmpty()) {
+                    workspace.pendingChanges.remove(conflict.itemId);
+                }
+            }
+            GetOperation operation = newGetOperation(conflict.theirs, localVersion,
+                toLocalItem(workspace, conflict.theirs.serverItem));
+            operation.localVersion = 0;
+            operations.add(operation);
+        }
+        else if (!"DeleteConflict".equals(resolution)) {
+            throw new FakeServerException("NotSupportedException", "The fake TFS server can't resolve conflicts with "
+                + resolution + ".");
+        }
+
+        workspace.conflicts.remove(conflictId);
+        return conflict;
+    }
+
+    /**
+     * Gets stored file content by its ID, as used in download URLs.
+     */
+    synchronized byte[] getContent(int contentId) throws FakeServerException {
+        if (contentId < 0 || contentId >= this.contents.size()) {
+            throw new FakeServerException("ItemNotFoundException", "There is no file content " + contentId + ".");
+        }
+        return this.contents.get(contentId);
+    }
+
+    /**
+     * Gets the hash of stored file content, as TFS reports it.
+     */
+    static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(content);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Removes any trailing separator from a server path, except from the root.
+     */
+    static String normalizeServerItem(String serverItem) {
+        String normalized = serverItem.replace('\\', '/');
+        while (normalized.length() > RootItem.length() && normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return "$".equals(normalized) ? RootItem : normalized;
+    }
+
+    /**
+     * Whether a server path is an item spec with a recursion type, or under it.
+     */
+    static boolean matches(String serverItem, String specItem, String recursion) {
+        if (serverItem.equalsIgnoreCase(specItem)) {
+            return true;
+        }
+        if (RecursionNone.equals(recursion)) {
+            return false;
+        }
+        String prefix = getChildPrefix(specItem);
+        if (!serverItem.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            return false;
+        }
+        return RecursionFull.equals(recursion) || serverItem.indexOf('/', prefix.length()) < 0;
+    }
+
+    // Check in the files and folders under a local directory.
+    private void addTree(Changeset changeset, String serverFolder, File directory) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            String serverItem = getChildPrefix(serverFolder) + child.getName();
+            if (child.isDirectory()) {
+                addVersion(changeset, EnumSet.of(Change.Add, Change.Encoding), this.nextItemId++, serverItem, true, 0,
+                    FolderEncoding, -1);
+                addTree(changeset, serverItem, child);
+            }
+            else {
+                byte[] content = Files.toByteArray(child);
+                int encoding = isBinary(content) ? BinaryEncoding : TextEncoding;
+                addVersion(changeset, EnumSet.of(Change.Add, Change.Edit, Change.Encoding), this.nextItemId++,
+                    serverItem, false, 0, encoding, storeContent(content));
+            }
+        }
+    }
+
+    // Pend an add of an item, and of the folders above it which don't exist yet.
+    private void pendAdd(Workspace workspace, String serverItem, boolean isFolder, int encoding,
+        List<GetOperation> operations, List<Failure> failures) {
+
+        PendingChange existing = findPendingChange(workspace, serverItem);
+        if (existing != null && existing.changes.contains(Change.Add)) {
+            return;
+        }
+        if (existing != null || (this.latestItems.containsKey(serverItem)
+            && !workspace.pendingChanges.containsKey(this.latestItems.get(serverItem).itemId))) {
+            failures.add(new Failure("ItemExistsException", serverItem, "The item " + serverItem + " already exists."));
+            return;
+        }
+
+        List<String> missingFolders = new ArrayList<String>();
+        for (String parent = getParent(serverItem); parent != null; parent = getParent(parent)) {
+            PendingChange parentChange = findPendingChange(workspace, parent);
+            if (parentChange != null || (this.latestItems.containsKey(parent)
+                && !workspace.pendingChanges.containsKey(this.latestItems.get(parent).itemId))) {
+                break;
+            }
+            missingFolders.add(0, parent);
+        }
+        for (String folder : missingFolders) {
+            operations.add(newGetOperation(workspace, addPendingAdd(workspace, folder, true, FolderEncoding)));
+        }
+        int fileEncoding = isFolder ? FolderEncoding : (encoding < BinaryEncoding ? TextEncoding : encoding);
+        operations.add(newGetOperation(workspace, addPendingAdd(workspace, serverItem, isFolder, fileEncoding)));
+    }
+
+    // Create the pending change of an add.
+    private PendingChange addPendingAdd(Workspace workspace, String serverItem, boolean isFolder, int encoding) {
+        EnumSet<Change> changes = isFolder
+            ? EnumSet.of(Change.Add, Change.Encoding)
+            : EnumSet.of(Change.Add, Change.Edit, Change.Encoding);
+        PendingChange pendingChange = new PendingChange(this.nextPendingChangeId++, this.nextItemId++, isFolder,
+            serverItem, null, changes, encoding, 0);
+        workspace.pendingChanges.put(pendingChange.itemId, pendingChange);
+        return pendingChange;
+    }
+
+    // Pend a rename of a file.
+    private void pendRename(Workspace workspace, String serverItem, String targetServerItem,
+        List<GetOperation> operations, List<Failure> failures) {
+
+        Set<Integer> itemIds = findItems(workspace, serverItem, RecursionNone);
+        if (itemIds.isEmpty()) {
+            failures.add(new Failure("ItemNotFoundException", serverItem, "The item " + serverItem + " does not exist."));
+            return;
+        }
+        if (targetServerItem == null) {
+            failures.add(new Failure("ItemNotMappedException", serverItem, "The target of the rename isn't mapped."));
+            return;
+        }
+        if (findPendingChange(workspace, targetServerItem) != null || this.latestItems.containsKey(targetServerItem)) {
+            failures.add(new Failure("ItemExistsException", targetServerItem,
+                "The item " + targetServerItem + " already exists."));
+            return;
+        }
+
+        PendingChange pendingChange = getPendingChange(workspace, itemIds.iterator().next());
+        if (pendingChange.isFolder) {
+            failures.add(new Failure("NotSupportedException", serverItem,
+                "The fake TFS server can't rename folders."));
+            return;
+        }
+        String sourceLocalItem = toLocalItem(workspace, pendingChange.serverItem);
+        pendingChange.serverItem = targetServerItem;
+        if (!pendingChange.changes.contains(Change.Add)) {
+            pendingChange.changes.add(Change.Rename);
+        }
+        GetOperation operation = newGetOperation(workspace, pendingChange);
+        operation.sourceLocalItem = sourceLocalItem;
+        operations.add(operation);
+    }
+
+    // Pend an edit, delete, lock or encoding change of an item which is in the workspace.
+    private void pendChange(Workspace workspace, int itemId, ChangeRequest request, List<GetOperation> operations,
+        List<Failure> failures) {
+
+        Workspace lockingWorkspace = getLockingWorkspace(workspace, itemId);
+        boolean isLocking = request.lockLevel != null && !LockNone.equals(request.lockLevel)
+            && !LockUnchanged.equals(request.lockLevel);
+        if (lockingWorkspace != null && (isLocking || "Edit".equals(request.requestType))) {
+            ItemVersion item = getLatestVersion(itemId);
+            failures.add(new Failure("ItemLockedException", item == null ? null : item.serverItem,
+                "The item is locked by " + lockingWorkspace.owner + "."));
+            return;
+        }
+
+        PendingChange pendingChange = getPendingChange(workspace, itemId);
+        if ("Edit".equals(request.requestType)) {
+            if (pendingChange.isFolder) {
+                return;
+            }
+            pendingChange.changes.add(Change.Edit);
+        }
+        else if ("Delete".equals(request.requestType)) {
+            if (pendingChange.changes.contains(Change.Add)) {
+                failures.add(new Failure("ChangeAlreadyPendingException", pendingChange.serverItem,
+                    "The item " + pendingChange.serverItem + " has a pending add. Undo it instead."));
+                return;
+            }
+            pendingChange.changes.remove(Change.Edit);
+            pendingChange.changes.add(Change.Delete);
+        }
+        else if ("Encoding".equals(request.requestType)) {
+            pendingChange.encoding = request.encoding;
+            pendingChange.changes.add(Change.Encoding);
+        }
+        else if (!"Lock".equals(request.requestType)) {
+            failures.add(new Failure("NotSupportedException", pendingChange.serverItem,
+                "The fake TFS server doesn't support " + request.requestType + " changes."));
+            removeIfEmpty(workspace, pendingChange);
+            return;
+        }
+
+        if (isLocking) {
+            pendingChange.lockLevel = request.lockLevel;
+            pendingChange.changes.add(Change.Lock);
+        }
+        else if (LockNone.equals(request.lockLevel)) {
+            pendingChange.lockLevel = LockNone;
+            pendingChange.changes.remove(Change.Lock);
+        }
+        if (removeIfEmpty(workspace, pendingChange)) {
+            return;
+        }
+
+        GetOperation operation = newGetOperation(workspace, pendingChange);
+        if (pendingChange.changes.contains(Change.Delete)) {
+            operation.targetLocalItem = null;
+        }
+        operations.add(operation);
+    }
+
+    // Remove a pending change which no longer changes anything. Returns whether it was removed.
+    private static boolean removeIfEmpty(Workspace workspace, PendingChange pendingChange) {
+        if (!pendingChange.changes.isEmpty()) {
+            return false;
+        }
+        workspace.pendingChanges.remove(pendingChange.itemId);
+        return true;
+    }
+
+    // Get the pending change of an item in a workspace, creating an empty one if it has none.
+    private PendingChange getPendingChange(Workspace workspace, int itemId) {
+        PendingChange pendingChange = workspace.pendingChanges.get(itemId);
+        if (pendingChange == null) {
+            ItemVersion item = getLatestVersion(itemId);
+            LocalVersion localVersion = workspace.localVersions.get(itemId);
+            pendingChange = new PendingChange(this.nextPendingChangeId++, itemId, item.isFolder, item.serverItem,
+                item.serverItem, EnumSet.noneOf(Change.class), item.encoding,
+                localVersion == null ? item.changeset : localVersion.version);
+            workspace.pendingChanges.put(itemId, pendingChange);
+        }
+        return pendingChange;
+    }
+
+    // Find the pending change of a workspace whose target is a server path, or null if there is none.
+    private static PendingChange findPendingChange(Workspace workspace, String serverItem) {
+        for (PendingChange pendingChange : workspace.pendingChanges.values()) {
+            if (pendingChange.serverItem.equalsIgnoreCase(serverItem)) {
+                return pendingChange;
+            }
+        }
+        return null;
+    }
+
+    // Find the items a workspace has under an item spec, at their paths in the workspace.
+    private Set<Integer> findItems(Workspace workspace, String serverItem, String recursion) {
+        Set<Integer> itemIds = new LinkedHashSet<Integer>();
+        for (ItemVersion item : getItems(serverItem, recursion, this.latestChangeset)) {
+            PendingChange pendingChange = workspace.pendingChanges.get(item.itemId);
+            if (pendingChange == null || matches(pendingChange.serverItem, serverItem, recursion)) {
+                itemIds.add(item.itemId);
+            }
+        }
+        for (PendingChange pendingChange : workspace.pendingChanges.values()) {
+            if (matches(pendingChange.serverItem, serverItem, recursion)) {
+                itemIds.add(pendingChange.itemId);
+            }
+        }
+        return itemIds;
+    }
+
+    // Find another workspace holding a lock on an item, or return null.
+    private Workspace getLockingWorkspace(Workspace workspace, int itemId) {
+        for (Workspace other : this.workspaces.values()) {
+            PendingChange pendingChange = other.pendingChanges.get(itemId);
+            if (other != workspace && pendingChange != null && !LockNone.equals(pendingChange.lockLevel)) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    // Record a conflict between a pending edit and a newer version, unless it's already recorded.
+    private void addConflict(Workspace workspace, PendingChange pendingChange, LocalVersion localVersion,
+        ItemVersion theirs) {
+
+        for (Conflict conflict : workspace.conflicts.values()) {
+            if (conflict.itemId == pendingChange.itemId) {
+                return;
+            }
+        }
+        Conflict conflict = new Conflict(this.nextConflictId++, pendingChange.itemId, pendingChange.serverItem,
+            EnumSet.copyOf(pendingChange.changes), localVersion.version, theirs, localVersion.localItem);
+        workspace.conflicts.put(conflict.conflictId, conflict);
+    }
+
+    // Remove the conflicts of an item.
+    private static void removeConflicts(Workspace workspace, int itemId) {
+        for (Iterator<Conflict> conflicts = workspace.conflicts.values().iterator(); conflicts.hasNext();) {
+            if (conflicts.next().itemId == itemId) {
+                conflicts.remove();
+            }
+        }
+    }
+
+    // Create the operation which brings an item to a version on disk.
+    private GetOperation newGetOperation(ItemVersion target, LocalVersion localVersion, String targetLocalItem) {
+        GetOperation operation = new GetOperation();
+        operation.itemId = target.itemId;
+        operation.isFolder = target.isFolder;
+        operation.sourceLocalItem = localVersion == null ? null : localVersion.localItem;
+        operation.targetLocalItem = targetLocalItem;
+        operation.targetServerItem = target.serverItem;
+        operation.version = target.changeset;
+        operation.localVersion = localVersion == null ? 0 : localVersion.version;
+        operation.deletionId = target.deletionId;
+        operation.encoding = target.encoding;
+        operation.contentId = target.contentId;
+        operation.hash = target.hash;
+        operation.isLatest = target == getLatestVersion(target.itemId);
+        return operation;
+    }
+
+    // Create the operation the client processes for a pending change.
+    private GetOperation newGetOperation(Workspace workspace, PendingChange pendingChange) {
+        LocalVersion localVersion = workspace.localVersions.get(pendingChange.itemId);
+        ItemVersion base = pendingChange.sourceServerItem == null
+            ? null
+            : getVersion(pendingChange.itemId, pendingChange.version);
+
+        GetOperation operation = new GetOperation();
+        operation.itemId = pendingChange.itemId;
+        operation.isFolder = pendingChange.isFolder;
+        operation.sourceLocalItem = localVersion == null ? null : localVersion.localItem;
+        operation.targetLocalItem = toLocalItem(workspace, pendingChange.serverItem);
+        operation.targetServerItem = pendingChange.serverItem;
+        operation.sourceServerItem = pendingChange.sourceServerItem;
+        operation.version = pendingChange.version;
+        operation.localVersion = localVersion == null ? 0 : localVersion.version;
+        operation.changes = EnumSet.copyOf(pendingChange.changes);
+        operation.lockLevel = pendingChange.lockLevel;
+        operation.pendingChangeId = pendingChange.pendingChangeId;
+        operation.encoding = pendingChange.encoding;
+        if (base != null) {
+            operation.deletionId = base.deletionId;
+            operation.contentId = base.contentId;
+            operation.hash = base.hash;
+            operation.isLatest = base == getLatestVersion(base.itemId);
+        }
+        return operation;
+    }
+
+    // Create the extended item of an item in a workspace.
+    private ExtendedItem newExtendedItem(Workspace workspace, ItemVersion latest, PendingChange pendingChange) {
+        int itemId = latest != null ? latest.itemId : pendingChange.itemId;
+        LocalVersion localVersion = workspace.localVersions.get(itemId);
+
+        ExtendedItem item = new ExtendedItem();
+        item.itemId = itemId;
+        item.isFolder = latest != null ? latest.isFolder : pendingChange.isFolder;
+        item.targetServerItem = pendingChange != null ? pendingChange.serverItem : latest.serverItem;
+        item.sourceServerItem = latest == null ? null : latest.serverItem;
+        item.localItem = pendingChange != null && !pendingChange.changes.contains(Change.Delete)
+            ? toLocalItem(workspace, pendingChange.serverItem)
+            : (localVersion == null ? null : localVersion.localItem);
+        item.localVersion = localVersion == null ? 0 : localVersion.version;
+        item.latestVersion = latest == null ? 0 : latest.changeset;
+        item.deletionId = latest == null ? 0 : latest.deletionId;
+        item.encoding = pendingChange != null ? pendingChange.encoding : latest.encoding;
+        item.changes = pendingChange == null ? EnumSet.noneOf(Change.class) : EnumSet.copyOf(pendingChange.changes);
+        item.lockLevel = LockNone;
+
+        for (Workspace other : this.workspaces.values()) {
+            PendingChange otherChange = other.pendingChanges.get(itemId);
+            if (other == workspace || otherChange == null) {
+                continue;
+            }
+            item.hasOtherPendingChange = true;
+            if (!LockNone.equals(otherChange.lockLevel)) {
+                item.lockLevel = otherChange.lockLevel;
+                item.lockOwner = other.owner;
+            }
+        }
+        if (pendingChange != null && !LockNone.equals(pendingChange.lockLevel)) {
+            item.lockLevel = pendingChange.lockLevel;
+            item.lockOwner = workspace.owner;
+        }
+        return item;
+    }
+
+    // Get the items under a server path at a version, resolving a workspace version through the workspace.
+    private List<ItemVersion> getItems(Workspace workspace, String serverItem, String recursion, VersionSpec version)
+        throws FakeServerException {
+
+        if (!VersionWorkspace.equals(version.type)) {
+            return getItems(serverItem, recursion, getChangeset(version));
+        }
+
+        Workspace versionWorkspace = getWorkspace(version.workspaceName);
+        List<ItemVersion> found = new ArrayList<ItemVersion>();
+        for (Map.Entry<Integer, LocalVersion> entry : versionWorkspace.localVersions.entrySet()) {
+            ItemVersion item = getVersion(entry.getKey(), entry.getValue().version);
+            if (item != null && item.deletionId == 0 && matches(item.serverItem, serverItem, recursion)) {
+                found.add(item);
+            }
+        }
+        sortByPath(found);
+        return found;
+    }
+
+    // Get the items under a server path at a changeset, excluding deleted items.
+    private List<ItemVersion> getItems(String serverItem, String recursion, int changeset) {
+        List<ItemVersion> found = new ArrayList<ItemVersion>();
+        if (changeset >= this.latestChangeset) {
+            ItemVersion item = this.latestItems.get(serverItem);
+            if (item != null) {
+                found.add(item);
+            }
+            if (!RecursionNone.equals(recursion)) {
+                String prefix = getChildPrefix(serverItem);
+                for (ItemVersion child : this.latestItems.subMap(prefix, true, prefix + '\uffff', true).values()) {
+                    if (child != item && matches(child.serverItem, serverItem, recursion)) {
+                        found.add(child);
+                    }
+                }
+            }
+            return found;
+        }
+
+        for (List<ItemVersion> versions : this.history.values()) {
+            ItemVersion version = getVersion(versions, changeset);
+            if (version != null && version.deletionId == 0 && matches(version.serverItem, serverItem, recursion)) {
+                found.add(version);
+            }
+        }
+        sortByPath(found);
+        return found;
+    }
+
+    /**
+     * Gets the changeset a version spec refers to.
+     */
+    synchronized int getChangeset(VersionSpec version) throws FakeServerException {
+        if (VersionChangeset.equals(version.type)) {
+            return Math.min(version.changeset, this.latestChangeset);
+        }
+        if (VersionDate.equals(version.type)) {
+            int changesetId = 0;
+            for (Changeset changeset : this.changesets.values()) {
+                if (changeset.date.after(version.date)) {
+                    break;
+                }
+                changesetId = changeset.changesetId;
+            }
+            return changesetId;
+        }
+        if (VersionLatest.equals(version.type)) {
+            return this.latestChangeset;
+        }
+        throw new FakeServerException("NotSupportedException", "The fake TFS server doesn't support "
+            + version.type + ".");
+    }
+
+    /**
+     * Gets the version of an item at a changeset, or null if it didn't exist then.
+     */
+    synchronized ItemVersion getVersion(int itemId, int changeset) {
+        List<ItemVersion> versions = this.history.get(itemId);
+        return versions == null ? null : getVersion(versions, changeset);
+    }
+
+    // Get the last of an item's versions at or before a changeset, or null if there is none.
+    private static ItemVersion getVersion(List<ItemVersion> versions, int changeset) {
+        for (int i = versions.size() - 1; i >= 0; i--) {
+            if (versions.get(i).changeset <= changeset) {
+                return versions.get(i);
+            }
+        }
+        return null;
+    }
+
+    // Get the latest version of an item, or null if it was never checked in.
+    private ItemVersion getLatestVersion(int itemId) {
+        List<ItemVersion> versions = this.history.get(itemId);
+        return versions == null ? null : versions.get(versions.size() - 1);
+    }
+
+    // Add a version of an item to a changeset which is being created.
+    private void addVersion(Changeset changeset, EnumSet<Change> changes, int itemId, String serverItem,
+        boolean isFolder, int deletionId, int encoding, int contentId) {
+
+        byte[] content = contentId < 0 ? null : this.contents.get(contentId);
+        ItemVersion version = new ItemVersion(itemId, changeset.changesetId, serverItem, isFolder, deletionId,
+            encoding, contentId, content == null ? null : hash(content), content == null ? 0 : content.length,
+            changeset.date);
+
+        ItemVersion previous = getLatestVersion(itemId);
+        if (previous != null && this.latestItems.get(previous.serverItem) == previous) {
+            this.latestItems.remove(previous.serverItem);
+        }
+        if (deletionId == 0) {
+            this.latestItems.put(serverItem, version);
+        }
+
+        List<ItemVersion> versions = this.history.get(itemId);
+        if (versions == null) {
+            versions = new ArrayList<ItemVersion>(1);
+            this.history.put(itemId, versions);
+        }
+        versions.add(version);
+        changeset.changes.add(new ChangeRecord(changes, version));
+    }
+
+    // Make a changeset the latest.
+    private void commit(Changeset changeset) {
+        this.changesets.put(changeset.changesetId, changeset);
+        this.latestChangeset = changeset.changesetId;
+    }
+
+    // Store file content, returning its ID.
+    private int storeContent(byte[] content) {
+        this.contents.add(content);
+        return this.contents.size() - 1;
+    }
+
+    /**
+     * Maps a server path to a local path through the working folders of a workspace.
+     * Returns null if it isn't mapped.
+     */
+    static String toLocalItem(Workspace workspace, String serverItem) {
+        WorkingFolder mapping = null;
+        for (WorkingFolder folder : workspace.folders) {
+            if (matches(serverItem, folder.serverItem, RecursionFull)
+                && (mapping == null || folder.serverItem.length() > mapping.serverItem.length())) {
+                mapping = folder;
+            }
+        }
+        if (mapping == null || mapping.isCloaked) {
+            return null;
+        }
+        if (serverItem.length() == mapping.serverItem.length()) {
+            return mapping.localItem;
+        }
+
+        char separator = mapping.localItem.indexOf('\\') >= 0 ? '\\' : '/';
+        String relativePath = serverItem.substring(getChildPrefix(mapping.serverItem).length());
+        String localRoot = mapping.localItem.endsWith(String.valueOf(separator))
+            ? mapping.localItem
+            : mapping.localItem + separator;
+        return localRoot + relativePath.replace('/', separator);
+    }
+
+    // Get the server path of an item spec, mapping a local path through the working folders of a workspace.
+    // Returns null if it isn't mapped.
+    private static String toServerItem(Workspace workspace, String item) {
+        if (item.startsWith("$")) {
+            return normalizeServerItem(item);
+        }
+        if (workspace == null) {
+            return null;
+        }
+
+        String localItem = normalizeLocalItem(item);
+        WorkingFolder mapping = null;
+        for (WorkingFolder folder : workspace.folders) {
+            String folderItem = normalizeLocalItem(folder.localItem);
+            boolean isUnder = localItem.equalsIgnoreCase(folderItem)
+                || (localItem.length() > folderItem.length()
+                    && localItem.regionMatches(true, 0, folderItem, 0, folderItem.length())
+                    && isSeparator(localItem.charAt(folderItem.length())));
+            if (isUnder && (mapping == null || folderItem.length() > normalizeLocalItem(mapping.localItem).length())) {
+                mapping = folder;
+            }
+        }
+        if (mapping == null || mapping.isCloaked) {
+            return null;
+        }
+
+        String relativePath = localItem.substring(normalizeLocalItem(mapping.localItem).length());
+        while (!relativePath.isEmpty() && isSeparator(relativePath.charAt(0))) {
+            relativePath = relativePath.substring(1);
+        }
+        if (relativePath.isEmpty()) {
+            return mapping.serverItem;
+        }
+        return getChildPrefix(mapping.serverItem) + relativePath.replace('\\', '/');
+    }
+
+    // Remove any trailing separator from a local path, except from a root.
+    private static String normalizeLocalItem(String localItem) {
+        String normalized = localItem;
+        while (normalized.length() > 1 && isSeparator(normalized.charAt(normalized.length() - 1))
+            && !normalized.endsWith(":\\")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    // Whether a character separates the parts of a local path.
+    private static boolean isSeparator(char character) {
+        return character == '/' || character == '\\';
+    }
+
+    // Get the prefix of the server paths of the children of a folder.
+    private static String getChildPrefix(String serverFolder) {
+        return serverFolder.endsWith("/") ? serverFolder : serverFolder + "/";
+    }
+
+    // Get the parent folder of a server path, or null for the root.
+    private static String getParent(String serverItem) {
+        if (RootItem.equals(serverItem)) {
+            return null;
+        }
+        int separatorIndex = serverItem.lastIndexOf('/');
+        return separatorIndex <= 1 ? RootItem : serverItem.substring(0, separatorIndex);
+    }
+
+    // Whether file content looks binary, as TFS decides when a file is added.
+    private static boolean isBinary(byte[] content) {
+        int length = Math.min(content.length, 8192);
+        for (int i = 0; i < length; i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Sort items by server path.
+    private static void sortByPath(List<ItemVersion> items) {
+        Collections.sort(items, new Comparator<ItemVersion>() {
+            @Override
+            public int compare(ItemVersion first, ItemVersion second) {
+                return String.CASE_INSENSITIVE_ORDER.compare(first.serverItem, second.serverItem);
+            }
+        });
+    }
+
+    /**
+     * The kinds of change to an item, named as in the web service schema.
+     */
+    enum Change {
+        Add, Edit, Encoding, Rename, Delete, Lock
+    }
+
+    /**
+     * A version of an item, created by a changeset.
+     */
+    static final class ItemVersion {
+        final int itemId;
+        final int changeset;
+        final String serverItem;
+        final boolean isFolder;
+        final int deletionId;
+        final int encoding;
+        final int contentId;
+        final byte[] hash;
+        final long length;
+        final Date date;
+
+        ItemVersion(int itemId, int changeset, String serverItem, boolean isFolder, int deletionId, int encoding,
+            int contentId, byte[] hash, long length, Date date) {
+            this.itemId = itemId;
+            this.changeset = changeset;
+            this.serverItem = serverItem;
+            this.isFolder = isFolder;
+            this.deletionId = deletionId;
+            this.encoding = encoding;
+            this.contentId = contentId;
+            this.hash = hash;
+            this.length = length;
+            this.date = date;
+        }
+    }
+
+    /**
+     * A changeset, with the versions of the items it changed.
+     */
+    static final class Changeset {
+        final int changesetId;
+        final String owner;
+        final Date date;
+        final String comment;
+        final List<ChangeRecord> changes;
+
+        Changeset(int changesetId, String owner, Date date, String comment) {
+            this.changesetId = changesetId;
+            this.owner = owner;
+            this.date = date;
+            this.comment = comment;
+            this.changes = new ArrayList<ChangeRecord>();
+        }
+    }
+
+    /**
+     * The change a changeset made to an item.
+     */
+    static final class ChangeRecord {
+        final EnumSet<Change> changes;
+        final ItemVersion item;
+
+        ChangeRecord(EnumSet<Change> changes, ItemVersion item) {
+            this.changes = changes;
+            this.item = item;
+        }
+    }
+
+    /**
+     * A server workspace.
+     */
+    static final class Workspace {
+        final String owner;
+        final Map<Integer, LocalVersion> localVersions;
+        final Map<Integer, PendingChange> pendingChanges;
+        final Map<Integer, Conflict> conflicts;
+        String name;
+        String computer;
+        String comment;
+        List<WorkingFolder> folders;
+        Date lastAccessDate;
+
+        Workspace(String owner) {
+            this.owner = owner;
+            this.localVersions = new HashMap<Integer, LocalVersion>();
+            this.pendingChanges = new LinkedHashMap<Integer, PendingChange>();
+            this.conflicts = new LinkedHashMap<Integer, Conflict>();
+        }
+
+        // Set the properties a client can change.
+        void update(String newName, String newComputer, String newComment, List<WorkingFolder> newFolders) {
+            this.name = newName;
+            this.computer = newComputer;
+            this.comment = newComment;
+            this.folders = Collections.unmodifiableList(new ArrayList<WorkingFolder>(newFolders));
+            this.lastAccessDate = new Date();
+        }
+    }
+
+    /**
+     * A mapping of a server folder to a local directory, or a cloak of a server folder.
+     */
+    static final class WorkingFolder {
+        final String serverItem;
+        final String localItem;
+        final boolean isCloaked;
+
+        WorkingFolder(String serverItem, String localItem, boolean isCloaked) {
+            this.serverItem = normalizeServerItem(serverItem);
+            this.localItem = localItem;
+            this.isCloaked = isCloaked;
+        }
+    }
+
+    /**
+     * The version of an item a workspace has on disk, and where.
+     */
+    static final class LocalVersion {
+        final String localItem;
+        final int version;
+
+        LocalVersion(String localItem, int version) {
+            this.localItem = localItem;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The pending change of an item in a workspace.
+     */
+    static final class PendingChange {
+        final int pendingChangeId;
+        final int itemId;
+        final boolean isFolder;
+        final String sourceServerItem;
+        final EnumSet<Change> changes;
+        final Date date;
+        String serverItem;
+        String lockLevel;
+        int encoding;
+        int version;
+        byte[] upload;
+
+        PendingChange(int pendingChangeId, int itemId, boolean isFolder, String serverItem, String sourceServerItem,
+            EnumSet<Change> changes, int encoding, int version) {
+            this.pendingChangeId = pendingChangeId;
+            this.itemId = itemId;
+            this.isFolder = isFolder;
+            this.serverItem = serverItem;
+            this.sourceServerItem = sourceServerItem;
+            this.changes = changes;
+            this.date = new Date();
+            this.lockLevel = LockNone;
+            this.encoding = encoding;
+            this.version = version;
+        }
+    }
+
+    /**
+     * A conflict between a pending edit and a newer version of the item.
+     */
+    static final class Conflict {
+        final int conflictId;
+        final int itemId;
+        final String yourServerItem;
+        final EnumSet<Change> yourChanges;
+        final int yourVersion;
+        final ItemVersion theirs;
+        final String localItem;
+
+        Conflict(int conflictId, int itemId, String yourServerItem, EnumSet<Change> yourChanges, int yourVersion,
+            ItemVersion theirs, String localItem) {
+            this.conflictId = conflictId;
+            this.itemId = itemId;
+            this.yourServerItem = yourServerItem;
+            this.yourChanges = yourChanges;
+            this.yourVersion = yourVersion;
+            this.theirs = theirs;
+            this.localItem = localItem;
+        }
+    }
+
+    /**
+     * An operation the client processes to update its disk after a get, pend or undo.
+     */
+    static final class GetOperation {
+        int itemId;
+        boolean isFolder;
+        String sourceLocalItem;
+        String targetLocalItem;
+        String targetServerItem;
+        String sourceServerItem;
+        int version;
+        int localVersion;
+        int deletionId;
+        int encoding;
+        int contentId = -1;
+        byte[] hash;
+        boolean isLatest;
+        boolean hasConflict;
+        int pendingChangeId;
+        String lockLevel = LockNone;
+        EnumSet<Change> changes = EnumSet.noneOf(Change.class);
+    }
+
+    /**
+     * The state of an item in a workspace.
+     */
+    static final class ExtendedItem {
+        int itemId;
+        boolean isFolder;
+        String localItem;
+        String targetServerItem;
+        String sourceServerItem;
+        int localVersion;
+        int latestVersion;
+        int deletionId;
+        int encoding;
+        EnumSet<Change> changes;
+        boolean hasOtherPendingChange;
+        String lockLevel;
+        String lockOwner;
+    }
+
+    /**
+     * An item spec sent by the client: a server or local path and a recursion type.
+     */
+    static final class ItemSpec {
+        final String item;
+        final String recursion;
+
+        ItemSpec(String item, String recursion) {
+            this.item = item;
+            this.recursion = recursion == null ? RecursionNone : recursion;
+        }
+    }
+
+    /**
+     * A version spec sent by the client.
+     */
+    static final class VersionSpec {
+        final String type;
+        final int changeset;
+        final Date date;
+        final String workspaceName;
+
+        VersionSpec(String type, int changeset, Date date, String workspaceName) {
+            this.type = type;
+            this.changeset = changeset;
+            this.date = date;
+            this.workspaceName = workspaceName;
+        }
+    }
+
+    /**
+     * A change the client asks to pend.
+     */
+    static final class ChangeRequest {
+        final String requestType;
+        final ItemSpec item;
+        final String target;
+        final String lockLevel;
+        final int encoding;
+        final String itemType;
+
+        ChangeRequest(String requestType, ItemSpec item, String target, String lockLevel, int encoding,
+            String itemType) {
+            this.requestType = requestType;
+            this.item = item;
+            this.target = target;
+            this.lockLevel = lockLevel;
+            this.encoding = encoding;
+            this.itemType = itemType;
+        }
+    }
+
+    /**
+     * A request which failed, reported to the client with the others' results.
+     */
+    static final class Failure {
+        final String code;
+        final String item;
+        final String message;
+
+        Failure(String code, String item, String message) {
+            this.code = code;
+            this.item = item;
+            this.message = message;
+        }
+    }
+}
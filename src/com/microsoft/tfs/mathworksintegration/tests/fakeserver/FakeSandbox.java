@@ -0,0 +1,272 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.tests.fakeserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import com.google.common.io.Files;
+import com.mathworks.cmlink.api.ConfigurationManagementException;
+import com.mathworks.cmlink.sdk.tests.util.SandboxGenerator;
+import com.mathworks.cmlink.util.interactor.NullApplicationInteractor;
+import com.mathworks.toolbox.shared.computils.file.FileDeleter;
+import com.microsoft.tfs.core.clients.versioncontrol.GetOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.PendChangesOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
+import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceLocation;
+import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceOptions;
+import com.microsoft.tfs.core.clients.versioncontrol.WorkspacePermissionProfile;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.GetRequest;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.LockLevel;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.WorkingFolder;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.ItemSpec;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.LatestVersionSpec;
+import com.microsoft.tfs.mathworksintegration.cmlink.CheckinData;
+import com.microsoft.tfs.mathworksintegration.cmlink.ICheckinDataProvider;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsAdapter;
+import com.microsoft.tfs.mathworksintegration.cmlink.Utilities;
+
+/**
+ * A sandbox of generated files served by its own {@link FakeTfsServer}, for benchmarks
+ * and performance tests which must run without a network or a live server.
+ * <p>
+ * The files are generated by a {@link SandboxGenerator}, checked in directly in the
+ * server's repository, and mapped by a server workspace which already has them, so even
+ * a sandbox of 100000 files opens in seconds. Checkins through the adapter aren't
+ * associated with work items, as the fake server has none.
+ * <p>
+ * Server workspaces don't detect edits, so the generator's edit handler pends them
+ * through the workspace before the generator changes files. A copy of the sandbox in a
+ * second workspace of the same server can be opened, for example to create conflicts.
+ */
+public class FakeSandbox {
+
+    private static final String RepositoryRoot = "$/FakeProject/";
+    private static final String WorkspaceNamePrefix = "FakeSandbox-";
+
+    private final String name;
+    private final SandboxGenerator generator;
+    private final File sandboxRoot;
+    private final FakeTfsServer server;
+    private final List<File> copyRoots;
+    private final List<TfsAdapter> copyAdapters;
+    private TfsAdapter adapter;
+    private List<File> files;
+
+    /**
+     * Initializes a FakeSandbox instance of text files.
+     * @param name
+     *     The name of the sandbox, which also names its directory and server path.
+     * @param fileCount
+     *     The number of files in the sandbox.
+     */
+    public FakeSandbox(String name, int fileCount) {
+        this(name + "-" + fileCount, new SandboxGenerator(name.hashCode()).setFileCount(fileCount));
+    }
+
+    /**
+     * Initializes a FakeSandbox instance of the files a generator creates.
+     * @param name
+     *     The name of the sandbox, which also names its directory and server path.
+     * @param generator
+     *     The generator of the files in the sandbox. Its edit handler is replaced with one
+     *     which pends the edits in the workspace of the files.
+     */
+    public FakeSandbox(String name, SandboxGenerator generator) {
+        this.name = name;
+        this.generator = generator.setEditHandler(new PendingEditHandler());
+        this.sandboxRoot = new File(new File(System.getProperty("java.io.tmpdir"), "TfsFakeSandboxes"), name);
+        this.server = new FakeTfsServer();
+        this.files = Collections.emptyList();
+        this.copyRoots = new ArrayList<File>();
+        this.copyAdapters = new ArrayList<TfsAdapter>();
+    }
+
+    /**
+     * Starts the server, checks in the files, and opens the sandbox with an adapter
+     * connected to the server.
+     * @throws Exception
+     */
+    public void open() throws Exception {
+        FileDeleter.deleteDirectoryIfItExists(this.sandboxRoot);
+        List<File> generatedFiles = this.generator.generateFiles(this.sandboxRoot);
+        this.server.getRepository().addFiles(getServerPath(), this.sandboxRoot, "Add the files of " + this.name);
+
+        this.server.start();
+        this.server.connectAdapter();
+        Utilities.connectToTfs(false);
+        createWorkspace(this.sandboxRoot);
+
+        this.adapter = new TfsAdapter(this.sandboxRoot, new NullApplicationInteractor(),
+            new NoWorkItemCheckinDataProvider());
+        this.adapter.connect();
+        this.files = generatedFiles;
+    }
+
+    /**
+     * Opens a copy of the sandbox in a second workspace of the same server path. The
+     * sandbox must be open, and its files must match the latest checked in versions.
+     * @param copyRoot
+     *     The root directory of the copy, which is deleted with the sandbox.
+     * @return The adapter of the copy, which is closed with the sandbox.
+     * @throws Exception
+     */
+    public TfsAdapter openCopy(File copyRoot) throws Exception {
+        FileDeleter.deleteDirectoryIfItExists(copyRoot);
+        this.copyRoots.add(copyRoot);
+        copyDirectory(this.sandboxRoot, copyRoot);
+        createWorkspace(copyRoot);
+
+        TfsAdapter copyAdapter = new TfsAdapter(copyRoot, new NullApplicationInteractor(),
+            new NoWorkItemCheckinDataProvider());
+        copyAdapter.connect();
+        this.copyAdapters.add(copyAdapter);
+        return copyAdapter;
+    }
+
+    /**
+     * Deletes the sandbox, its copies and their workspaces, and stops the server.
+     * @throws Exception
+     */
+    public void close() throws Exception {
+        try {
+            for (int i = 0; i < this.copyAdapters.size(); i++) {
+                closeWorkspace(this.copyRoots.get(i), this.copyAdapters.get(i));
+            }
+            this.copyAdapters.clear();
+            if (this.adapter != null) {
+                closeWorkspace(this.sandboxRoot, this.adapter);
+                this.adapter = null;
+            }
+        }
+        finally {
+            this.files = Collections.emptyList();
+            this.server.disconnectAdapter();
+            this.server.stop();
+            for (File copyRoot : this.copyRoots) {
+                FileDeleter.deleteDirectoryIfItExists(copyRoot);
+            }
+            this.copyRoots.clear();
+            FileDeleter.deleteDirectoryIfItExists(this.sandboxRoot);
+        }
+    }
+
+    /**
+     * Gets the server the sandbox is connected to.
+     */
+    public FakeTfsServer getServer() {
+        return this.server;
+    }
+
+    /**
+     * Gets the adapter for the sandbox.
+     */
+    public TfsAdapter getAdapter() {
+        return this.adapter;
+    }
+
+    /**
+     * Gets the root directory of the sandbox.
+     */
+    public File getSandboxRoot() {
+        return this.sandboxRoot;
+    }
+
+    /**
+     * Gets the server path the sandbox is mapped to.
+     */
+    public String getServerPath() {
+        return RepositoryRoot + this.name;
+    }
+
+    /**
+     * Gets the generated files in the sandbox.
+     */
+    public List<File> getFiles() {
+        return this.files;
+    }
+
+    // Create a server workspace mapping a sandbox, which already has the files on disk.
+    private void createWorkspace(File root) throws ConfigurationManagementException {
+        VersionControlClient versionControlClient = Utilities.getTfsConnection().getVersionControlClient();
+        Workspace workspace = versionControlClient.createWorkspace(
+            null,
+            WorkspaceNamePrefix + UUID.randomUUID(),
+            null,
+            WorkspaceLocation.SERVER,
+            WorkspaceOptions.NONE,
+            WorkspacePermissionProfile.getPrivateProfile());
+
+        WorkingFolder workingFolder = new WorkingFolder(getServerPath(), root.getAbsolutePath());
+        workspace.createWorkingFolder(workingFolder);
+
+        ItemSpec itemSpec = new ItemSpec(workingFolder.getLocalItem(), RecursionType.FULL);
+        workspace.get(new GetRequest(itemSpec, LatestVersionSpec.INSTANCE), GetOptions.NO_DISK_UPDATE);
+    }
+
+    // Delete the workspace of a sandbox and disconnect its adapter.
+    private static void closeWorkspace(File root, TfsAdapter adapter) throws ConfigurationManagementException {
+        Workspace workspace = Utilities.getWorkspaceForLocalPath(root.getAbsolutePath());
+        if (workspace != null) {
+            workspace.getClient().deleteWorkspace(workspace);
+        }
+        adapter.disconnect();
+    }
+
+    // Copy the files and folders under a directory.
+    private static void copyDirectory(File source, File destination) throws IOException {
+        if (!destination.isDirectory() && !destination.mkdirs()) {
+            throw new IOException("Could not create directory " + destination);
+        }
+        File[] children = source.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            File copy = new File(destination, child.getName());
+            if (child.isDirectory()) {
+                copyDirectory(child, copy);
+            }
+            else {
+                Files.copy(child, copy);
+            }
+        }
+    }
+
+    // Pends edits in the server workspace of the files, which doesn't detect edits itself.
+    private static class PendingEditHandler implements SandboxGenerator.EditHandler {
+
+        @Override
+        public void beforeEdit(List<File> files) throws ConfigurationManagementException {
+            String[] paths = new String[files.size()];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = files.get(i).getAbsolutePath();
+            }
+            Workspace workspace = Utilities.getWorkspaceForLocalPath(paths[0]);
+            if (workspace == null) {
+                throw new ConfigurationManagementException("No workspace maps " + paths[0]);
+            }
+            int pendedCount = workspace.pendEdit(paths, RecursionType.NONE, LockLevel.UNCHANGED, null,
+                GetOptions.NONE, PendChangesOptions.NONE);
+            if (pendedCount != paths.length) {
+                throw new ConfigurationManagementException("Pended " + pendedCount + " of " + paths.length
+                    + " edits in " + workspace.getName());
+            }
+        }
+    }
+
+    // Checks in without associating work items, which the fake server doesn't have.
+    private static class NoWorkItemCheckinDataProvider implements ICheckinDataProvider {
+
+        @Override
+        public CheckinData getData(String comment) throws ConfigurationManagementException {
+            return new CheckinData(new int[0], comment);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.tests.fakeserver;
+
+/**
+ * An error a {@link FakeTfsServer} reports to the client as a SOAP fault, named after
+ * the TFS server exception the SDK expects, such as WorkspaceNotFoundException.
+ */
+class FakeServerException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String exceptionName;
+
+    /**
+     * Initializes a FakeServerException instance.
+     * @param exceptionName
+     *     The name of the TFS server exception.
+     * @param message
+     *     The message shown to the user.
+     */
+    public FakeServerException(String exceptionName, String message) {
+        super(message);
+        this.exceptionName = exceptionName;
+    }
+
+    /**
+     * Gets the name of the TFS server exception.
+     */
+    public String getExceptionName() {
+        return this.exceptionName;
+    }
+}
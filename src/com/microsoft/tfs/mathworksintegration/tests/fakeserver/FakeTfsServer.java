@@ -0,0 +1,356 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.tests.fakeserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.microsoft.tfs.mathworksintegration.cmlink.TfsSettingsService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for a TFS project collection, so the adapter can be tested and
+ * benchmarked without a network or a live server.
+ * <p>
+ * The server implements the version control web services the adapter uses with server
+ * workspaces on top of a {@link FakeRepository}: workspaces, gets, pending adds, edits,
+ * deletes, renames and locks, undo, checkin, history, items, extended items and
+ * conflicts, with file downloads and uploads. Its answers follow from the state of the
+ * repository, so a test can make any sequence of calls without recording them first.
+ * Work items, branches, merges and local workspaces aren't supported. A request the
+ * server doesn't support is answered with a fault and reported by
+ * {@link #getUnsupportedRequests}.
+ * <p>
+ * Sandboxes created in MATLAB are local workspaces, so the status they get from their
+ * own metadata through TfsLocalStatusProvider, TfsModificationDetector and
+ * TfsLatestVersionTracker isn't exercised by this server. Nor are checkins which
+ * associate work items. Those paths still need a live server.
+ * <p>
+ * Latency can be injected into every response, and the number of calls to each SOAP
+ * method is counted, so tests can check both the time and the round trips an adapter
+ * operation needs.
+ */
+public class FakeTfsServer {
+
+    /**
+     * The path of the project collection on the server.
+     */
+    public static final String CollectionPath = "/tfs/DefaultCollection";
+
+    /**
+     * The name downloads of file content are counted under.
+     */
+    public static final String DownloadRequestName = "Download";
+
+    /**
+     * The name uploads of file content are counted under.
+     */
+    public static final String UploadRequestName = "Upload";
+
+    private static final Charset Utf8 = Charset.forName("UTF-8");
+    private static final String NotSupportedException = "NotSupportedException";
+
+    private final String userName;
+    private final FakeRepository repository;
+    private final ConcurrentMap<String, AtomicInteger> callCounts;
+    private final List<String> unsupportedRequests;
+    private final Random random;
+    private volatile long latencyMillis;
+    private volatile long latencyJitterMillis;
+    private volatile boolean isUnavailable;
+    private HttpServer httpServer;
+    private ExecutorService executor;
+    private String serverUrl;
+    private FakeLocationService locationService;
+    private FakeVersionControlService versionControlService;
+
+    /**
+     * Initializes a FakeTfsServer instance with an empty repository. Every request is
+     * authenticated as the current user.
+     */
+    public FakeTfsServer() {
+        this.userName = System.getProperty("user.name");
+        this.repository = new FakeRepository("FAKE\\" + this.userName);
+        this.callCounts = new ConcurrentHashMap<String, AtomicInteger>();
+        this.unsupportedRequests = Collections.synchronizedList(new ArrayList<String>());
+        this.random = new Random();
+    }
+
+    /**
+     * Gets the repository the server serves, for example to check in files with
+     * {@link FakeRepository#addFiles} without going through the adapter.
+     */
+    public FakeRepository getRepository() {
+        return this.repository;
+    }
+
+    /**
+     * Sets the latency added to every response.
+     * @param latencyMillis
+     *     The fixed delay before each response, in milliseconds.
+     * @param latencyJitterMillis
+     *     The largest random delay added to the fixed delay, in milliseconds.
+     */
+    public void setLatency(long latencyMillis, long latencyJitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+    }
+
+    /**
+     * Sets whether the server answers every request with 503 Service Unavailable, as a
+     * server which is down for maintenance does.
+     */
+    public void setUnavailable(boolean isUnavailable) {
+        this.isUnavailable = isUnavailable;
+    }
+
+    /**
+     * Starts the server on a free port of the loopback interface.
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if (this.httpServer != null) {
+            return;
+        }
+
+        InetAddress loopback = InetAddress.getByName(null);
+        this.httpServer = HttpServer.create(new InetSocketAddress(loopback, 0), 0);
+        this.serverUrl = "http://" + loopback.getHostAddress() + ":" + this.httpServer.getAddress().getPort();
+
+        String collectionUrl = this.serverUrl + CollectionPath;
+        this.locationService = new FakeLocationService(collectionUrl, this.userName);
+        this.versionControlService = new FakeVersionControlService(this.repository,
+            this.locationService.getUniqueUserName());
+
+        this.executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Fake TFS server %d").build());
+        this.httpServer.setExecutor(this.executor);
+        this.httpServer.createContext("/", new ExchangeHandler());
+        this.httpServer.start();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public synchronized void stop() {
+        if (this.httpServer == null) {
+            return;
+        }
+
+        this.httpServer.stop(0);
+        this.executor.shutdownNow();
+        this.httpServer = null;
+        this.executor = null;
+    }
+
+    /**
+     * Gets the URI of the team project collection served by this server.
+     */
+    public synchronized URI getCollectionUri() {
+        if (this.serverUrl == null) {
+            throw new IllegalStateException("The fake TFS server hasn't been started.");
+        }
+        return URI.create(this.serverUrl + CollectionPath);
+    }
+
+    /**
+     * Points the adapter at this server in place of the server in the user's TFS settings,
+     * until {@link #disconnectAdapter} is called.
+     */
+    public void connectAdapter() {
+        TfsSettingsService settingsService = TfsSettingsService.getInstance();
+        settingsService.setSettingsOverride(
+            settingsService.getSettings().withEndpoint(getCollectionUri().toString(), true));
+    }
+
+    /**
+     * Points the adapter back at the server in the user's TFS settings.
+     */
+    public void disconnectAdapter() {
+        TfsSettingsService.getInstance().setSettingsOverride(null);
+    }
+
+    /**
+     * Gets the number of requests received for a SOAP method, or the number of
+     * downloads or uploads.
+     * @param requestName
+     *     The SOAP method name, such as QueryItemsExtended, or {@link #DownloadRequestName}
+     *     or {@link #UploadRequestName}.
+     */
+    public int getCallCount(String requestName) {
+        AtomicInteger count = this.callCounts.get(requestName);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Gets the number of requests received for each SOAP method, download and upload.
+     */
+    public Map<String, Integer> getCallCounts() {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> count : this.callCounts.entrySet()) {
+            counts.put(count.getKey(), count.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the total number of requests received.
+     */
+    public int getTotalCallCount() {
+        int total = 0;
+        for (AtomicInteger count : this.callCounts.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /**
+     * Clears the request counts, for example after the adapter has connected.
+     */
+    public void resetCallCounts() {
+        this.callCounts.clear();
+    }
+
+    /**
+     * Gets the requests received which the server doesn't support. A test should fail if
+     * this isn't empty, as the adapter made a call the fake server can't answer the way
+     * a real server would.
+     */
+    public List<String> getUnsupportedRequests() {
+        synchronized (this.unsupportedRequests) {
+            return new ArrayList<String>(this.unsupportedRequests);
+        }
+    }
+
+    // Count a request by name.
+    private void count(String requestName) {
+        this.callCounts.putIfAbsent(requestName, new AtomicInteger());
+        this.callCounts.get(requestName).incrementAndGet();
+    }
+
+    // Wait for the configured latency before sending a response.
+    private void delay() {
+        long delayMillis = this.latencyMillis;
+        long jitterMillis = this.latencyJitterMillis;
+        if (jitterMillis > 0) {
+            synchronized (this.random) {
+                delayMillis += (long)(this.random.nextDouble() * (jitterMillis + 1));
+            }
+        }
+        if (delayMillis > 0) {
+            Uninterruptibles.sleepUninterruptibly(delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Answer a SOAP request to a web service, with a fault if it fails.
+    private void handleSoapRequest(HttpExchange exchange, byte[] requestBody, boolean isLocationService)
+        throws IOException {
+
+        SoapRequest request = SoapRequest.parse(requestBody);
+        count(request.getMethodName());
+        delay();
+        try {
+            byte[] response = isLocationService
+                ? this.locationService.handle(request)
+                : this.versionControlService.handle(request);
+            send(exchange, HttpURLConnection.HTTP_OK, SoapWriter.getContentType(request.getEnvelopeNamespace()),
+                response);
+        }
+        catch (FakeServerException ex) {
+            if (NotSupportedException.equals(ex.getExceptionName())) {
+                this.unsupportedRequests.add(request.getMethodName() + ": " + ex.getMessage());
+            }
+            send(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR,
+                SoapWriter.getContentType(request.getEnvelopeNamespace()),
+                SoapWriter.fault(request.getEnvelopeNamespace(), ex.getExceptionName(), ex.getMessage()));
+        }
+    }
+
+    // Send a response.
+    private static void send(HttpExchange exchange, int statusCode, String contentType, byte[] body)
+        throws IOException {
+
+        if (contentType != null) {
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+        }
+        exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            OutputStream responseStream = exchange.getResponseBody();
+            responseStream.write(body);
+            responseStream.close();
+        }
+    }
+
+    // Send a plain text response, for requests which aren't SOAP requests.
+    private static void sendText(HttpExchange exchange, int statusCode, String text) throws IOException {
+        send(exchange, statusCode, "text/plain; charset=utf-8", text.getBytes(Utf8));
+    }
+
+    // Answers each request from the web service it's sent to.
+    private class ExchangeHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                byte[] requestBody = ByteStreams.toByteArray(exchange.getRequestBody());
+                String path = exchange.getRequestURI().getPath();
+                if (isUnavailable) {
+                    delay();
+                    sendText(exchange, HttpURLConnection.HTTP_UNAVAILABLE, "The fake TFS server is unavailable.");
+                }
+                else if (path.endsWith(FakeLocationService.ServicePath)) {
+                    handleSoapRequest(exchange, requestBody, true);
+                }
+                else if (path.endsWith(FakeVersionControlService.RepositoryPath)) {
+                    handleSoapRequest(exchange, requestBody, false);
+                }
+                else if (path.endsWith(FakeVersionControlService.DownloadPath)) {
+                    count(DownloadRequestName);
+                    delay();
+                    byte[] content = versionControlService.download(exchange.getRequestURI().getRawQuery());
+                    send(exchange, HttpURLConnection.HTTP_OK, "application/octet-stream", content);
+                }
+                else if (path.endsWith(FakeVersionControlService.UploadPath)) {
+                    count(UploadRequestName);
+                    delay();
+                    versionControlService.upload(exchange.getRequestHeaders().getFirst("Content-Type"), requestBody);
+                    send(exchange, HttpURLConnection.HTTP_OK, null, new byte[0]);
+                }
+                else {
+                    String requestName = exchange.getRequestMethod() + " " + path;
+                    count(requestName);
+                    unsupportedRequests.add(requestName);
+                    sendText(exchange, HttpURLConnection.HTTP_NOT_FOUND, "No web service at " + path);
+                }
+            }
+            catch (FakeServerException ex) {
+                sendText(exchange, HttpURLConnection.HTTP_NOT_FOUND, ex.getMessage());
+            }
+            finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,800 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.tests.fakeserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.w3c.dom.Element;
+
+import com.google.common.io.ByteStreams;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.Change;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.ChangeRecord;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.ChangeRequest;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.Changeset;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.Conflict;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.ExtendedItem;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.Failure;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.GetOperation;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.ItemSpec;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.ItemVersion;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.PendingChange;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.VersionSpec;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.WorkingFolder;
+import com.microsoft.tfs.mathworksintegration.tests.fakeserver.FakeRepository.Workspace;
+
+/**
+ * The version control web services of a {@link FakeTfsServer}: the repository service,
+ * which reads and changes a {@link FakeRepository}, and the download and upload services
+ * which move file content.
+ * <p>
+ * Requests are answered one at a time, so each sees the repository as the previous one
+ * left it. Only the web methods the adapter and the SDK need for server workspaces are
+ * implemented; any other is answered with a fault.
+ */
+class FakeVersionControlService {
+
+    /**
+     * The path of the repository service, relative to the collection.
+     */
+    public static final String RepositoryPath = "/VersionControl/v1.0/repository.asmx";
+
+    /**
+     * The path of the download service, relative to the collection.
+     */
+    public static final String DownloadPath = "/VersionControl/v1.0/item.asmx";
+
+    /**
+     * The path of the upload service, relative to the collection.
+     */
+    public static final String UploadPath = "/VersionControl/v1.0/upload.asmx";
+
+    private static final Charset Latin1 = Charset.forName("ISO-8859-1");
+    private static final Charset Utf8 = Charset.forName("UTF-8");
+    private static final String ContentIdParameter = "sfid=";
+    private static final String ServerVersion = "10.0.40219.1";
+
+    private final FakeRepository repository;
+    private final String userName;
+    private final UUID repositoryId;
+    private final Map<String, byte[]> partialUploads;
+
+    /**
+     * Initializes a FakeVersionControlService instance.
+     * @param repository
+     *     The repository the service reads and changes.
+     * @param userName
+     *     The unique name of the user every request is authenticated as.
+     */
+    public FakeVersionControlService(FakeRepository repository, String userName) {
+        this.repository = repository;
+        this.userName = userName;
+        this.repositoryId = UUID.randomUUID();
+        this.partialUploads = new HashMap<String, byte[]>();
+    }
+
+    /**
+     * Answers a request to the repository service.
+     * @throws FakeServerException
+     *     If the request fails, or the web method isn't supported.
+     */
+    public byte[] handle(SoapRequest request) throws FakeServerException {
+        SoapWriter writer = new SoapWriter(request);
+        String method = request.getMethodName();
+        synchronized (this.repository) {
+            if ("QueryWorkspaces".equals(method)) {
+                queryWorkspaces(request, writer);
+            }
+            else if ("QueryWorkspace".equals(method)) {
+                writeWorkspace(writer, "QueryWorkspaceResult", getWorkspace(request, "workspaceName"));
+            }
+            else if ("CreateWorkspace".equals(method)) {
+                createWorkspace(request, writer);
+            }
+            else if ("UpdateWorkspace".equals(method)) {
+                updateWorkspace(request, writer);
+            }
+            else if ("DeleteWorkspace".equals(method)) {
+                this.repository.deleteWorkspace(request.getString("workspaceName"));
+            }
+            else if ("Get".equals(method)) {
+                get(request, writer);
+            }
+            else if ("UpdateLocalVersion".equals(method)) {
+                updateLocalVersion(request);
+            }
+            else if ("PendChanges".equals(method)) {
+                pendChanges(request, writer);
+            }
+            else if ("UndoPendingChanges".equals(method)) {
+                undoPendingChanges(request, writer);
+            }
+            else if ("QueryPendingSets".equals(method)) {
+                queryPendingSets(request, writer);
+            }
+            else if ("CheckIn".equals(method)) {
+                checkIn(request, writer);
+            }
+            else if ("QueryHistory".equals(method)) {
+                queryHistory(request, writer);
+            }
+            else if ("QueryItems".equals(method)) {
+                queryItems(request, writer);
+            }
+            else if ("QueryItemsExtended".equals(method)) {
+                queryItemsExtended(request, writer);
+            }
+            else if ("QueryConflicts".equals(method)) {
+                queryConflicts(request, writer);
+            }
+            else if ("Resolve".equals(method)) {
+                resolve(request, writer);
+            }
+            else if ("GetRepositoryProperties".equals(method)) {
+                writer.start("GetRepositoryPropertiesResult")
+                    .attribute("id", this.repositoryId)
+                    .attribute("lcset", this.repository.getLatestChangeset())
+                    .attribute("ver", ServerVersion)
+                    .end();
+            }
+            else if ("CheckAuthentication".equals(method)) {
+                writer.element("CheckAuthenticationResult", this.userName);
+            }
+            else if ("QueryCheckinNoteDefinition".equals(method)) {
+                writer.start("QueryCheckinNoteDefinitionResult").end();
+            }
+            else {
+                throw new FakeServerException("NotSupportedException", "The fake TFS server doesn't support "
+                    + method + ".");
+            }
+        }
+        return writer.finish();
+    }
+
+    /**
+     * Gets the content of a file version for a request to the download service.
+     * @param query
+     *     The query of the request, which is the download URL the repository service gave.
+     */
+    public byte[] download(String query) throws FakeServerException {
+        int contentId = -1;
+        for (String parameter : (query == null ? "" : query).split("&")) {
+            if (parameter.startsWith(ContentIdParameter)) {
+                contentId = Integer.parseInt(parameter.substring(ContentIdParameter.length()));
+            }
+        }
+        return this.repository.getContent(contentId);
+    }
+
+    /**
+     * Stores the content of a file for a request to the upload service. Content sent in
+     * several chunks is stored when the last chunk arrives.
+     * @param contentType
+     *     The content type of the request, which gives the multipart boundary.
+     * @param body
+     *     The multipart form of the request.
+     */
+    public void upload(String contentType, byte[] body) throws IOException, FakeServerException {
+        Map<String, byte[]> fields = new HashMap<String, byte[]>();
+        Map<String, String> fieldTypes = new HashMap<String, String>();
+        parseMultipart(getBoundary(contentType), body, fields, fieldTypes);
+
+        String serverItem = getField(fields, "item");
+        String workspaceName = getField(fields, "wsname");
+        byte[] content = fields.get("content");
+        if (serverItem == null || workspaceName == null || content == null) {
+            throw new FakeServerException("IncompleteUploadException", "The upload has no item, workspace or content.");
+        }
+        String fieldType = fieldTypes.get("content");
+        if (fieldType != null && fieldType.contains("gzip")) {
+            content = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(content)));
+        }
+
+        // The range is "bytes=first-last/length".
+        String range = getField(fields, "range");
+        long fileLength = content.length;
+        long firstByte = 0;
+        if (range != null && range.startsWith("bytes=")) {
+            String[] parts = range.substring("bytes=".length()).split("[-/]");
+            firstByte = Long.parseLong(parts[0].trim());
+            fileLength = Long.parseLong(parts[2].trim());
+        }
+
+        synchronized (this.repository) {
+            String uploadKey = workspaceName + ";" + serverItem;
+            byte[] file = this.partialUploads.get(uploadKey);
+            if (file == null || file.length != fileLength) {
+                file = new byte[(int)fileLength];
+            }
+            System.arraycopy(content, 0, file, (int)firstByte, content.length);
+            if (firstByte + content.length < fileLength) {
+                this.partialUploads.put(uploadKey, file);
+                return;
+            }
+            this.partialUploads.remove(uploadKey);
+            this.repository.upload(this.repository.getWorkspace(workspaceName), serverItem, file);
+        }
+    }
+
+    // Answer QueryWorkspaces with the workspaces on a computer.
+    private void queryWorkspaces(SoapRequest request, SoapWriter writer) {
+        String computer = request.getString("computer");
+        writer.start("QueryWorkspacesResult");
+        for (Workspace workspace : this.repository.getWorkspaces()) {
+            if (computer == null || computer.equalsIgnoreCase(workspace.computer)) {
+                writeWorkspace(writer, "Workspace", workspace);
+            }
+        }
+        writer.end();
+    }
+
+    // Answer CreateWorkspace.
+    private void createWorkspace(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        Element workspace = request.getElement("workspace");
+        String owner = SoapRequest.getAttribute(workspace, "owner");
+        Workspace created = this.repository.createWorkspace(
+            SoapRequest.getAttribute(workspace, "name"),
+            owner != null ? owner : this.userName,
+            SoapRequest.getAttribute(workspace, "computer"),
+            SoapRequest.getText(SoapRequest.getChild(workspace, "Comment")),
+            parseWorkingFolders(workspace));
+        writeWorkspace(writer, "CreateWorkspaceResult", created);
+    }
+
+    // Answer UpdateWorkspace.
+    private void updateWorkspace(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        Element workspace = request.getElement("newWorkspace");
+        Workspace updated = this.repository.updateWorkspace(
+            request.getString("oldWorkspaceName"),
+            SoapRequest.getAttribute(workspace, "name"),
+            SoapRequest.getAttribute(workspace, "computer"),
+            SoapRequest.getText(SoapRequest.getChild(workspace, "Comment")),
+            parseWorkingFolders(workspace));
+        writeWorkspace(writer, "UpdateWorkspaceResult", updated);
+    }
+
+    // Answer Get with the operations of each get request.
+    private void get(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        Workspace workspace = getWorkspace(request, "workspaceName");
+        boolean isForced = request.getBoolean("force");
+        boolean noGet = request.getBoolean("noGet");
+
+        writer.start("GetResult");
+        for (Element getRequest : request.getArray("requests")) {
+            Element itemSpec = SoapRequest.getChild(getRequest, "ItemSpec");
+            // A request without an item spec gets the whole workspace.
+            ItemSpec spec = itemSpec == null
+                ? new ItemSpec(FakeRepository.RootItem, FakeRepository.RecursionFull)
+                : parseItemSpec(itemSpec);
+            VersionSpec version = parseVersionSpec(SoapRequest.getChild(getRequest, "VersionSpec"));
+
+            writer.start("ArrayOfGetOperation");
+            for (GetOperation operation : this.repository.get(workspace, spec, version, isForced, noGet)) {
+                writeGetOperation(writer, operation);
+            }
+            writer.end();
+        }
+        writer.end();
+    }
+
+    // Answer UpdateLocalVersion.
+    private void updateLocalVersion(SoapRequest request) throws FakeServerException {
+        Workspace workspace = getWorkspace(request, "workspaceName");
+        for (Element update : request.getArray("updates")) {
+            this.repository.updateLocalVersion(workspace,
+                SoapRequest.getIntAttribute(update, "itemid", 0),
+                SoapRequest.getAttribute(update, "tlocal"),
+                SoapRequest.getIntAttribute(update, "lver", 0));
+        }
+    }
+
+    // Answer PendChanges.
+    private void pendChanges(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        Workspace workspace = getWorkspace(request, "workspaceName");
+        List<ChangeRequest> changes = new ArrayList<ChangeRequest>();
+        for (Element change : request.getArray("changes")) {
+            changes.add(new ChangeRequest(
+                SoapRequest.getAttribute(change, "req"),
+                parseItemSpec(SoapRequest.getChild(change, "item")),
+                SoapRequest.getAttribute(change, "target"),
+                SoapRequest.getAttribute(change, "lock"),
+                SoapRequest.getIntAttribute(change, "enc", -2),
+                SoapRequest.getAttribute(change, "type")));
+        }
+
+        List<Failure> failures = new ArrayList<Failure>();
+        List<GetOperation> operations = this.repository.pendChanges(workspace, changes, failures);
+        writeGetOperations(writer, "PendChangesResult", operations);
+        writeFailures(writer, failures);
+    }
+
+    // Answer UndoPendingChanges.
+    private void undoPendingChanges(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        Workspace workspace = getWorkspace(request, "workspaceName");
+        List<Failure> failures = new ArrayList<Failure>();
+        List<GetOperation> operations = new ArrayList<GetOperation>();
+        for (Element item : request.getArray("items")) {
+            operations.addAll(this.repository.undo(workspace, parseItemSpec(item), failures));
+        }
+        writeGetOperations(writer, "UndoPendingChangesResult", operations);
+        writeFailures(writer, failures);
+    }
+
+    // Answer QueryPendingSets with the pending changes of each workspace.
+    private void queryPendingSets(SoapRequest request, SoapWriter writer) {
+        String localWorkspaceName = request.getString("localWorkspaceName");
+        Workspace localWorkspace = null;
+        for (Workspace workspace : this.repository.getWorkspaces()) {
+            if (workspace.name.equalsIgnoreCase(localWorkspaceName)) {
+                localWorkspace = workspace;
+            }
+        }
+        List<ItemSpec> specs = new ArrayList<ItemSpec>();
+        for (Element itemSpec : request.getArray("itemSpecs")) {
+            specs.add(parseItemSpec(itemSpec));
+        }
+
+        Map<Workspace, List<PendingChange>> pendingSets = this.repository.queryPendingChanges(localWorkspace,
+            request.getString("queryWorkspaceName"), specs);
+        writer.start("QueryPendingSetsResult");
+        for (Map.Entry<Workspace, List<PendingChange>> pendingSet : pendingSets.entrySet()) {
+            Workspace workspace = pendingSet.getKey();
+            writer.start("PendingSet")
+                .attribute("computer", workspace.computer)
+                .attribute("name", workspace.name)
+                .attribute("owner", workspace.owner)
+                .attribute("ownerdisp", workspace.owner)
+                .attribute("type", "Workspace");
+            writer.start("PendingChanges");
+            for (PendingChange pendingChange : pendingSet.getValue()) {
+                writePendingChange(writer, workspace, pendingChange);
+            }
+            writer.end();
+            writer.end();
+        }
+        writer.end();
+        writeFailures(writer, Collections.<Failure>emptyList());
+    }
+
+    // Answer CheckIn.
+    private void checkIn(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        Workspace workspace = getWorkspace(request, "workspaceName");
+        Element info = request.getElement("info");
+        String owner = info == null ? null : SoapRequest.getAttribute(info, "owner");
+        String comment = info == null ? null : SoapRequest.getText(SoapRequest.getChild(info, "Comment"));
+
+        List<Failure> failures = new ArrayList<Failure>();
+        int changesetId = this.repository.checkIn(workspace, request.getStrings("serverItems"),
+            owner != null ? owner : this.userName, comment, failures);
+
+        writer.start("CheckInResult").attribute("cset", changesetId).attribute("date", new Date());
+        writer.start("UndoneServerItems").end();
+        writer.end();
+        writeFailures(writer, failures);
+    }
+
+    // Answer QueryHistory.
+    private void queryHistory(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        String workspaceName = request.getString("workspaceName");
+        Workspace workspace = workspaceName == null ? null : this.repository.getWorkspace(workspaceName);
+        Element versionFrom = request.getElement("versionFrom");
+        Element versionTo = request.getElement("versionTo");
+        int fromChangeset = versionFrom == null || SoapRequest.getText(versionFrom) == null
+            ? 1
+            : this.repository.getChangeset(parseVersionSpec(versionFrom));
+        int toChangeset = this.repository.getChangeset(parseVersionSpec(versionTo));
+
+        List<Changeset> changesets = this.repository.queryHistory(workspace,
+            parseItemSpec(request.getElement("itemSpec")), fromChangeset, toChangeset,
+            request.getInt("maxCount", Integer.MAX_VALUE), request.getBoolean("includeFiles"));
+        if (request.getBoolean("sortAscending")) {
+            Collections.reverse(changesets);
+        }
+
+        writer.start("QueryHistoryResult");
+        for (Changeset changeset : changesets) {
+            writeChangeset(writer, changeset);
+        }
+        writer.end();
+    }
+
+    // Answer QueryItems with an item set for each item spec.
+    private void queryItems(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        String workspaceName = request.getString("workspaceName");
+        Workspace workspace = workspaceName == null ? null : this.repository.getWorkspace(workspaceName);
+        VersionSpec version = parseVersionSpec(request.getElement("version"));
+        Boolean isFolder = parseItemType(request.getString("itemType"));
+
+        writer.start("QueryItemsResult");
+        for (Element item : request.getArray("items")) {
+            ItemSpec spec = parseItemSpec(item);
+            writer.start("ItemSet");
+            writer.element("QueryPath", spec.item);
+            writer.start("Items");
+            for (ItemVersion found : this.repository.queryItems(workspace, spec, version, isFolder)) {
+                writeItem(writer, found);
+            }
+            writer.end();
+            writer.end();
+        }
+        writer.end();
+    }
+
+    // Answer QueryItemsExtended with the items of each item spec.
+    private void queryItemsExtended(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        Workspace workspace = getWorkspace(request, "workspaceName");
+        Boolean isFolder = parseItemType(request.getString("itemType"));
+
+        writer.start("QueryItemsExtendedResult");
+        for (Element item : request.getArray("items")) {
+            writer.start("ArrayOfExtendedItem");
+            for (ExtendedItem extendedItem : this.repository.queryItemsExtended(workspace, parseItemSpec(item),
+                isFolder)) {
+                writeExtendedItem(writer, extendedItem);
+            }
+            writer.end();
+        }
+        writer.end();
+    }
+
+    // Answer QueryConflicts.
+    private void queryConflicts(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        Workspace workspace = getWorkspace(request, "workspaceName");
+        List<ItemSpec> specs = new ArrayList<ItemSpec>();
+        for (Element item : request.getArray("items")) {
+            specs.add(parseItemSpec(item));
+        }
+
+        writer.start("QueryConflictsResult");
+        for (Conflict conflict : this.repository.queryConflicts(workspace, specs)) {
+            writeConflict(writer, conflict, null);
+        }
+        writer.end();
+    }
+
+    // Answer Resolve. Accepting their version undoes the edit, so its operations are undo operations.
+    private void resolve(SoapRequest request, SoapWriter writer) throws FakeServerException {
+        Workspace workspace = getWorkspace(request, "workspaceName");
+        String resolution = request.getString("resolution");
+        List<GetOperation> operations = new ArrayList<GetOperation>();
+        Conflict conflict = this.repository.resolve(workspace, request.getInt("conflictId", 0), resolution,
+            operations);
+
+        writeGetOperations(writer, "ResolveResult", Collections.<GetOperation>emptyList());
+        writeGetOperations(writer, "undoOperations", operations);
+        writer.start("resolvedConflicts");
+        writeConflict(writer, conflict, resolution);
+        writer.end();
+    }
+
+    // Get the workspace named by a parameter.
+    private Workspace getWorkspace(SoapRequest request, String parameter) throws FakeServerException {
+        return this.repository.getWorkspace(request.getString(parameter));
+    }
+
+    // Write a workspace.
+    private static void writeWorkspace(SoapWriter writer, String name, Workspace workspace) {
+        writer.start(name)
+            .attribute("computer", workspace.computer)
+            .attribute("islocal", false)
+            .attribute("name", workspace.name)
+            .attribute("owner", workspace.owner)
+            .attribute("ownerdisp", workspace.owner);
+        writer.element("Comment", workspace.comment);
+        writer.start("Folders");
+        for (WorkingFolder folder : workspace.folders) {
+            writer.start("WorkingFolder")
+                .attribute("local", folder.isCloaked ? null : folder.localItem)
+                .attribute("item", folder.serverItem)
+                .attribute("type", folder.isCloaked ? "Cloak" : "Map")
+                .end();
+        }
+        writer.end();
+        writer.element("LastAccessDate", workspace.lastAccessDate);
+        writer.end();
+    }
+
+    // Write get operations in an array element.
+    private static void writeGetOperations(SoapWriter writer, String name, List<GetOperation> operations) {
+        writer.start(name);
+        for (GetOperation operation : operations) {
+            writeGetOperation(writer, operation);
+        }
+        writer.end();
+    }
+
+    // Write a get operation.
+    private static void writeGetOperation(SoapWriter writer, GetOperation operation) {
+        writer.start("GetOperation")
+            .attribute("type", operation.isFolder ? "Folder" : "File")
+            .attribute("itemid", operation.itemId)
+            .attribute("slocal", operation.sourceLocalItem)
+            .attribute("tlocal", operation.targetLocalItem)
+            .attribute("titem", operation.targetServerItem)
+            .attribute("sitem", operation.sourceServerItem)
+            .attribute("sver", operation.version)
+            .attribute("lver", operation.localVersion)
+            .attribute("did", operation.deletionId)
+            .attribute("chg", formatChanges(operation.changes))
+            .attribute("lock", operation.lockLevel)
+            .attribute("il", operation.isLatest)
+            .attribute("pcid", operation.pendingChangeId)
+            .attribute("cnflct", operation.hasConflict)
+            .attribute("durl", getDownloadUrl(operation.contentId))
+            .attribute("enc", operation.encoding);
+        writer.element("HashValue", operation.hash);
+        writer.end();
+    }
+
+    // Write a pending change.
+    private void writePendingChange(SoapWriter writer, Workspace workspace, PendingChange pendingChange) {
+        ItemVersion base = pendingChange.sourceServerItem == null
+            ? null
+            : this.repository.getVersion(pendingChange.itemId, pendingChange.version);
+        writer.start("PendingChange")
+            .attribute("chg", formatChanges(pendingChange.changes))
+            .attribute("date", pendingChange.date)
+            .attribute("did", 0)
+            .attribute("type", pendingChange.isFolder ? "Folder" : "File")
+            .attribute("enc", pendingChange.encoding)
+            .attribute("itemid", pendingChange.itemId)
+            .attribute("local", FakeRepository.toLocalItem(workspace, pendingChange.serverItem))
+            .attribute("lock", pendingChange.lockLevel)
+            .attribute("item", pendingChange.serverItem)
+            .attribute("srcitem", pendingChange.serverItem.equals(pendingChange.sourceServerItem)
+                ? null
+                : pendingChange.sourceServerItem)
+            .attribute("ver", pendingChange.version)
+            .attribute("pcid", pendingChange.pendingChangeId)
+            .attribute("durl", base == null ? null : getDownloadUrl(base.contentId));
+        writer.element("HashValue", base == null ? null : base.hash);
+        writer.end();
+    }
+
+    // Write an item version.
+    private static void writeItem(SoapWriter writer, ItemVersion item) {
+        writer.start("Item")
+            .attribute("cs", item.changeset)
+            .attribute("date", item.date)
+            .attribute("did", item.deletionId)
+            .attribute("type", item.isFolder ? "Folder" : "File")
+            .attribute("enc", item.encoding)
+            .attribute("itemid", item.itemId)
+            .attribute("item", item.serverItem)
+            .attribute("durl", getDownloadUrl(item.contentId))
+            .attribute("len", item.isFolder ? null : item.length);
+        writer.element("HashValue", item.hash);
+        writer.end();
+    }
+
+    // Write an extended item.
+    private static void writeExtendedItem(SoapWriter writer, ExtendedItem item) {
+        writer.start("ExtendedItem")
+            .attribute("lver", item.localVersion)
+            .attribute("did", item.deletionId)
+            .attribute("latest", item.latestVersion)
+            .attribute("type", item.isFolder ? "Folder" : "File")
+            .attribute("enc", item.encoding)
+            .attribute("itemid", item.itemId)
+            .attribute("local", item.localItem)
+            .attribute("titem", item.targetServerItem)
+            .attribute("sitem", item.sourceServerItem)
+            .attribute("chg", formatChanges(item.changes))
+            .attribute("ochg", item.hasOtherPendingChange)
+            .attribute("lock", item.lockLevel)
+            .attribute("lowner", item.lockOwner)
+            .end();
+    }
+
+    // Write a changeset with the changes it holds.
+    private static void writeChangeset(SoapWriter writer, Changeset changeset) {
+        writer.start("Changeset")
+            .attribute("cmtr", changeset.owner)
+            .attribute("date", changeset.date)
+            .attribute("cset", changeset.changesetId)
+            .attribute("owner", changeset.owner);
+        writer.element("Comment", changeset.comment);
+        writer.start("Changes");
+        for (ChangeRecord change : changeset.changes) {
+            writer.start("Change").attribute("type", formatChanges(change.changes));
+            writeItem(writer, change.item);
+            writer.end();
+        }
+        writer.end();
+        writer.end();
+    }
+
+    // Write a conflict, with the resolution it was resolved with or null if it's unresolved.
+    private void writeConflict(SoapWriter writer, Conflict conflict, String resolution) {
+        ItemVersion base = this.repository.getVersion(conflict.itemId, conflict.yourVersion);
+        writer.start("Conflict")
+            .attribute("cid", conflict.conflictId)
+            .attribute("ctype", "Get")
+            .attribute("yitemid", conflict.itemId)
+            .attribute("yver", conflict.yourVersion)
+            .attribute("ytype", "File")
+            .attribute("ychg", formatChanges(conflict.yourChanges))
+            .attribute("ysitem", conflict.yourServerItem)
+            .attribute("yenc", conflict.theirs.encoding)
+            .attribute("bitemid", conflict.itemId)
+            .attribute("bver", conflict.yourVersion)
+            .attribute("bsitem", base == null ? null : base.serverItem)
+            .attribute("benc", base == null ? null : base.encoding)
+            .attribute("bdurl", base == null ? null : getDownloadUrl(base.contentId))
+            .attribute("titemid", conflict.itemId)
+            .attribute("tver", conflict.theirs.changeset)
+            .attribute("tsitem", conflict.theirs.serverItem)
+            .attribute("ttype", "File")
+            .attribute("tenc", conflict.theirs.encoding)
+            .attribute("tdurl", getDownloadUrl(conflict.theirs.contentId))
+            .attribute("srclitem", conflict.localItem)
+            .attribute("tgtlitem", conflict.localItem)
+            .attribute("isresolved", resolution != null)
+            .attribute("res", resolution == null ? "None" : resolution)
+            .end();
+    }
+
+    // Write the failures of a request.
+    private static void writeFailures(SoapWriter writer, List<Failure> failures) {
+        writer.start("failures");
+        for (Failure failure : failures) {
+            writer.start("Failure")
+                .attribute("code", failure.code)
+                .attribute("sev", "Error")
+                .attribute("item", failure.item);
+            writer.element("Message", failure.message);
+            writer.end();
+        }
+        writer.end();
+    }
+
+    // Format change types as the web services do, as names separated by spaces.
+    private static String formatChanges(EnumSet<Change> changes) {
+        if (changes.isEmpty()) {
+            return "None";
+        }
+        StringBuilder formatted = new StringBuilder();
+        for (Change change : changes) {
+            if (formatted.length() > 0) {
+                formatted.append(' ');
+            }
+            formatted.append(change.name());
+        }
+        return formatted.toString();
+    }
+
+    // Get the download URL of stored content, or null if there is none.
+    private static String getDownloadUrl(int contentId) {
+        return contentId < 0 ? null : ContentIdParameter + contentId;
+    }
+
+    // Parse an item spec.
+    private static ItemSpec parseItemSpec(Element element) {
+        return new ItemSpec(SoapRequest.getAttribute(element, "item"), SoapRequest.getAttribute(element, "recurse"));
+    }
+
+    // Parse a version spec, which is the latest version if it's missing.
+    private static VersionSpec parseVersionSpec(Element element) {
+        String type = element == null ? null : SoapRequest.getType(element);
+        if (type == null) {
+            return new VersionSpec(FakeRepository.VersionLatest, 0, null, null);
+        }
+        String date = SoapRequest.getAttribute(element, "date");
+        return new VersionSpec(type,
+            SoapRequest.getIntAttribute(element, "cs", 0),
+            date == null ? null : DatatypeConverter.parseDateTime(date).getTime(),
+            SoapRequest.getAttribute(element, "name"));
+    }
+
+    // Parse an item type: whether to return only folders, only files, or both if null.
+    private static Boolean parseItemType(String itemType) {
+        if ("Folder".equals(itemType)) {
+            return Boolean.TRUE;
+        }
+        if ("File".equals(itemType)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    // Parse the working folders of a workspace.
+    private static List<WorkingFolder> parseWorkingFolders(Element workspace) {
+        List<WorkingFolder> folders = new ArrayList<WorkingFolder>();
+        for (Element folder : SoapRequest.getChildren(SoapRequest.getChild(workspace, "Folders"), "WorkingFolder")) {
+            folders.add(new WorkingFolder(
+                SoapRequest.getAttribute(folder, "item"),
+                SoapRequest.getAttribute(folder, "local"),
+                "Cloak".equals(SoapRequest.getAttribute(folder, "type"))));
+        }
+        return folders;
+    }
+
+    // Get the multipart boundary from a content type.
+    private static String getBoundary(String contentType) throws FakeServerException {
+        int boundaryIndex = contentType == null ? -1 : contentType.indexOf("boundary=");
+        if (boundaryIndex < 0) {
+            throw new FakeServerException("IncompleteUploadException", "The upload isn't a multipart form.");
+        }
+        String boundary = contentType.substring(boundaryIndex + "boundary=".length());
+        int end = boundary.indexOf(';');
+        boundary = end >= 0 ? boundary.substring(0, end) : boundary;
+        return boundary.replace("\"", "").trim();
+    }
+
+    // Parse the fields of a multipart form, with the content type of each field which has one.
+    private static void parseMultipart(String boundary, byte[] body, Map<String, byte[]> fields,
+        Map<String, String> fieldTypes) {
+
+        byte[] delimiter = ("--" + boundary).getBytes(Latin1);
+        byte[] headerEnd = "\r\n\r\n".getBytes(Latin1);
+        int partStart = indexOf(body, delimiter, 0);
+        while (partStart >= 0) {
+            int headersStart = partStart + delimiter.length + 2;
+            int nextPart = indexOf(body, delimiter, headersStart);
+            int contentStart = indexOf(body, headerEnd, headersStart);
+            if (nextPart < 0 || contentStart < 0 || contentStart > nextPart) {
+                break;
+            }
+
+            String name = null;
+            String type = null;
+            for (String header : new String(body, headersStart, contentStart - headersStart, Latin1).split("\r\n")) {
+                String lowerCaseHeader = header.toLowerCase();
+                if (lowerCaseHeader.startsWith("content-disposition:")) {
+                    int nameIndex = lowerCaseHeader.indexOf("name=\"");
+                    if (nameIndex >= 0) {
+                        int nameStart = nameIndex + "name=\"".length();
+                        name = header.substring(nameStart, header.indexOf('"', nameStart));
+                    }
+                }
+                else if (lowerCaseHeader.startsWith("content-type:")) {
+                    type = header.substring("content-type:".length()).trim();
+                }
+            }
+
+            // The content ends with the line break before the next delimiter.
+            int contentEnd = nextPart - 2;
+            if (name != null) {
+                byte[] content = new byte[Math.max(0, contentEnd - contentStart - headerEnd.length)];
+                System.arraycopy(body, contentStart + headerEnd.length, content, 0, content.length);
+                fields.put(name, content);
+                if (type != null) {
+                    fieldTypes.put(name, type);
+                }
+            }
+            partStart = nextPart;
+        }
+    }
+
+    // Get a text field of a multipart form, or null if it wasn't sent.
+    private static String getField(Map<String, byte[]> fields, String name) {
+        byte[] value = fields.get(name);
+        return value == null ? null : new String(value, Utf8);
+    }
+
+    // Find the first index of a byte sequence in an array at or after an index, or -1 if it isn't there.
+    private static int indexOf(byte[] array, byte[] sequence, int fromIndex) {
+        for (int i = fromIndex; i <= array.length - sequence.length; i++) {
+            boolean isMatch = true;
+            for (int j = 0; j < sequence.length && isMatch; j++) {
+                isMatch = array[i + j] == sequence[j];
+            }
+            if (isMatch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
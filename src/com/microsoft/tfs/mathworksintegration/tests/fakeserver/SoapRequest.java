@@ -0,0 +1,202 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.tests.fakeserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * A SOAP request received by a {@link FakeTfsServer}, giving access to the web method
+ * and its parameters by their local names, so the same code reads SOAP 1.1 and 1.2.
+ */
+class SoapRequest {
+
+    private final String envelopeNamespace;
+    private final Element method;
+
+    // Use parse to create a request.
+    private SoapRequest(String envelopeNamespace, Element method) {
+        this.envelopeNamespace = envelopeNamespace;
+        this.method = method;
+    }
+
+    /**
+     * Parses the body of a SOAP request.
+     * @param body
+     *     The XML of the request.
+     * @throws IOException
+     *     If the body isn't a SOAP envelope holding a web method.
+     */
+    public static SoapRequest parse(byte[] body) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(new ByteArrayInputStream(body));
+        }
+        catch (ParserConfigurationException | SAXException ex) {
+            throw new IOException("The request isn't valid XML.", ex);
+        }
+
+        Element envelope = document.getDocumentElement();
+        Element soapBody = getChild(envelope, "Body");
+        Element method = soapBody == null ? null : getFirstChild(soapBody);
+        if (method == null) {
+            throw new IOException("The request has no SOAP body.");
+        }
+        return new SoapRequest(envelope.getNamespaceURI(), method);
+    }
+
+    /**
+     * Gets the namespace of the SOAP envelope, which the response must use too.
+     */
+    public String getEnvelopeNamespace() {
+        return this.envelopeNamespace;
+    }
+
+    /**
+     * Gets the namespace of the web service.
+     */
+    public String getNamespace() {
+        return this.method.getNamespaceURI();
+    }
+
+    /**
+     * Gets the name of the web method.
+     */
+    public String getMethodName() {
+        return this.method.getLocalName();
+    }
+
+    /**
+     * Gets a parameter which holds other elements, or null if it wasn't sent.
+     */
+    public Element getElement(String parameter) {
+        return getChild(this.method, parameter);
+    }
+
+    /**
+     * Gets a string parameter, or null if it wasn't sent.
+     */
+    public String getString(String parameter) {
+        return getText(getElement(parameter));
+    }
+
+    /**
+     * Gets an integer parameter, or a default value if it wasn't sent.
+     */
+    public int getInt(String parameter, int defaultValue) {
+        String value = getString(parameter);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Gets a boolean parameter, which is false if it wasn't sent.
+     */
+    public boolean getBoolean(String parameter) {
+        return Boolean.parseBoolean(getString(parameter));
+    }
+
+    /**
+     * Gets the elements of an array parameter, which is empty if it wasn't sent.
+     */
+    public List<Element> getArray(String parameter) {
+        Element array = getElement(parameter);
+        return array == null ? new ArrayList<Element>() : getChildren(array, null);
+    }
+
+    /**
+     * Gets the values of a string array parameter.
+     */
+    public List<String> getStrings(String parameter) {
+        List<String> values = new ArrayList<String>();
+        for (Element element : getArray(parameter)) {
+            values.add(getText(element));
+        }
+        return values;
+    }
+
+    /**
+     * Gets the first child element of an element with a local name, or null if it has none.
+     */
+    public static Element getChild(Element parent, String localName) {
+        List<Element> children = getChildren(parent, localName);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    /**
+     * Gets the child elements of an element.
+     * @param parent
+     *     The parent element.
+     * @param localName
+     *     The local name of the children to return, or null for every child.
+     */
+    public static List<Element> getChildren(Element parent, String localName) {
+        List<Element> children = new ArrayList<Element>();
+        if (parent == null) {
+            return children;
+        }
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE
+                && (localName == null || localName.equals(child.getLocalName()))) {
+                children.add((Element)child);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Gets the text of an element, or null if the element is null or nil.
+     */
+    public static String getText(Element element) {
+        if (element == null || "true".equals(element.getAttributeNS(SoapWriter.XsiNamespace, "nil"))) {
+            return null;
+        }
+        return element.getTextContent();
+    }
+
+    /**
+     * Gets an attribute of an element, or null if it isn't set.
+     */
+    public static String getAttribute(Element element, String name) {
+        return element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+
+    /**
+     * Gets an integer attribute of an element, or a default value if it isn't set.
+     */
+    public static int getIntAttribute(Element element, String name, int defaultValue) {
+        String value = getAttribute(element, name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Gets the xsi:type of an element without its namespace prefix, or null if it has none.
+     */
+    public static String getType(Element element) {
+        String type = element.getAttributeNS(SoapWriter.XsiNamespace, "type");
+        if (type == null || type.isEmpty()) {
+            return null;
+        }
+        int prefixEnd = type.indexOf(':');
+        return prefixEnd >= 0 ? type.substring(prefixEnd + 1) : type;
+    }
+
+    // Gets the first child element of an element, or null if it has none.
+    private static Element getFirstChild(Element parent) {
+        List<Element> children = getChildren(parent, null);
+        return children.isEmpty() ? null : children.get(0);
+    }
+}
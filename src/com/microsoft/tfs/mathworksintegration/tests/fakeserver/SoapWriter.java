@@ -0,0 +1,237 @@
+// Copyright (c) Microsoft Corporation
+
+package com.microsoft.tfs.mathworksintegration.tests.fakeserver;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.TimeZone;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Writes the response to a {@link SoapRequest}, in the envelope version the request used.
+ * Elements are written in the web service's namespace, and null attributes are left out
+ * as the TFS server does.
+ */
+class SoapWriter {
+
+    /**
+     * The namespace of SOAP 1.2 envelopes.
+     */
+    public static final String Soap12Namespace = "http://www.w3.org/2003/05/soap-envelope";
+
+    /**
+     * The namespace of XML schema instance attributes such as xsi:type.
+     */
+    public static final String XsiNamespace = "http://www.w3.org/2001/XMLSchema-instance";
+
+    private static final Charset Utf8 = Charset.forName("UTF-8");
+
+    private final String envelopeNamespace;
+    private final StringBuilder xml;
+    private final Deque<String> openElements;
+    private boolean isTagOpen;
+
+    /**
+     * Initializes a SoapWriter instance, and starts the response element of a web method.
+     * @param request
+     *     The request being answered.
+     */
+    public SoapWriter(SoapRequest request) {
+        this.envelopeNamespace = request.getEnvelopeNamespace();
+        this.xml = new StringBuilder(4096);
+        this.openElements = new ArrayDeque<String>();
+        startEnvelope();
+        start(request.getMethodName() + "Response").attribute("xmlns", request.getNamespace());
+    }
+
+    // Use fault to create the writer of a fault.
+    private SoapWriter(String envelopeNamespace) {
+        this.envelopeNamespace = envelopeNamespace;
+        this.xml = new StringBuilder(1024);
+        this.openElements = new ArrayDeque<String>();
+        startEnvelope();
+    }
+
+    /**
+     * Writes a SOAP fault for a request, with the name of the TFS exception the SDK maps
+     * it to.
+     * @param envelopeNamespace
+     *     The envelope namespace of the request.
+     * @param exceptionName
+     *     The name of the server exception, such as WorkspaceNotFoundException.
+     * @param message
+     *     The message of the exception.
+     * @return The body of the response.
+     */
+    public static byte[] fault(String envelopeNamespace, String exceptionName, String message) {
+        SoapWriter writer = new SoapWriter(envelopeNamespace);
+        writer.start("soap:Fault");
+        if (writer.isSoap12()) {
+            writer.start("soap:Code").element("soap:Value", "soap:Receiver").end();
+            writer.start("soap:Reason").start("soap:Text").attribute("xml:lang", "en").text(message).end().end();
+            writer.start("soap:Detail");
+        }
+        else {
+            writer.element("faultcode", "soap:Server");
+            writer.element("faultstring", message);
+            writer.start("detail");
+        }
+        writer.attribute("ExceptionMessage", message).attribute("BaseExceptionName", exceptionName).end();
+        writer.end();
+        return writer.finish();
+    }
+
+    /**
+     * Gets the content type of the response.
+     */
+    public String getContentType() {
+        return getContentType(this.envelopeNamespace);
+    }
+
+    /**
+     * Gets the content type of a response in an envelope namespace.
+     */
+    public static String getContentType(String envelopeNamespace) {
+        return Soap12Namespace.equals(envelopeNamespace)
+            ? "application/soap+xml; charset=utf-8"
+            : "text/xml; charset=utf-8";
+    }
+
+    /**
+     * Starts an element. Attributes may be written until content is written.
+     */
+    public SoapWriter start(String name) {
+        closeTag();
+        this.xml.append('<').append(name);
+        this.openElements.push(name);
+        this.isTagOpen = true;
+        return this;
+    }
+
+    /**
+     * Writes an attribute of the element just started, unless the value is null.
+     */
+    public SoapWriter attribute(String name, Object value) {
+        if (value != null) {
+            this.xml.append(' ').append(name).append("=\"");
+            escape(format(value));
+            this.xml.append('"');
+        }
+        return this;
+    }
+
+    /**
+     * Writes text content.
+     */
+    public SoapWriter text(Object value) {
+        closeTag();
+        escape(format(value));
+        return this;
+    }
+
+    /**
+     * Writes an element holding text, unless the text is null.
+     */
+    public SoapWriter element(String name, Object value) {
+        if (value != null) {
+            start(name).text(value).end();
+        }
+        return this;
+    }
+
+    /**
+     * Ends the element most recently started.
+     */
+    public SoapWriter end() {
+        String name = this.openElements.pop();
+        if (this.isTagOpen) {
+            this.xml.append("/>");
+            this.isTagOpen = false;
+        }
+        else {
+            this.xml.append("</").append(name).append('>');
+        }
+        return this;
+    }
+
+    /**
+     * Ends every open element, and gets the body of the response.
+     */
+    public byte[] finish() {
+        while (!this.openElements.isEmpty()) {
+            end();
+        }
+        return this.xml.toString().getBytes(Utf8);
+    }
+
+    /**
+     * Formats a date as an XML schema dateTime in UTC.
+     */
+    public static String formatDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    // Whether the envelope is SOAP 1.2 rather than 1.1.
+    private boolean isSoap12() {
+        return Soap12Namespace.equals(this.envelopeNamespace);
+    }
+
+    // Start the envelope and its body.
+    private void startEnvelope() {
+        this.xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
+        start("soap:Envelope")
+            .attribute("xmlns:soap", this.envelopeNamespace)
+            .attribute("xmlns:xsi", XsiNamespace)
+            .attribute("xmlns:xsd", "http://www.w3.org/2001/XMLSchema");
+        start("soap:Body");
+    }
+
+    // Finish the start tag of the current element, if it's still open.
+    private void closeTag() {
+        if (this.isTagOpen) {
+            this.xml.append('>');
+            this.isTagOpen = false;
+        }
+    }
+
+    // Format a value as the TFS web services do.
+    private static String format(Object value) {
+        if (value instanceof Date) {
+            return formatDate((Date)value);
+        }
+        if (value instanceof byte[]) {
+            return DatatypeConverter.printBase64Binary((byte[])value);
+        }
+        return String.valueOf(value);
+    }
+
+    // Append text, escaping the characters XML reserves.
+    private void escape(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            switch (character) {
+                case '&':
+                    this.xml.append("&amp;");
+                    break;
+                case '<':
+                    this.xml.append("&lt;");
+                    break;
+                case '>':
+                    this.xml.append("&gt;");
+                    break;
+                case '"':
+                    this.xml.append("&quot;");
+                    break;
+                default:
+                    this.xml.append(character);
+                    break;
+            }
+        }
+    }
+}
@@ -8,6 +8,19 @@ fprintf('Getting user settings...\n\n');
 currentPath = mfilename('fullpath');
 [currentDir, ~, ~] = fileparts(currentPath);
 path = fullfile(currentDir, 'dist', 'TfsSettings.txt');
+
+% Keep any tuning settings after the first two lines.
+existingLines = readFileLines(path);
+tuningLines = existingLines(3:end);
+if numel(existingLines) >= 2
+    % Earlier versions of this script ended the file without a newline, so a setting
+    % appended to it may follow the on-premise flag on the same line.
+    appendedSetting = regexp(existingLines{2}, '^(?:true|false)(.+)$', 'tokens', 'once');
+    if ~isempty(appendedSetting)
+        tuningLines = [appendedSetting, tuningLines];
+    end
+end
+
 tfsSettingsFile = fopen(path, 'wt');
 
 defaultTfsUrl = input('Enter your default TFS project collection URL (ex: http://MyTfsServer:8080/tfs/DefaultCollection): ', 's');
@@ -16,9 +29,13 @@ fwrite(tfsSettingsFile, defaultTfsUrlFileLine, 'char');
 
 onPremWindowsServer = input('Are you using an on-premise TFS server with Windows credentials? [y/n]: ', 's');
 if (~isempty(onPremWindowsServer) && lower(onPremWindowsServer(1)) == 'y')
-    fwrite(tfsSettingsFile, 'true', 'char');
+    fwrite(tfsSettingsFile, sprintf('true\n'), 'char');
 else
-    fwrite(tfsSettingsFile, 'false', 'char');
+    fwrite(tfsSettingsFile, sprintf('false\n'), 'char');
+end
+
+for i = 1:numel(tuningLines)
+    fwrite(tfsSettingsFile, sprintf('%s\n', tuningLines{i}), 'char');
 end
 
 fclose(tfsSettingsFile);